@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.KeyPair;
 import java.security.KeyStore;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
@@ -93,6 +94,42 @@ public interface CertService {
 
     public KeyStore initializeUser(UserInfo userInfo, String keyPassword) throws CertException;
 
+    /**
+     * Same as {@link #initializeUser(UserInfo, String)}, generating the user key pair according to the supplied key
+     * parameters (RSA of a given size, or EC on a named curve).
+     *
+     * @since 7.3
+     */
+    public KeyStore initializeUser(UserInfo userInfo, String keyPassword, KeyParameters keyParameters)
+            throws CertException;
+
+    /**
+     * Generates a new key pair according to the supplied key parameters.
+     *
+     * @since 7.3
+     */
+    public KeyPair generateKeyPair(KeyParameters keyParameters) throws CertException;
+
+    /**
+     * Issues a certificate for a key generated by the user, from a PKCS#10 certification request signed with that key.
+     * The request is checked against the user information: its subject must be the one of the user, its only requested
+     * extension a subject alternative name holding the user email, and its key of the algorithm of the key parameters
+     * and, for RSA, at least of their size.
+     *
+     * @param csr the DER or PEM encoded certification request
+     * @since 7.3
+     */
+    public X509Certificate issueCertificate(UserInfo userInfo, byte[] csr, KeyParameters keyParameters)
+            throws CertException;
+
+    /**
+     * Issues a new certificate to a user for a key already certified, for instance to renew a certificate nearing
+     * expiry. The subject and email are taken from the current user information, the private key is not needed.
+     *
+     * @since 7.3
+     */
+    public X509Certificate reissueCertificate(UserInfo userInfo, PublicKey publicKey) throws CertException;
+
     /**
      * Wraps a certificate object into an OutputStream object secured by a keystore password
      * 
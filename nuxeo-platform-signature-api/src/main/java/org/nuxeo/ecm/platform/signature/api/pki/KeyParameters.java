@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.pki;
+
+/**
+ * Describes the key material generated for new user certificates: the key algorithm, its size or named curve, and the
+ * digest used when signing with that key.
+ * <p>
+ * Supported key algorithms are {@link #RSA} (sized by {@link #getKeySize()}) and {@link #EC} (defined by
+ * {@link #getCurve()}, e.g. {@code secp256r1} / {@code P-256}).
+ *
+ * @since 7.3
+ */
+public class KeyParameters {
+
+    public static final String RSA = "RSA";
+
+    public static final String EC = "EC";
+
+    public static final int DEFAULT_RSA_KEY_SIZE = 2048;
+
+    public static final String DEFAULT_CURVE = "secp256r1";
+
+    public static final String DEFAULT_DIGEST_ALGORITHM = "SHA256";
+
+    /**
+     * The defaults: RSA-2048 keys with SHA-256 digests. RSA-1024 keys are only generated when configured explicitly.
+     */
+    public static final KeyParameters DEFAULT = new KeyParameters(RSA, DEFAULT_RSA_KEY_SIZE, null,
+            DEFAULT_DIGEST_ALGORITHM);
+
+    private final String keyAlgorithm;
+
+    private final int keySize;
+
+    private final String curve;
+
+    private final String digestAlgorithm;
+
+    /**
+     * @param keyAlgorithm {@link #RSA} or {@link #EC} ({@code ECDSA} is accepted as an alias), defaults to RSA
+     * @param keySize the RSA modulus size, ignored for EC keys, defaults to {@link #DEFAULT_RSA_KEY_SIZE} when not
+     *            positive
+     * @param curve the EC named curve, ignored for RSA keys, defaults to {@link #DEFAULT_CURVE}
+     * @param digestAlgorithm the digest name without dash (SHA1, SHA256, SHA384, SHA512), defaults to SHA256
+     */
+    public KeyParameters(String keyAlgorithm, int keySize, String curve, String digestAlgorithm) {
+        this.keyAlgorithm = normalizeKeyAlgorithm(keyAlgorithm);
+        this.keySize = keySize > 0 ? keySize : DEFAULT_RSA_KEY_SIZE;
+        this.curve = curve == null || curve.trim().length() == 0 ? DEFAULT_CURVE : curve.trim();
+        this.digestAlgorithm = normalizeDigestAlgorithm(digestAlgorithm);
+    }
+
+    protected static String normalizeKeyAlgorithm(String keyAlgorithm) {
+        if (keyAlgorithm == null || keyAlgorithm.trim().length() == 0) {
+            return RSA;
+        }
+        String algorithm = keyAlgorithm.trim().toUpperCase();
+        if ("ECDSA".equals(algorithm)) {
+            return EC;
+        }
+        return algorithm;
+    }
+
+    protected static String normalizeDigestAlgorithm(String digestAlgorithm) {
+        if (digestAlgorithm == null || digestAlgorithm.trim().length() == 0) {
+            return DEFAULT_DIGEST_ALGORITHM;
+        }
+        return digestAlgorithm.trim().toUpperCase().replace("-", "");
+    }
+
+    /**
+     * Checks whether a JCA key algorithm name denotes an elliptic curve key (providers report either "EC" or "ECDSA").
+     */
+    public static boolean isEC(String keyAlgorithm) {
+        return EC.equals(normalizeKeyAlgorithm(keyAlgorithm));
+    }
+
+    /**
+     * Returns the JCA signature algorithm combining a digest and a key algorithm, e.g. {@code SHA256withECDSA}.
+     */
+    public static String getSignatureAlgorithm(String digestAlgorithm, String keyAlgorithm) {
+        return normalizeDigestAlgorithm(digestAlgorithm) + "with" + (isEC(keyAlgorithm) ? "ECDSA" : RSA);
+    }
+
+    /**
+     * Tells whether a JCA signature algorithm, e.g. {@code SHA256withECDSA} or {@code SHA256WithRSAEncryption}, signs
+     * with keys of the given algorithm.
+     */
+    public static boolean isSignatureAlgorithmFor(String signatureAlgorithm, String keyAlgorithm) {
+        String algorithm = signatureAlgorithm.toUpperCase();
+        int with = algorithm.indexOf("WITH");
+        if (with < 0) {
+            return false;
+        }
+        String signingKey = algorithm.substring(with + "WITH".length());
+        return signingKey.startsWith(isEC(keyAlgorithm) ? "ECDSA" : normalizeKeyAlgorithm(keyAlgorithm));
+    }
+
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public String getCurve() {
+        return curve;
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Tells whether these parameters generate RSA keys weaker than the default size.
+     */
+    public boolean isWeakerThanDefault() {
+        return RSA.equals(keyAlgorithm) && keySize < DEFAULT_RSA_KEY_SIZE;
+    }
+
+    /**
+     * Returns the JCA signature algorithm used with keys generated from these parameters.
+     */
+    public String getSignatureAlgorithm() {
+        return getSignatureAlgorithm(digestAlgorithm, keyAlgorithm);
+    }
+
+    @Override
+    public String toString() {
+        String size = isEC(keyAlgorithm) ? curve : String.valueOf(keySize);
+        return getClass().getSimpleName() + "(" + keyAlgorithm + "-" + size + "," + digestAlgorithm + ")";
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.pki;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * In-process OCSP (Online Certificate Status Protocol) responder for the certificates issued by the CAs of this
+ * module, the roots and their intermediate CAs.
+ * <p>
+ * Responses are signed ahead of time by the CA that issued the certificate, cached per certificate and refreshed
+ * before their {@code nextUpdate}, following the lightweight profile of RFC 5019: request nonces are ignored so that
+ * responses can be reused. A certificate issued by one of the CAs is reported {@code good} unless it is revoked.
+ *
+ * @since 7.3
+ */
+public interface OCSPService {
+
+    /**
+     * Answers an encoded OCSP request.
+     *
+     * @return the encoded OCSP response, which carries an error status for malformed requests
+     */
+    public byte[] getResponse(byte[] encodedRequest) throws CertException;
+
+    /**
+     * Returns the encoded OCSP response for a certificate issued by one of the CAs.
+     */
+    public byte[] getResponse(X509Certificate certificate) throws CertException;
+
+    /**
+     * Drops the cached responses for a serial number.
+     */
+    public void invalidate(BigInteger serialNumber);
+
+    /**
+     * Sets up a root service whose CAs sign the responses.
+     */
+    public void setRootService(RootService rootService) throws CertException;
+
+}
@@ -0,0 +1,114 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.pki;
+
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Keeps track of the certificates revoked by the CAs of this module, the roots and their intermediate CAs, and
+ * publishes them as CRLs (Certificate Revocation Lists), one per CA.
+ * <p>
+ * Revocations are persisted in the {@code certificaterevocation} directory and mirrored in an in-memory index keyed by
+ * issuer and serial number, so that revocation checks answer in constant time without any directory access. Issuers
+ * are designated by their key identifier in hexadecimal, as found in the authority key identifier of the certificates
+ * they issue.
+ *
+ * @since 7.3
+ */
+public interface RevocationService {
+
+    /**
+     * Records the revocation of a certificate issued by one of the CAs. Revoking an already revoked certificate keeps
+     * the original revocation date.
+     *
+     * @param certificate the certificate to revoke
+     * @param userID the owner of the certificate, kept for auditing
+     */
+    public void revokeCertificate(X509Certificate certificate, String userID) throws CertException;
+
+    /**
+     * Checks whether a certificate with the given serial number was revoked, whatever its issuer.
+     */
+    public boolean isRevoked(BigInteger serialNumber) throws CertException;
+
+    /**
+     * Checks whether the certificate with the given serial number issued by the given CA was revoked.
+     *
+     * @param issuerKeyIdentifier the hexadecimal key identifier of the issuer
+     */
+    public boolean isRevoked(String issuerKeyIdentifier, BigInteger serialNumber) throws CertException;
+
+    /**
+     * Checks whether the certificate was issued by one of the CAs and revoked.
+     */
+    public boolean isRevoked(X509Certificate certificate) throws CertException;
+
+    /**
+     * Returns the revocation date of a certificate with the given serial number, whatever its issuer, or {@code null}
+     * if it is not revoked.
+     */
+    public Date getRevocationDate(BigInteger serialNumber) throws CertException;
+
+    /**
+     * Returns the revocation date of the certificate with the given serial number issued by the given CA, or
+     * {@code null} if it is not revoked.
+     *
+     * @param issuerKeyIdentifier the hexadecimal key identifier of the issuer
+     */
+    public Date getRevocationDate(String issuerKeyIdentifier, BigInteger serialNumber) throws CertException;
+
+    /**
+     * Returns the number of revoked certificates.
+     */
+    public int getRevokedCount() throws CertException;
+
+    /**
+     * Returns a full CRL signed by the CA root. The CRL is regenerated only when revocations happened since the last
+     * one or when it gets close to its next update.
+     */
+    public X509CRL getCRL() throws CertException;
+
+    /**
+     * Returns a full CRL of the certificates revoked by a CA, signed by that CA, or {@code null} if it is not one of
+     * the CAs.
+     */
+    public X509CRL getCRL(X509Certificate issuer) throws CertException;
+
+    /**
+     * Returns a delta CRL listing the revocations that happened since the current full CRL of the CA root.
+     */
+    public X509CRL getDeltaCRL() throws CertException;
+
+    /**
+     * Returns a delta CRL listing the revocations by a CA that happened since its current full CRL, or {@code null} if
+     * it is not one of the CAs.
+     */
+    public X509CRL getDeltaCRL(X509Certificate issuer) throws CertException;
+
+    /**
+     * Sets up a root service whose CAs sign the CRLs.
+     */
+    public void setRootService(RootService rootService) throws CertException;
+
+    /**
+     * Rebuilds the in-memory index from the directory.
+     */
+    public void reload() throws CertException;
+
+}
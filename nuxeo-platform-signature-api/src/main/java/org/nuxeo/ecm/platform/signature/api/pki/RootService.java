@@ -18,6 +18,8 @@ package org.nuxeo.ecm.platform.signature.api.pki;
 
 import java.io.InputStream;
 import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Set;
 
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 
@@ -40,10 +42,64 @@ public interface RootService {
 
     public String getRootCertificateAlias();
 
+    /**
+     * The algorithm used by the root to sign issued certificates, or {@code null} to derive it from the root key.
+     *
+     * @since 7.3
+     */
+    public String getRootSignatureAlgorithm();
+
     public boolean isRootSetup();
 
     public byte[] getRootPublicCertificate() throws CertException;
 
+    /**
+     * Public certificate for the CA root, PEM encoded.
+     *
+     * @since 7.3
+     */
+    public byte[] getRootPublicCertificatePEM() throws CertException;
+
+    /**
+     * Returns the root private key together with the root certificate. Both always come from the same version of the
+     * root keystore, which may be replaced while the server runs; callers signing with the root should use this
+     * rather than reading the keystore themselves.
+     *
+     * @since 7.3
+     */
+    public KeyStore.PrivateKeyEntry getRootKeyEntry() throws CertException;
+
+    /**
+     * Returns the key and chain of the CA that should issue the next user certificate: one of the configured
+     * intermediate CAs in turn, or the root when there is none. The chain goes from the issuer up to the root.
+     *
+     * @since 7.3
+     */
+    public KeyStore.PrivateKeyEntry getIssuerKeyEntry() throws CertException;
+
+    /**
+     * Returns the chain of the CA that issued a certificate, from its issuer up to the root, or {@code null} if it was
+     * not issued by the root or one of the intermediate CAs. The array is shared and must not be modified.
+     *
+     * @since 7.3
+     */
+    public X509Certificate[] getIssuerChain(X509Certificate certificate) throws CertException;
+
+    /**
+     * Returns the root of a tenant, with its own key material and issuers, or this default root if the tenant is
+     * {@code null} or has no root of its own.
+     *
+     * @since 7.3
+     */
+    public RootService getTenantRoot(String tenant);
+
+    /**
+     * Returns the tenants having a root of their own.
+     *
+     * @since 7.3
+     */
+    public Set<String> getTenants();
+
     public InputStream getRootKeystoreIS() throws CertException;
 
     public void setRootKeyStore(KeyStore rootKeyStore);
@@ -57,4 +113,9 @@ public interface RootService {
     public void setRootKeyPassword(String rootKeyPassword);
 
     public void setRootCertificateAlias(String rootCertificateAlias);
+
+    /**
+     * @since 7.3
+     */
+    public void setRootSignatureAlgorithm(String rootSignatureAlgorithm);
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.pki;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Trusted roots and intermediate CAs, used to tell which signer certificates can be traced back to a trusted root.
+ * <p>
+ * The root and intermediate CAs of this module are always trusted, other ones are contributed as keystores.
+ *
+ * @since 7.3
+ */
+public interface TrustStoreService {
+
+    /**
+     * Returns the trusted CA certificate that issued a certificate, or {@code null} if it was not issued by a trusted
+     * CA.
+     */
+    X509Certificate findIssuer(X509Certificate certificate) throws CertException;
+
+    /**
+     * Returns the certification path of a certificate, from the certificate up to a trusted root.
+     *
+     * @param certificate the certificate
+     * @param date the date at which all the certificates of the path must be valid, or {@code null} to ignore their
+     *            validity periods
+     * @return the path, or {@code null} if the certificate cannot be traced back to a trusted root
+     */
+    X509Certificate[] getCertificationPath(X509Certificate certificate, Date date) throws CertException;
+
+    /**
+     * Tells whether a certificate can be traced back to a trusted root, whatever the validity periods, and was not
+     * revoked by the CA of this module.
+     */
+    boolean isTrusted(X509Certificate certificate) throws CertException;
+
+}
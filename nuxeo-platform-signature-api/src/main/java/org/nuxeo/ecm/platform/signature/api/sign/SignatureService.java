@@ -108,7 +108,8 @@ public interface SignatureService {
     /**
      * Finds the signing status for the document.
      * <p>
-     * A signature user is determined according to its email.
+     * A signature user is determined by the fingerprint of the certificates issued here, or by its email for the
+     * other certificates issued by a trusted CA.
      *
      * @param doc the document
      * @return the signing status
@@ -162,6 +163,20 @@ public interface SignatureService {
     Blob signPDF(Blob pdfBlob, DocumentModel user, String userKeyPassword, String reason) throws SignException,
             ClientException;
 
+    /**
+     * Signs a PDF document with an organizational seal instead of a user certificate. The seal key is unlocked once
+     * from the configuration, so no password is required.
+     *
+     * @param pdfBlob the blob containing the PDF to sign
+     * @param sealId the seal to sign with, or {@code null} for the only one configured
+     * @param reason the signing reason, or {@code null} for the reason configured for the seal
+     * @return a blob containing the signed PDF
+     * @throws SignException
+     * @throws ClientException
+     * @since 7.3
+     */
+    Blob sealPDF(Blob pdfBlob, String sealId, String reason) throws SignException, ClientException;
+
     /**
      * Returns a list of certificates associated with a given document.
      *
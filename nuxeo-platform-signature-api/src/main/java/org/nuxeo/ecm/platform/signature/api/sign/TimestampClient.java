@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.sign;
+
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+
+/**
+ * Client of an RFC 3161 Time Stamping Authority, used to timestamp signature values.
+ * <p>
+ * Implementations are shared by all signing threads and must be thread-safe.
+ *
+ * @since 7.3
+ */
+public interface TimestampClient {
+
+    /**
+     * Requests a timestamp token for a digest.
+     *
+     * @param digest the digest of the timestamped data
+     * @param digestAlgorithm the digest name (SHA1, SHA256, SHA384, SHA512)
+     * @return the encoded TimeStampToken (a CMS ContentInfo), or {@code null} if the timestamp was skipped
+     * @throws SignException if no timestamp could be obtained
+     */
+    public byte[] getTimeStampToken(byte[] digest, String digestAlgorithm) throws SignException;
+
+}
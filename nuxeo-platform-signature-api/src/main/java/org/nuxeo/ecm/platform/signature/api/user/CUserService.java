@@ -16,11 +16,17 @@
  */
 package org.nuxeo.ecm.platform.signature.api.user;
 
+import java.math.BigInteger;
 import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
 
 /**
  * High-level user certificate and keystore operations. These services help retrieving certificates, keystores and other
@@ -41,6 +47,19 @@ public interface CUserService {
     public DocumentModel createCertificate(DocumentModel user, String userKeyPassword) throws CertException,
             ClientException;
 
+    /**
+     * Issues a user certificate from a PKCS#10 certification request made by the user with a key of their own, and
+     * persists it in the directory. The key never reaches the server, so the certificate cannot be used to sign on the
+     * server.
+     *
+     * @param csr the DER or PEM encoded certification request
+     * @return the issued certificate
+     * @see org.nuxeo.ecm.platform.signature.api.pki.CertService#issueCertificate
+     * @since 7.3
+     */
+    public X509Certificate createCertificateFromRequest(DocumentModel user, byte[] csr) throws CertException,
+            ClientException;
+
     /**
      * Retrieves a UserInfo object containing information needed for certificate generation.
      *
@@ -50,6 +69,13 @@ public interface CUserService {
      */
     public UserInfo getUserInfo(DocumentModel userModel) throws CertException;
 
+    /**
+     * Returns the configured parameters used to generate new user keys and to sign with them.
+     *
+     * @since 7.3
+     */
+    public KeyParameters getKeyParameters();
+
     /**
      * Returns simplified textual representation of a certificate's contents.
      *
@@ -69,6 +95,49 @@ public interface CUserService {
      */
     public KeyStore getUserKeystore(String userID, String userKeyPassword) throws CertException, ClientException;
 
+    /**
+     * Retrieves the user private key and certificate from the directory, without loading a whole keystore when the
+     * key is stored as PKCS#8.
+     *
+     * @since 7.3
+     */
+    public KeyStore.PrivateKeyEntry getUserKeyEntry(String userID, String userKeyPassword) throws CertException,
+            ClientException;
+
+    /**
+     * Returns the public data of a user certificate, or {@code null} if the user has none. Served from memory for
+     * users looked up recently.
+     *
+     * @since 7.3
+     */
+    public PublicCertificateInfo getPublicCertificateInfo(String userID) throws CertException, ClientException;
+
+    /**
+     * Finds the user a certificate was issued to, for instance a certificate found in a signed PDF.
+     *
+     * @return the public data of the certificate, or {@code null} if it is not a current user certificate
+     * @since 7.3
+     */
+    public PublicCertificateInfo findPublicCertificateInfo(X509Certificate certificate) throws CertException,
+            ClientException;
+
+    /**
+     * Finds the user certificate having a serial number.
+     *
+     * @return the public data of the certificate, or {@code null} if there is none
+     * @since 7.3
+     */
+    public PublicCertificateInfo findPublicCertificateInfo(BigInteger serialNumber) throws CertException,
+            ClientException;
+
+    /**
+     * Finds the user certificates issued to an email address, ignoring case.
+     *
+     * @since 7.3
+     */
+    public List<PublicCertificateInfo> findPublicCertificateInfosByEmail(String email) throws CertException,
+            ClientException;
+
     /**
      * Retrieves a user certificate from the directory.
      *
@@ -78,6 +147,24 @@ public interface CUserService {
      */
     public DocumentModel getCertificate(String userID) throws ClientException;
 
+    /**
+     * Retrieves the certificates of several users at once, with a single directory session.
+     *
+     * @return the certificate document models of the users having one, by user ID, in the order of the given IDs
+     * @since 7.3
+     */
+    public Map<String, DocumentModel> getCertificates(Collection<String> userIDs) throws ClientException;
+
+    /**
+     * Returns the public data of the certificates of several users, reading the users not cached with a single
+     * directory session.
+     *
+     * @return the public data of the users having a certificate, by user ID, in the order of the given IDs
+     * @since 7.3
+     */
+    public Map<String, PublicCertificateInfo> getPublicCertificateInfos(Collection<String> userIDs)
+            throws CertException, ClientException;
+
     /**
      * Retrieves the public root certificate.
      *
@@ -105,6 +192,7 @@ public interface CUserService {
      * <li>a keystore (which was saved as a field in the directory entry)
      * <li>a private key and a public certificate (which were contained in the keystore)
      * </ul>
+     * The certificate is revoked first, so that signatures made with it are no longer trusted.
      *
      * @param user
      * @throws CertException
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.api.user;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * Public data of a user certificate, readable without the user key password.
+ *
+ * @since 7.3
+ */
+public class PublicCertificateInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String userID;
+
+    private final String subjectDN;
+
+    private final BigInteger serialNumber;
+
+    private final String fingerprint;
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    /**
+     * @param fingerprint lowercase hexadecimal SHA-256 digest of the DER certificate
+     */
+    public PublicCertificateInfo(String userID, String subjectDN, BigInteger serialNumber, String fingerprint,
+            Date notBefore, Date notAfter) {
+        this.userID = userID;
+        this.subjectDN = subjectDN;
+        this.serialNumber = serialNumber;
+        this.fingerprint = fingerprint;
+        this.notBefore = notBefore.getTime();
+        this.notAfter = notAfter.getTime();
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    public String getSubjectDN() {
+        return subjectDN;
+    }
+
+    public BigInteger getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Date getNotBefore() {
+        return new Date(notBefore);
+    }
+
+    public Date getNotAfter() {
+        return new Date(notAfter);
+    }
+
+    public boolean isValid(Date date) {
+        return date.getTime() >= notBefore && date.getTime() <= notAfter;
+    }
+
+    @Override
+    public String toString() {
+        return subjectDN + " valid till: " + getNotAfter();
+    }
+
+}
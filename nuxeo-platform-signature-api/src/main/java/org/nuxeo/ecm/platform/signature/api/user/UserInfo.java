@@ -44,6 +44,8 @@ public class UserInfo {
 
     private X500Principal x500Principal;
 
+    private String tenant;
+
     /**
      * The fields provided as a parameter to the constructor. Must be a full set of all the fields as present in the
      * CNField enum.
@@ -95,6 +97,22 @@ public class UserInfo {
         return x500Principal;
     }
 
+    /**
+     * The tenant whose CA root issues the user certificates, or {@code null} for the default root.
+     *
+     * @since 7.3
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
     public String toString() {
         return this.getUserFields().get(CNField.UserID) + " " + this.getUserFields().get(CNField.CN);
     }
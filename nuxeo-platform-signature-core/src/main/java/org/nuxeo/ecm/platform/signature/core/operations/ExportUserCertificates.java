@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.CertificateArchive;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Exports the user certificates and keys as an archive for {@link RestoreUserCertificates}, or only the public
+ * certificates as a PEM bundle.
+ *
+ * @since 7.3
+ */
+@Operation(id = ExportUserCertificates.ID, category = Constants.CAT_SERVICES, label = "Export user certificates",
+        description = "Exports the user certificates and keys, or only the public certificates as PEM.")
+public class ExportUserCertificates {
+
+    public static final String ID = "Services.ExportUserCertificates";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "publicOnly", required = false, description = "Exports the public certificates as PEM.")
+    protected boolean publicOnly = false;
+
+    @Param(name = "pageSize", required = false)
+    protected int pageSize = CertificateArchive.DEFAULT_PAGE_SIZE;
+
+    @OperationMethod
+    public Blob run() throws ClientException, IOException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new ClientException("Only administrators can export user certificates");
+        }
+        CUserServiceImpl cUserService = (CUserServiceImpl) Framework.getLocalService(CUserService.class);
+        CertificateArchive archive = cUserService.newCertificateArchive();
+        archive.setPageSize(pageSize);
+        File file = File.createTempFile("certificates-", publicOnly ? ".pem" : ".nka");
+        Blob blob;
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (publicOnly) {
+                Writer writer = new OutputStreamWriter(out, "US-ASCII");
+                archive.exportPublicCertificates(writer);
+                blob = Blobs.createBlob(file, "application/x-pem-file");
+                blob.setFilename("certificates.pem");
+            } else {
+                archive.export(out);
+                blob = Blobs.createBlob(file, "application/octet-stream");
+                blob.setFilename("certificates.nka");
+            }
+        } finally {
+            out.close();
+        }
+        Framework.trackFile(file, blob);
+        return blob;
+    }
+
+}
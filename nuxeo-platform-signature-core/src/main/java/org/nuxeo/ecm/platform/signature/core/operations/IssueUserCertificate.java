@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+
+/**
+ * Issues a user certificate from a PKCS#10 certification request, so that the user key is generated by the client and
+ * never sent to the server. Returns the DER certificate.
+ *
+ * @since 7.3
+ */
+@Operation(id = IssueUserCertificate.ID, category = Constants.CAT_SERVICES, label = "Issue user certificate",
+        description = "Issues a user certificate from the input PKCS#10 certification request, DER or PEM encoded.")
+public class IssueUserCertificate {
+
+    public static final String ID = "Services.IssueUserCertificate";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected UserManager userManager;
+
+    @Context
+    protected CUserService cUserService;
+
+    @Param(name = "username", required = false, description = "The user to issue the certificate to, the current "
+            + "user by default.")
+    protected String username;
+
+    @OperationMethod
+    public Blob run(Blob csr) throws ClientException, IOException {
+        NuxeoPrincipal principal = (NuxeoPrincipal) session.getPrincipal();
+        String userID = username == null ? principal.getName() : username;
+        if (!userID.equals(principal.getName()) && !principal.isAdministrator()) {
+            throw new ClientException("Only administrators can request certificates for other users");
+        }
+        DocumentModel user = userManager.getUserModel(userID);
+        if (user == null) {
+            throw new ClientException("Unknown user: " + userID);
+        }
+        X509Certificate certificate = cUserService.createCertificateFromRequest(user, csr.getByteArray());
+        Blob blob;
+        try {
+            blob = Blobs.createBlob(certificate.getEncoded(), "application/pkix-cert");
+        } catch (CertificateEncodingException e) {
+            throw new CertException(e);
+        }
+        blob.setFilename(userID + ".cer");
+        return blob;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.KeyMigration;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Converts the user keystores stored before 7.3 to encrypted PKCS#8 keys. Returns the migration progress as text, or
+ * the progress of the running migration if there is one.
+ *
+ * @since 7.3
+ */
+@Operation(id = MigrateUserKeys.ID, category = Constants.CAT_SERVICES, label = "Migrate user keys",
+        description = "Converts the stored user keystores to encrypted PKCS#8 keys.")
+public class MigrateUserKeys {
+
+    public static final String ID = "Services.MigrateUserKeys";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "dryRun", required = false, description = "Converts without saving.")
+    protected boolean dryRun = false;
+
+    @Param(name = "threads", required = false)
+    protected int threads = 2;
+
+    @Param(name = "pageSize", required = false)
+    protected int pageSize = 100;
+
+    @Param(name = "batchSize", required = false)
+    protected int batchSize = 20;
+
+    @Param(name = "maxRate", required = false, description = "Maximum entries per second, 0 for no limit.")
+    protected int maxRate = 0;
+
+    @OperationMethod
+    public Blob run() throws ClientException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new ClientException("Only administrators can migrate user keys");
+        }
+        CUserServiceImpl cUserService = (CUserServiceImpl) Framework.getLocalService(CUserService.class);
+        KeyMigration running = cUserService.getKeyMigration();
+        if (running != null) {
+            return Blobs.createBlob(running.getProgress().toString());
+        }
+        KeyMigration migration = cUserService.newKeyMigration();
+        migration.setDryRun(dryRun);
+        migration.setThreads(threads);
+        migration.setPageSize(pageSize);
+        migration.setBatchSize(batchSize);
+        migration.setMaxRate(maxRate);
+        if (!cUserService.runKeyMigration(migration)) {
+            return Blobs.createBlob("Another migration is running");
+        }
+        return Blobs.createBlob(migration.getProgress().toString());
+    }
+
+}
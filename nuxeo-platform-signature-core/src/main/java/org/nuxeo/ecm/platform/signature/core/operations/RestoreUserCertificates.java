@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.CertificateArchive;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Restores the user certificates and keys of an archive written by {@link ExportUserCertificates}. Returns the
+ * restore counts as text.
+ *
+ * @since 7.3
+ */
+@Operation(id = RestoreUserCertificates.ID, category = Constants.CAT_SERVICES, label = "Restore user certificates",
+        description = "Restores the user certificates and keys of an archive.")
+public class RestoreUserCertificates {
+
+    public static final String ID = "Services.RestoreUserCertificates";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "overwrite", required = false, description = "Replaces the certificates of existing users.")
+    protected boolean overwrite = false;
+
+    @OperationMethod
+    public Blob run(Blob archive) throws ClientException, IOException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new ClientException("Only administrators can restore user certificates");
+        }
+        CUserServiceImpl cUserService = (CUserServiceImpl) Framework.getLocalService(CUserService.class);
+        CertificateArchive.RestoreResult result;
+        InputStream in = archive.getStream();
+        try {
+            result = cUserService.restoreCertificates(in, overwrite);
+        } finally {
+            in.close();
+        }
+        return Blobs.createBlob(result.toString());
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.RootRollover;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Reissues from the current root the user certificates issued by a root since replaced. Returns the rollover report as
+ * text, or the report of the running rollover if there is one.
+ *
+ * @since 7.3
+ */
+@Operation(id = RolloverUserCertificates.ID, category = Constants.CAT_SERVICES, label = "Rollover user certificates",
+        description = "Reissues from the current root the user certificates issued by a replaced root.")
+public class RolloverUserCertificates {
+
+    public static final String ID = "Services.RolloverUserCertificates";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "threads", required = false)
+    protected int threads = 4;
+
+    @Param(name = "pageSize", required = false)
+    protected int pageSize = 100;
+
+    @Param(name = "maxRate", required = false, description = "Maximum certificates per second, 0 for no limit.")
+    protected int maxRate = 0;
+
+    @Param(name = "stop", required = false, description = "Stops the running rollover after its current page.")
+    protected boolean stop = false;
+
+    @OperationMethod
+    public Blob run() throws ClientException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new ClientException("Only administrators can rollover user certificates");
+        }
+        CUserServiceImpl cUserService = (CUserServiceImpl) Framework.getLocalService(CUserService.class);
+        RootRollover running = cUserService.getRootRollover();
+        if (running != null) {
+            if (stop) {
+                running.stop();
+            }
+            return Blobs.createBlob(running.getReport().toString());
+        }
+        if (stop) {
+            return Blobs.createBlob("No rollover is running");
+        }
+        RootRollover rollover = cUserService.newRootRollover();
+        rollover.setThreads(threads);
+        rollover.setPageSize(pageSize);
+        rollover.setMaxRate(maxRate);
+        if (!cUserService.runRootRollover(rollover)) {
+            return Blobs.createBlob("Another rollover is running");
+        }
+        return Blobs.createBlob(rollover.getReport().toString());
+    }
+
+}
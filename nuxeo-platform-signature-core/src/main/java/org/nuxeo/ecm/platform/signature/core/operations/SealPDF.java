@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.operations;
+
+import java.util.Collections;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.signature.api.sign.SignatureService;
+import org.nuxeo.ecm.platform.signature.core.sign.Seal;
+import org.nuxeo.ecm.platform.signature.core.sign.SignatureServiceImpl;
+
+/**
+ * Signs the input PDF with an organizational seal. Allowed to administrators and to the members of the groups
+ * configured for the seal.
+ *
+ * @since 7.3
+ */
+@Operation(id = SealPDF.ID, category = Constants.CAT_SERVICES, label = "Seal PDF",
+        description = "Applies the digital signature of an organizational seal to the input PDF.")
+public class SealPDF {
+
+    public static final String ID = "Services.SealPDF";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected SignatureService signatureService;
+
+    @Param(name = "seal", required = false, description = "The seal id, optional if only one seal is configured.")
+    protected String seal;
+
+    @Param(name = "reason", required = false, description = "Signature reason, by default the one of the seal.")
+    protected String reason;
+
+    @OperationMethod
+    public Blob run(Blob blob) throws ClientException {
+        NuxeoPrincipal principal = (NuxeoPrincipal) session.getPrincipal();
+        if (!principal.isAdministrator()) {
+            Seal sealToUse = ((SignatureServiceImpl) signatureService).getSeal(seal);
+            if (Collections.disjoint(principal.getAllGroups(), sealToUse.getGroups())) {
+                throw new ClientException("Not allowed to use seal " + sealToUse.getId());
+            }
+        }
+        return signatureService.sealPDF(blob, seal, reason);
+    }
+
+}
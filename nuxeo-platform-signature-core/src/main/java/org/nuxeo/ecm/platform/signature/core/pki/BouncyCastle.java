@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * Registers the BouncyCastle security provider when it is first needed rather than when the signature components are
+ * loaded, so that nodes that never sign do not pay for it at startup.
+ *
+ * @since 7.3
+ */
+public final class BouncyCastle {
+
+    public static final String PROVIDER = "BC";
+
+    private static volatile boolean registered;
+
+    private BouncyCastle() {
+    }
+
+    /**
+     * Registers the provider unless it already is. Cheap once done.
+     */
+    public static void register() {
+        if (registered) {
+            return;
+        }
+        synchronized (BouncyCastle.class) {
+            if (!registered) {
+                if (Security.getProvider(PROVIDER) == null) {
+                    MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+                    Timer.Context context = registry.timer(
+                            MetricRegistry.name("nuxeo", "signature", "provider", "register")).time();
+                    try {
+                        Security.addProvider(new BouncyCastleProvider());
+                    } finally {
+                        context.stop();
+                    }
+                }
+                registered = true;
+            }
+        }
+    }
+
+}
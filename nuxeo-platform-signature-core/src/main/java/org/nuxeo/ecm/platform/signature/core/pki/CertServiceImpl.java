@@ -20,7 +20,9 @@ package org.nuxeo.ecm.platform.signature.core.pki;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -30,25 +32,35 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Security;
+import java.security.SecureRandom;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.security.auth.x500.X500Principal;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Set;
 import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.pkcs.Attribute;
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.pkcs.CertificationRequestInfo;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
@@ -58,19 +70,23 @@ import org.bouncycastle.asn1.x509.KeyPurposeId;
 import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.X509Extension;
 import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.PKCS10CertificationRequest;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import org.bouncycastle.x509.X509V3CertificateGenerator;
 import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
 import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+import org.nuxeo.common.utils.Base64;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
 import org.nuxeo.ecm.platform.signature.api.pki.RootService;
 import org.nuxeo.ecm.platform.signature.api.user.AliasType;
 import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
 import org.nuxeo.ecm.platform.signature.api.user.CNField;
 import org.nuxeo.ecm.platform.signature.api.user.UserInfo;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
 
 /**
@@ -80,6 +96,8 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
 
     protected RootService rootService;
 
+    protected ValidityDescriptor validity = new ValidityDescriptor();
+
     private static final Log LOG = LogFactory.getLog(CertServiceImpl.class);
 
     @Override
@@ -87,46 +105,76 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         this.rootService = rootService;
     }
 
-    protected X509Certificate rootCertificate;
+    private static final String BC_PROVIDER = "BC";
 
-    private static final int CERTIFICATE_DURATION_IN_MONTHS = 12;
+    private static final String KEYSTORE_TYPE = "JKS";
 
-    private static final String CERT_SIGNATURE_ALGORITHM = "SHA256WithRSAEncryption";
+    private static final String PEM_BOUNDARY = "-----";
 
-    private static final String KEY_ALGORITHM = "RSA";
+    /** Random bits of a serial number, unique across the nodes of a cluster without coordination. */
+    private static final int SERIAL_NUMBER_BITS = 64;
 
-    private static final int KEY_SIZE = 1024;
+    private static final SecureRandom serialNumberRandom = new SecureRandom();
 
-    private static final String KEYSTORE_TYPE = "JKS";
+    protected X509Certificate createCertificateFromCSR(PKCS10CertificationRequest csr) throws CertException {
+        return createCertificateFromCSR(csr, getRootService());
+    }
 
-    static {
-        if (Security.getProvider("BC") == null) {
-            Security.addProvider(new BouncyCastleProvider());
+    /**
+     * @param root the root of the tenant issuing the certificate
+     * @since 7.3
+     */
+    protected X509Certificate createCertificateFromCSR(PKCS10CertificationRequest csr, RootService root)
+            throws CertException {
+        BouncyCastle.register();
+        try {
+            X500Principal subject = new X500Principal(csr.getCertificationRequestInfo().getSubject().getEncoded());
+            return createCertificate(subject, csr.getPublicKey(BC_PROVIDER),
+                    csr.getCertificationRequestInfo().getAttributes(), root);
+        } catch (IOException e) {
+            throw new CertException(e);
+        } catch (InvalidKeyException e) {
+            throw new CertException(e);
+        } catch (NoSuchProviderException e) {
+            throw new CertException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
         }
     }
 
-    protected X509Certificate createCertificateFromCSR(PKCS10CertificationRequest csr) throws CertException {
+    /**
+     * Issues a certificate for a public key.
+     *
+     * @param attributes the attributes of a certification request, whose extension requests are copied to the
+     *            certificate
+     * @param root the root of the tenant issuing the certificate
+     * @since 7.3
+     */
+    protected X509Certificate createCertificate(X500Principal subject, PublicKey publicKey, ASN1Set attributes,
+            RootService root) throws CertException {
         X509Certificate cert;
         try {
+            // the root itself, or one of the intermediate CAs in turn
+            KeyStore.PrivateKeyEntry issuerKeyEntry = root.getIssuerKeyEntry();
+            X509Certificate issuerCertificate = (X509Certificate) issuerKeyEntry.getCertificate();
             X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
-            certGen.setSerialNumber(BigInteger.valueOf(System.currentTimeMillis()));
-            certGen.setIssuerDN(getRootCertificate().getIssuerX500Principal());
-            certGen.setSubjectDN(csr.getCertificationRequestInfo().getSubject());
+            certGen.setSerialNumber(nextSerialNumber());
+            certGen.setIssuerDN(issuerCertificate.getSubjectX500Principal());
+            certGen.setSubjectDN(subject);
             certGen.setNotBefore(getCertStartDate());
             certGen.setNotAfter(getCertEndDate());
-            certGen.setPublicKey(csr.getPublicKey("BC"));
-            certGen.setSignatureAlgorithm(CERT_SIGNATURE_ALGORITHM);
+            certGen.setPublicKey(publicKey);
+            certGen.setSignatureAlgorithm(getIssuerSignatureAlgorithm(root, issuerKeyEntry.getPrivateKey()));
             certGen.addExtension(X509Extensions.SubjectKeyIdentifier, false,
-                    new SubjectKeyIdentifierStructure(csr.getPublicKey("BC")));
+                    new SubjectKeyIdentifierStructure(publicKey));
             certGen.addExtension(X509Extensions.AuthorityKeyIdentifier, false, new AuthorityKeyIdentifierStructure(
-                    getRootCertificate()));
+                    issuerCertificate));
             certGen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(false));
             certGen.addExtension(X509Extensions.KeyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
             certGen.addExtension(X509Extensions.ExtendedKeyUsage, true, new ExtendedKeyUsage(
                     KeyPurposeId.id_kp_serverAuth));
 
-            ASN1Set attributes = csr.getCertificationRequestInfo().getAttributes();
-            for (int i = 0; i != attributes.size(); i++) {
+            for (int i = 0; attributes != null && i != attributes.size(); i++) {
                 Attribute attr = Attribute.getInstance(attributes.getObjectAt(i));
                 if (attr.getAttrType().equals(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest)) {
                     X509Extensions extensions = X509Extensions.getInstance(attr.getAttrValues().getObjectAt(0));
@@ -140,9 +188,7 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
                 }
             }
 
-            KeyPair rootKeyPair = getKeyPair(rootService.getRootKeyStore(), rootService.getRootKeyAlias(),
-                    rootService.getRootCertificateAlias(), rootService.getRootKeyPassword());
-            cert = certGen.generate(rootKeyPair.getPrivate(), "BC");
+            cert = certGen.generate(issuerKeyEntry.getPrivateKey(), BC_PROVIDER);
         } catch (CertificateParsingException e) {
             throw new CertException(e);
         } catch (CertificateEncodingException e) {
@@ -162,13 +208,35 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         return cert;
     }
 
+    /**
+     * Returns a new positive serial number of 64 random bits. Serials must be unique per issuer for revocation, and
+     * random serials need no coordination between the nodes issuing certificates.
+     *
+     * @since 7.3
+     */
+    protected static BigInteger nextSerialNumber() {
+        BigInteger serial;
+        do {
+            serial = new BigInteger(SERIAL_NUMBER_BITS, serialNumberRandom);
+        } while (serial.signum() == 0);
+        return serial;
+    }
+
+    /**
+     * Returns the algorithm used by a CA of the given root to sign certificates: the one configured on the root when
+     * it fits the key of the CA, which may be an intermediate with another key algorithm, otherwise SHA-256 combined
+     * with the algorithm of the CA key.
+     *
+     * @param root the root of the tenant issuing the certificate
+     * @since 7.3
+     */
+    protected String getIssuerSignatureAlgorithm(RootService root, PrivateKey issuerKey) {
+        return IssuerKey.getSignatureAlgorithm(root.getRootSignatureAlgorithm(), issuerKey);
+    }
+
     @Override
     public X509Certificate getRootCertificate() throws CertException {
-        if (rootCertificate == null) {
-            rootCertificate = getCertificate(getRootService().getRootKeyStore(),
-                    getRootService().getRootCertificateAlias());
-        }
-        return rootCertificate;
+        return (X509Certificate) getRootService().getRootKeyEntry().getCertificate();
     }
 
     protected Date getCertStartDate() {
@@ -178,12 +246,43 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
 
     protected Date getCertEndDate() {
         Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.MONTH, CERTIFICATE_DURATION_IN_MONTHS);
+        cal.add(Calendar.MONTH, validity.getMonths());
+        if (validity.getJitterDays() > 0) {
+            // spreads the expiry of certificates issued together
+            cal.add(Calendar.MINUTE, -ThreadLocalRandom.current().nextInt(validity.getJitterDays() * 24 * 60));
+        }
         return cal.getTime();
     }
 
+    /**
+     * @since 7.3
+     */
+    public ValidityDescriptor getValidity() {
+        return validity;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public void setValidity(ValidityDescriptor validity) {
+        this.validity = validity;
+    }
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (contribution instanceof ValidityDescriptor) {
+            validity = (ValidityDescriptor) contribution;
+        }
+    }
+
     @Override
     public KeyStore initializeUser(UserInfo userInfo, String suppliedPassword) throws CertException {
+        return initializeUser(userInfo, suppliedPassword, KeyParameters.DEFAULT);
+    }
+
+    @Override
+    public KeyStore initializeUser(UserInfo userInfo, String suppliedPassword, KeyParameters keyParameters)
+            throws CertException {
         char[] password = suppliedPassword.toCharArray();
         KeyStore ks = null;
         String userName = userInfo.getUserFields().get(CNField.UserID);
@@ -191,12 +290,10 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         try {
             ks = java.security.KeyStore.getInstance(KEYSTORE_TYPE);
             ks.load(null, password);
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance(KEY_ALGORITHM);
-            keyGen.initialize(KEY_SIZE);
-            KeyPair keyPair = keyGen.genKeyPair();
-            java.security.cert.Certificate[] chain = { getRootCertificate() };
+            KeyPair keyPair = generateKeyPair(keyParameters);
+            java.security.cert.Certificate[] chain = { getRootService(userInfo).getRootKeyEntry().getCertificate() };
             ks.setKeyEntry(keystoreAlias.getId(AliasType.KEY), keyPair.getPrivate(), password, chain);
-            X509Certificate cert = getCertificate(keyPair, userInfo);
+            X509Certificate cert = getCertificate(keyPair, userInfo, keyParameters);
             ks.setCertificateEntry(keystoreAlias.getId(AliasType.CERT), cert);
         } catch (CertificateException e) {
             throw new CertException(e);
@@ -210,6 +307,189 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         return ks;
     }
 
+    @Override
+    public KeyPair generateKeyPair(KeyParameters keyParameters) throws CertException {
+        BouncyCastle.register();
+        String keyAlgorithm = keyParameters.getKeyAlgorithm();
+        try {
+            KeyPairGenerator keyGen;
+            if (KeyParameters.RSA.equals(keyAlgorithm)) {
+                keyGen = KeyPairGenerator.getInstance(KeyParameters.RSA);
+                keyGen.initialize(keyParameters.getKeySize());
+            } else if (KeyParameters.EC.equals(keyAlgorithm)) {
+                keyGen = KeyPairGenerator.getInstance(KeyParameters.EC, BC_PROVIDER);
+                keyGen.initialize(new ECGenParameterSpec(keyParameters.getCurve()));
+            } else {
+                // Ed25519 and other EdDSA keys cannot be used by the PDF signature stack (iText 2.1 / BC jdk15)
+                throw new CertException("Unsupported key algorithm: " + keyAlgorithm);
+            }
+            return keyGen.genKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
+        } catch (NoSuchProviderException e) {
+            throw new CertException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new CertException("Invalid curve: " + keyParameters.getCurve(), e);
+        }
+    }
+
+    @Override
+    public X509Certificate issueCertificate(UserInfo userInfo, byte[] csr, KeyParameters keyParameters)
+            throws CertException {
+        BouncyCastle.register();
+        PKCS10CertificationRequest request = decodeCSR(csr);
+        checkCSR(request, userInfo, keyParameters);
+        X509Certificate certificate = createCertificateFromCSR(request, getRootService(userInfo));
+        LOG.info("Certificate issued from a request for: " + userInfo.getUserFields().get(CNField.UserID));
+        return certificate;
+    }
+
+    /**
+     * Parses a DER or PEM encoded PKCS#10 certification request.
+     *
+     * @since 7.3
+     */
+    protected static PKCS10CertificationRequest decodeCSR(byte[] csr) throws CertException {
+        byte[] der = csr;
+        String text;
+        try {
+            text = new String(csr, "US-ASCII").trim();
+        } catch (UnsupportedEncodingException e) {
+            throw new CertException(e);
+        }
+        if (text.startsWith(PEM_BOUNDARY)) {
+            StringBuilder base64 = new StringBuilder(text.length());
+            for (String line : text.split("\n")) {
+                line = line.trim();
+                // boundaries and headers
+                if (!line.startsWith(PEM_BOUNDARY) && line.indexOf(':') < 0) {
+                    base64.append(line);
+                }
+            }
+            der = Base64.decode(base64.toString());
+        }
+        try {
+            return new PKCS10CertificationRequest(der);
+        } catch (IllegalArgumentException e) {
+            throw new CertException("Invalid certification request", e);
+        } catch (ClassCastException e) {
+            throw new CertException("Invalid certification request", e);
+        }
+    }
+
+    /**
+     * Checks that a certification request is signed by its key and that it only asks for what the user may get.
+     *
+     * @since 7.3
+     */
+    protected void checkCSR(PKCS10CertificationRequest csr, UserInfo userInfo, KeyParameters keyParameters)
+            throws CertException {
+        PublicKey publicKey;
+        try {
+            publicKey = csr.getPublicKey(BC_PROVIDER);
+            if (!csr.verify(BC_PROVIDER)) {
+                throw new CertException("The certification request is not signed by its key");
+            }
+        } catch (InvalidKeyException e) {
+            throw new CertException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
+        } catch (NoSuchProviderException e) {
+            throw new CertException(e);
+        } catch (java.security.SignatureException e) {
+            throw new CertException(e);
+        }
+        CertificationRequestInfo info = csr.getCertificationRequestInfo();
+        X500Principal subject;
+        try {
+            subject = new X500Principal(info.getSubject().getEncoded());
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+        if (!subject.equals(userInfo.getX500Principal())) {
+            throw new CertException("The certification request subject " + subject + " is not the user one: "
+                    + userInfo.getX500Principal());
+        }
+        String email = userInfo.getUserFields().get(CNField.Email);
+        if (email == null || !email.equalsIgnoreCase(getRequestedEmail(info))) {
+            throw new CertException("The certification request email is not the user one: " + email);
+        }
+        checkKey(publicKey, keyParameters);
+    }
+
+    /**
+     * Returns the email of the subject alternative name requested by a certification request, rejecting any other
+     * requested extension.
+     */
+    protected static String getRequestedEmail(CertificationRequestInfo info) throws CertException {
+        String email = null;
+        ASN1Set attributes = info.getAttributes();
+        for (int i = 0; attributes != null && i < attributes.size(); i++) {
+            Attribute attr = Attribute.getInstance(attributes.getObjectAt(i));
+            if (!attr.getAttrType().equals(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest)) {
+                // not copied to the certificate
+                continue;
+            }
+            X509Extensions extensions = X509Extensions.getInstance(attr.getAttrValues().getObjectAt(0));
+            @SuppressWarnings("rawtypes")
+            Enumeration e = extensions.oids();
+            while (e.hasMoreElements()) {
+                DERObjectIdentifier oid = (DERObjectIdentifier) e.nextElement();
+                if (!X509Extensions.SubjectAlternativeName.equals(oid)) {
+                    // requested extensions are copied as is, a user must not make itself a CA
+                    throw new CertException("Extension not allowed in a certification request: " + oid.getId());
+                }
+                GeneralName[] names;
+                try {
+                    names = GeneralNames.getInstance(
+                            ASN1Object.fromByteArray(extensions.getExtension(oid).getValue().getOctets())).getNames();
+                } catch (IOException ioe) {
+                    throw new CertException(ioe);
+                }
+                if (names.length != 1 || names[0].getTagNo() != GeneralName.rfc822Name) {
+                    throw new CertException("The subject alternative name must only hold the user email");
+                }
+                email = names[0].getName().toString();
+            }
+        }
+        return email;
+    }
+
+    protected static void checkKey(PublicKey publicKey, KeyParameters keyParameters) throws CertException {
+        if (KeyParameters.RSA.equals(keyParameters.getKeyAlgorithm())) {
+            if (!(publicKey instanceof RSAPublicKey)) {
+                throw new CertException("Expected an RSA key, got: " + publicKey.getAlgorithm());
+            }
+            int keySize = ((RSAPublicKey) publicKey).getModulus().bitLength();
+            if (keySize < keyParameters.getKeySize()) {
+                throw new CertException("RSA key too short: " + keySize + " bits, at least "
+                        + keyParameters.getKeySize() + " expected");
+            }
+        } else if (!(publicKey instanceof ECPublicKey)) {
+            throw new CertException("Expected an EC key, got: " + publicKey.getAlgorithm());
+        } else if (!isOnCurve((ECPublicKey) publicKey, keyParameters.getCurve())) {
+            throw new CertException("EC key not on the " + keyParameters.getCurve() + " curve");
+        }
+    }
+
+    /**
+     * Tells whether an EC key uses the given named curve, compared by order and generator since keys do not always
+     * carry the name of their curve.
+     *
+     * @since 7.3
+     */
+    protected static boolean isOnCurve(ECPublicKey publicKey, String curveName) {
+        ECNamedCurveParameterSpec curve = ECNamedCurveTable.getParameterSpec(curveName);
+        ECParameterSpec params = publicKey.getParams();
+        if (curve == null || params == null) {
+            return false;
+        }
+        ECPoint generator = params.getGenerator();
+        return params.getOrder().equals(curve.getN())
+                && generator.getAffineX().equals(curve.getG().getX().toBigInteger())
+                && generator.getAffineY().equals(curve.getG().getY().toBigInteger());
+    }
+
     @Override
     public KeyPair getKeyPair(KeyStore ks, String keyAlias, String certAlias, String keyPassword) throws CertException {
         KeyPair keyPair = null;
@@ -254,30 +534,29 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
     }
 
     protected X509Certificate getCertificate(KeyPair keyPair, UserInfo userInfo) throws CertException {
-        PKCS10CertificationRequest csr = (PKCS10CertificationRequest) generateCSR(keyPair, userInfo);
-        X509Certificate certificate = createCertificateFromCSR(csr);
+        return getCertificate(keyPair, userInfo, KeyParameters.DEFAULT);
+    }
+
+    protected X509Certificate getCertificate(KeyPair keyPair, UserInfo userInfo, KeyParameters keyParameters)
+            throws CertException {
+        PKCS10CertificationRequest csr = (PKCS10CertificationRequest) generateCSR(keyPair, userInfo, keyParameters);
+        X509Certificate certificate = createCertificateFromCSR(csr, getRootService(userInfo));
         return certificate;
     }
 
     protected CertificationRequest generateCSR(KeyPair keyPair, UserInfo userInfo) throws CertException {
+        return generateCSR(keyPair, userInfo, KeyParameters.DEFAULT);
+    }
 
+    protected CertificationRequest generateCSR(KeyPair keyPair, UserInfo userInfo, KeyParameters keyParameters)
+            throws CertException {
+        BouncyCastle.register();
         CertificationRequest csr;
-
-        GeneralNames subjectAltName = new GeneralNames(new GeneralName(GeneralName.rfc822Name,
-                userInfo.getUserFields().get(CNField.Email)));
-
-        Vector<DERObjectIdentifier> objectIdentifiers = new Vector<DERObjectIdentifier>();
-        Vector<X509Extension> extensionValues = new Vector<X509Extension>();
-
-        objectIdentifiers.add(X509Extensions.SubjectAlternativeName);
-        extensionValues.add(new X509Extension(false, new DEROctetString(subjectAltName)));
-
-        X509Extensions extensions = new X509Extensions(objectIdentifiers, extensionValues);
-
-        Attribute attribute = new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(extensions));
         try {
-            csr = new PKCS10CertificationRequest(CERT_SIGNATURE_ALGORITHM, userInfo.getX500Principal(),
-                    keyPair.getPublic(), new DERSet(attribute), keyPair.getPrivate());
+            String signatureAlgorithm = KeyParameters.getSignatureAlgorithm(keyParameters.getDigestAlgorithm(),
+                    keyPair.getPrivate().getAlgorithm());
+            csr = new PKCS10CertificationRequest(signatureAlgorithm, userInfo.getX500Principal(), keyPair.getPublic(),
+                    getUserAttributes(userInfo), keyPair.getPrivate(), BC_PROVIDER);
         } catch (InvalidKeyException e) {
             throw new CertException(e);
         } catch (NoSuchAlgorithmException e) {
@@ -292,6 +571,35 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         return csr;
     }
 
+    /**
+     * Returns the certification request attributes of a user: the extension request for the subject alternative name
+     * holding the user email.
+     *
+     * @since 7.3
+     */
+    protected static ASN1Set getUserAttributes(UserInfo userInfo) {
+        GeneralNames subjectAltName = new GeneralNames(new GeneralName(GeneralName.rfc822Name,
+                userInfo.getUserFields().get(CNField.Email)));
+
+        Vector<DERObjectIdentifier> objectIdentifiers = new Vector<DERObjectIdentifier>();
+        Vector<X509Extension> extensionValues = new Vector<X509Extension>();
+
+        objectIdentifiers.add(X509Extensions.SubjectAlternativeName);
+        extensionValues.add(new X509Extension(false, new DEROctetString(subjectAltName)));
+
+        X509Extensions extensions = new X509Extensions(objectIdentifiers, extensionValues);
+
+        Attribute attribute = new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(extensions));
+        return new DERSet(attribute);
+    }
+
+    @Override
+    public X509Certificate reissueCertificate(UserInfo userInfo, PublicKey publicKey) throws CertException {
+        BouncyCastle.register();
+        return createCertificate(userInfo.getX500Principal(), publicKey, getUserAttributes(userInfo),
+                getRootService(userInfo));
+    }
+
     @Override
     public KeyStore getKeyStore(InputStream keystoreIS, String password) throws CertException {
         KeyStore ks;
@@ -361,4 +669,13 @@ public class CertServiceImpl extends DefaultComponent implements CertService {
         }
         return rootService;
     }
+
+    /**
+     * Returns the root of the tenant of a user.
+     *
+     * @since 7.3
+     */
+    protected RootService getRootService(UserInfo userInfo) throws CertException {
+        return getRootService().getTenantRoot(userInfo.getTenant());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Compact storage of a user key: the private key as a PKCS#8 EncryptedPrivateKeyInfo, followed by the DER
+ * certificate.
+ *
+ * <pre>
+ * UserKey ::= SEQUENCE {
+ *   version INTEGER (1),
+ *   privateKey EncryptedPrivateKeyInfo,
+ *   certificate Certificate }
+ * </pre>
+ *
+ * The key is encrypted with PBES2 (PBKDF2 with HMAC-SHA1 and AES-256-CBC, RFC 8018), so it can be read by standard
+ * tools. The certificate can be read without the password. Unlike a JKS keystore, there is no integrity pass over the
+ * whole container and the KDF cost is configurable.
+ *
+ * @since 7.3
+ */
+public class EncryptedKeyContainer {
+
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_ITERATIONS = 2048;
+
+    protected static final int SALT_LENGTH = 16;
+
+    protected static final int AES_KEY_LENGTH = 32;
+
+    protected static final int AES_BLOCK_SIZE = 16;
+
+    protected static final String BC_PROVIDER = "BC";
+
+    protected static final SecureRandom RANDOM = new SecureRandom();
+
+    protected final EncryptedPrivateKeyInfo encryptedPrivateKeyInfo;
+
+    protected final X509Certificate certificate;
+
+    static {
+        BouncyCastle.register();
+    }
+
+    protected EncryptedKeyContainer(EncryptedPrivateKeyInfo encryptedPrivateKeyInfo, X509Certificate certificate) {
+        this.encryptedPrivateKeyInfo = encryptedPrivateKeyInfo;
+        this.certificate = certificate;
+    }
+
+    /**
+     * Encrypts a private key with a password.
+     *
+     * @param iterations the PBKDF2 iteration count
+     */
+    public static EncryptedKeyContainer create(PrivateKey privateKey, X509Certificate certificate, char[] password,
+            int iterations) throws CertException {
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[AES_BLOCK_SIZE];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(iv);
+        byte[] encrypted = crypt(true, privateKey.getEncoded(), password, salt, iterations, iv);
+
+        ASN1EncodableVector kdfParams = new ASN1EncodableVector();
+        kdfParams.add(new DEROctetString(salt));
+        kdfParams.add(new DERInteger(iterations));
+        ASN1EncodableVector pbes2Params = new ASN1EncodableVector();
+        pbes2Params.add(new AlgorithmIdentifier(PKCSObjectIdentifiers.id_PBKDF2, new DERSequence(kdfParams)));
+        pbes2Params.add(new AlgorithmIdentifier(NISTObjectIdentifiers.id_aes256_CBC, new DEROctetString(iv)));
+        AlgorithmIdentifier algorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.id_PBES2, new DERSequence(
+                pbes2Params));
+        return new EncryptedKeyContainer(new EncryptedPrivateKeyInfo(algorithm, encrypted), certificate);
+    }
+
+    /**
+     * Parses an encoded container. The private key is not decrypted.
+     */
+    public static EncryptedKeyContainer decode(byte[] encoded) throws CertException {
+        try {
+            ASN1Sequence seq = ASN1Sequence.getInstance(ASN1Object.fromByteArray(encoded));
+            int version = DERInteger.getInstance(seq.getObjectAt(0)).getValue().intValue();
+            if (version != VERSION) {
+                throw new CertException("Unsupported key container version: " + version);
+            }
+            EncryptedPrivateKeyInfo encryptedPrivateKeyInfo = EncryptedPrivateKeyInfo.getInstance(seq.getObjectAt(1));
+            byte[] certificateBytes = seq.getObjectAt(2).getDERObject().getEncoded();
+            X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                    new ByteArrayInputStream(certificateBytes));
+            return new EncryptedKeyContainer(encryptedPrivateKeyInfo, certificate);
+        } catch (IOException e) {
+            throw new CertException("Invalid key container", e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException("Invalid key container", e);
+        } catch (IllegalArgumentException e) {
+            throw new CertException("Invalid key container", e);
+        }
+    }
+
+    public byte[] getEncoded() throws CertException {
+        try {
+            ASN1EncodableVector v = new ASN1EncodableVector();
+            v.add(new DERInteger(VERSION));
+            v.add(encryptedPrivateKeyInfo);
+            v.add(ASN1Object.fromByteArray(certificate.getEncoded()));
+            return new DERSequence(v).getEncoded();
+        } catch (IOException e) {
+            throw new CertException(e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Returns a container of the same encrypted key with another certificate, for instance a renewed one. The key is
+     * not decrypted.
+     */
+    public EncryptedKeyContainer withCertificate(X509Certificate certificate) {
+        return new EncryptedKeyContainer(encryptedPrivateKeyInfo, certificate);
+    }
+
+    /**
+     * Decrypts the private key.
+     *
+     * @throws CertException if the password is incorrect
+     */
+    public PrivateKey getPrivateKey(char[] password) throws CertException {
+        AlgorithmIdentifier algorithm = encryptedPrivateKeyInfo.getEncryptionAlgorithm();
+        if (!PKCSObjectIdentifiers.id_PBES2.equals(algorithm.getObjectId())) {
+            throw new CertException("Unsupported key encryption: " + algorithm.getObjectId());
+        }
+        byte[] decrypted;
+        try {
+            ASN1Sequence pbes2Params = ASN1Sequence.getInstance(algorithm.getParameters());
+            AlgorithmIdentifier kdf = AlgorithmIdentifier.getInstance(pbes2Params.getObjectAt(0));
+            AlgorithmIdentifier encryptionScheme = AlgorithmIdentifier.getInstance(pbes2Params.getObjectAt(1));
+            if (!PKCSObjectIdentifiers.id_PBKDF2.equals(kdf.getObjectId())
+                    || !NISTObjectIdentifiers.id_aes256_CBC.equals(encryptionScheme.getObjectId())) {
+                throw new CertException("Unsupported key encryption scheme");
+            }
+            ASN1Sequence kdfParams = ASN1Sequence.getInstance(kdf.getParameters());
+            byte[] salt = ASN1OctetString.getInstance(kdfParams.getObjectAt(0)).getOctets();
+            int iterations = DERInteger.getInstance(kdfParams.getObjectAt(1)).getValue().intValue();
+            byte[] iv = ASN1OctetString.getInstance(encryptionScheme.getParameters()).getOctets();
+            decrypted = crypt(false, encryptedPrivateKeyInfo.getEncryptedData(), password, salt, iterations, iv);
+        } catch (IllegalArgumentException e) {
+            throw new CertException("Invalid key container", e);
+        }
+        try {
+            return decodePrivateKey(decrypted);
+        } catch (CertException e) {
+            // garbage that got through the padding check
+            throw new CertException("Private key password was incorrect", e);
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+
+    /**
+     * Decodes an unencrypted PKCS#8 RSA or EC private key.
+     */
+    public static PrivateKey decodePrivateKey(byte[] encoded) throws CertException {
+        try {
+            PrivateKeyInfo privateKeyInfo = PrivateKeyInfo.getInstance(ASN1Object.fromByteArray(encoded));
+            DERObjectIdentifier keyAlgorithm = privateKeyInfo.getAlgorithmId().getObjectId();
+            KeyFactory keyFactory;
+            if (PKCSObjectIdentifiers.rsaEncryption.equals(keyAlgorithm)) {
+                keyFactory = KeyFactory.getInstance("RSA");
+            } else if (X9ObjectIdentifiers.id_ecPublicKey.equals(keyAlgorithm)) {
+                keyFactory = KeyFactory.getInstance("EC", BC_PROVIDER);
+            } else {
+                throw new CertException("Unsupported key algorithm: " + keyAlgorithm);
+            }
+            return keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (IOException e) {
+            throw new CertException("Invalid private key", e);
+        } catch (IllegalArgumentException e) {
+            throw new CertException("Invalid private key", e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+    }
+
+    protected static byte[] crypt(boolean encrypt, byte[] data, char[] password, byte[] salt, int iterations,
+            byte[] iv) throws CertException {
+        // the lightweight API is not subject to the JCE policy limit on AES-256
+        PKCS5S2ParametersGenerator generator = new PKCS5S2ParametersGenerator();
+        generator.init(PBEParametersGenerator.PKCS5PasswordToUTF8Bytes(password), salt, iterations);
+        CipherParameters key = generator.generateDerivedParameters(AES_KEY_LENGTH * 8);
+        PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
+        cipher.init(encrypt, new ParametersWithIV((KeyParameter) key, iv));
+        byte[] out = new byte[cipher.getOutputSize(data.length)];
+        try {
+            int length = cipher.processBytes(data, 0, data.length, out, 0);
+            length += cipher.doFinal(out, length);
+            if (length == out.length) {
+                return out;
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(out, 0, result, 0, length);
+            return result;
+        } catch (InvalidCipherTextException e) {
+            throw new CertException("Private key password was incorrect", e);
+        }
+    }
+
+}
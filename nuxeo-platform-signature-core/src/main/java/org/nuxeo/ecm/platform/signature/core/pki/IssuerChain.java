@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.x509.X509CertificateStructure;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * The chain of an issuing CA, from the issuer up to the root, parsed once into the ASN.1 structures embedded in CMS
+ * signatures.
+ *
+ * @since 7.3
+ */
+public class IssuerChain {
+
+    protected final X509Certificate[] certificates;
+
+    protected final X509CertificateStructure[] structures;
+
+    protected final int encodedLength;
+
+    protected final String keyIdentifier;
+
+    protected IssuerChain(X509Certificate[] certificates, X509CertificateStructure[] structures, int encodedLength,
+            String keyIdentifier) {
+        this.certificates = certificates;
+        this.structures = structures;
+        this.encodedLength = encodedLength;
+        this.keyIdentifier = keyIdentifier;
+    }
+
+    /**
+     * @param certificates the issuer followed by its own issuers, the root last
+     */
+    public static IssuerChain create(X509Certificate... certificates) throws CertException {
+        X509CertificateStructure[] structures = new X509CertificateStructure[certificates.length];
+        int encodedLength = 0;
+        try {
+            for (int i = 0; i < certificates.length; i++) {
+                byte[] encoded = certificates[i].getEncoded();
+                structures[i] = X509CertificateStructure.getInstance(ASN1Object.fromByteArray(encoded));
+                encodedLength += encoded.length;
+            }
+        } catch (IOException e) {
+            throw new CertException(e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+        return new IssuerChain(certificates.clone(), structures, encodedLength,
+                getKeyIdentifier(certificates[0]));
+    }
+
+    /**
+     * Returns the certificates, issuer first. The array is shared and must not be modified.
+     */
+    public X509Certificate[] getCertificates() {
+        return certificates;
+    }
+
+    public X509Certificate getIssuer() {
+        return certificates[0];
+    }
+
+    /**
+     * Returns the parsed certificates, issuer first. The array is shared and must not be modified.
+     */
+    public X509CertificateStructure[] getStructures() {
+        return structures;
+    }
+
+    /**
+     * Total length of the DER encoded certificates.
+     */
+    public int getEncodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * Hexadecimal key identifier of the issuer, matched by the authority key identifier of the certificates it
+     * issues.
+     */
+    public String getKeyIdentifier() {
+        return keyIdentifier;
+    }
+
+    /**
+     * Returns the subject key identifier extension of a certificate, or the SHA-1 digest of its public key when it has
+     * none, as computed for the authority key identifier of the certificates it issues.
+     */
+    public static String getKeyIdentifier(X509Certificate certificate) throws CertException {
+        byte[] extension = certificate.getExtensionValue(X509Extensions.SubjectKeyIdentifier.getId());
+        try {
+            SubjectKeyIdentifierStructure ski = extension == null ? new SubjectKeyIdentifierStructure(
+                    certificate.getPublicKey()) : new SubjectKeyIdentifierStructure(extension);
+            return RootSnapshot.toHex(ski.getKeyIdentifier());
+        } catch (IOException e) {
+            throw new CertException(e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal key identifier of the issuer of a certificate, or {@code null} if it has none.
+     */
+    public static String getAuthorityKeyIdentifier(X509Certificate certificate) throws CertException {
+        byte[] extension = certificate.getExtensionValue(X509Extensions.AuthorityKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            byte[] keyIdentifier = new AuthorityKeyIdentifierStructure(extension).getKeyIdentifier();
+            return keyIdentifier == null ? null : RootSnapshot.toHex(keyIdentifier);
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+
+/**
+ * The key of a CA, root or intermediate, with the algorithm it signs the revocation data of its certificates with.
+ *
+ * @since 7.3
+ */
+public class IssuerKey {
+
+    private static final String DEFAULT_SIGNATURE_DIGEST = "SHA256";
+
+    protected final String keyIdentifier;
+
+    protected final KeyStore.PrivateKeyEntry keyEntry;
+
+    protected final String signatureAlgorithm;
+
+    protected IssuerKey(String keyIdentifier, KeyStore.PrivateKeyEntry keyEntry, String signatureAlgorithm) {
+        this.keyIdentifier = keyIdentifier;
+        this.keyEntry = keyEntry;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Returns the key of the CA with the given key identifier among the CAs of a root and of its tenants, or
+     * {@code null} if there is no such CA.
+     */
+    public static IssuerKey find(RootService rootService, String keyIdentifier) throws CertException {
+        if (keyIdentifier == null) {
+            return null;
+        }
+        RootService root = rootService;
+        KeyStore.PrivateKeyEntry keyEntry;
+        if (rootService instanceof RootServiceImpl) {
+            RootServiceImpl caRoot = ((RootServiceImpl) rootService).getCARoot(keyIdentifier);
+            if (caRoot == null) {
+                return null;
+            }
+            root = caRoot;
+            keyEntry = caRoot.getCAKeyEntry(keyIdentifier);
+        } else {
+            keyEntry = rootService.getRootKeyEntry();
+            if (!keyIdentifier.equals(IssuerChain.getKeyIdentifier((X509Certificate) keyEntry.getCertificate()))) {
+                return null;
+            }
+        }
+        return new IssuerKey(keyIdentifier, keyEntry, getSignatureAlgorithm(root.getRootSignatureAlgorithm(),
+                keyEntry.getPrivateKey()));
+    }
+
+    /**
+     * Returns the configured algorithm if it signs with keys of the kind of the given key, otherwise SHA-256 combined
+     * with the algorithm of the key.
+     */
+    public static String getSignatureAlgorithm(String configured, PrivateKey key) {
+        if (configured != null && KeyParameters.isSignatureAlgorithmFor(configured, key.getAlgorithm())) {
+            return configured;
+        }
+        return KeyParameters.getSignatureAlgorithm(DEFAULT_SIGNATURE_DIGEST, key.getAlgorithm());
+    }
+
+    /**
+     * Hexadecimal key identifier of the CA, matched by the authority key identifier of the certificates it issues.
+     */
+    public String getKeyIdentifier() {
+        return keyIdentifier;
+    }
+
+    /**
+     * Returns the key with the chain of the CA, which changes when the CA is reloaded.
+     */
+    public KeyStore.PrivateKeyEntry getKeyEntry() {
+        return keyEntry;
+    }
+
+    public X509Certificate getCertificate() {
+        return (X509Certificate) keyEntry.getCertificate();
+    }
+
+    public PrivateKey getPrivateKey() {
+        return keyEntry.getPrivateKey();
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+}
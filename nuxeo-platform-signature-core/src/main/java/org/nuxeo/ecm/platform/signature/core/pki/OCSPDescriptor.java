@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of the OCSP responder response cache.
+ *
+ * @since 7.3
+ */
+@XObject("configuration")
+public class OCSPDescriptor {
+
+    /**
+     * Validity of a response, in seconds.
+     */
+    @XNode("responseValidity")
+    protected int responseValidity = 3600;
+
+    /**
+     * Responses expiring within this delay, in seconds, are signed again by the background refresh.
+     */
+    @XNode("refreshMargin")
+    protected int refreshMargin = 600;
+
+    @XNode("maxCachedResponses")
+    protected int maxCachedResponses = 100000;
+
+    /**
+     * Whether to sign responses for all issued certificates when the application starts.
+     */
+    @XNode("precompute")
+    protected boolean precompute = true;
+
+    public int getResponseValidity() {
+        return responseValidity;
+    }
+
+    public int getRefreshMargin() {
+        return refreshMargin;
+    }
+
+    public int getMaxCachedResponses() {
+        return maxCachedResponses;
+    }
+
+    public boolean isPrecompute() {
+        return precompute;
+    }
+
+}
@@ -0,0 +1,535 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.NoSuchProviderException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPException;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.Req;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.UnknownStatus;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.OCSPService;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess.DirectoryCallback;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+/**
+ * Base implementation of the OCSP responder.
+ * <p>
+ * Each CA, root or intermediate, of the default root or of a tenant, signs the responses about the certificates it
+ * issued. A request for several certificates is answered by the CA of the first one whose issuer is known, the
+ * certificates of other issuers are reported {@code unknown}, and the CA root answers when no issuer is known.
+ * <p>
+ * Single-certificate requests, by far the most common, are answered from a cache of signed responses. A cached
+ * {@code good} response is only served after checking the revocation index, so revocations take effect immediately.
+ * Requests for several certificates are signed on the fly.
+ *
+ * @since 7.3
+ */
+public class OCSPServiceImpl extends DefaultComponent implements OCSPService {
+
+    private static final Log LOG = LogFactory.getLog(OCSPServiceImpl.class);
+
+    private static final String CERTIFICATE_DIRECTORY_NAME = "certificate";
+
+    private static final String BC_PROVIDER = "BC";
+
+    private static final long MAX_REFRESH_PERIOD_SECONDS = 60;
+
+    protected RootService rootService;
+
+    protected CertService certService;
+
+    protected RevocationService revocationService;
+
+    protected OCSPDescriptor config = new OCSPDescriptor();
+
+    /** Signed responses keyed by issuer hashes and serial number. */
+    protected final ConcurrentMap<String, CachedResponse> responses = new ConcurrentHashMap<String, CachedResponse>();
+
+    protected volatile Responders responders;
+
+    protected final DirectoryAccess certificateAccess = new DirectoryAccess(CERTIFICATE_DIRECTORY_NAME, 1);
+
+    protected ScheduledExecutorService refresher;
+
+    protected static class CachedResponse {
+
+        protected final CertificateID certificateID;
+
+        protected final byte[] encoded;
+
+        protected final long nextUpdate;
+
+        protected final boolean revoked;
+
+        protected CachedResponse(CertificateID certificateID, byte[] encoded, long nextUpdate, boolean revoked) {
+            this.certificateID = certificateID;
+            this.encoded = encoded;
+            this.nextUpdate = nextUpdate;
+            this.revoked = revoked;
+        }
+    }
+
+    /**
+     * The keys of the CAs, indexed by the issuer hashes of the certificate ids of each hash algorithm requested so far.
+     */
+    protected static class Responders {
+
+        /** The objects whose identities change when the CAs change. */
+        protected final List<Object> source;
+
+        protected final List<IssuerKey> issuerKeys;
+
+        protected final IssuerKey rootKey;
+
+        protected final ConcurrentMap<String, IssuerKey> byIssuerHash = new ConcurrentHashMap<String, IssuerKey>();
+
+        protected final Set<String> hashAlgorithms = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+
+        protected Responders(List<Object> source, List<IssuerKey> issuerKeys, IssuerKey rootKey) {
+            this.source = source;
+            this.issuerKeys = issuerKeys;
+            this.rootKey = rootKey;
+        }
+
+        protected IssuerKey get(CertificateID certificateID) {
+            String hashAlgorithm = certificateID.getHashAlgOID();
+            if (!hashAlgorithms.contains(hashAlgorithm)) {
+                index(hashAlgorithm);
+            }
+            return byIssuerHash.get(getIssuerHash(certificateID));
+        }
+
+        protected synchronized void index(String hashAlgorithm) {
+            if (hashAlgorithms.contains(hashAlgorithm)) {
+                return;
+            }
+            try {
+                for (IssuerKey issuerKey : issuerKeys) {
+                    byIssuerHash.put(getIssuerHash(new CertificateID(hashAlgorithm, issuerKey.getCertificate(),
+                            BigInteger.ONE)), issuerKey);
+                }
+            } catch (OCSPException e) {
+                // unsupported hash algorithm, no issuer matches
+                LOG.debug("Cannot hash OCSP certificate ids with " + hashAlgorithm + ": " + e.getMessage());
+            }
+            hashAlgorithms.add(hashAlgorithm);
+        }
+    }
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (contribution instanceof OCSPDescriptor) {
+            config = (OCSPDescriptor) contribution;
+        }
+    }
+
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Nuxeo-Signature-OCSP-Refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, Math.min(MAX_REFRESH_PERIOD_SECONDS, config.getRefreshMargin() / 2));
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, period, period, TimeUnit.SECONDS);
+        if (config.isPrecompute()) {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        precompute();
+                    } catch (CertException e) {
+                        LOG.error("Cannot precompute OCSP responses", e);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        responses.clear();
+        certificateAccess.close();
+    }
+
+    @Override
+    public void setRootService(RootService rootService) {
+        this.rootService = rootService;
+        responders = null;
+        responses.clear();
+    }
+
+    @Override
+    public byte[] getResponse(byte[] encodedRequest) throws CertException {
+        Req[] requests;
+        try {
+            requests = new OCSPReq(encodedRequest).getRequestList();
+        } catch (IOException e) {
+            return getErrorResponse(OCSPRespGenerator.MALFORMED_REQUEST);
+        } catch (IllegalArgumentException e) {
+            return getErrorResponse(OCSPRespGenerator.MALFORMED_REQUEST);
+        }
+        if (requests.length == 0) {
+            return getErrorResponse(OCSPRespGenerator.MALFORMED_REQUEST);
+        }
+        if (requests.length == 1) {
+            return getResponse(requests[0].getCertID()).encoded;
+        }
+        List<CertificateID> certificateIDs = new ArrayList<CertificateID>(requests.length);
+        for (Req request : requests) {
+            certificateIDs.add(request.getCertID());
+        }
+        return generateResponse(certificateIDs).encoded;
+    }
+
+    @Override
+    public byte[] getResponse(X509Certificate certificate) throws CertException {
+        X509Certificate issuer = null;
+        RootService rs = getRootService();
+        if (rs instanceof RootServiceImpl) {
+            IssuerChain chain = ((RootServiceImpl) rs).getEncodedIssuerChain(certificate);
+            issuer = chain == null ? null : chain.getIssuer();
+        }
+        if (issuer == null) {
+            // answered unknown unless issued by the root
+            issuer = getResponders().rootKey.getCertificate();
+        }
+        try {
+            return getResponse(
+                    new CertificateID(CertificateID.HASH_SHA1, issuer, certificate.getSerialNumber())).encoded;
+        } catch (OCSPException e) {
+            throw new CertException(e);
+        }
+    }
+
+    @Override
+    public void invalidate(BigInteger serialNumber) {
+        for (Iterator<CachedResponse> it = responses.values().iterator(); it.hasNext();) {
+            if (it.next().certificateID.getSerialNumber().equals(serialNumber)) {
+                it.remove();
+            }
+        }
+    }
+
+    protected CachedResponse getResponse(CertificateID certificateID) throws CertException {
+        IssuerKey issuerKey = getResponders().get(certificateID);
+        if (issuerKey == null) {
+            // nothing to precompute for foreign issuers
+            return generateResponse(Collections.singletonList(certificateID));
+        }
+        String key = getCacheKey(certificateID);
+        CachedResponse cached = responses.get(key);
+        if (cached != null
+                && cached.nextUpdate > System.currentTimeMillis()
+                && (cached.revoked || !getRevocationService().isRevoked(issuerKey.getKeyIdentifier(),
+                        certificateID.getSerialNumber()))) {
+            return cached;
+        }
+        CachedResponse response = generateResponse(Collections.singletonList(certificateID));
+        cache(key, response);
+        return response;
+    }
+
+    protected void cache(String key, CachedResponse response) {
+        if (!responses.containsKey(key) && responses.size() >= config.getMaxCachedResponses()) {
+            Iterator<String> it = responses.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        responses.put(key, response);
+    }
+
+    protected static String getCacheKey(CertificateID certificateID) {
+        return getIssuerHash(certificateID) + "/" + certificateID.getSerialNumber();
+    }
+
+    /**
+     * Identifies the issuer of a certificate id by its hash algorithm, name hash and key hash.
+     */
+    protected static String getIssuerHash(CertificateID certificateID) {
+        return certificateID.getHashAlgOID() + "/" + RootSnapshot.toHex(certificateID.getIssuerNameHash()) + "/"
+                + RootSnapshot.toHex(certificateID.getIssuerKeyHash());
+    }
+
+    /**
+     * Signs again the cached responses that are close to their next update.
+     */
+    protected void refresh() {
+        long threshold = System.currentTimeMillis() + config.getRefreshMargin() * 1000L;
+        int count = 0;
+        for (Map.Entry<String, CachedResponse> entry : responses.entrySet()) {
+            CachedResponse cached = entry.getValue();
+            if (cached.nextUpdate < threshold) {
+                try {
+                    responses.replace(entry.getKey(), cached,
+                            generateResponse(Collections.singletonList(cached.certificateID)));
+                    count++;
+                } catch (CertException e) {
+                    LOG.error("Cannot refresh OCSP response for " + cached.certificateID.getSerialNumber(), e);
+                    return;
+                }
+            }
+        }
+        if (count > 0) {
+            LOG.debug("Refreshed " + count + " OCSP responses");
+        }
+    }
+
+    /**
+     * Signs responses for all the certificates recorded in the certificate directory, by their issuer.
+     */
+    protected void precompute() throws CertException {
+        int count = 0;
+        for (IssuerKey issuerKey : getResponders().issuerKeys) {
+            final Map<String, Serializable> filter = Collections.<String, Serializable> singletonMap("issuer",
+                    issuerKey.getKeyIdentifier());
+            List<String> serialNumbers;
+            try {
+                serialNumbers = certificateAccess.run(new DirectoryCallback<List<String>>() {
+                    @Override
+                    public List<String> run(Session session) throws ClientException {
+                        return session.getProjection(filter, "serialnumber");
+                    }
+                });
+            } catch (CertException e) {
+                throw e;
+            } catch (ClientException e) {
+                throw new CertException(e);
+            }
+            for (String serialNumber : serialNumbers) {
+                if (serialNumber == null || count >= config.getMaxCachedResponses()) {
+                    continue;
+                }
+                try {
+                    getResponse(new CertificateID(CertificateID.HASH_SHA1, issuerKey.getCertificate(),
+                            new BigInteger(serialNumber)));
+                    count++;
+                } catch (OCSPException e) {
+                    throw new CertException(e);
+                }
+            }
+        }
+        LOG.debug("Precomputed " + count + " OCSP responses");
+    }
+
+    /**
+     * Signs a response with the CA of the first certificate whose issuer is known, or else with the root. The
+     * certificates of other issuers are reported {@code unknown}.
+     */
+    protected CachedResponse generateResponse(List<CertificateID> certificateIDs) throws CertException {
+        Responders current = getResponders();
+        IssuerKey signer = null;
+        for (CertificateID certificateID : certificateIDs) {
+            signer = current.get(certificateID);
+            if (signer != null) {
+                break;
+            }
+        }
+        if (signer == null) {
+            signer = current.rootKey;
+        }
+        BasicOCSPRespGenerator respGen = new BasicOCSPRespGenerator(signer.getCertificate().getPublicKey());
+        Date now = new Date();
+        Date nextUpdate = new Date(now.getTime() + config.getResponseValidity() * 1000L);
+        boolean revoked = false;
+        for (CertificateID certificateID : certificateIDs) {
+            CertificateStatus status = CertificateStatus.GOOD;
+            BigInteger serialNumber = certificateID.getSerialNumber();
+            if (current.get(certificateID) != signer) {
+                status = new UnknownStatus();
+            } else if (getRevocationService().isRevoked(signer.getKeyIdentifier(), serialNumber)) {
+                Date revocationDate = getRevocationService().getRevocationDate(signer.getKeyIdentifier(),
+                        serialNumber);
+                status = new RevokedStatus(revocationDate == null ? now : revocationDate, CRLReason.unspecified);
+                revoked = true;
+            }
+            respGen.addResponse(certificateID, status, now, nextUpdate, null);
+        }
+        try {
+            // the OCSP generator only knows upper case algorithm names
+            BasicOCSPResp basicResp = respGen.generate(signer.getSignatureAlgorithm().toUpperCase(),
+                    signer.getPrivateKey(), null, now, BC_PROVIDER);
+            byte[] encoded = new OCSPRespGenerator().generate(OCSPRespGenerator.SUCCESSFUL, basicResp).getEncoded();
+            return new CachedResponse(certificateIDs.get(0), encoded, nextUpdate.getTime(), revoked);
+        } catch (OCSPException e) {
+            throw new CertException(e);
+        } catch (NoSuchProviderException e) {
+            throw new CertException(e);
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+    protected byte[] getErrorResponse(int status) throws CertException {
+        try {
+            return new OCSPRespGenerator().generate(status, null).getEncoded();
+        } catch (OCSPException e) {
+            throw new CertException(e);
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+    /**
+     * Returns the keys of the current CAs, building them again if the CAs changed since they were built. Responses
+     * signed with previous keys are dropped.
+     */
+    protected Responders getResponders() throws CertException {
+        List<Object> source = getSource();
+        Responders current = responders;
+        if (current != null && TrustStoreServiceImpl.isSameSource(current.source, source)) {
+            return current;
+        }
+        synchronized (this) {
+            current = responders;
+            if (current == null || !TrustStoreServiceImpl.isSameSource(current.source, source)) {
+                if (current != null) {
+                    responses.clear();
+                }
+                current = buildResponders(source);
+                responders = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Returns the objects whose identities change when the CAs change: the maps of issuer chains of the default and
+     * tenant roots, or the root key.
+     */
+    protected List<Object> getSource() throws CertException {
+        RootService rs = getRootService();
+        if (rs instanceof RootServiceImpl) {
+            return new ArrayList<Object>(((RootServiceImpl) rs).getAllIssuerChains());
+        }
+        return Collections.<Object> singletonList(rs.getRootKeyEntry());
+    }
+
+    protected Responders buildResponders(List<Object> source) throws CertException {
+        BouncyCastle.register();
+        RootService rs = getRootService();
+        Map<String, IssuerKey> issuerKeys = new LinkedHashMap<String, IssuerKey>();
+        for (Object local : source) {
+            if (!(local instanceof Map)) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, IssuerChain> chains = (Map<String, IssuerChain>) local;
+            for (String keyIdentifier : chains.keySet()) {
+                IssuerKey issuerKey = IssuerKey.find(rs, keyIdentifier);
+                if (issuerKey != null) {
+                    issuerKeys.put(keyIdentifier, issuerKey);
+                }
+            }
+        }
+        X509Certificate root = (X509Certificate) rs.getRootKeyEntry().getCertificate();
+        IssuerKey rootKey = IssuerKey.find(rs, IssuerChain.getKeyIdentifier(root));
+        if (!issuerKeys.containsKey(rootKey.getKeyIdentifier())) {
+            issuerKeys.put(rootKey.getKeyIdentifier(), rootKey);
+        }
+        return new Responders(source, new ArrayList<IssuerKey>(issuerKeys.values()), rootKey);
+    }
+
+    protected RootService getRootService() throws CertException {
+        if (rootService == null) {
+            try {
+                rootService = Framework.getService(RootService.class);
+            } catch (Exception e) {
+                String message = "RootService not found";
+                LOG.error(message + " " + e);
+                throw new CertException(message);
+            }
+        }
+        return rootService;
+    }
+
+    protected CertService getCertService() throws CertException {
+        if (certService == null) {
+            try {
+                certService = Framework.getService(CertService.class);
+            } catch (Exception e) {
+                String message = "CertService not found";
+                LOG.error(message + " " + e);
+                throw new CertException(message);
+            }
+        }
+        return certService;
+    }
+
+    protected RevocationService getRevocationService() throws CertException {
+        if (revocationService == null) {
+            try {
+                revocationService = Framework.getService(RevocationService.class);
+            } catch (Exception e) {
+                String message = "RevocationService not found";
+                LOG.error(message + " " + e);
+                throw new CertException(message);
+            }
+        }
+        return revocationService;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of the index of revoked certificates.
+ *
+ * @since 7.3
+ */
+@XObject("configuration")
+public class RevocationDescriptor {
+
+    /**
+     * Delay in seconds between two full reloads of the index, a safety net for revocations of other nodes missed by
+     * the invalidation bus; 0 to disable.
+     */
+    @XNode("reloadInterval")
+    protected int reloadInterval = 3600;
+
+    public int getReloadInterval() {
+        return reloadInterval;
+    }
+
+}
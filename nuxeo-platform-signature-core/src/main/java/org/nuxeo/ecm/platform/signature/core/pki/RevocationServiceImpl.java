@@ -0,0 +1,708 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateInvalidationBus;
+import org.nuxeo.ecm.platform.signature.core.user.cache.InvalidationPublisher;
+import org.nuxeo.ecm.platform.signature.core.user.cache.LocalCertificateInvalidationBus;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess.DirectoryCallback;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+/**
+ * Base implementation of the revocation service.
+ * <p>
+ * The index of revoked serials, one set per issuing CA, is rebuilt from the directory when the application starts, and
+ * is then kept up to date by {@link #revokeCertificate}. The revocations of other nodes come through the invalidation
+ * bus of the certificate cache, which names the user whose revocations are then read, with a periodic full reload as a
+ * safety net. Each CA, root or intermediate, of the default root or of a tenant, signs the CRLs of the certificates it
+ * issued. Full CRLs are regenerated when they get close to their next update, the revocations that happened in between
+ * are published by delta CRLs.
+ * <p>
+ * Revocations have their own directory rather than the {@code revocationdate} of the certificate entries: an entry
+ * holds the current certificate of a user and is deleted with it, while revoked serials must be kept for as long as
+ * the certificates could be presented.
+ *
+ * @since 7.3
+ */
+public class RevocationServiceImpl extends DefaultComponent implements RevocationService {
+
+    private static final Log LOG = LogFactory.getLog(RevocationServiceImpl.class);
+
+    protected static final String REVOCATION_DIRECTORY_NAME = "certificaterevocation";
+
+    protected static final String REVOCATION_SCHEMA = "certrevocation";
+
+    protected static final long CRL_VALIDITY_MILLIS = 24 * 3600 * 1000L;
+
+    protected static final long DELTA_CRL_VALIDITY_MILLIS = 3600 * 1000L;
+
+    /** CRLs expiring within this delay are regenerated. */
+    protected static final long CRL_REFRESH_MARGIN_MILLIS = 5 * 60 * 1000L;
+
+    private static final String BC_PROVIDER = "BC";
+
+    protected RootService rootService;
+
+    protected RevocationDescriptor config = new RevocationDescriptor();
+
+    protected final DirectoryAccess access = new DirectoryAccess(REVOCATION_DIRECTORY_NAME, 1);
+
+    protected CertificateInvalidationBus invalidationBus;
+
+    protected ScheduledExecutorService reloader;
+
+    protected CertService certService;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Revocations by issuer key identifier, guarded by {@link #lock}. */
+    protected final Map<String, IssuerRevocations> revocations = new HashMap<String, IssuerRevocations>();
+
+    /** Number of revocations of all the issuers, guarded by {@link #lock}. */
+    protected int revokedCount;
+
+    protected volatile boolean loaded;
+
+    protected final Object crlLock = new Object();
+
+    /** Guarded by {@link #crlLock}. */
+    protected long lastCRLNumber;
+
+    /** CRLs by issuer key identifier, guarded by {@link #crlLock}. */
+    protected final Map<String, IssuerCRLs> crls = new HashMap<String, IssuerCRLs>();
+
+    protected static class RevokedEntry implements Comparable<RevokedEntry> {
+
+        protected final String issuer;
+
+        protected final BigInteger serialNumber;
+
+        protected final Date revocationDate;
+
+        protected RevokedEntry(String issuer, BigInteger serialNumber, Date revocationDate) {
+            this.issuer = issuer;
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+        }
+
+        @Override
+        public int compareTo(RevokedEntry other) {
+            return revocationDate.compareTo(other.revocationDate);
+        }
+    }
+
+    /**
+     * The revocations of an issuer: the index of their serials, and the revocations in the order they happened.
+     */
+    protected static class IssuerRevocations {
+
+        protected final RevokedSerialSet serials = new RevokedSerialSet();
+
+        protected final List<RevokedEntry> entries = new ArrayList<RevokedEntry>();
+    }
+
+    /**
+     * The CRLs of an issuer, signed with its key.
+     */
+    protected static class IssuerCRLs {
+
+        protected final IssuerKey issuerKey;
+
+        protected X509CRL crl;
+
+        protected BigInteger crlNumber;
+
+        /** Number of revocations covered by the full CRL. */
+        protected int crlRevocationCount;
+
+        protected X509CRL deltaCRL;
+
+        protected int deltaCRLRevocationCount;
+
+        protected IssuerCRLs(IssuerKey issuerKey) {
+            this.issuerKey = issuerKey;
+        }
+    }
+
+    /**
+     * Reads the revocations of the users named on the invalidation bus, which other nodes may have revoked.
+     */
+    protected class RevocationListener implements CertificateInvalidationBus.InvalidationListener {
+
+        @Override
+        public void invalidated(String userID) {
+            if (!loaded) {
+                return;
+            }
+            try {
+                loadRevocations(userID);
+            } catch (CertException e) {
+                LOG.error("Cannot read the revocations of " + userID + ", they wait for the next reload", e);
+            }
+        }
+
+        @Override
+        public void invalidatedAll() {
+            try {
+                reload();
+            } catch (CertException e) {
+                LOG.error("Cannot reload revoked certificates", e);
+            }
+        }
+    }
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (contribution instanceof RevocationDescriptor) {
+            config = (RevocationDescriptor) contribution;
+        }
+    }
+
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        try {
+            reload();
+        } catch (CertException e) {
+            LOG.error("Cannot load revoked certificates, will retry on first use", e);
+        }
+        invalidationBus = newInvalidationBus();
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(new RevocationListener());
+        }
+        int interval = config.getReloadInterval();
+        if (interval > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Nuxeo-Signature-Revocation-Reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reload();
+                    } catch (CertException e) {
+                        LOG.error("Cannot reload revoked certificates", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
+        }
+        if (invalidationBus != null) {
+            invalidationBus.close();
+            invalidationBus = null;
+        }
+        access.close();
+    }
+
+    /**
+     * Returns a bus of the class configured for the certificate cache, so that revocations reach the nodes the
+     * certificate invalidations reach.
+     */
+    protected CertificateInvalidationBus newInvalidationBus() {
+        Class<? extends CertificateInvalidationBus> busClass = LocalCertificateInvalidationBus.class;
+        CUserService cUserService = Framework.getLocalService(CUserService.class);
+        if (cUserService instanceof CUserServiceImpl) {
+            busClass = ((CUserServiceImpl) cUserService).getCertificateCacheDescriptor().getBusClass();
+        }
+        try {
+            return busClass.newInstance();
+        } catch (ReflectiveOperationException e) {
+            LOG.error("Cannot instantiate certificate invalidation bus, revocations of other nodes wait for the next"
+                    + " reload", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void setRootService(RootService rootService) {
+        this.rootService = rootService;
+        synchronized (crlLock) {
+            crls.clear();
+        }
+    }
+
+    @Override
+    public void revokeCertificate(X509Certificate certificate, String userID) throws CertException {
+        ensureLoaded();
+        BigInteger serialNumber = certificate.getSerialNumber();
+        String issuer = getIssuerKeyIdentifier(certificate);
+        if (issuer == null) {
+            throw new CertException("Certificate " + serialNumber + " was not issued by a known CA");
+        }
+        if (isRevoked(issuer, serialNumber)) {
+            LOG.debug("Certificate " + serialNumber + " is already revoked");
+            return;
+        }
+        final Date revocationDate = new Date();
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("id", getId(issuer, serialNumber));
+        map.put("issuer", issuer);
+        map.put("serialnumber", serialNumber.toString());
+        map.put("userid", userID);
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(revocationDate);
+        map.put("revocationdate", cal);
+        run(new DirectoryCallback<Void>() {
+            @Override
+            public Void run(Session session) throws ClientException {
+                if (!session.hasEntry((String) map.get("id"))) {
+                    session.createEntry(map);
+                }
+                return null;
+            }
+        });
+        add(Collections.singletonList(new RevokedEntry(issuer, serialNumber, revocationDate)));
+        LOG.info("Revoked certificate " + serialNumber + " of " + userID);
+        CertificateInvalidationBus bus = invalidationBus;
+        if (bus != null && userID != null) {
+            // other nodes read the revocations of this user, once committed
+            InvalidationPublisher.publish(bus, userID);
+        }
+    }
+
+    @Override
+    public boolean isRevoked(BigInteger serialNumber) throws CertException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            for (IssuerRevocations issuerRevocations : revocations.values()) {
+                if (issuerRevocations.serials.contains(serialNumber)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isRevoked(String issuerKeyIdentifier, BigInteger serialNumber) throws CertException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            IssuerRevocations issuerRevocations = revocations.get(issuerKeyIdentifier);
+            return issuerRevocations != null && issuerRevocations.serials.contains(serialNumber);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isRevoked(X509Certificate certificate) throws CertException {
+        String issuer = getIssuerKeyIdentifier(certificate);
+        return issuer != null && isRevoked(issuer, certificate.getSerialNumber());
+    }
+
+    @Override
+    public Date getRevocationDate(BigInteger serialNumber) throws CertException {
+        if (!isRevoked(serialNumber)) {
+            return null;
+        }
+        Date revocationDate = null;
+        for (RevokedEntry entry : readRevocations(Collections.<String, Serializable> singletonMap("serialnumber",
+                serialNumber.toString()))) {
+            if (revocationDate == null || entry.revocationDate.before(revocationDate)) {
+                revocationDate = entry.revocationDate;
+            }
+        }
+        return revocationDate;
+    }
+
+    @Override
+    public Date getRevocationDate(String issuerKeyIdentifier, BigInteger serialNumber) throws CertException {
+        if (!isRevoked(issuerKeyIdentifier, serialNumber)) {
+            return null;
+        }
+        final String id = getId(issuerKeyIdentifier, serialNumber);
+        DocumentModel entry = run(new DirectoryCallback<DocumentModel>() {
+            @Override
+            public DocumentModel run(Session session) throws ClientException {
+                return session.getEntry(id);
+            }
+        });
+        if (entry == null) {
+            return null;
+        }
+        Calendar cal;
+        try {
+            cal = (Calendar) entry.getProperty(REVOCATION_SCHEMA, "revocationdate");
+        } catch (ClientException e) {
+            throw new CertException(e);
+        }
+        return cal == null ? null : cal.getTime();
+    }
+
+    @Override
+    public int getRevokedCount() throws CertException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return revokedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public X509CRL getCRL() throws CertException {
+        return getCRL(getRootCertificate());
+    }
+
+    @Override
+    public X509CRL getCRL(X509Certificate issuer) throws CertException {
+        ensureLoaded();
+        IssuerKey issuerKey = IssuerKey.find(getRootService(), IssuerChain.getKeyIdentifier(issuer));
+        if (issuerKey == null) {
+            return null;
+        }
+        synchronized (crlLock) {
+            return getCRLs(issuerKey).crl;
+        }
+    }
+
+    @Override
+    public X509CRL getDeltaCRL() throws CertException {
+        return getDeltaCRL(getRootCertificate());
+    }
+
+    @Override
+    public X509CRL getDeltaCRL(X509Certificate issuer) throws CertException {
+        ensureLoaded();
+        IssuerKey issuerKey = IssuerKey.find(getRootService(), IssuerChain.getKeyIdentifier(issuer));
+        if (issuerKey == null) {
+            return null;
+        }
+        String keyIdentifier = issuerKey.getKeyIdentifier();
+        synchronized (crlLock) {
+            IssuerCRLs issuerCRLs = getCRLs(issuerKey);
+            int count = getRevocationCount(keyIdentifier);
+            if (issuerCRLs.deltaCRL == null || count != issuerCRLs.deltaCRLRevocationCount
+                    || isExpiring(issuerCRLs.deltaCRL)) {
+                long validity = Math.min(DELTA_CRL_VALIDITY_MILLIS, issuerCRLs.crl.getNextUpdate().getTime()
+                        - System.currentTimeMillis());
+                issuerCRLs.deltaCRL = generateCRL(issuerKey,
+                        getRevocations(keyIdentifier, issuerCRLs.crlRevocationCount, count), nextCRLNumber(),
+                        issuerCRLs.crlNumber, validity);
+                issuerCRLs.deltaCRLRevocationCount = count;
+            }
+            return issuerCRLs.deltaCRL;
+        }
+    }
+
+    /**
+     * Returns the CRLs of an issuer, with a full CRL generated again if it expires soon or if the issuer was reloaded
+     * with another key. Called with {@link #crlLock} held.
+     */
+    protected IssuerCRLs getCRLs(IssuerKey issuerKey) throws CertException {
+        String keyIdentifier = issuerKey.getKeyIdentifier();
+        IssuerCRLs issuerCRLs = crls.get(keyIdentifier);
+        if (issuerCRLs == null || issuerCRLs.issuerKey.getKeyEntry() != issuerKey.getKeyEntry()
+                || isExpiring(issuerCRLs.crl)) {
+            issuerCRLs = new IssuerCRLs(issuerKey);
+            int count = getRevocationCount(keyIdentifier);
+            issuerCRLs.crlNumber = nextCRLNumber();
+            issuerCRLs.crl = generateCRL(issuerKey, getRevocations(keyIdentifier, 0, count), issuerCRLs.crlNumber,
+                    null, CRL_VALIDITY_MILLIS);
+            issuerCRLs.crlRevocationCount = count;
+            crls.put(keyIdentifier, issuerCRLs);
+        }
+        return issuerCRLs;
+    }
+
+    @Override
+    public void reload() throws CertException {
+        List<RevokedEntry> entries = readRevocations(Collections.<String, Serializable> emptyMap());
+        Collections.sort(entries);
+        lock.writeLock().lock();
+        try {
+            if (loaded && entries.size() == revokedCount) {
+                // revocations are never removed, nothing was missed
+                return;
+            }
+            revocations.clear();
+            revokedCount = 0;
+            for (RevokedEntry entry : entries) {
+                index(entry);
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (crlLock) {
+            crls.clear();
+        }
+        LOG.debug("Loaded " + entries.size() + " revoked certificates");
+    }
+
+    protected void ensureLoaded() throws CertException {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the revocations of a user that are not in the index yet.
+     */
+    protected void loadRevocations(String userID) throws CertException {
+        List<RevokedEntry> entries = readRevocations(Collections.<String, Serializable> singletonMap("userid",
+                userID));
+        Collections.sort(entries);
+        int added = add(entries);
+        if (added > 0) {
+            LOG.debug("Loaded " + added + " revoked certificates of " + userID);
+        }
+    }
+
+    /**
+     * Adds revocations to the index, returns how many were not already there.
+     */
+    protected int add(List<RevokedEntry> entries) {
+        int added = 0;
+        lock.writeLock().lock();
+        try {
+            for (RevokedEntry entry : entries) {
+                if (index(entry)) {
+                    added++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    /**
+     * Adds a revocation to the index of its issuer unless it is already there. Called with the write lock held.
+     */
+    protected boolean index(RevokedEntry entry) {
+        IssuerRevocations issuerRevocations = revocations.get(entry.issuer);
+        if (issuerRevocations == null) {
+            issuerRevocations = new IssuerRevocations();
+            revocations.put(entry.issuer, issuerRevocations);
+        }
+        if (!issuerRevocations.serials.add(entry.serialNumber)) {
+            return false;
+        }
+        issuerRevocations.entries.add(entry);
+        revokedCount++;
+        return true;
+    }
+
+    protected List<RevokedEntry> readRevocations(final Map<String, Serializable> filter) throws CertException {
+        return run(new DirectoryCallback<List<RevokedEntry>>() {
+            @Override
+            public List<RevokedEntry> run(Session session) throws ClientException {
+                List<RevokedEntry> entries = new ArrayList<RevokedEntry>();
+                DocumentModelList list = session.query(filter);
+                for (DocumentModel entry : list) {
+                    String issuer = (String) entry.getProperty(REVOCATION_SCHEMA, "issuer");
+                    String serialNumber = (String) entry.getProperty(REVOCATION_SCHEMA, "serialnumber");
+                    Calendar cal = (Calendar) entry.getProperty(REVOCATION_SCHEMA, "revocationdate");
+                    entries.add(new RevokedEntry(issuer, new BigInteger(serialNumber), cal == null ? new Date(0)
+                            : cal.getTime()));
+                }
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * Runs code with a session on the revocation directory, as system user.
+     */
+    protected <T> T run(DirectoryCallback<T> callback) throws CertException {
+        try {
+            return access.run(callback);
+        } catch (CertException e) {
+            throw e;
+        } catch (ClientException e) {
+            throw new CertException(e);
+        }
+    }
+
+    protected int getRevocationCount(String issuer) {
+        lock.readLock().lock();
+        try {
+            IssuerRevocations issuerRevocations = revocations.get(issuer);
+            return issuerRevocations == null ? 0 : issuerRevocations.entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    protected List<RevokedEntry> getRevocations(String issuer, int from, int to) {
+        lock.readLock().lock();
+        try {
+            IssuerRevocations issuerRevocations = revocations.get(issuer);
+            if (issuerRevocations == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<RevokedEntry>(issuerRevocations.entries.subList(from, to));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the id of the directory entry of a revocation: serial numbers are only unique per issuer.
+     */
+    protected static String getId(String issuer, BigInteger serialNumber) {
+        return issuer + ":" + serialNumber;
+    }
+
+    /**
+     * Returns the key identifier of the CA that issued a certificate: its authority key identifier, or else the key
+     * identifier of the known CA with its issuer name, or {@code null} if there is none.
+     */
+    protected String getIssuerKeyIdentifier(X509Certificate certificate) throws CertException {
+        String keyIdentifier = IssuerChain.getAuthorityKeyIdentifier(certificate);
+        if (keyIdentifier != null) {
+            return keyIdentifier;
+        }
+        RootService rs = getRootService();
+        if (rs instanceof RootServiceImpl) {
+            IssuerChain chain = ((RootServiceImpl) rs).getEncodedIssuerChain(certificate);
+            return chain == null ? null : chain.getKeyIdentifier();
+        }
+        X509Certificate root = getRootCertificate();
+        if (!certificate.getIssuerX500Principal().equals(root.getSubjectX500Principal())) {
+            return null;
+        }
+        return IssuerChain.getKeyIdentifier(root);
+    }
+
+    protected boolean isExpiring(X509CRL crl) {
+        return crl.getNextUpdate().getTime() - CRL_REFRESH_MARGIN_MILLIS < System.currentTimeMillis();
+    }
+
+    /**
+     * CRL numbers are shared by full and delta CRLs and must increase across restarts, so they are time-based.
+     */
+    protected BigInteger nextCRLNumber() {
+        lastCRLNumber = Math.max(lastCRLNumber + 1, System.currentTimeMillis());
+        return BigInteger.valueOf(lastCRLNumber);
+    }
+
+    protected X509CRL generateCRL(IssuerKey issuerKey, List<RevokedEntry> entries, BigInteger number,
+            BigInteger baseCRLNumber, long validity) throws CertException {
+        BouncyCastle.register();
+        X509Certificate issuerCertificate = issuerKey.getCertificate();
+        Date now = new Date();
+        X509V2CRLGenerator crlGen = new X509V2CRLGenerator();
+        crlGen.setIssuerDN(issuerCertificate.getSubjectX500Principal());
+        crlGen.setThisUpdate(now);
+        crlGen.setNextUpdate(new Date(now.getTime() + validity));
+        crlGen.setSignatureAlgorithm(issuerKey.getSignatureAlgorithm());
+        for (RevokedEntry entry : entries) {
+            crlGen.addCRLEntry(entry.serialNumber, entry.revocationDate, 0);
+        }
+        try {
+            crlGen.addExtension(X509Extensions.AuthorityKeyIdentifier, false, new AuthorityKeyIdentifierStructure(
+                    issuerCertificate));
+            crlGen.addExtension(X509Extensions.CRLNumber, false, new CRLNumber(number));
+            if (baseCRLNumber != null) {
+                crlGen.addExtension(X509Extensions.DeltaCRLIndicator, true, new CRLNumber(baseCRLNumber));
+            }
+            return crlGen.generate(issuerKey.getPrivateKey(), BC_PROVIDER);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        } catch (IllegalStateException e) {
+            throw new CertException(e);
+        }
+    }
+
+    protected X509Certificate getRootCertificate() throws CertException {
+        return (X509Certificate) getRootService().getRootKeyEntry().getCertificate();
+    }
+
+    protected RootService getRootService() throws CertException {
+        if (rootService == null) {
+            try {
+                rootService = Framework.getService(RootService.class);
+            } catch (Exception e) {
+                String message = "RootService not found";
+                LOG.error(message + " " + e);
+                throw new CertException(message);
+            }
+        }
+        return rootService;
+    }
+
+    protected CertService getCertService() throws CertException {
+        if (certService == null) {
+            try {
+                certService = Framework.getService(CertService.class);
+            } catch (Exception e) {
+                String message = "CertService not found";
+                LOG.error(message + " " + e);
+                throw new CertException(message);
+            }
+        }
+        return certService;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact set of the serial numbers of the certificates revoked by one issuer.
+ * <p>
+ * The serials issued by the CAs of this module are random positive numbers of at most 64 bits. They are stored unboxed,
+ * as the bits of a {@code long}, in an open-addressing table with linear probing; longer serials from other issuers go
+ * to a regular set. Not thread-safe, callers synchronize.
+ *
+ * @since 7.3
+ */
+public class RevokedSerialSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Marks empty slots, the zero serial itself is tracked separately. */
+    private static final long FREE = 0L;
+
+    private long[] table = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    private boolean containsZero;
+
+    private final Set<BigInteger> largeSerials = new HashSet<BigInteger>();
+
+    /**
+     * Adds a serial number, returns {@code false} if it was already present.
+     */
+    public boolean add(BigInteger serial) {
+        if (!fitsInLong(serial)) {
+            return largeSerials.add(serial);
+        }
+        long value = serial.longValue();
+        if (value == FREE) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        if (!insert(table, value)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    public boolean contains(BigInteger serial) {
+        if (!fitsInLong(serial)) {
+            return largeSerials.contains(serial);
+        }
+        long value = serial.longValue();
+        if (value == FREE) {
+            return containsZero;
+        }
+        long[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+            long slot = t[i];
+            if (slot == value) {
+                return true;
+            }
+            if (slot == FREE) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return size + (containsZero ? 1 : 0) + largeSerials.size();
+    }
+
+    public void clear() {
+        table = new long[INITIAL_CAPACITY];
+        size = 0;
+        containsZero = false;
+        largeSerials.clear();
+    }
+
+    /**
+     * Tells whether a serial is stored in the table: {@link BigInteger#longValue()} keeps the 64 low bits, which
+     * identify positive serials of at most 64 bits.
+     */
+    protected static boolean fitsInLong(BigInteger serial) {
+        return serial.signum() >= 0 && serial.bitLength() <= 64;
+    }
+
+    private static boolean insert(long[] t, long value) {
+        int mask = t.length - 1;
+        for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+            long slot = t[i];
+            if (slot == value) {
+                return false;
+            }
+            if (slot == FREE) {
+                t[i] = value;
+                return true;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] newTable = new long[capacity];
+        for (long value : table) {
+            if (value != FREE) {
+                insert(newTable, value);
+            }
+        }
+        table = newTable;
+    }
+
+    /** Spreads serials that only differ in their low bits, such as sequential ones. */
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
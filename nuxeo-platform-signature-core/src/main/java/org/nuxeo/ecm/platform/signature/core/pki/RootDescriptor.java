@@ -34,6 +34,14 @@ import org.nuxeo.common.xmap.annotation.XObject;
 @XObject("configuration")
 public class RootDescriptor {
 
+    /**
+     * The tenant this root issues certificates for, or none for the default root.
+     *
+     * @since 7.3
+     */
+    @XNode("@tenant")
+    protected String tenant;
+
     @XNode("rootKeystoreFilePath")
     protected String rootKeystoreFilePath;
 
@@ -49,6 +57,32 @@ public class RootDescriptor {
     @XNode("rootKeyPassword")
     protected String rootKeyPassword;
 
+    /**
+     * Optional algorithm used to sign issued certificates (e.g. SHA256WithRSAEncryption, SHA256WithECDSA). Derived from
+     * the root key when missing.
+     *
+     * @since 7.3
+     */
+    @XNode("rootSignatureAlgorithm")
+    protected String rootSignatureAlgorithm;
+
+    /**
+     * Seconds between two checks of the keystore file for changes, 0 to never reload it. Keeps the current value when
+     * missing.
+     *
+     * @since 7.3
+     */
+    @XNode("reloadInterval")
+    protected Integer reloadInterval;
+
+    /**
+     * Loads the root keystore in the background once the application is started, instead of on first use.
+     *
+     * @since 7.3
+     */
+    @XNode("prewarm")
+    protected Boolean prewarm;
+
     public String getRootKeyAlias() {
         return rootKeyAlias;
     }
@@ -81,6 +115,38 @@ public class RootDescriptor {
         this.rootCertificateAlias = rootCertificateAlias;
     }
 
+    public String getRootSignatureAlgorithm() {
+        return rootSignatureAlgorithm;
+    }
+
+    public void setRootSignatureAlgorithm(String rootSignatureAlgorithm) {
+        this.rootSignatureAlgorithm = rootSignatureAlgorithm;
+    }
+
+    public Integer getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setReloadInterval(Integer reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    public Boolean getPrewarm() {
+        return prewarm;
+    }
+
+    public void setPrewarm(Boolean prewarm) {
+        this.prewarm = prewarm;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
     public String getRootKeystoreFilePath() {
         return rootKeystoreFilePath;
     }
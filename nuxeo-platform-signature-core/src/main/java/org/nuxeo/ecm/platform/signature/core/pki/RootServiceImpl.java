@@ -21,25 +21,71 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.pki.RootService;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.model.DefaultComponent;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
 /**
+ * The root keystore is read and the root key decrypted on first use, or in the background once the application is
+ * started when {@code prewarm} is configured, so that nodes which never sign do not load it at startup.
+ * <p>
+ * When intermediate CAs are configured, user certificates are issued by each of them in turn and the root key is only
+ * needed to check them. The chain of each issuer is built and parsed once, and rebuilt only when the root changes.
+ * The chains of a root replaced while the server runs are kept, so that the certificates it issued remain usable
+ * until they are reissued.
+ * <p>
+ * Contributions with a {@code tenant} attribute configure the root of that tenant instead, another instance of this
+ * class with its own key material, reloading, intermediates and issuance counter.
+ *
  * @author <a href="mailto:ws@nuxeo.com">Wojciech Sulejman</a>
  */
 public class RootServiceImpl extends DefaultComponent implements RootService {
 
+    private static final Log log = LogFactory.getLog(RootServiceImpl.class);
+
+    protected static final String XP_ROOT = "rootconfig";
+
+    /** @since 7.3 */
+    protected static final String XP_INTERMEDIATE = "intermediate";
+
+    /** In seconds. */
+    protected static final int DEFAULT_RELOAD_INTERVAL = 10;
+
     private KeyStore rootKeyStore;
 
     private String rootKeystoreFilePath;
@@ -52,10 +98,120 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
 
     private String rootKeyPassword;
 
+    private String rootSignatureAlgorithm;
+
     protected List<RootDescriptor> config;
 
+    /**
+     * Current root, {@code null} until first used or after a setter changed the configuration.
+     *
+     * @since 7.3
+     */
+    protected final AtomicReference<RootSnapshot> snapshot = new AtomicReference<RootSnapshot>();
+
+    /** In milliseconds. */
+    protected volatile long reloadInterval = DEFAULT_RELOAD_INTERVAL * 1000L;
+
+    protected volatile long lastReloadCheck;
+
+    protected volatile boolean prewarm;
+
+    /**
+     * Intermediate CAs by id, in contribution order. Guarded by this.
+     *
+     * @since 7.3
+     */
+    protected final Map<String, IntermediateDescriptor> intermediates;
+
+    /**
+     * Issuers built for the current root, {@code null} until first used or after the intermediates changed.
+     *
+     * @since 7.3
+     */
+    protected volatile Issuers issuers;
+
+    protected final AtomicInteger nextIssuer = new AtomicInteger();
+
+    /**
+     * Chains of the roots replaced while the server runs, and of their intermediates, by key identifier. The
+     * certificates they issued are still signed with and trusted until they are reissued, see
+     * {@link org.nuxeo.ecm.platform.signature.core.user.RootRollover}. Replaced as a whole.
+     *
+     * @since 7.3
+     */
+    protected volatile Map<String, IssuerChain> retiredChains = Collections.emptyMap();
+
+    /**
+     * Keys of the retired CAs by key identifier, so that they can still sign the revocation data of the certificates
+     * they issued. Replaced as a whole, together with {@link #retiredChains}.
+     *
+     * @since 7.3
+     */
+    protected volatile Map<String, KeyStore.PrivateKeyEntry> retiredKeys = Collections.emptyMap();
+
+    /**
+     * The CAs issuing user certificates, and the chains and keys of all the CAs, root included, by key identifier.
+     *
+     * @since 7.3
+     */
+    protected static class Issuers {
+
+        protected final RootSnapshot root;
+
+        protected final KeyStore.PrivateKeyEntry[] entries;
+
+        protected final Map<String, IssuerChain> chains;
+
+        protected final Map<String, KeyStore.PrivateKeyEntry> keys;
+
+        protected Issuers(RootSnapshot root, KeyStore.PrivateKeyEntry[] entries, Map<String, IssuerChain> chains,
+                Map<String, KeyStore.PrivateKeyEntry> keys) {
+            this.root = root;
+            this.entries = entries;
+            this.chains = Collections.unmodifiableMap(chains);
+            this.keys = Collections.unmodifiableMap(keys);
+        }
+    }
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    /** Time taken to read the root keystore and decrypt the root key. */
+    protected final Timer loadTimer = registry.timer(MetricRegistry.name("nuxeo", "signature", "root", "load"));
+
     private static final String KEYSTORE_TYPE = "JKS";
 
+    /**
+     * The tenant of this root, {@code null} for the default root.
+     *
+     * @since 7.3
+     */
+    protected final String tenant;
+
+    /**
+     * Roots of the tenants, each with its own key material, issuers and counters. Only used by the default root.
+     *
+     * @since 7.3
+     */
+    protected final ConcurrentMap<String, RootServiceImpl> tenantRoots;
+
+    /** Certificates issued from this root or its intermediates. */
+    protected final Meter issuedMeter;
+
+    public RootServiceImpl() {
+        this(null);
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected RootServiceImpl(String tenant) {
+        this.tenant = tenant;
+        intermediates = new LinkedHashMap<String, IntermediateDescriptor>();
+        tenantRoots = new ConcurrentHashMap<String, RootServiceImpl>();
+        issuedMeter = registry.meter(MetricRegistry.name("nuxeo", "signature", "root",
+                tenant == null ? "default" : "tenant-" + tenant, "issued"));
+    }
+
     @Override
     public void activate(ComponentContext context) {
         config = new ArrayList<RootDescriptor>();
@@ -63,12 +219,21 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
 
     @Override
     public KeyStore getRootKeyStore() {
+        if (rootKeyStore == null && rootKeystoreFilePath != null) {
+            try {
+                return getRootSnapshot().getKeyStore();
+            } catch (CertException e) {
+                log.error("Cannot load root keystore " + rootKeystoreFilePath, e);
+                return null;
+            }
+        }
         return rootKeyStore;
     }
 
     @Override
-    public void setRootKeyStore(KeyStore rootKeyStore) {
+    public synchronized void setRootKeyStore(KeyStore rootKeyStore) {
         this.rootKeyStore = rootKeyStore;
+        snapshot.set(null);
     }
 
     @Override
@@ -77,8 +242,9 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     }
 
     @Override
-    public void setRootKeystoreFilePath(String rootKeystoreFilePath) {
+    public synchronized void setRootKeystoreFilePath(String rootKeystoreFilePath) {
         this.rootKeystoreFilePath = rootKeystoreFilePath;
+        snapshot.set(null);
     }
 
     @Override
@@ -87,8 +253,9 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     }
 
     @Override
-    public void setRootKeystorePassword(String rootKeystorePassword) {
+    public synchronized void setRootKeystorePassword(String rootKeystorePassword) {
         this.rootKeystorePassword = rootKeystorePassword;
+        snapshot.set(null);
     }
 
     @Override
@@ -97,8 +264,20 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     }
 
     @Override
-    public void setRootCertificateAlias(String rootCertificateAlias) {
+    public synchronized void setRootCertificateAlias(String rootCertificateAlias) {
         this.rootCertificateAlias = rootCertificateAlias;
+        snapshot.set(null);
+    }
+
+    @Override
+    public String getRootSignatureAlgorithm() {
+        return rootSignatureAlgorithm;
+    }
+
+    @Override
+    public synchronized void setRootSignatureAlgorithm(String rootSignatureAlgorithm) {
+        this.rootSignatureAlgorithm = rootSignatureAlgorithm;
+        snapshot.set(null);
     }
 
     @Override
@@ -107,8 +286,9 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     }
 
     @Override
-    public void setRootKeyAlias(String rootKeyAlias) {
+    public synchronized void setRootKeyAlias(String rootKeyAlias) {
         this.rootKeyAlias = rootKeyAlias;
+        snapshot.set(null);
     }
 
     @Override
@@ -117,25 +297,31 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     }
 
     @Override
-    public void setRootKeyPassword(String rootKeyPassword) {
+    public synchronized void setRootKeyPassword(String rootKeyPassword) {
         this.rootKeyPassword = rootKeyPassword;
+        snapshot.set(null);
     }
 
+    /**
+     * Tells whether the root is fully configured. The keystore itself may not be loaded yet.
+     */
     @Override
     public boolean isRootSetup() {
         boolean rootIsSetup = false;
-        if (rootKeyStore != null && rootKeystorePassword != null && rootCertificateAlias != null
-                && rootKeyAlias != null && rootKeyPassword != null) {
+        if ((rootKeyStore != null || rootKeystoreFilePath != null) && rootKeystorePassword != null
+                && rootCertificateAlias != null && rootKeyAlias != null && rootKeyPassword != null) {
             rootIsSetup = true;
         }
         return rootIsSetup;
     }
 
-    protected void initializeRoot() throws CertException {
+    protected synchronized void initializeRoot() throws CertException {
         for (RootDescriptor certDescriptor : config) {
             if (certDescriptor.getRootKeystoreFilePath() != null) {
                 setRootKeystoreFilePath(certDescriptor.getRootKeystoreFilePath());
-            } else if (getRootKeyStore() == null) {
+                // read again on next use
+                setRootKeyStore(null);
+            } else if (rootKeyStore == null && rootKeystoreFilePath == null) {
                 throw new CertException("Keystore path is missing");
             }
             if (certDescriptor.getRootCertificateAlias() != null) {
@@ -158,9 +344,117 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
             } else {
                 throw new CertException("You have to provide root key password");
             }
+            if (certDescriptor.getRootSignatureAlgorithm() != null) {
+                setRootSignatureAlgorithm(certDescriptor.getRootSignatureAlgorithm());
+            }
+            if (certDescriptor.getReloadInterval() != null) {
+                reloadInterval = certDescriptor.getReloadInterval().intValue() * 1000L;
+            }
+            if (certDescriptor.getPrewarm() != null) {
+                prewarm = certDescriptor.getPrewarm().booleanValue();
+            }
+        }
+        snapshot.set(null);
+    }
+
+    /**
+     * Reads the keystore unless it was set directly, and decrypts the root key.
+     *
+     * @since 7.3
+     */
+    protected RootSnapshot loadRoot() throws CertException {
+        long start = System.nanoTime();
+        KeyStore keystore = rootKeyStore;
+        if (keystore == null) {
+            if (rootKeystoreFilePath == null) {
+                throw new CertException("Root keystore is not configured");
+            }
+            InputStream in = getRootKeystoreIS();
+            if (in == null) {
+                throw new CertException("Root keystore not found: " + rootKeystoreFilePath);
+            }
+            try {
+                keystore = getKeyStore(in, rootKeystorePassword);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            rootKeyStore = keystore;
+        }
+        RootSnapshot loaded = RootSnapshot.create(keystore, rootCertificateAlias, rootKeyAlias, rootKeyPassword,
+                getRootKeystoreFile());
+        long elapsed = System.nanoTime() - start;
+        loadTimer.update(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Loaded root certificate " + loaded.getFingerprint() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        return loaded;
+    }
+
+    /**
+     * Returns the current root. When it was read from a file, the file is checked for changes at most once per reload
+     * interval, and a changed keystore replaces the current root at once. A keystore that cannot be read, for instance
+     * while it is being written, leaves the current root in place until the next check.
+     *
+     * @since 7.3
+     */
+    public RootSnapshot getRootSnapshot() throws CertException {
+        RootSnapshot current = snapshot.get();
+        if (current != null && !isReloadCheckDue(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot.get();
+            if (current == null) {
+                current = loadRoot();
+                snapshot.set(current);
+            } else if (isReloadCheckDue(current)) {
+                lastReloadCheck = System.currentTimeMillis();
+                if (current.isModified()) {
+                    current = reload(current);
+                }
+            }
+            return current;
+        }
+    }
+
+    protected boolean isReloadCheckDue(RootSnapshot current) {
+        return current.getFile() != null && reloadInterval > 0
+                && System.currentTimeMillis() - lastReloadCheck >= reloadInterval;
+    }
+
+    protected RootSnapshot reload(RootSnapshot current) {
+        File file = current.getFile();
+        RootSnapshot reloaded;
+        try {
+            KeyStore keystore;
+            InputStream in = new FileInputStream(file);
+            try {
+                keystore = getKeyStore(in, rootKeystorePassword);
+            } finally {
+                in.close();
+            }
+            reloaded = RootSnapshot.create(keystore, rootCertificateAlias, rootKeyAlias, rootKeyPassword, file);
+        } catch (CertException e) {
+            log.warn("Cannot reload root keystore " + file + ", keeping the current root: " + e.getMessage());
+            return current;
+        } catch (IOException e) {
+            log.warn("Cannot reload root keystore " + file + ", keeping the current root: " + e.getMessage());
+            return current;
         }
-        KeyStore keystore = getKeyStore(getRootKeystoreIS(), getRootKeystorePassword());
-        setRootKeyStore(keystore);
+        rootKeyStore = reloaded.getKeyStore();
+        snapshot.set(reloaded);
+        log.info("Reloaded root keystore " + file + ", root certificate " + reloaded.getFingerprint());
+        return reloaded;
+    }
+
+    /**
+     * Returns the keystore file if it is on the file system rather than a resource, {@code null} otherwise.
+     */
+    protected File getRootKeystoreFile() {
+        if (rootKeystoreFilePath == null) {
+            return null;
+        }
+        File file = new File(rootKeystoreFilePath);
+        return file.isFile() ? file : null;
     }
 
     public KeyStore getKeyStore(InputStream keystoreIS, String password) throws CertException {
@@ -182,16 +476,24 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
 
     @Override
     public InputStream getRootKeystoreIS() throws CertException {
+        return getKeystoreIS(getRootKeystoreFilePath());
+    }
+
+    /**
+     * Opens a keystore from the file system, or from the class path if there is no such file.
+     *
+     * @since 7.3
+     */
+    protected InputStream getKeystoreIS(String keystoreFilePath) throws CertException {
         InputStream keystoreIS = null;
         File rootKeystoreFile = null;
         try {
-            rootKeystoreFile = new File(getRootKeystoreFilePath());
+            rootKeystoreFile = new File(keystoreFilePath);
             if (rootKeystoreFile.exists()) {
                 keystoreIS = new FileInputStream(rootKeystoreFile);
             } else {// try a temporary resource keystore instead of a
                 // configurable one
-                keystoreIS = Thread.currentThread().getContextClassLoader().getResourceAsStream(
-                        getRootKeystoreFilePath());
+                keystoreIS = Thread.currentThread().getContextClassLoader().getResourceAsStream(keystoreFilePath);
             }
         } catch (FileNotFoundException e) {
             // try local path
@@ -206,14 +508,301 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
     /**
      * Public certificate for the CA root. Encoded as an ASN.1 DER ("anybody there?") formatted byte array.
      */
+    @Override
     public byte[] getRootPublicCertificate() throws CertException {
-        X509Certificate certificate;
-        try {
-            certificate = getCertificate(getRootKeyStore(), getRootCertificateAlias());
-            return certificate.getEncoded();
-        } catch (Exception e) {
-            throw new CertException(e);
+        return getRootSnapshot().getEncoded().clone();
+    }
+
+    @Override
+    public byte[] getRootPublicCertificatePEM() throws CertException {
+        return getRootSnapshot().getPEM().clone();
+    }
+
+    @Override
+    public KeyStore.PrivateKeyEntry getRootKeyEntry() throws CertException {
+        return getRootSnapshot().getKeyEntry();
+    }
+
+    @Override
+    public KeyStore.PrivateKeyEntry getIssuerKeyEntry() throws CertException {
+        KeyStore.PrivateKeyEntry[] entries = getIssuers().entries;
+        issuedMeter.mark();
+        return entries[(nextIssuer.getAndIncrement() & Integer.MAX_VALUE) % entries.length];
+    }
+
+    @Override
+    public X509Certificate[] getIssuerChain(X509Certificate certificate) throws CertException {
+        IssuerChain chain = getEncodedIssuerChain(certificate);
+        return chain == null ? null : chain.getCertificates();
+    }
+
+    /**
+     * Returns the parsed chain of the CA that issued a certificate, found by the authority key identifier of the
+     * certificate or else by its issuer name, or {@code null} if it was not issued by one of the known CAs.
+     *
+     * @since 7.3
+     */
+    public IssuerChain getEncodedIssuerChain(X509Certificate certificate) throws CertException {
+        String keyIdentifier = IssuerChain.getAuthorityKeyIdentifier(certificate);
+        IssuerChain chain = findCurrentIssuerChain(certificate, keyIdentifier);
+        if (chain == null) {
+            chain = findIssuerChain(retiredChains, certificate, keyIdentifier);
+        }
+        for (Iterator<RootServiceImpl> it = tenantRoots.values().iterator(); chain == null && it.hasNext();) {
+            chain = findIssuerChain(it.next().retiredChains, certificate, keyIdentifier);
+        }
+        return chain;
+    }
+
+    /**
+     * Tells whether a certificate was issued by the current root of this service or of a tenant, or by one of their
+     * intermediate CAs, rather than by a retired root.
+     *
+     * @since 7.3
+     */
+    public boolean isCurrentIssuer(X509Certificate certificate) throws CertException {
+        return findCurrentIssuerChain(certificate, IssuerChain.getAuthorityKeyIdentifier(certificate)) != null;
+    }
+
+    protected IssuerChain findCurrentIssuerChain(X509Certificate certificate, String keyIdentifier)
+            throws CertException {
+        IssuerChain chain = null;
+        if (isRootSetup()) {
+            chain = findIssuerChain(getIssuers().chains, certificate, keyIdentifier);
+        }
+        for (Iterator<RootServiceImpl> it = tenantRoots.values().iterator(); chain == null && it.hasNext();) {
+            RootServiceImpl tenantRoot = it.next();
+            if (tenantRoot.isRootSetup()) {
+                chain = findIssuerChain(tenantRoot.getIssuers().chains, certificate, keyIdentifier);
+            }
+        }
+        return chain;
+    }
+
+    protected static IssuerChain findIssuerChain(Map<String, IssuerChain> chains, X509Certificate certificate,
+            String keyIdentifier) {
+        if (keyIdentifier != null) {
+            return chains.get(keyIdentifier);
+        }
+        X500Principal issuer = certificate.getIssuerX500Principal();
+        for (IssuerChain chain : chains.values()) {
+            if (chain.getIssuer().getSubjectX500Principal().equals(issuer)) {
+                return chain;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the chains of this root and of the roots of all the tenants that are set up, then those of the retired
+     * roots, each map changing only when its root is reloaded or its intermediates change.
+     *
+     * @since 7.3
+     */
+    public List<Map<String, IssuerChain>> getAllIssuerChains() throws CertException {
+        List<Map<String, IssuerChain>> all = new ArrayList<Map<String, IssuerChain>>(2 + 2 * tenantRoots.size());
+        if (isRootSetup()) {
+            all.add(getIssuerChains());
+        }
+        for (RootServiceImpl tenantRoot : tenantRoots.values()) {
+            if (tenantRoot.isRootSetup()) {
+                all.add(tenantRoot.getIssuerChains());
+            }
+        }
+        if (!retiredChains.isEmpty()) {
+            all.add(retiredChains);
+        }
+        for (RootServiceImpl tenantRoot : tenantRoots.values()) {
+            if (!tenantRoot.retiredChains.isEmpty()) {
+                all.add(tenantRoot.retiredChains);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the key of a CA of this root, current or retired, by its key identifier, or {@code null} if it is not
+     * one of them. Use {@link #getCARoot} first to find the root of a CA that may belong to a tenant.
+     *
+     * @since 7.3
+     */
+    public KeyStore.PrivateKeyEntry getCAKeyEntry(String keyIdentifier) throws CertException {
+        KeyStore.PrivateKeyEntry keyEntry = isRootSetup() ? getIssuers().keys.get(keyIdentifier) : null;
+        return keyEntry == null ? retiredKeys.get(keyIdentifier) : keyEntry;
+    }
+
+    /**
+     * Returns this root or the root of the tenant having a CA, current or retired, with the given key identifier, or
+     * {@code null} if none has.
+     *
+     * @since 7.3
+     */
+    public RootServiceImpl getCARoot(String keyIdentifier) throws CertException {
+        if (getCAKeyEntry(keyIdentifier) != null) {
+            return this;
+        }
+        for (RootServiceImpl tenantRoot : tenantRoots.values()) {
+            if (tenantRoot.getCAKeyEntry(keyIdentifier) != null) {
+                return tenantRoot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the chains of the retired roots by key identifier.
+     *
+     * @since 7.3
+     */
+    public Map<String, IssuerChain> getRetiredIssuerChains() {
+        return retiredChains;
+    }
+
+    @Override
+    public RootService getTenantRoot(String tenant) {
+        if (tenant == null) {
+            return this;
         }
+        RootServiceImpl tenantRoot = tenantRoots.get(tenant);
+        return tenantRoot == null ? this : tenantRoot;
+    }
+
+    @Override
+    public Set<String> getTenants() {
+        return Collections.unmodifiableSet(tenantRoots.keySet());
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Number of certificates issued from this root or its intermediates since the server started.
+     *
+     * @since 7.3
+     */
+    public long getIssuedCount() {
+        return issuedMeter.getCount();
+    }
+
+    protected RootServiceImpl getOrCreateTenantRoot(String tenant) {
+        RootServiceImpl tenantRoot = tenantRoots.get(tenant);
+        if (tenantRoot == null) {
+            tenantRoot = new RootServiceImpl(tenant);
+            tenantRoot.activate(null);
+            RootServiceImpl existing = tenantRoots.putIfAbsent(tenant, tenantRoot);
+            if (existing != null) {
+                tenantRoot = existing;
+            }
+        }
+        return tenantRoot;
+    }
+
+    /**
+     * Returns the chains of the root and of the intermediate CAs by key identifier. The same map is returned until the
+     * root is reloaded or the intermediates change.
+     *
+     * @since 7.3
+     */
+    public Map<String, IssuerChain> getIssuerChains() throws CertException {
+        return getIssuers().chains;
+    }
+
+    /**
+     * Returns the issuers built for the current root, building them again if the root was reloaded.
+     *
+     * @since 7.3
+     */
+    protected Issuers getIssuers() throws CertException {
+        RootSnapshot root = getRootSnapshot();
+        Issuers current = issuers;
+        if (current != null && current.root == root) {
+            return current;
+        }
+        synchronized (this) {
+            current = issuers;
+            if (current == null || current.root != root) {
+                Issuers previous = current;
+                current = loadIssuers(root);
+                issuers = current;
+                if (previous != null) {
+                    retire(previous, current);
+                }
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Keeps the chains of a replaced root, so that the certificates it issued can still be used until they are
+     * reissued from the new root. Reloading the same root retires nothing.
+     */
+    protected void retire(Issuers previous, Issuers current) {
+        Map<String, IssuerChain> retired = new HashMap<String, IssuerChain>(retiredChains);
+        retired.putAll(previous.chains);
+        retired.keySet().removeAll(current.chains.keySet());
+        if (retired.keySet().equals(retiredChains.keySet())) {
+            return;
+        }
+        Map<String, KeyStore.PrivateKeyEntry> keys = new HashMap<String, KeyStore.PrivateKeyEntry>(retiredKeys);
+        keys.putAll(previous.keys);
+        keys.keySet().retainAll(retired.keySet());
+        retiredKeys = Collections.unmodifiableMap(keys);
+        retiredChains = Collections.unmodifiableMap(retired);
+        if (!previous.root.getFingerprint().equals(current.root.getFingerprint())) {
+            log.warn("Root certificate " + previous.root.getFingerprint() + " replaced by "
+                    + current.root.getFingerprint() + ", the certificates it issued are still accepted until restart;"
+                    + " add it to a trust store to keep them after a restart");
+        }
+    }
+
+    protected Issuers loadIssuers(RootSnapshot root) throws CertException {
+        X509Certificate rootCertificate = root.getCertificate();
+        Map<String, IssuerChain> chains = new HashMap<String, IssuerChain>();
+        Map<String, KeyStore.PrivateKeyEntry> keys = new HashMap<String, KeyStore.PrivateKeyEntry>();
+        IssuerChain rootChain = IssuerChain.create(rootCertificate);
+        chains.put(rootChain.getKeyIdentifier(), rootChain);
+        keys.put(rootChain.getKeyIdentifier(), root.getKeyEntry());
+        List<KeyStore.PrivateKeyEntry> entries = new ArrayList<KeyStore.PrivateKeyEntry>();
+        for (IntermediateDescriptor intermediate : intermediates.values()) {
+            if (!intermediate.isEnabled()) {
+                continue;
+            }
+            KeyStore keystore;
+            InputStream in = getKeystoreIS(intermediate.getKeystoreFilePath());
+            if (in == null) {
+                throw new CertException("Intermediate keystore not found: " + intermediate.getKeystoreFilePath());
+            }
+            try {
+                keystore = getKeyStore(in, intermediate.getKeystorePassword());
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            X509Certificate certificate = getCertificate(keystore, intermediate.getCertificateAlias());
+            PrivateKey privateKey;
+            try {
+                Key key = keystore.getKey(intermediate.getKeyAlias(), intermediate.getKeyPassword().toCharArray());
+                if (!(key instanceof PrivateKey)) {
+                    throw new CertException("Intermediate key not found: " + intermediate.getKeyAlias());
+                }
+                privateKey = (PrivateKey) key;
+                certificate.verify(rootCertificate.getPublicKey());
+            } catch (GeneralSecurityException e) {
+                throw new CertException("Intermediate CA " + intermediate.getId() + " is not usable with root "
+                        + root.getFingerprint(), e);
+            }
+            IssuerChain chain = IssuerChain.create(certificate, rootCertificate);
+            chains.put(chain.getKeyIdentifier(), chain);
+            KeyStore.PrivateKeyEntry entry = new KeyStore.PrivateKeyEntry(privateKey, chain.getCertificates());
+            keys.put(chain.getKeyIdentifier(), entry);
+            entries.add(entry);
+        }
+        if (entries.isEmpty()) {
+            entries.add(root.getKeyEntry());
+        } else {
+            log.info("Issuing user certificates from " + entries.size() + " intermediate CAs");
+        }
+        return new Issuers(root, entries.toArray(new KeyStore.PrivateKeyEntry[entries.size()]), chains, keys);
     }
 
     // custom certificate type for the root certificate
@@ -235,9 +824,46 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
         return certificate;
     }
 
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        for (RootServiceImpl tenantRoot : tenantRoots.values()) {
+            tenantRoot.applicationStarted(context);
+        }
+        if (!prewarm || !isRootSetup()) {
+            return;
+        }
+        // overlaps with the rest of the startup instead of delaying the first signature
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BouncyCastle.register();
+                try {
+                    getRootSnapshot();
+                } catch (CertException e) {
+                    log.error("Cannot load root keystore " + rootKeystoreFilePath, e);
+                }
+            }
+        }, tenant == null ? "Nuxeo-Signature-RootPrewarm" : "Nuxeo-Signature-RootPrewarm-" + tenant);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     @Override
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor)
             throws CertException {
+        String contributionTenant = getTenant(contribution);
+        if (tenant == null && contributionTenant != null) {
+            getOrCreateTenantRoot(contributionTenant).registerContribution(contribution, extensionPoint, contributor);
+            return;
+        }
+        if (XP_INTERMEDIATE.equals(extensionPoint)) {
+            IntermediateDescriptor intermediate = (IntermediateDescriptor) contribution;
+            synchronized (this) {
+                intermediates.put(intermediate.getId(), intermediate);
+                issuers = null;
+            }
+            return;
+        }
         config.add((RootDescriptor) contribution);
         initializeRoot();
         if (!isRootSetup()) {
@@ -247,7 +873,35 @@ public class RootServiceImpl extends DefaultComponent implements RootService {
 
     @Override
     public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        String contributionTenant = getTenant(contribution);
+        if (tenant == null && contributionTenant != null) {
+            RootServiceImpl tenantRoot = tenantRoots.get(contributionTenant);
+            if (tenantRoot != null) {
+                tenantRoot.unregisterContribution(contribution, extensionPoint, contributor);
+            }
+            return;
+        }
+        if (XP_INTERMEDIATE.equals(extensionPoint)) {
+            IntermediateDescriptor intermediate = (IntermediateDescriptor) contribution;
+            synchronized (this) {
+                if (intermediates.get(intermediate.getId()) == intermediate) {
+                    intermediates.remove(intermediate.getId());
+                    issuers = null;
+                }
+            }
+            return;
+        }
         config.remove(contribution);
     }
 
-}
\ No newline at end of file
+    protected static String getTenant(Object contribution) {
+        String tenant = null;
+        if (contribution instanceof RootDescriptor) {
+            tenant = ((RootDescriptor) contribution).getTenant();
+        } else if (contribution instanceof IntermediateDescriptor) {
+            tenant = ((IntermediateDescriptor) contribution).getTenant();
+        }
+        return tenant == null || tenant.trim().isEmpty() ? null : tenant.trim();
+    }
+
+}
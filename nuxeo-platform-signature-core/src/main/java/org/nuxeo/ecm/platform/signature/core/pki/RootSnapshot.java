@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import org.nuxeo.common.utils.Base64;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Immutable view of the CA root: the keystore, the root certificate with its DER and PEM encodings, and the decrypted
+ * root key.
+ * <p>
+ * A snapshot read from a file remembers its modification time and size, so that a changed file can be detected and a
+ * new snapshot swapped in without callers ever mixing the key of one root with the certificate of another.
+ *
+ * @since 7.3
+ */
+public class RootSnapshot {
+
+    protected final KeyStore keyStore;
+
+    protected final X509Certificate certificate;
+
+    protected final KeyStore.PrivateKeyEntry keyEntry;
+
+    protected final byte[] encoded;
+
+    protected final byte[] pem;
+
+    protected final String fingerprint;
+
+    protected final File file;
+
+    protected final long lastModified;
+
+    protected final long length;
+
+    protected RootSnapshot(KeyStore keyStore, X509Certificate certificate, PrivateKey privateKey, File file)
+            throws CertException {
+        this.keyStore = keyStore;
+        this.certificate = certificate;
+        keyEntry = new KeyStore.PrivateKeyEntry(privateKey, new Certificate[] { certificate });
+        try {
+            encoded = certificate.getEncoded();
+            fingerprint = toHex(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+        pem = toPEM(encoded);
+        this.file = file;
+        lastModified = file == null ? 0 : file.lastModified();
+        length = file == null ? 0 : file.length();
+    }
+
+    /**
+     * Reads the root certificate and decrypts the root key.
+     *
+     * @param file the file the keystore was read from, or {@code null} if it cannot change
+     */
+    public static RootSnapshot create(KeyStore keyStore, String certificateAlias, String keyAlias,
+            String keyPassword, File file) throws CertException {
+        if (keyStore == null) {
+            throw new CertException("Keystore missing for " + certificateAlias);
+        }
+        try {
+            Certificate certificate = keyStore.getCertificate(certificateAlias);
+            if (!(certificate instanceof X509Certificate)) {
+                throw new CertException("Certificate not found");
+            }
+            Key key = keyStore.getKey(keyAlias, keyPassword.toCharArray());
+            if (!(key instanceof PrivateKey)) {
+                throw new CertException("Root key not found: " + keyAlias);
+            }
+            return new RootSnapshot(keyStore, (X509Certificate) certificate, (PrivateKey) key, file);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+    }
+
+    public KeyStore getKeyStore() {
+        return keyStore;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return keyEntry.getPrivateKey();
+    }
+
+    /**
+     * Returns the root key with the root certificate, the same instance for the lifetime of the snapshot.
+     */
+    public KeyStore.PrivateKeyEntry getKeyEntry() {
+        return keyEntry;
+    }
+
+    /**
+     * DER encoding of the root certificate. The array is shared and must not be modified.
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * PEM encoding of the root certificate. The array is shared and must not be modified.
+     */
+    public byte[] getPEM() {
+        return pem;
+    }
+
+    /**
+     * Lowercase hexadecimal SHA-256 digest of the root certificate.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Tells whether the keystore file was changed since the snapshot was read.
+     */
+    public boolean isModified() {
+        return file != null && (file.lastModified() != lastModified || file.length() != length);
+    }
+
+    protected static byte[] toPEM(byte[] encoded) {
+        String base64 = Base64.encodeBytes(encoded, Base64.DONT_BREAK_LINES);
+        StringBuilder sb = new StringBuilder(base64.length() + base64.length() / 64 + 64);
+        sb.append("-----BEGIN CERTIFICATE-----\n");
+        for (int i = 0; i < base64.length(); i += 64) {
+            sb.append(base64, i, Math.min(i + 64, base64.length())).append('\n');
+        }
+        sb.append("-----END CERTIFICATE-----\n");
+        // base64 is ASCII
+        byte[] bytes = new byte[sb.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) sb.charAt(i);
+        }
+        return bytes;
+    }
+
+    protected static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
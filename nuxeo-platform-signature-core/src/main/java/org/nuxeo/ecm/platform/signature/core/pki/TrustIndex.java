@@ -0,0 +1,258 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.user.cache.PublicCertificateCache;
+
+/**
+ * Immutable index of trusted certificates by subject key identifier and by subject name, so that the issuer of a
+ * certificate is found by a hash lookup whatever the number of trusted CAs.
+ * <p>
+ * Paths built from the index are cached by certificate fingerprint, including the absence of a path, for the lifetime
+ * of the index. Validity periods are not part of the cached result and are checked on each lookup.
+ *
+ * @since 7.3
+ */
+public class TrustIndex {
+
+    /** Longest path followed, leaf and root included. */
+    protected static final int MAX_PATH_LENGTH = 10;
+
+    protected static final X509Certificate[] NO_PATH = new X509Certificate[0];
+
+    protected final Map<String, List<TrustedCertificate>> bySubjectKeyIdentifier;
+
+    protected final Map<X500Principal, List<TrustedCertificate>> bySubject;
+
+    protected final ConcurrentMap<String, X509Certificate[]> paths;
+
+    protected final int maxCachedPaths;
+
+    /**
+     * What the index was built from, to tell when it must be built again.
+     */
+    protected final Object source;
+
+    protected static class TrustedCertificate {
+
+        protected final X509Certificate certificate;
+
+        /** A root, trusted by itself; other certificates must chain to a root. */
+        protected final boolean anchor;
+
+        protected TrustedCertificate(X509Certificate certificate, boolean anchor) {
+            this.certificate = certificate;
+            this.anchor = anchor;
+        }
+    }
+
+    protected TrustIndex(Map<String, List<TrustedCertificate>> bySubjectKeyIdentifier,
+            Map<X500Principal, List<TrustedCertificate>> bySubject, int maxCachedPaths, Object source) {
+        this.bySubjectKeyIdentifier = bySubjectKeyIdentifier;
+        this.bySubject = bySubject;
+        this.maxCachedPaths = maxCachedPaths;
+        this.source = source;
+        paths = new ConcurrentHashMap<String, X509Certificate[]>();
+    }
+
+    /**
+     * Indexes certificates. Self-signed certificates are roots, the other ones are intermediate CAs that must chain to
+     * one of the roots.
+     */
+    public static TrustIndex create(List<X509Certificate> certificates, int maxCachedPaths, Object source)
+            throws CertException {
+        Map<String, List<TrustedCertificate>> bySubjectKeyIdentifier = new HashMap<String, List<TrustedCertificate>>();
+        Map<X500Principal, List<TrustedCertificate>> bySubject = new HashMap<X500Principal, List<TrustedCertificate>>();
+        for (X509Certificate certificate : certificates) {
+            TrustedCertificate trusted = new TrustedCertificate(certificate, isSelfSigned(certificate));
+            if (contains(bySubject.get(certificate.getSubjectX500Principal()), certificate)) {
+                continue;
+            }
+            add(bySubjectKeyIdentifier, IssuerChain.getKeyIdentifier(certificate), trusted);
+            add(bySubject, certificate.getSubjectX500Principal(), trusted);
+        }
+        return new TrustIndex(bySubjectKeyIdentifier, bySubject, maxCachedPaths, source);
+    }
+
+    protected static <K> void add(Map<K, List<TrustedCertificate>> map, K key, TrustedCertificate trusted) {
+        List<TrustedCertificate> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<TrustedCertificate>(1);
+            map.put(key, list);
+        }
+        list.add(trusted);
+    }
+
+    protected static boolean contains(List<TrustedCertificate> list, X509Certificate certificate) {
+        if (list != null) {
+            for (TrustedCertificate trusted : list) {
+                if (trusted.certificate.equals(certificate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isSelfSigned(X509Certificate certificate) {
+        if (!certificate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())) {
+            return false;
+        }
+        try {
+            certificate.verify(certificate.getPublicKey());
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    public Object getSource() {
+        return source;
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<TrustedCertificate> list : bySubject.values()) {
+            size += list.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the trusted certificate that issued a certificate and whose key verifies its signature, or {@code null}.
+     * Candidates are looked up by the authority key identifier of the certificate, or by its issuer name when it has
+     * none.
+     */
+    public X509Certificate findIssuer(X509Certificate certificate) throws CertException {
+        TrustedCertificate issuer = findTrustedIssuer(certificate, 0);
+        return issuer == null ? null : issuer.certificate;
+    }
+
+    /**
+     * @param below the number of intermediate CAs between the issuer and the leaf
+     */
+    protected TrustedCertificate findTrustedIssuer(X509Certificate certificate, int below) throws CertException {
+        List<TrustedCertificate> candidates = null;
+        String keyIdentifier = IssuerChain.getAuthorityKeyIdentifier(certificate);
+        if (keyIdentifier != null) {
+            candidates = bySubjectKeyIdentifier.get(keyIdentifier);
+        }
+        if (candidates == null) {
+            candidates = bySubject.get(certificate.getIssuerX500Principal());
+        }
+        if (candidates == null) {
+            return null;
+        }
+        for (TrustedCertificate candidate : candidates) {
+            if (!candidate.anchor && !isCA(candidate.certificate, below)) {
+                continue;
+            }
+            try {
+                certificate.verify(candidate.certificate.getPublicKey());
+                return candidate;
+            } catch (GeneralSecurityException e) {
+                // same name or key identifier, other key
+                continue;
+            }
+        }
+        return null;
+    }
+
+    protected static boolean isCA(X509Certificate certificate, int below) {
+        if (certificate.getBasicConstraints() < below) {
+            // not a CA (-1), or path too long
+            return false;
+        }
+        boolean[] keyUsage = certificate.getKeyUsage();
+        // keyCertSign
+        return keyUsage == null || keyUsage.length > 5 && keyUsage[5];
+    }
+
+    /**
+     * Returns the path of a certificate up to a trusted root, leaf first, or {@code null} if there is none. The path
+     * is built once per certificate and cached.
+     */
+    public X509Certificate[] getPath(X509Certificate certificate) throws CertException {
+        String fingerprint = PublicCertificateCache.getFingerprint(certificate);
+        X509Certificate[] path = paths.get(fingerprint);
+        if (path == null) {
+            path = buildPath(certificate);
+            if (paths.size() >= maxCachedPaths) {
+                evict();
+            }
+            paths.put(fingerprint, path);
+        }
+        return path == NO_PATH ? null : path;
+    }
+
+    protected X509Certificate[] buildPath(X509Certificate certificate) throws CertException {
+        List<X509Certificate> path = new ArrayList<X509Certificate>(4);
+        path.add(certificate);
+        if (isAnchor(certificate)) {
+            return path.toArray(new X509Certificate[1]);
+        }
+        X509Certificate current = certificate;
+        while (path.size() < MAX_PATH_LENGTH) {
+            TrustedCertificate issuer = findTrustedIssuer(current, path.size() - 1);
+            if (issuer == null) {
+                return NO_PATH;
+            }
+            path.add(issuer.certificate);
+            if (issuer.anchor) {
+                return path.toArray(new X509Certificate[path.size()]);
+            }
+            current = issuer.certificate;
+        }
+        return NO_PATH;
+    }
+
+    protected boolean isAnchor(X509Certificate certificate) {
+        List<TrustedCertificate> list = bySubject.get(certificate.getSubjectX500Principal());
+        if (list != null) {
+            for (TrustedCertificate trusted : list) {
+                if (trusted.anchor && trusted.certificate.equals(certificate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected void evict() {
+        // no need for LRU, the cache only saves signature checks
+        Iterator<String> it = paths.keySet().iterator();
+        for (int i = maxCachedPaths / 2; i > 0 && it.hasNext(); i--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public int getCachedPathCount() {
+        return paths.size();
+    }
+
+}
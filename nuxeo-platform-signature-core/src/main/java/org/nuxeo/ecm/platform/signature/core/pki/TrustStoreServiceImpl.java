@@ -0,0 +1,274 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.api.pki.TrustStoreService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * Indexes the root and intermediate CAs of this module and the contributed trust stores in a {@link TrustIndex}.
+ * <p>
+ * The index is built on first use, and built again when the trust stores change or when the root or intermediate CAs
+ * of this module are reloaded.
+ *
+ * @since 7.3
+ */
+public class TrustStoreServiceImpl extends DefaultComponent implements TrustStoreService {
+
+    private static final Log log = LogFactory.getLog(TrustStoreServiceImpl.class);
+
+    protected static final String XP_TRUSTSTORE = "truststore";
+
+    protected static final int DEFAULT_MAX_CACHED_PATHS = 10000;
+
+    /** Contributed trust stores by id. Guarded by this. */
+    protected final Map<String, TrustStoreDescriptor> trustStores = new LinkedHashMap<String, TrustStoreDescriptor>();
+
+    /** Certificates of the contributed trust stores, {@code null} until read. Guarded by this. */
+    protected List<X509Certificate> contributedCertificates;
+
+    protected volatile TrustIndex index;
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final Timer buildTimer = registry.timer(MetricRegistry.name("nuxeo", "signature", "truststore",
+            "build"));
+
+    @Override
+    public X509Certificate findIssuer(X509Certificate certificate) throws CertException {
+        return getIndex().findIssuer(certificate);
+    }
+
+    @Override
+    public X509Certificate[] getCertificationPath(X509Certificate certificate, Date date) throws CertException {
+        X509Certificate[] path = getIndex().getPath(certificate);
+        if (path == null) {
+            return null;
+        }
+        if (date != null) {
+            for (X509Certificate pathCertificate : path) {
+                if (date.before(pathCertificate.getNotBefore()) || date.after(pathCertificate.getNotAfter())) {
+                    return null;
+                }
+            }
+        }
+        return path.clone();
+    }
+
+    @Override
+    public boolean isTrusted(X509Certificate certificate) throws CertException {
+        if (getIndex().getPath(certificate) == null) {
+            return false;
+        }
+        RevocationService revocationService = Framework.getLocalService(RevocationService.class);
+        return revocationService == null || !revocationService.isRevoked(certificate);
+    }
+
+    /**
+     * Returns the current index, building it again if the local CAs changed since it was built.
+     */
+    protected TrustIndex getIndex() throws CertException {
+        List<Object> source = getLocalSource();
+        TrustIndex current = index;
+        if (current != null && isSameSource(current.getSource(), source)) {
+            return current;
+        }
+        synchronized (this) {
+            current = index;
+            if (current == null || !isSameSource(current.getSource(), source)) {
+                current = buildIndex(source);
+                index = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Returns the objects whose identities change when the local CAs change: the maps of issuer chains of the default
+     * and tenant roots, or {@code null} if no root is usable.
+     */
+    protected List<Object> getLocalSource() {
+        RootService rootService = Framework.getLocalService(RootService.class);
+        if (rootService == null) {
+            return null;
+        }
+        try {
+            if (rootService instanceof RootServiceImpl) {
+                return new ArrayList<Object>(((RootServiceImpl) rootService).getAllIssuerChains());
+            }
+            if (!rootService.isRootSetup()) {
+                return null;
+            }
+            return Collections.<Object> singletonList(rootService.getRootKeyEntry());
+        } catch (CertException e) {
+            log.debug("Root CA not available, not trusted: " + e.getMessage());
+            return null;
+        }
+    }
+
+    protected static boolean isSameSource(Object previous, List<Object> source) {
+        if (previous == null || source == null) {
+            return previous == source;
+        }
+        List<?> previousList = (List<?>) previous;
+        if (previousList.size() != source.size()) {
+            return false;
+        }
+        for (int i = 0; i < source.size(); i++) {
+            if (previousList.get(i) != source.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected TrustIndex buildIndex(List<Object> source) throws CertException {
+        long start = System.nanoTime();
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>(getContributedCertificates());
+        if (source != null) {
+            for (Object local : source) {
+                if (local instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, IssuerChain> chains = (Map<String, IssuerChain>) local;
+                    for (IssuerChain chain : chains.values()) {
+                        Collections.addAll(certificates, chain.getCertificates());
+                    }
+                } else if (local instanceof KeyStore.PrivateKeyEntry) {
+                    certificates.add((X509Certificate) ((KeyStore.PrivateKeyEntry) local).getCertificate());
+                }
+            }
+        }
+        TrustIndex built = TrustIndex.create(certificates, DEFAULT_MAX_CACHED_PATHS, source);
+        long elapsed = System.nanoTime() - start;
+        buildTimer.update(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Indexed " + built.size() + " trusted certificates in " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                + " ms");
+        return built;
+    }
+
+    /**
+     * Reads the contributed trust stores. A trust store that cannot be read is skipped.
+     */
+    protected synchronized List<X509Certificate> getContributedCertificates() {
+        if (contributedCertificates != null) {
+            return contributedCertificates;
+        }
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+        for (TrustStoreDescriptor trustStore : trustStores.values()) {
+            if (!trustStore.isEnabled()) {
+                continue;
+            }
+            try {
+                certificates.addAll(readCertificates(trustStore));
+            } catch (CertException e) {
+                log.error("Cannot read trust store " + trustStore.getId(), e);
+            }
+        }
+        contributedCertificates = certificates;
+        return certificates;
+    }
+
+    protected List<X509Certificate> readCertificates(TrustStoreDescriptor trustStore) throws CertException {
+        String path = trustStore.getKeystoreFilePath();
+        if (path == null) {
+            throw new CertException("Keystore path is missing");
+        }
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+        InputStream in = null;
+        try {
+            File file = new File(path);
+            if (file.exists()) {
+                in = new FileInputStream(file);
+            } else {
+                in = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+                if (in == null) {
+                    throw new CertException("Trust store not found: " + path);
+                }
+            }
+            KeyStore keystore = KeyStore.getInstance(trustStore.getKeystoreType());
+            String password = trustStore.getKeystorePassword();
+            keystore.load(in, password == null ? null : password.toCharArray());
+            for (Enumeration<String> aliases = keystore.aliases(); aliases.hasMoreElements();) {
+                Certificate certificate = keystore.getCertificate(aliases.nextElement());
+                if (certificate instanceof X509Certificate) {
+                    certificates.add((X509Certificate) certificate);
+                }
+            }
+        } catch (IOException e) {
+            throw new CertException(e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return certificates;
+    }
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (XP_TRUSTSTORE.equals(extensionPoint)) {
+            TrustStoreDescriptor trustStore = (TrustStoreDescriptor) contribution;
+            synchronized (this) {
+                trustStores.put(trustStore.getId(), trustStore);
+                contributedCertificates = null;
+                index = null;
+            }
+        }
+    }
+
+    @Override
+    public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (XP_TRUSTSTORE.equals(extensionPoint)) {
+            TrustStoreDescriptor trustStore = (TrustStoreDescriptor) contribution;
+            synchronized (this) {
+                if (trustStores.get(trustStore.getId()) == trustStore) {
+                    trustStores.remove(trustStore.getId());
+                    contributedCertificates = null;
+                    index = null;
+                }
+            }
+        }
+    }
+
+}
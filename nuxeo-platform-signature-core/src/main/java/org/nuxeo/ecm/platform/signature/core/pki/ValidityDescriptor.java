@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Validity period of the issued user certificates.
+ *
+ * @since 7.3
+ */
+@XObject("validity")
+public class ValidityDescriptor {
+
+    @XNode("months")
+    protected int months = 12;
+
+    /**
+     * Each certificate is shortened by a random delay of up to this number of days, so that certificates issued
+     * together do not all expire together.
+     */
+    @XNode("jitterDays")
+    protected int jitterDays = 30;
+
+    public int getMonths() {
+        return months;
+    }
+
+    public void setMonths(int months) {
+        this.months = months;
+    }
+
+    public int getJitterDays() {
+        return jitterDays;
+    }
+
+    public void setJitterDays(int jitterDays) {
+        this.jitterDays = jitterDays;
+    }
+
+}
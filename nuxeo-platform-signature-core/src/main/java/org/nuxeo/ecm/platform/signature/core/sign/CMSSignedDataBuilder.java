@@ -0,0 +1,524 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DEREncodable;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.IssuerAndSerialNumber;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.cms.SignerIdentifier;
+import org.bouncycastle.asn1.cms.SignerInfo;
+import org.bouncycastle.asn1.cms.Time;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.X509CertificateStructure;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.jce.PrincipalUtil;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+import org.nuxeo.ecm.platform.signature.core.pki.BouncyCastle;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerChain;
+
+/**
+ * Builds detached CMS (PKCS#7) signatures for the {@code adbe.pkcs7.detached} PDF signature sub-filter.
+ * <p>
+ * iText 2.1 only builds PKCS#7 structures for RSA and DSA keys, always digesting with SHA-1 in self-signed mode. This
+ * builder supports RSA and ECDSA keys with a configurable digest, and can read back the signing certificate of
+ * signatures iText cannot parse.
+ * <p>
+ * When a {@link TimestampClient} is set, the signature value is timestamped and the token is added as the
+ * {@code signatureTimeStampToken} unsigned attribute.
+ * <p>
+ * A builder is not thread-safe, but can be reused for any number of signatures: the signature engine and the parsed
+ * signing certificate are kept from one signature to the next.
+ *
+ * @since 7.3
+ */
+public class CMSSignedDataBuilder {
+
+    protected static final String BC_PROVIDER = "BC";
+
+    /** Adobe's adbe-revocationInfoArchival signed attribute, carrying revocation data for long-term validation. */
+    public static final DERObjectIdentifier ID_ADBE_REVOCATION = new DERObjectIdentifier("1.2.840.113583.1.1.8");
+
+    /** Room for the signed attributes, signature value and ASN.1 framing besides the certificates. */
+    protected static final int BASE_SIZE_ESTIMATE = 2048;
+
+    /** Room for a timestamp token, including the TSA certificate chain. */
+    protected static final int TIMESTAMP_SIZE_ESTIMATE = 8192;
+
+    static {
+        BouncyCastle.register();
+    }
+
+    protected final PrivateKey privateKey;
+
+    protected final Certificate[] chain;
+
+    protected final String digestAlgorithm;
+
+    /** Pre-parsed issuers of the signing certificate, {@code null} to parse the chain on each signature. */
+    protected final IssuerChain issuerChain;
+
+    protected List<byte[]> ocspResponses = Collections.emptyList();
+
+    protected List<byte[]> crls = Collections.emptyList();
+
+    protected TimestampClient timestampClient;
+
+    protected boolean timestamped;
+
+    /** Created on first signature. */
+    protected Signature signature;
+
+    /** Parsed on first signature. */
+    protected X509CertificateStructure signingCertificateStructure;
+
+    /** Encoded length of the chain, computed on first estimate. */
+    protected int certificatesSize = -1;
+
+    /**
+     * @param privateKey the signing key (RSA or EC)
+     * @param chain the signing certificate followed by its issuers
+     * @param digestAlgorithm the digest name as in {@link KeyParameters#getDigestAlgorithm()}
+     */
+    public CMSSignedDataBuilder(PrivateKey privateKey, Certificate[] chain, String digestAlgorithm) {
+        this.privateKey = privateKey;
+        this.chain = chain;
+        this.digestAlgorithm = digestAlgorithm;
+        issuerChain = null;
+    }
+
+    /**
+     * Builds signatures embedding an issuer chain parsed once for all the certificates it issued.
+     *
+     * @param privateKey the signing key (RSA or EC)
+     * @param certificate the signing certificate
+     * @param issuerChain the issuers of the signing certificate
+     * @param digestAlgorithm the digest name as in {@link KeyParameters#getDigestAlgorithm()}
+     * @since 7.3
+     */
+    public CMSSignedDataBuilder(PrivateKey privateKey, X509Certificate certificate, IssuerChain issuerChain,
+            String digestAlgorithm) {
+        this.privateKey = privateKey;
+        X509Certificate[] issuers = issuerChain.getCertificates();
+        chain = new Certificate[issuers.length + 1];
+        chain[0] = certificate;
+        System.arraycopy(issuers, 0, chain, 1, issuers.length);
+        this.issuerChain = issuerChain;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * Returns the signing certificate followed by its issuers.
+     *
+     * @since 7.3
+     */
+    public Certificate[] getChain() {
+        return chain.clone();
+    }
+
+    /**
+     * Sets the revocation data of the chain to embed as a signed attribute.
+     *
+     * @param ocspResponses encoded OCSP responses
+     * @param crls encoded CRLs
+     */
+    public void setRevocationData(List<byte[]> ocspResponses, List<byte[]> crls) {
+        this.ocspResponses = ocspResponses;
+        this.crls = crls;
+    }
+
+    /**
+     * Sets the client used to timestamp the signature value, {@code null} to sign without timestamp.
+     */
+    public void setTimestampClient(TimestampClient timestampClient) {
+        this.timestampClient = timestampClient;
+    }
+
+    /**
+     * Returns {@code true} if the last signature built got a timestamp token.
+     */
+    public boolean isTimestamped() {
+        return timestamped;
+    }
+
+    /**
+     * Returns an upper bound of the encoded signature size, used to reserve the PDF signature contents.
+     */
+    public int getEstimatedSize() throws SignException {
+        if (certificatesSize < 0) {
+            int size = 0;
+            try {
+                if (issuerChain == null) {
+                    for (Certificate certificate : chain) {
+                        size += certificate.getEncoded().length;
+                    }
+                } else {
+                    size += chain[0].getEncoded().length + issuerChain.getEncodedLength();
+                }
+            } catch (GeneralSecurityException e) {
+                throw new SignException(e);
+            }
+            certificatesSize = size;
+        }
+        int size = BASE_SIZE_ESTIMATE + certificatesSize;
+        for (byte[] ocspResponse : ocspResponses) {
+            size += ocspResponse.length + 16;
+        }
+        for (byte[] crl : crls) {
+            size += crl.length + 16;
+        }
+        if (timestampClient != null) {
+            size += TIMESTAMP_SIZE_ESTIMATE;
+        }
+        return size;
+    }
+
+    /**
+     * Digests the content and returns the encoded detached signature.
+     */
+    public byte[] sign(InputStream content, Date signingTime) throws SignException {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(digestAlgorithm, BC_PROVIDER);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = content.read(buffer)) > 0) {
+                messageDigest.update(buffer, 0, n);
+            }
+            return sign(messageDigest.digest(), signingTime);
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (GeneralSecurityException e) {
+            throw new SignException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded detached signature of an already computed content digest.
+     */
+    public byte[] sign(byte[] contentDigest, Date signingTime) throws SignException {
+        try {
+            X509Certificate signingCertificate = (X509Certificate) chain[0];
+            ASN1Set signedAttributes = new DERSet(getSignedAttributes(contentDigest, signingTime));
+
+            if (signature == null) {
+                signature = Signature.getInstance(
+                        KeyParameters.getSignatureAlgorithm(digestAlgorithm, privateKey.getAlgorithm()), BC_PROVIDER);
+            }
+            signature.initSign(privateKey);
+            signature.update(signedAttributes.getEncoded());
+            byte[] signatureValue = signature.sign();
+
+            AlgorithmIdentifier digestAlgorithmId = new AlgorithmIdentifier(getDigestAlgorithmOID(digestAlgorithm),
+                    DERNull.INSTANCE);
+            IssuerAndSerialNumber issuerAndSerial = new IssuerAndSerialNumber(
+                    PrincipalUtil.getIssuerX509Principal(signingCertificate), signingCertificate.getSerialNumber());
+            SignerInfo signerInfo = new SignerInfo(new SignerIdentifier(issuerAndSerial), digestAlgorithmId,
+                    signedAttributes, getEncryptionAlgorithmId(), new DEROctetString(signatureValue),
+                    getUnsignedAttributes(signatureValue));
+
+            ASN1EncodableVector certificates = new ASN1EncodableVector();
+            if (issuerChain == null) {
+                for (Certificate certificate : chain) {
+                    ASN1Object encoded = ASN1Object.fromByteArray(certificate.getEncoded());
+                    certificates.add(X509CertificateStructure.getInstance(encoded));
+                }
+            } else {
+                if (signingCertificateStructure == null) {
+                    signingCertificateStructure = X509CertificateStructure.getInstance(ASN1Object.fromByteArray(
+                            signingCertificate.getEncoded()));
+                }
+                certificates.add(signingCertificateStructure);
+                for (X509CertificateStructure issuer : issuerChain.getStructures()) {
+                    certificates.add(issuer);
+                }
+            }
+            SignedData signedData = new SignedData(new DERSet(digestAlgorithmId), new ContentInfo(
+                    CMSObjectIdentifiers.data, null), new DERSet(certificates), null, new DERSet(signerInfo));
+            // ContentInfo and SignedData default to BER, PDF signatures expect DER
+            return new ContentInfo(CMSObjectIdentifiers.signedData, signedData).getDEREncoded();
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (GeneralSecurityException e) {
+            throw new SignException(e);
+        }
+    }
+
+    protected ASN1EncodableVector getSignedAttributes(byte[] contentDigest, Date signingTime) throws SignException {
+        ASN1EncodableVector attributes = new ASN1EncodableVector();
+        attributes.add(new Attribute(CMSAttributes.contentType, new DERSet(CMSObjectIdentifiers.data)));
+        attributes.add(new Attribute(CMSAttributes.signingTime, new DERSet(new Time(signingTime))));
+        attributes.add(new Attribute(CMSAttributes.messageDigest, new DERSet(new DEROctetString(contentDigest))));
+        if (!ocspResponses.isEmpty() || !crls.isEmpty()) {
+            attributes.add(new Attribute(ID_ADBE_REVOCATION, new DERSet(getRevocationInfoArchival())));
+        }
+        return attributes;
+    }
+
+    /**
+     * Builds the RevocationInfoArchival structure:
+     *
+     * <pre>
+     * RevocationInfoArchival ::= SEQUENCE {
+     *   crl [0] EXPLICIT SEQUENCE of CRLs OPTIONAL,
+     *   ocsp [1] EXPLICIT SEQUENCE of OCSPResponse OPTIONAL,
+     *   otherRevInfo [2] EXPLICIT SEQUENCE of OtherRevInfo OPTIONAL }
+     * </pre>
+     */
+    protected DERSequence getRevocationInfoArchival() throws SignException {
+        ASN1EncodableVector revocationInfo = new ASN1EncodableVector();
+        try {
+            if (!crls.isEmpty()) {
+                ASN1EncodableVector v = new ASN1EncodableVector();
+                for (byte[] crl : crls) {
+                    v.add(ASN1Object.fromByteArray(crl));
+                }
+                revocationInfo.add(new DERTaggedObject(true, 0, new DERSequence(v)));
+            }
+            if (!ocspResponses.isEmpty()) {
+                ASN1EncodableVector v = new ASN1EncodableVector();
+                for (byte[] ocspResponse : ocspResponses) {
+                    v.add(ASN1Object.fromByteArray(ocspResponse));
+                }
+                revocationInfo.add(new DERTaggedObject(true, 1, new DERSequence(v)));
+            }
+        } catch (IOException e) {
+            throw new SignException(e);
+        }
+        return new DERSequence(revocationInfo);
+    }
+
+    /**
+     * Returns the unsigned attributes computed from the signature value, or {@code null} if there are none.
+     */
+    protected ASN1Set getUnsignedAttributes(byte[] signatureValue) throws SignException {
+        timestamped = false;
+        if (timestampClient == null) {
+            return null;
+        }
+        Attribute timestamp = getTimestampAttribute(timestampClient, digestAlgorithm, signatureValue);
+        if (timestamp == null) {
+            return null;
+        }
+        timestamped = true;
+        return new DERSet(timestamp);
+    }
+
+    /**
+     * Requests a timestamp token for a signature value and wraps it in a {@code signatureTimeStampToken} attribute.
+     *
+     * @return the attribute, or {@code null} if the client skipped the timestamp
+     */
+    protected static Attribute getTimestampAttribute(TimestampClient timestampClient, String digestAlgorithm,
+            byte[] signatureValue) throws SignException {
+        byte[] token;
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(digestAlgorithm, BC_PROVIDER);
+            token = timestampClient.getTimeStampToken(messageDigest.digest(signatureValue), digestAlgorithm);
+            if (token == null) {
+                return null;
+            }
+            return new Attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken, new DERSet(
+                    ASN1Object.fromByteArray(token)));
+        } catch (IOException e) {
+            throw new SignException("Invalid timestamp token", e);
+        } catch (GeneralSecurityException e) {
+            throw new SignException(e);
+        }
+    }
+
+    /**
+     * Adds a timestamp token to an encoded CMS signature that has none (trailing padding is ignored). Unsigned
+     * attributes are not covered by the signature, so this can be done after signing.
+     *
+     * @return the new encoded signature, or {@code null} if the signature already has a timestamp token
+     * @throws SignException if no timestamp token could be obtained
+     */
+    public static byte[] addTimestampToken(byte[] encoded, TimestampClient timestampClient) throws SignException {
+        SignedData signedData = getSignedData(encoded);
+        SignerInfo signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+        ASN1EncodableVector unsignedAttributes = new ASN1EncodableVector();
+        if (signerInfo.getUnauthenticatedAttributes() != null) {
+            @SuppressWarnings("rawtypes")
+            Enumeration e = signerInfo.getUnauthenticatedAttributes().getObjects();
+            while (e.hasMoreElements()) {
+                Attribute attribute = Attribute.getInstance(e.nextElement());
+                if (PKCSObjectIdentifiers.id_aa_signatureTimeStampToken.equals(attribute.getAttrType())) {
+                    return null;
+                }
+                unsignedAttributes.add(attribute);
+            }
+        }
+        String digestAlgorithm = getDigestAlgorithmName(signerInfo.getDigestAlgorithm().getObjectId());
+        ASN1OctetString signatureValue = signerInfo.getEncryptedDigest();
+        Attribute timestamp = getTimestampAttribute(timestampClient, digestAlgorithm, signatureValue.getOctets());
+        if (timestamp == null) {
+            throw new SignException("No timestamp token obtained");
+        }
+        unsignedAttributes.add(timestamp);
+        SignerInfo timestampedSignerInfo = new SignerInfo(signerInfo.getSID(), signerInfo.getDigestAlgorithm(),
+                signerInfo.getAuthenticatedAttributes(), signerInfo.getDigestEncryptionAlgorithm(), signatureValue,
+                new DERSet(unsignedAttributes));
+        SignedData timestampedSignedData = new SignedData(signedData.getDigestAlgorithms(),
+                signedData.getEncapContentInfo(), signedData.getCertificates(), signedData.getCRLs(), new DERSet(
+                        timestampedSignerInfo));
+        return new ContentInfo(CMSObjectIdentifiers.signedData, timestampedSignedData).getDEREncoded();
+    }
+
+    /**
+     * Returns the encoded timestamp token of an encoded CMS signature, or {@code null} if it has none.
+     */
+    public static byte[] getTimestampToken(byte[] encoded) throws SignException {
+        SignedData signedData = getSignedData(encoded);
+        SignerInfo signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+        if (signerInfo.getUnauthenticatedAttributes() == null) {
+            return null;
+        }
+        @SuppressWarnings("rawtypes")
+        Enumeration e = signerInfo.getUnauthenticatedAttributes().getObjects();
+        while (e.hasMoreElements()) {
+            Attribute attribute = Attribute.getInstance(e.nextElement());
+            if (PKCSObjectIdentifiers.id_aa_signatureTimeStampToken.equals(attribute.getAttrType())) {
+                return attribute.getAttrValues().getObjectAt(0).getDERObject().getDEREncoded();
+            }
+        }
+        return null;
+    }
+
+    protected static SignedData getSignedData(byte[] encoded) throws SignException {
+        try {
+            ASN1InputStream in = new ASN1InputStream(encoded);
+            ContentInfo contentInfo = ContentInfo.getInstance(in.readObject());
+            return SignedData.getInstance(contentInfo.getContent());
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (IllegalArgumentException e) {
+            throw new SignException("Invalid signature structure", e);
+        }
+    }
+
+    protected AlgorithmIdentifier getEncryptionAlgorithmId() throws SignException {
+        if (!KeyParameters.isEC(privateKey.getAlgorithm())) {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption, DERNull.INSTANCE);
+        }
+        // ECDSA algorithm identifiers have absent parameters
+        if ("SHA1".equals(digestAlgorithm)) {
+            return new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA1);
+        } else if ("SHA256".equals(digestAlgorithm)) {
+            return new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA256);
+        } else if ("SHA384".equals(digestAlgorithm)) {
+            return new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA384);
+        } else if ("SHA512".equals(digestAlgorithm)) {
+            return new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA512);
+        }
+        throw new SignException("Unsupported digest algorithm: " + digestAlgorithm);
+    }
+
+    public static DERObjectIdentifier getDigestAlgorithmOID(String digestAlgorithm) throws SignException {
+        if ("SHA1".equals(digestAlgorithm)) {
+            return OIWObjectIdentifiers.idSHA1;
+        } else if ("SHA256".equals(digestAlgorithm)) {
+            return NISTObjectIdentifiers.id_sha256;
+        } else if ("SHA384".equals(digestAlgorithm)) {
+            return NISTObjectIdentifiers.id_sha384;
+        } else if ("SHA512".equals(digestAlgorithm)) {
+            return NISTObjectIdentifiers.id_sha512;
+        }
+        throw new SignException("Unsupported digest algorithm: " + digestAlgorithm);
+    }
+
+    /**
+     * Returns the digest name for a digest algorithm OID.
+     */
+    public static String getDigestAlgorithmName(DERObjectIdentifier oid) throws SignException {
+        if (OIWObjectIdentifiers.idSHA1.equals(oid)) {
+            return "SHA1";
+        } else if (NISTObjectIdentifiers.id_sha256.equals(oid)) {
+            return "SHA256";
+        } else if (NISTObjectIdentifiers.id_sha384.equals(oid)) {
+            return "SHA384";
+        } else if (NISTObjectIdentifiers.id_sha512.equals(oid)) {
+            return "SHA512";
+        }
+        throw new SignException("Unsupported digest algorithm: " + oid);
+    }
+
+    /**
+     * Extracts the signing certificate from an encoded CMS signature (trailing padding is ignored), matched on both
+     * issuer name and serial number.
+     */
+    public static X509Certificate getSigningCertificate(byte[] encoded) throws SignException {
+        SignedData signedData = getSignedData(encoded);
+        try {
+            SignerInfo signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+            IssuerAndSerialNumber issuerAndSerial = IssuerAndSerialNumber.getInstance(signerInfo.getSID().getId());
+            // serial numbers are only unique per issuer
+            X500Principal issuer = new X500Principal(issuerAndSerial.getName().getDEREncoded());
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            @SuppressWarnings("rawtypes")
+            Enumeration e = signedData.getCertificates().getObjects();
+            while (e.hasMoreElements()) {
+                byte[] certificateBytes = ((DEREncodable) e.nextElement()).getDERObject().getEncoded();
+                X509Certificate certificate = (X509Certificate) certificateFactory.generateCertificate(
+                        new ByteArrayInputStream(certificateBytes));
+                if (certificate.getSerialNumber().equals(issuerAndSerial.getSerialNumber().getValue())
+                        && certificate.getIssuerX500Principal().equals(issuer)) {
+                    return certificate;
+                }
+            }
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (GeneralSecurityException e) {
+            throw new SignException(e);
+        } catch (IllegalArgumentException e) {
+            throw new SignException("Invalid signature structure", e);
+        }
+        throw new SignException("Signing certificate not found in signature");
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.io.IOException;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.OCSPException;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.SingleResp;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.pki.OCSPService;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerChain;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerKey;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Cache of the revocation data (OCSP responses and CRLs) embedded in signatures.
+ * <p>
+ * Entries are keyed by issuer and serial number and kept until their {@code nextUpdate}. Concurrent requests for the
+ * same entry wait for a single fetch, so a batch of documents signed by the same user fetches revocation data once.
+ * <p>
+ * Revocation data is fetched from this module's own OCSP responder and revocation service for certificates issued by
+ * its CAs, the roots and their intermediate CAs; subclasses can override the {@code fetch} methods to reach other
+ * issuers.
+ *
+ * @since 7.3
+ */
+public class RevocationDataCache {
+
+    private static final Log log = LogFactory.getLog(RevocationDataCache.class);
+
+    protected static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** Entries expiring within this delay are fetched again. */
+    protected static final long EXPIRY_MARGIN_MILLIS = 60 * 1000L;
+
+    /** Used when the revocation data has no next update. */
+    protected static final long DEFAULT_VALIDITY_MILLIS = 5 * 60 * 1000L;
+
+    protected final ConcurrentMap<String, FutureTask<CachedData>> entries;
+
+    protected final int maxEntries;
+
+    protected static class CachedData {
+
+        protected final byte[] data;
+
+        protected final long nextUpdate;
+
+        protected CachedData(byte[] data, long nextUpdate) {
+            this.data = data;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    public RevocationDataCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public RevocationDataCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        entries = new ConcurrentHashMap<String, FutureTask<CachedData>>();
+    }
+
+    /**
+     * Returns the encoded OCSP response for a certificate, or {@code null} if none is available.
+     */
+    public byte[] getOCSPResponse(final X509Certificate certificate, final X509Certificate issuer)
+            throws SignException {
+        String key = "ocsp/" + getIssuerKey(issuer) + "/" + certificate.getSerialNumber();
+        return get(key, new Callable<CachedData>() {
+            @Override
+            public CachedData call() throws Exception {
+                return fetchOCSPResponse(certificate, issuer);
+            }
+        });
+    }
+
+    /**
+     * Returns the encoded CRL of an issuer, or {@code null} if none is available.
+     */
+    public byte[] getCRL(final X509Certificate issuer) throws SignException {
+        String key = "crl/" + getIssuerKey(issuer);
+        return get(key, new Callable<CachedData>() {
+            @Override
+            public CachedData call() throws Exception {
+                return fetchCRL(issuer);
+            }
+        });
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    protected byte[] get(String key, Callable<CachedData> loader) throws SignException {
+        for (;;) {
+            FutureTask<CachedData> task = entries.get(key);
+            boolean loaded = false;
+            if (task == null) {
+                FutureTask<CachedData> newTask = new FutureTask<CachedData>(loader);
+                task = entries.putIfAbsent(key, newTask);
+                if (task == null) {
+                    evictIfNeeded();
+                    task = newTask;
+                    task.run();
+                    loaded = true;
+                }
+            }
+            CachedData cachedData;
+            try {
+                cachedData = task.get();
+            } catch (ExecutionException e) {
+                entries.remove(key, task);
+                throw new SignException("Cannot fetch revocation data", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SignException(e);
+            }
+            if (cachedData == null) {
+                // nothing available, ask again next time
+                entries.remove(key, task);
+                return null;
+            }
+            if (loaded || cachedData.nextUpdate - EXPIRY_MARGIN_MILLIS > System.currentTimeMillis()) {
+                return cachedData.data;
+            }
+            entries.remove(key, task);
+        }
+    }
+
+    protected void evictIfNeeded() {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<FutureTask<CachedData>> it = entries.values().iterator(); it.hasNext();) {
+            FutureTask<CachedData> task = it.next();
+            if (!task.isDone()) {
+                continue;
+            }
+            try {
+                CachedData cachedData = task.get();
+                if (cachedData == null || cachedData.nextUpdate - EXPIRY_MARGIN_MILLIS <= now
+                        || entries.size() > maxEntries) {
+                    it.remove();
+                }
+            } catch (ExecutionException e) {
+                it.remove();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    protected static String getIssuerKey(X509Certificate issuer) {
+        return issuer.getSubjectX500Principal().getName() + "#" + issuer.getSerialNumber();
+    }
+
+    /**
+     * Tells whether an issuer is one of the CAs of this module.
+     */
+    protected boolean isLocalIssuer(X509Certificate issuer) throws CertException {
+        IssuerKey issuerKey = IssuerKey.find(Framework.getService(RootService.class),
+                IssuerChain.getKeyIdentifier(issuer));
+        return issuerKey != null && issuerKey.getCertificate().equals(issuer);
+    }
+
+    protected CachedData fetchOCSPResponse(X509Certificate certificate, X509Certificate issuer)
+            throws CertException, IOException, OCSPException {
+        if (!isLocalIssuer(issuer)) {
+            return null;
+        }
+        byte[] response = Framework.getService(OCSPService.class).getResponse(certificate);
+        OCSPResp ocspResp = new OCSPResp(response);
+        if (ocspResp.getStatus() != OCSPRespGenerator.SUCCESSFUL) {
+            log.warn("OCSP responder status " + ocspResp.getStatus() + " for " + certificate.getSerialNumber());
+            return null;
+        }
+        long nextUpdate = System.currentTimeMillis() + DEFAULT_VALIDITY_MILLIS;
+        for (SingleResp singleResp : ((BasicOCSPResp) ocspResp.getResponseObject()).getResponses()) {
+            Date date = singleResp.getNextUpdate();
+            if (date != null) {
+                nextUpdate = date.getTime();
+            }
+        }
+        return new CachedData(response, nextUpdate);
+    }
+
+    protected CachedData fetchCRL(X509Certificate issuer) throws CertException, CRLException {
+        X509CRL crl = Framework.getService(RevocationService.class).getCRL(issuer);
+        if (crl == null) {
+            return null;
+        }
+        Date nextUpdate = crl.getNextUpdate();
+        return new CachedData(crl.getEncoded(), nextUpdate == null ? System.currentTimeMillis()
+                + DEFAULT_VALIDITY_MILLIS : nextUpdate.getTime());
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerChain;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * An organizational signing identity whose key was unlocked once, with a pool of signers reused from one signature to
+ * the next.
+ * <p>
+ * A signer is used by one thread at a time, between {@link #acquire} and {@link #release}; the pool size bounds the
+ * concurrent signatures. Signing times are reported by the nuxeo.signature.seal.ID.sign timer.
+ *
+ * @since 7.3
+ */
+public class Seal {
+
+    protected final String id;
+
+    protected final String reason;
+
+    protected final X509Certificate certificate;
+
+    protected final List<String> groups;
+
+    protected final long acquireTimeout;
+
+    protected final BlockingQueue<CMSSignedDataBuilder> signers;
+
+    protected final int poolSize;
+
+    protected final Timer signTimer;
+
+    /**
+     * @param issuerChain the issuers of the seal certificate, {@code null} to embed the certificate alone
+     */
+    public Seal(SealDescriptor descriptor, PrivateKey privateKey, X509Certificate certificate,
+            IssuerChain issuerChain, String digestAlgorithm) {
+        id = descriptor.getId();
+        reason = descriptor.getReason();
+        this.certificate = certificate;
+        groups = new ArrayList<String>(descriptor.getGroups());
+        acquireTimeout = descriptor.getAcquireTimeout();
+        poolSize = descriptor.getPoolSize();
+        signers = new ArrayBlockingQueue<CMSSignedDataBuilder>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            if (issuerChain != null) {
+                signers.add(new CMSSignedDataBuilder(privateKey, certificate, issuerChain, digestAlgorithm));
+            } else {
+                signers.add(new CMSSignedDataBuilder(privateKey, new Certificate[] { certificate }, digestAlgorithm));
+            }
+        }
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        signTimer = registry.timer(MetricRegistry.name("nuxeo", "signature", "seal", id, "sign"));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The default reason of the signatures, {@code null} for the reason of the signature configuration.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Groups whose members may use the seal besides administrators.
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Signers not in use.
+     */
+    public int getIdleSigners() {
+        return signers.size();
+    }
+
+    public Timer getSignTimer() {
+        return signTimer;
+    }
+
+    /**
+     * Takes a signer from the pool, waiting for one to be released if they are all in use.
+     *
+     * @throws SignException if none was released within the configured timeout
+     */
+    public CMSSignedDataBuilder acquire() throws SignException {
+        CMSSignedDataBuilder signer;
+        try {
+            signer = signers.poll(acquireTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignException("Interrupted while waiting for a signer of seal " + id);
+        }
+        if (signer == null) {
+            throw new SignException("All the " + poolSize + " signers of seal " + id + " are busy");
+        }
+        return signer;
+    }
+
+    /**
+     * Returns a signer to the pool.
+     */
+    public void release(CMSSignedDataBuilder signer) {
+        signers.offer(signer);
+    }
+
+}
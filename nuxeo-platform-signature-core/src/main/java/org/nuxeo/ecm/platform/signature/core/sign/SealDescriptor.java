@@ -0,0 +1,180 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * An organizational signing identity, used to seal documents on behalf of the organization rather than of a user.
+ *
+ * @since 7.3
+ */
+@XObject("seal")
+public class SealDescriptor {
+
+    @XNode("@id")
+    protected String id;
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNode("keystoreFilePath")
+    protected String keystoreFilePath;
+
+    /** JKS or PKCS12. */
+    @XNode("keystoreType")
+    protected String keystoreType = "JKS";
+
+    @XNode("keystorePassword")
+    protected String keystorePassword;
+
+    @XNode("keyAlias")
+    protected String keyAlias;
+
+    @XNode("keyPassword")
+    protected String keyPassword;
+
+    /** The seal certificate, by default the first certificate of the key entry. */
+    @XNode("certificateAlias")
+    protected String certificateAlias;
+
+    /** By default the digest of the user keys. */
+    @XNode("digestAlgorithm")
+    protected String digestAlgorithm;
+
+    @XNode("reason")
+    protected String reason;
+
+    /** Concurrent signatures, by default the number of processors. */
+    @XNode("poolSize")
+    protected int poolSize;
+
+    /** Seconds to wait for a free signer before failing. */
+    @XNode("acquireTimeout")
+    protected int acquireTimeout = 30;
+
+    /** Groups whose members may seal through automation, administrators always may. */
+    @XNodeList(value = "groups/group", type = ArrayList.class, componentType = String.class)
+    protected List<String> groups = new ArrayList<String>();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getKeystoreFilePath() {
+        return keystoreFilePath;
+    }
+
+    public void setKeystoreFilePath(String keystoreFilePath) {
+        this.keystoreFilePath = keystoreFilePath;
+    }
+
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    public void setKeystoreType(String keystoreType) {
+        this.keystoreType = keystoreType;
+    }
+
+    public String getKeystorePassword() {
+        return keystorePassword;
+    }
+
+    public void setKeystorePassword(String keystorePassword) {
+        this.keystorePassword = keystorePassword;
+    }
+
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    public void setKeyAlias(String keyAlias) {
+        this.keyAlias = keyAlias;
+    }
+
+    public String getKeyPassword() {
+        return keyPassword;
+    }
+
+    public void setKeyPassword(String keyPassword) {
+        this.keyPassword = keyPassword;
+    }
+
+    public String getCertificateAlias() {
+        return certificateAlias;
+    }
+
+    public void setCertificateAlias(String certificateAlias) {
+        this.certificateAlias = certificateAlias;
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public int getPoolSize() {
+        return poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(int acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    public void setGroups(List<String> groups) {
+        this.groups = groups;
+    }
+
+}
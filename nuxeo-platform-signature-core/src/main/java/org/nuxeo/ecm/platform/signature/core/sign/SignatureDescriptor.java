@@ -38,6 +38,14 @@ public class SignatureDescriptor {
     @XNode("layout")
     protected SignatureLayout signatureLayout;
 
+    /**
+     * Whether to embed OCSP responses or CRLs for the certificate chain in signatures, for long-term validation.
+     *
+     * @since 7.3
+     */
+    @XNode("embedRevocationData")
+    protected Boolean embedRevocationData;
+
     /**
      * @since 5.8 Definition of the layout applied on signatures.
      */
@@ -92,6 +100,20 @@ public class SignatureDescriptor {
         this.reason = reason;
     }
 
+    /**
+     * @since 7.3
+     */
+    public Boolean getEmbedRevocationData() {
+        return embedRevocationData;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public void setEmbedRevocationData(Boolean embedRevocationData) {
+        this.embedRevocationData = embedRevocationData;
+    }
+
     public String getId() {
         return id;
     }
@@ -26,54 +26,97 @@ import static org.nuxeo.ecm.platform.signature.api.sign.SignatureService.StatusW
 
 import java.awt.Color;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.security.KeyPair;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.ListDiff;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.api.blobholder.DocumentBlobHolder;
 import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
 import org.nuxeo.ecm.core.convert.api.ConversionException;
 import org.nuxeo.ecm.core.convert.api.ConversionService;
 import org.nuxeo.ecm.platform.signature.api.exception.AlreadySignedException;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.exception.SignException;
 import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.api.pki.TrustStoreService;
 import org.nuxeo.ecm.platform.signature.api.sign.SignatureService;
-import org.nuxeo.ecm.platform.signature.api.user.AliasType;
-import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
 import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.api.user.PublicCertificateInfo;
+import org.nuxeo.ecm.platform.signature.core.pki.BouncyCastle;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerChain;
+import org.nuxeo.ecm.platform.signature.core.pki.RootServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.sign.TimestampRetryQueue.PendingTimestamp;
+import org.nuxeo.ecm.platform.signature.core.tsa.CircuitBreaker;
+import org.nuxeo.ecm.platform.signature.core.tsa.GuardedTimestampClient;
+import org.nuxeo.ecm.platform.signature.core.tsa.HttpTimestampClient;
+import org.nuxeo.ecm.platform.signature.core.tsa.TimestampFailurePolicy;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
+import com.codahale.metrics.Timer;
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.ExceptionConverter;
 import com.lowagie.text.Font;
 import com.lowagie.text.FontFactory;
 import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.AcroFields;
+import com.lowagie.text.pdf.PdfArray;
+import com.lowagie.text.pdf.PdfDate;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfName;
 import com.lowagie.text.pdf.PdfPKCS7;
 import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfSignature;
 import com.lowagie.text.pdf.PdfSignatureAppearance;
 import com.lowagie.text.pdf.PdfStamper;
+import com.lowagie.text.pdf.PdfString;
 
 /**
  * Base implementation for the signature service (also a Nuxeo component).
@@ -100,6 +143,12 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
 
     protected static final String XP_SIGNATURE = "signature";
 
+    protected static final String XP_TIMESTAMP = "timestamp";
+
+    protected static final String XP_WARMUP = "warmup";
+
+    protected static final String XP_SEAL = "seal";
+
     protected static final String ALREADY_SIGNED_BY = "This document has already been signed by ";
 
     protected static final String MIME_TYPE_PDF = "application/pdf";
@@ -117,8 +166,63 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
 
     protected static final String USER_EMAIL = "user:email";
 
+    protected static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+
     protected final Map<String, SignatureDescriptor> signatureRegistryMap;
 
+    /**
+     * Revocation data shared by all signing operations.
+     *
+     * @since 7.3
+     */
+    protected final RevocationDataCache revocationDataCache = new RevocationDataCache();
+
+    /**
+     * @since 7.3
+     */
+    protected TimestampDescriptor timestampConfig;
+
+    /**
+     * Created from the configuration on first use, shared by all signing operations.
+     *
+     * @since 7.3
+     */
+    protected GuardedTimestampClient timestampClient;
+
+    /**
+     * @since 7.3
+     */
+    protected TimestampRetryQueue timestampRetryQueue;
+
+    /**
+     * @since 7.3
+     */
+    protected ScheduledExecutorService timestampRetrier;
+
+    /**
+     * @since 7.3
+     */
+    protected WarmupDescriptor warmupConfig;
+
+    /**
+     * Outcome of the last warm-up, {@code null} if none completed.
+     *
+     * @since 7.3
+     */
+    protected volatile SignatureWarmup.Result warmupResult;
+
+    /**
+     * @since 7.3
+     */
+    protected final Map<String, SealDescriptor> sealDescriptors = new LinkedHashMap<String, SealDescriptor>();
+
+    /**
+     * Seals whose key is unlocked, loaded at startup or on first use.
+     *
+     * @since 7.3
+     */
+    protected final Map<String, Seal> seals = new ConcurrentHashMap<String, Seal>();
+
     public SignatureServiceImpl() {
         signatureRegistryMap = new HashMap<String, SignatureDescriptor>();
     }
@@ -130,6 +234,19 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
             if (!signatureDescriptor.getRemoveExtension()) {
                 signatureRegistryMap.put(signatureDescriptor.getId(), signatureDescriptor);
             }
+        } else if (XP_TIMESTAMP.equals(extensionPoint)) {
+            synchronized (this) {
+                timestampConfig = (TimestampDescriptor) contribution;
+                timestampClient = null;
+            }
+        } else if (XP_WARMUP.equals(extensionPoint)) {
+            warmupConfig = (WarmupDescriptor) contribution;
+        } else if (XP_SEAL.equals(extensionPoint)) {
+            SealDescriptor sealDescriptor = (SealDescriptor) contribution;
+            synchronized (this) {
+                sealDescriptors.put(sealDescriptor.getId(), sealDescriptor);
+                seals.remove(sealDescriptor.getId());
+            }
         }
     }
 
@@ -140,7 +257,90 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
             if (!signatureDescriptor.getRemoveExtension()) {
                 signatureRegistryMap.remove(signatureDescriptor.getId());
             }
+        } else if (XP_TIMESTAMP.equals(extensionPoint)) {
+            synchronized (this) {
+                if (timestampConfig == contribution) {
+                    timestampConfig = null;
+                    timestampClient = null;
+                }
+            }
+        } else if (XP_WARMUP.equals(extensionPoint)) {
+            if (warmupConfig == contribution) {
+                warmupConfig = null;
+            }
+        } else if (XP_SEAL.equals(extensionPoint)) {
+            SealDescriptor sealDescriptor = (SealDescriptor) contribution;
+            synchronized (this) {
+                if (sealDescriptors.get(sealDescriptor.getId()) == contribution) {
+                    sealDescriptors.remove(sealDescriptor.getId());
+                    seals.remove(sealDescriptor.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        loadSeals();
+        final WarmupDescriptor config = warmupConfig;
+        if (config == null || !config.isEnabled()) {
+            return;
+        }
+        Runnable warmup = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmUp(config.getIterations(), config.getMaxDuration() * 1000L);
+                } catch (SignException e) {
+                    log.error("Signature warm-up failed", e);
+                } catch (RuntimeException e) {
+                    log.error("Signature warm-up failed", e);
+                }
+            }
+        };
+        if (config.isBackground()) {
+            Thread thread = new Thread(warmup, "Nuxeo-Signature-Warmup");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            // the node is not reported as started until signing runs at full speed
+            warmup.run();
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        synchronized (this) {
+            if (timestampRetrier != null) {
+                timestampRetrier.shutdownNow();
+                timestampRetrier = null;
+            }
         }
+        seals.clear();
+        super.deactivate(context);
+    }
+
+    /**
+     * Runs synthetic sign and verify cycles with throwaway key material.
+     *
+     * @param maxDuration in milliseconds
+     * @since 7.3
+     */
+    public SignatureWarmup.Result warmUp(int iterations, long maxDuration) throws SignException {
+        CertService certService = Framework.getLocalService(CertService.class);
+        CUserService cUserService = Framework.getLocalService(CUserService.class);
+        SignatureWarmup warmup = new SignatureWarmup(this, certService, cUserService.getKeyParameters());
+        SignatureWarmup.Result result = warmup.run(iterations, maxDuration);
+        warmupResult = result;
+        log.info("Signature warm-up: " + result);
+        return result;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public SignatureWarmup.Result getWarmupResult() {
+        return warmupResult;
     }
 
     //
@@ -175,14 +375,41 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
         if (user == null) {
             return SIGNED_OTHER;
         }
+        // certificates issued here are mapped to their user by fingerprint
+        CUserService cUserService = Framework.getLocalService(CUserService.class);
+        RevocationService revocationService = Framework.getLocalService(RevocationService.class);
+        List<X509Certificate> unknown = new ArrayList<X509Certificate>();
+        for (X509Certificate certificate : certificates) {
+            PublicCertificateInfo info;
+            try {
+                // a revoked certificate no longer stands for its user, who may sign again with a new one
+                if (revocationService != null && revocationService.isRevoked(certificate)) {
+                    continue;
+                }
+                info = cUserService.findPublicCertificateInfo(certificate);
+            } catch (CertException e) {
+                continue;
+            }
+            if (info == null) {
+                unknown.add(certificate);
+            } else if (info.getUserID().equals(user.getId())) {
+                return SIGNED_CURRENT;
+            }
+        }
+        // deleted or external certificates
         String email = (String) user.getPropertyValue(USER_EMAIL);
         if (StringUtils.isEmpty(email)) {
             return SIGNED_OTHER;
         }
         CertService certService = Framework.getLocalService(CertService.class);
-        for (X509Certificate certificate : certificates) {
+        TrustStoreService trustStoreService = Framework.getLocalService(TrustStoreService.class);
+        for (X509Certificate certificate : unknown) {
             String certEmail;
             try {
+                // the email of a certificate means nothing unless a trusted CA issued it
+                if (trustStoreService != null && !trustStoreService.isTrusted(certificate)) {
+                    continue;
+                }
                 certEmail = certService.getCertificateEmail(certificate);
             } catch (CertException e) {
                 continue;
@@ -236,10 +463,14 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
         StatusWithBlob blobAndStatus = getSignedPdfBlobAndStatus(doc, user);
         if (blobAndStatus != null) {
             // re-sign it
-            Blob signedBlob = signPDF(blobAndStatus.blob, user, keyPassword, reason);
+            AtomicBoolean timestampPending = new AtomicBoolean();
+            Blob signedBlob = signPDF(blobAndStatus.blob, user, keyPassword, reason, timestampPending);
             signedBlob.setFilename(blobAndStatus.blob.getFilename());
             // replace the previous blob with a new one
             blobAndStatus.blobHolder.setBlob(signedBlob);
+            if (timestampPending.get()) {
+                addTimestampRetry(doc, blobAndStatus.path);
+            }
             return signedBlob;
         }
 
@@ -267,7 +498,8 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
             }
         }
 
-        Blob signedBlob = signPDF(pdfBlob, user, keyPassword, reason);
+        AtomicBoolean timestampPending = new AtomicBoolean();
+        Blob signedBlob = signPDF(pdfBlob, user, keyPassword, reason, timestampPending);
         signedBlob.setFilename(FilenameUtils.getBaseName(originalBlob.getFilename()) + ".pdf");
 
         Map<String, Serializable> map;
@@ -299,14 +531,72 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
             doc.setPropertyValue(FILES_FILES, listDiff);
             break;
         }
+        if (timestampPending.get()) {
+            addTimestampRetry(doc, disposition == SigningDisposition.ATTACH ? FILES_FILES + "/0/" + FILES_FILE
+                    : FILE_CONTENT);
+        }
 
         return signedBlob;
     }
 
     @Override
     public Blob signPDF(Blob pdfBlob, DocumentModel user, String keyPassword, String reason) throws ClientException {
-        CertService certService = Framework.getLocalService(CertService.class);
+        return signPDF(pdfBlob, user, keyPassword, reason, null);
+    }
+
+    /**
+     * Signs a PDF, reporting in {@code timestampPending} (if not {@code null}) whether the signature was left without
+     * timestamp for a later retry.
+     *
+     * @since 7.3
+     */
+    protected Blob signPDF(Blob pdfBlob, DocumentModel user, String keyPassword, String reason,
+            AtomicBoolean timestampPending) throws ClientException {
         CUserService cUserService = Framework.getLocalService(CUserService.class);
+        String userID = (String) user.getPropertyValue("user:username");
+        KeyStore.PrivateKeyEntry keyEntry = cUserService.getUserKeyEntry(userID, keyPassword);
+        CMSSignedDataBuilder signedDataBuilder = newSignedDataBuilder(keyEntry.getPrivateKey(),
+                (X509Certificate) keyEntry.getCertificate(), cUserService.getKeyParameters().getDigestAlgorithm());
+        return signPDF(pdfBlob, signedDataBuilder, reason, timestampPending);
+    }
+
+    /**
+     * Returns a builder of signatures embedding the chain of the signing certificate.
+     *
+     * @since 7.3
+     */
+    protected CMSSignedDataBuilder newSignedDataBuilder(PrivateKey privateKey, X509Certificate certificate,
+            String digestAlgorithm) throws ClientException {
+        IssuerChain issuerChain = getIssuerChain(certificate);
+        if (issuerChain != null) {
+            // the whole chain, parsed once per issuer, so that validators need nothing else
+            return new CMSSignedDataBuilder(privateKey, certificate, issuerChain, digestAlgorithm);
+        }
+        // issued by a CA that is no longer configured, such as a root retired before a restart
+        List<Certificate> certificates = new ArrayList<Certificate>();
+        TrustStoreService trustStoreService = Framework.getLocalService(TrustStoreService.class);
+        X509Certificate[] path = trustStoreService == null ? null : trustStoreService.getCertificationPath(
+                certificate, null);
+        if (path != null) {
+            Collections.addAll(certificates, path);
+        } else {
+            certificates.add(certificate);
+            if (isEmbedRevocationData()) {
+                // validation needs the whole chain
+                CertService certService = Framework.getLocalService(CertService.class);
+                certificates.add(certService.getRootCertificate());
+            }
+        }
+        return new CMSSignedDataBuilder(privateKey, certificates.toArray(new Certificate[0]), digestAlgorithm);
+    }
+
+    /**
+     * Signs a PDF with the key of a signature builder, which is then used by the calling thread only.
+     *
+     * @since 7.3
+     */
+    protected Blob signPDF(Blob pdfBlob, CMSSignedDataBuilder signedDataBuilder, String reason,
+            AtomicBoolean timestampPending) throws ClientException {
         try {
             File outputFile = File.createTempFile("signed-", ".pdf");
             Blob blob = Blobs.createBlob(outputFile, MIME_TYPE_PDF);
@@ -315,18 +605,8 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
             PdfReader pdfReader = new PdfReader(pdfBlob.getStream());
             List<X509Certificate> pdfCertificates = getCertificates(pdfReader);
 
-            // allows for multiple signatures
-            PdfStamper pdfStamper = PdfStamper.createSignature(pdfReader, new FileOutputStream(outputFile), '\0', null,
-                    true);
-
-            PdfSignatureAppearance pdfSignatureAppearance = pdfStamper.getSignatureAppearance();
-            String userID = (String) user.getPropertyValue("user:username");
-            AliasWrapper alias = new AliasWrapper(userID);
-            KeyStore keystore = cUserService.getUserKeystore(userID, keyPassword);
-            Certificate certificate = certService.getCertificate(keystore, alias.getId(AliasType.CERT));
-            KeyPair keyPair = certService.getKeyPair(keystore, alias.getId(AliasType.KEY), alias.getId(AliasType.CERT),
-                    keyPassword);
-
+            Certificate[] certChain = signedDataBuilder.getChain();
+            Certificate certificate = certChain[0];
             if (certificatePresentInPDF(certificate, pdfCertificates)) {
                 X509Certificate userX509Certificate = (X509Certificate) certificate;
                 String message = ALREADY_SIGNED_BY + userX509Certificate.getSubjectDN();
@@ -334,24 +614,24 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
                 throw new AlreadySignedException(message);
             }
 
-            List<Certificate> certificates = new ArrayList<Certificate>();
-            certificates.add(certificate);
-
-            Certificate[] certChain = certificates.toArray(new Certificate[0]);
-            pdfSignatureAppearance.setCrypto(keyPair.getPrivate(), certChain, null, PdfSignatureAppearance.SELF_SIGNED);
             if (StringUtils.isBlank(reason)) {
                 reason = getSigningReason();
             }
-            pdfSignatureAppearance.setReason(reason);
-            pdfSignatureAppearance.setAcro6Layers(true);
-            Font layer2Font = FontFactory.getFont(FontFactory.TIMES, getSignatureLayout().getTextSize(), Font.NORMAL,
-                    new Color(0x00, 0x00, 0x00));
-            pdfSignatureAppearance.setLayer2Font(layer2Font);
-            pdfSignatureAppearance.setRender(PdfSignatureAppearance.SignatureRenderDescription);
-
-            pdfSignatureAppearance.setVisibleSignature(getNextCertificatePosition(pdfReader, pdfCertificates), 1, null);
 
-            pdfStamper.close(); // closes the file
+            if (isEmbedRevocationData()) {
+                addRevocationData(signedDataBuilder, certChain);
+            } else {
+                // left by a previous signature of a reused builder
+                signedDataBuilder.setRevocationData(Collections.<byte[]> emptyList(),
+                        Collections.<byte[]> emptyList());
+            }
+            GuardedTimestampClient tsaClient = getTimestampClient();
+            signedDataBuilder.setTimestampClient(tsaClient);
+            signPDF(pdfReader, new FileOutputStream(outputFile), pdfCertificates, certChain, signedDataBuilder,
+                    reason); // closes the file
+            if (timestampPending != null && tsaClient != null && !signedDataBuilder.isTimestamped()) {
+                timestampPending.set(tsaClient.getFailurePolicy() == TimestampFailurePolicy.RETRY);
+            }
 
             log.debug("File " + outputFile.getAbsolutePath() + " created and signed with " + reason);
 
@@ -370,6 +650,454 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
         }
     }
 
+    @Override
+    public Blob sealPDF(Blob pdfBlob, String sealId, String reason) throws ClientException {
+        Seal seal = getSeal(sealId);
+        if (StringUtils.isBlank(reason)) {
+            reason = seal.getReason();
+        }
+        CMSSignedDataBuilder signedDataBuilder = seal.acquire();
+        Timer.Context timerContext = seal.getSignTimer().time();
+        try {
+            return signPDF(pdfBlob, signedDataBuilder, reason, null);
+        } finally {
+            timerContext.stop();
+            seal.release(signedDataBuilder);
+        }
+    }
+
+    /**
+     * Returns a seal, unlocking its key if it was not loaded at startup.
+     *
+     * @param sealId the seal id, or {@code null} for the only one configured
+     * @since 7.3
+     */
+    public Seal getSeal(String sealId) throws SignException {
+        Seal seal = sealId == null ? null : seals.get(sealId);
+        if (seal != null) {
+            return seal;
+        }
+        synchronized (this) {
+            SealDescriptor descriptor = null;
+            if (sealId != null) {
+                descriptor = sealDescriptors.get(sealId);
+            } else {
+                int enabled = 0;
+                for (SealDescriptor sd : sealDescriptors.values()) {
+                    if (sd.isEnabled()) {
+                        descriptor = sd;
+                        enabled++;
+                    }
+                }
+                if (enabled > 1) {
+                    throw new SignException(enabled + " seals are configured, the seal to use is required");
+                }
+            }
+            if (descriptor == null || !descriptor.isEnabled()) {
+                throw new SignException(sealId == null ? "No seal configured" : "No such seal: " + sealId);
+            }
+            seal = seals.get(descriptor.getId());
+            if (seal == null) {
+                seal = loadSeal(descriptor);
+                seals.put(descriptor.getId(), seal);
+                log.info("Loaded seal " + seal.getId() + " (" + seal.getCertificate().getSubjectDN() + ") with "
+                        + seal.getPoolSize() + " signers");
+            }
+            return seal;
+        }
+    }
+
+    /**
+     * Unlocks the keys of the enabled seals, so that the first signatures do not wait for it.
+     *
+     * @since 7.3
+     */
+    protected void loadSeals() {
+        List<SealDescriptor> descriptors;
+        synchronized (this) {
+            descriptors = new ArrayList<SealDescriptor>(sealDescriptors.values());
+        }
+        for (SealDescriptor descriptor : descriptors) {
+            if (!descriptor.isEnabled()) {
+                continue;
+            }
+            String sealId = descriptor.getId();
+            try {
+                getSeal(sealId);
+            } catch (SignException e) {
+                // retried on first use
+                log.error("Cannot load seal " + sealId, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the keystore of a seal, unlocks its key and checks that it matches the seal certificate.
+     *
+     * @since 7.3
+     */
+    protected Seal loadSeal(SealDescriptor descriptor) throws SignException {
+        String sealId = descriptor.getId();
+        if (descriptor.getKeystoreFilePath() == null || descriptor.getKeyAlias() == null) {
+            throw new CertException("Keystore path and key alias are required for seal " + sealId);
+        }
+        PrivateKey privateKey;
+        X509Certificate certificate;
+        Certificate[] keystoreChain;
+        String digestAlgorithm = descriptor.getDigestAlgorithm();
+        if (digestAlgorithm == null) {
+            CUserService cUserService = Framework.getLocalService(CUserService.class);
+            digestAlgorithm = cUserService.getKeyParameters().getDigestAlgorithm();
+        }
+        InputStream in = null;
+        try {
+            File file = new File(descriptor.getKeystoreFilePath());
+            if (file.isFile()) {
+                in = new FileInputStream(file);
+            } else {
+                in = Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                        descriptor.getKeystoreFilePath());
+            }
+            if (in == null) {
+                throw new CertException("Seal keystore not found: " + descriptor.getKeystoreFilePath());
+            }
+            KeyStore keystore = KeyStore.getInstance(descriptor.getKeystoreType());
+            keystore.load(in, toChars(descriptor.getKeystorePassword()));
+            Key key = keystore.getKey(descriptor.getKeyAlias(), toChars(descriptor.getKeyPassword()));
+            if (!(key instanceof PrivateKey)) {
+                throw new CertException("Seal key not found: " + descriptor.getKeyAlias());
+            }
+            privateKey = (PrivateKey) key;
+            keystoreChain = keystore.getCertificateChain(descriptor.getKeyAlias());
+            Certificate cert;
+            if (descriptor.getCertificateAlias() != null) {
+                cert = keystore.getCertificate(descriptor.getCertificateAlias());
+            } else {
+                cert = keystoreChain == null ? null : keystoreChain[0];
+            }
+            if (!(cert instanceof X509Certificate)) {
+                throw new CertException("Seal certificate not found for seal " + sealId);
+            }
+            certificate = (X509Certificate) cert;
+            if (keystoreChain != null && !keystoreChain[0].equals(certificate)) {
+                keystoreChain = null;
+            }
+            // a key not matching the certificate would only give invalid signatures
+            BouncyCastle.register();
+            Signature signature = Signature.getInstance(
+                    KeyParameters.getSignatureAlgorithm(digestAlgorithm, privateKey.getAlgorithm()),
+                    BouncyCastle.PROVIDER);
+            byte[] data = sealId.getBytes("UTF-8");
+            signature.initSign(privateKey);
+            signature.update(data);
+            byte[] signatureValue = signature.sign();
+            signature.initVerify(certificate.getPublicKey());
+            signature.update(data);
+            if (!signature.verify(signatureValue)) {
+                throw new CertException("The key of seal " + sealId + " does not match its certificate");
+            }
+        } catch (IOException e) {
+            throw new CertException("Cannot read the keystore of seal " + sealId, e);
+        } catch (GeneralSecurityException e) {
+            throw new CertException("Cannot unlock the key of seal " + sealId, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        IssuerChain issuerChain;
+        if (keystoreChain != null && keystoreChain.length > 1) {
+            issuerChain = IssuerChain.create(Arrays.copyOfRange(keystoreChain, 1, keystoreChain.length,
+                    X509Certificate[].class));
+        } else if (!certificate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())) {
+            // issued by the configured CA
+            issuerChain = getIssuerChain(certificate);
+            if (issuerChain == null) {
+                log.warn("Issuer of seal " + sealId + " not found, signatures will only embed its certificate");
+            }
+        } else {
+            issuerChain = null;
+        }
+        return new Seal(descriptor, privateKey, certificate, issuerChain, digestAlgorithm);
+    }
+
+    protected static char[] toChars(String password) {
+        return password == null ? null : password.toCharArray();
+    }
+
+    /**
+     * Adds a signature to a PDF: a visible appearance next to the existing signatures, then the CMS signature.
+     *
+     * @param pdfCertificates the certificates of the existing signatures
+     * @param out receives the signed PDF, closed when done
+     * @since 7.3
+     */
+    protected void signPDF(PdfReader pdfReader, OutputStream out, List<X509Certificate> pdfCertificates,
+            Certificate[] certChain, CMSSignedDataBuilder signedDataBuilder, String reason) throws IOException,
+            DocumentException, SignException {
+        // allows for multiple signatures
+        PdfStamper pdfStamper = PdfStamper.createSignature(pdfReader, out, '\0', null, true);
+        PdfSignatureAppearance pdfSignatureAppearance = pdfStamper.getSignatureAppearance();
+        // the key is only used by our own CMS builder, iText gets the chain for the appearance
+        pdfSignatureAppearance.setCrypto(null, certChain, null, PdfSignatureAppearance.SELF_SIGNED);
+        pdfSignatureAppearance.setReason(reason);
+        pdfSignatureAppearance.setAcro6Layers(true);
+        Font layer2Font = FontFactory.getFont(FontFactory.TIMES, getSignatureLayout().getTextSize(), Font.NORMAL,
+                new Color(0x00, 0x00, 0x00));
+        pdfSignatureAppearance.setLayer2Font(layer2Font);
+        pdfSignatureAppearance.setRender(PdfSignatureAppearance.SignatureRenderDescription);
+
+        pdfSignatureAppearance.setVisibleSignature(getNextCertificatePosition(pdfReader, pdfCertificates), 1, null);
+        sign(pdfSignatureAppearance, signedDataBuilder, reason);
+    }
+
+    /**
+     * Signs with a detached CMS signature built by us, so that EC keys and digests other than SHA-1 can be used.
+     *
+     * @since 7.3
+     */
+    protected void sign(PdfSignatureAppearance pdfSignatureAppearance, CMSSignedDataBuilder signedDataBuilder,
+            String reason) throws IOException, DocumentException, SignException {
+        PdfSignature signatureDictionary = new PdfSignature(PdfName.ADOBE_PPKLITE, PdfName.ADBE_PKCS7_DETACHED);
+        signatureDictionary.setReason(reason);
+        signatureDictionary.setDate(new PdfDate(pdfSignatureAppearance.getSignDate()));
+        pdfSignatureAppearance.setCryptoDictionary(signatureDictionary);
+
+        int contentsSize = signedDataBuilder.getEstimatedSize();
+        HashMap<PdfName, Integer> exclusionSizes = new HashMap<PdfName, Integer>();
+        exclusionSizes.put(PdfName.CONTENTS, Integer.valueOf(contentsSize * 2 + 2));
+        pdfSignatureAppearance.preClose(exclusionSizes);
+
+        byte[] signedData = signedDataBuilder.sign(pdfSignatureAppearance.getRangeStream(),
+                pdfSignatureAppearance.getSignDate().getTime());
+        if (signedData.length > contentsSize) {
+            throw new SignException("Signature size " + signedData.length + " exceeds reserved size " + contentsSize);
+        }
+        byte[] contents = new byte[contentsSize];
+        System.arraycopy(signedData, 0, contents, 0, signedData.length);
+        PdfDictionary update = new PdfDictionary();
+        update.put(PdfName.CONTENTS, new PdfString(contents).setHexWriting(true));
+        pdfSignatureAppearance.close(update);
+    }
+
+    /**
+     * Returns the timestamp client, or {@code null} if timestamping is not configured.
+     *
+     * @since 7.3
+     */
+    protected synchronized GuardedTimestampClient getTimestampClient() throws SignException {
+        if (timestampClient == null && timestampConfig != null && timestampConfig.isEnabled()) {
+            timestampClient = newGuardedTimestampClient(newTimestampClient(timestampConfig));
+        }
+        return timestampClient;
+    }
+
+    /**
+     * Sets the client used to timestamp signatures, guarded according to the timestamp configuration.
+     *
+     * @since 7.3
+     */
+    public synchronized void setTimestampClient(TimestampClient client) {
+        timestampClient = client == null ? null : newGuardedTimestampClient(client);
+    }
+
+    protected TimestampClient newTimestampClient(TimestampDescriptor config) throws SignException {
+        if (config.getClientClass() != null) {
+            try {
+                return config.getClientClass().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new SignException("Cannot create timestamp client " + config.getClientClass(), e);
+            }
+        }
+        if (StringUtils.isBlank(config.getUrl())) {
+            throw new SignException("No timestamp authority URL configured");
+        }
+        try {
+            return new HttpTimestampClient(new URL(config.getUrl()), config.getPolicy(), config.getConnectTimeout(),
+                    config.getReadTimeout(), config.getMaxInFlight());
+        } catch (MalformedURLException e) {
+            throw new SignException("Invalid timestamp authority URL: " + config.getUrl(), e);
+        }
+    }
+
+    protected GuardedTimestampClient newGuardedTimestampClient(TimestampClient client) {
+        TimestampDescriptor config = timestampConfig == null ? new TimestampDescriptor() : timestampConfig;
+        CircuitBreaker circuitBreaker = new CircuitBreaker(config.getFailureThreshold(),
+                TimeUnit.SECONDS.toMillis(config.getOpenDuration()));
+        return new GuardedTimestampClient(client, circuitBreaker, config.getFailurePolicy());
+    }
+
+    /**
+     * Queues a document signed without timestamp, the retries are scheduled on first use.
+     *
+     * @since 7.3
+     */
+    protected synchronized void addTimestampRetry(DocumentModel doc, String xpath) {
+        if (doc.getId() == null) {
+            log.warn("Document " + doc.getName() + " is not saved, its signature stays without timestamp");
+            return;
+        }
+        if (timestampRetryQueue == null) {
+            TimestampDescriptor config = timestampConfig == null ? new TimestampDescriptor() : timestampConfig;
+            timestampRetryQueue = new TimestampRetryQueue(config.getMaxPendingRetries(),
+                    config.getMaxPendingAge() * 1000L);
+            timestampRetrier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Nuxeo-Signature-Timestamp-Retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long interval = Math.max(1, config.getRetryInterval());
+            timestampRetrier.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    retryPendingTimestamps();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+        timestampRetryQueue.add(doc.getRepositoryName(), doc.getId(), xpath);
+    }
+
+    /**
+     * Returns the number of documents waiting for a timestamp.
+     *
+     * @since 7.3
+     */
+    public synchronized int getPendingTimestampCount() {
+        return timestampRetryQueue == null ? 0 : timestampRetryQueue.size();
+    }
+
+    /**
+     * Adds the missing timestamps of the queued documents, if the TSA is reachable again.
+     *
+     * @since 7.3
+     */
+    public void retryPendingTimestamps() {
+        TimestampRetryQueue queue;
+        GuardedTimestampClient client;
+        synchronized (this) {
+            queue = timestampRetryQueue;
+            client = timestampClient;
+        }
+        if (queue == null || client == null || client.getState() == CircuitBreaker.State.OPEN) {
+            return;
+        }
+        for (PendingTimestamp pending : queue.drain()) {
+            try {
+                String notReady = addTimestamp(pending, client.getClient());
+                if (notReady != null) {
+                    queue.postpone(pending, notReady);
+                }
+            } catch (ClientException e) {
+                log.debug("Cannot timestamp " + pending + ", will retry", e);
+                queue.retry(pending);
+            }
+        }
+    }
+
+    /**
+     * Adds the missing timestamp of a queued document.
+     *
+     * @return {@code null} when done, otherwise why the document cannot be timestamped yet, for instance because the
+     *         signing transaction is not committed
+     * @since 7.3
+     */
+    protected String addTimestamp(final PendingTimestamp pending, final TimestampClient client)
+            throws ClientException {
+        final String[] notReady = new String[1];
+        boolean txStarted = !TransactionHelper.isTransactionActive() && TransactionHelper.startTransaction();
+        try {
+            new UnrestrictedSessionRunner(pending.getRepositoryName()) {
+                @Override
+                public void run() throws ClientException {
+                    IdRef docRef = new IdRef(pending.getDocId());
+                    if (!session.exists(docRef)) {
+                        notReady[0] = "document not found";
+                        return;
+                    }
+                    DocumentModel doc = session.getDocument(docRef);
+                    Blob blob = (Blob) doc.getPropertyValue(pending.getXpath());
+                    if (blob == null) {
+                        notReady[0] = "no blob at " + pending.getXpath();
+                        return;
+                    }
+                    Blob timestampedBlob = timestampPDF(blob, client);
+                    if (timestampedBlob == null) {
+                        notReady[0] = "no signature covering the whole document";
+                    } else if (timestampedBlob != blob) {
+                        doc.setPropertyValue(pending.getXpath(), (Serializable) timestampedBlob);
+                        saveDocument(session, doc);
+                    }
+                }
+            }.runUnrestricted();
+        } catch (ClientException e) {
+            if (txStarted) {
+                TransactionHelper.setTransactionRollbackOnly();
+            }
+            throw e;
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+        return notReady[0];
+    }
+
+    protected void saveDocument(CoreSession session, DocumentModel doc) throws ClientException {
+        session.saveDocument(doc);
+        session.save();
+    }
+
+    /**
+     * Adds a timestamp token to the signature covering the whole PDF if it has none. The signature contents are
+     * excluded from the signed byte range, so they are rewritten in place within the space reserved at signing time.
+     *
+     * @return the timestamped PDF, the same blob if its signature already has a timestamp, or {@code null} if there is
+     *         no signature to timestamp
+     * @since 7.3
+     */
+    protected Blob timestampPDF(Blob pdfBlob, TimestampClient client) throws SignException {
+        try {
+            byte[] pdf = pdfBlob.getByteArray();
+            AcroFields acroFields = new PdfReader(pdf).getAcroFields();
+            @SuppressWarnings("unchecked")
+            List<String> signatureNames = acroFields.getSignatureNames();
+            for (String signatureName : signatureNames) {
+                // earlier signatures are covered by later ones and cannot change
+                if (!acroFields.signatureCoversWholeDocument(signatureName)) {
+                    continue;
+                }
+                PdfDictionary signatureDictionary = acroFields.getSignatureDictionary(signatureName);
+                byte[] contents = signatureDictionary.getAsString(PdfName.CONTENTS).getOriginalBytes();
+                byte[] timestamped = CMSSignedDataBuilder.addTimestampToken(contents, client);
+                if (timestamped == null) {
+                    return pdfBlob;
+                }
+                // the contents hex string sits between the two signed ranges, delimiters included
+                PdfArray byteRange = signatureDictionary.getAsArray(PdfName.BYTERANGE);
+                int start = byteRange.getAsNumber(1).intValue() + 1;
+                int end = byteRange.getAsNumber(2).intValue() - 1;
+                if (timestamped.length * 2 > end - start) {
+                    throw new SignException("Timestamped signature size " + timestamped.length
+                            + " exceeds reserved size " + (end - start) / 2);
+                }
+                for (int i = start; i < end; i++) {
+                    pdf[i] = '0';
+                }
+                for (int i = 0; i < timestamped.length; i++) {
+                    pdf[start + 2 * i] = HEX_DIGITS[(timestamped[i] >> 4) & 0xF];
+                    pdf[start + 2 * i + 1] = HEX_DIGITS[timestamped[i] & 0xF];
+                }
+                Blob blob = new ByteArrayBlob(pdf, MIME_TYPE_PDF);
+                blob.setFilename(pdfBlob.getFilename());
+                return blob;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new SignException(e);
+        }
+    }
+
     /**
      * @since 5.8
      * @return the signature layout. Default one if no contribution.
@@ -384,6 +1112,61 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
         return new SignatureDescriptor.SignatureLayout();
     }
 
+    /**
+     * @since 7.3
+     */
+    protected boolean isEmbedRevocationData() {
+        for (SignatureDescriptor sd : signatureRegistryMap.values()) {
+            Boolean embedRevocationData = sd.getEmbedRevocationData();
+            if (embedRevocationData != null) {
+                return embedRevocationData.booleanValue();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the parsed chain of the CA that issued a certificate, or {@code null} if it is not a known CA.
+     *
+     * @since 7.3
+     */
+    protected IssuerChain getIssuerChain(X509Certificate certificate) throws CertException {
+        RootService rootService = Framework.getLocalService(RootService.class);
+        if (rootService instanceof RootServiceImpl) {
+            return ((RootServiceImpl) rootService).getEncodedIssuerChain(certificate);
+        }
+        X509Certificate[] issuers = rootService.getIssuerChain(certificate);
+        return issuers == null ? null : IssuerChain.create(issuers);
+    }
+
+    /**
+     * Adds an OCSP response, or the issuer CRL when no response is available, for each certificate of the chain but
+     * the root.
+     *
+     * @since 7.3
+     */
+    protected void addRevocationData(CMSSignedDataBuilder signedDataBuilder, Certificate[] chain)
+            throws SignException {
+        List<byte[]> ocspResponses = new ArrayList<byte[]>();
+        List<byte[]> crls = new ArrayList<byte[]>();
+        for (int i = 0; i < chain.length - 1; i++) {
+            X509Certificate certificate = (X509Certificate) chain[i];
+            X509Certificate issuer = (X509Certificate) chain[i + 1];
+            byte[] ocspResponse = revocationDataCache.getOCSPResponse(certificate, issuer);
+            if (ocspResponse != null) {
+                ocspResponses.add(ocspResponse);
+                continue;
+            }
+            byte[] crl = revocationDataCache.getCRL(issuer);
+            if (crl != null) {
+                crls.add(crl);
+            } else {
+                log.warn("No revocation data available for " + certificate.getSubjectDN());
+            }
+        }
+        signedDataBuilder.setRevocationData(ocspResponses, crls);
+    }
+
     protected String getSigningReason() throws SignException {
         for (SignatureDescriptor sd : signatureRegistryMap.values()) {
             String reason = sd.getReason();
@@ -510,16 +1293,37 @@ public class SignatureServiceImpl extends DefaultComponent implements SignatureS
     }
 
     protected List<X509Certificate> getCertificates(PdfReader pdfReader) throws SignException {
+        // iText verifies with whatever providers are registered
+        BouncyCastle.register();
         List<X509Certificate> pdfCertificates = new ArrayList<X509Certificate>();
         AcroFields acroFields = pdfReader.getAcroFields();
         @SuppressWarnings("unchecked")
         List<String> signatureNames = acroFields.getSignatureNames();
         for (String signatureName : signatureNames) {
-            PdfPKCS7 pdfPKCS7 = acroFields.verifySignature(signatureName);
-            X509Certificate signingCertificate = pdfPKCS7.getSigningCertificate();
+            X509Certificate signingCertificate;
+            try {
+                PdfPKCS7 pdfPKCS7 = acroFields.verifySignature(signatureName);
+                signingCertificate = pdfPKCS7.getSigningCertificate();
+            } catch (ExceptionConverter e) {
+                // iText 2.1 cannot set up verification of ECDSA signatures, read the certificate ourselves
+                signingCertificate = getSigningCertificate(acroFields, signatureName);
+            } catch (NoClassDefFoundError e) {
+                // iText parses timestamp tokens with the optional bctsp library
+                signingCertificate = getSigningCertificate(acroFields, signatureName);
+            }
             pdfCertificates.add(signingCertificate);
         }
         return pdfCertificates;
     }
 
+    /**
+     * @since 7.3
+     */
+    protected X509Certificate getSigningCertificate(AcroFields acroFields, String signatureName)
+            throws SignException {
+        PdfDictionary signatureDictionary = acroFields.getSignatureDictionary(signatureName);
+        byte[] contents = signatureDictionary.getAsString(PdfName.CONTENTS).getOriginalBytes();
+        return CMSSignedDataBuilder.getSigningCertificate(contents);
+    }
+
 }
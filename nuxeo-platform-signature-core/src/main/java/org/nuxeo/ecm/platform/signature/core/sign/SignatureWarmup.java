@@ -0,0 +1,209 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.core.pki.BouncyCastle;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+
+/**
+ * Runs synthetic sign and verify cycles through the signing code, so that class loading, provider setup and JIT
+ * compilation happen before the first user signs rather than during their request.
+ * <p>
+ * Nothing is stored: the PDF is generated in memory and signed with a throwaway key and self-signed certificate of
+ * the configured key algorithm. Neither the TSA nor the revocation services are called.
+ *
+ * @since 7.3
+ */
+public class SignatureWarmup {
+
+    protected static final String REASON = "Warm-up";
+
+    protected static final X500Principal SUBJECT = new X500Principal("CN=Nuxeo signature warm-up");
+
+    protected final SignatureServiceImpl signatureService;
+
+    protected final CertService certService;
+
+    protected final KeyParameters keyParameters;
+
+    public static class Result {
+
+        protected final int iterations;
+
+        protected final long duration;
+
+        protected final long firstSignature;
+
+        protected final long lastSignature;
+
+        protected Result(int iterations, long duration, long firstSignature, long lastSignature) {
+            this.iterations = iterations;
+            this.duration = duration;
+            this.firstSignature = firstSignature;
+            this.lastSignature = lastSignature;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * Total duration in milliseconds, including key generation.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Latency of the first sign and verify cycle, in milliseconds.
+         */
+        public long getFirstSignature() {
+            return firstSignature;
+        }
+
+        /**
+         * Latency of the last sign and verify cycle, in milliseconds.
+         */
+        public long getLastSignature() {
+            return lastSignature;
+        }
+
+        @Override
+        public String toString() {
+            return iterations + " signatures in " + duration + " ms, first " + firstSignature + " ms, last "
+                    + lastSignature + " ms";
+        }
+    }
+
+    public SignatureWarmup(SignatureServiceImpl signatureService, CertService certService,
+            KeyParameters keyParameters) {
+        this.signatureService = signatureService;
+        this.certService = certService;
+        this.keyParameters = keyParameters;
+    }
+
+    /**
+     * Signs and verifies up to {@code iterations} times, stopping early after {@code maxDuration} milliseconds.
+     */
+    public Result run(int iterations, long maxDuration) throws SignException {
+        long start = System.nanoTime();
+        BouncyCastle.register();
+        KeyPair keyPair = certService.generateKeyPair(keyParameters);
+        X509Certificate certificate = generateCertificate(keyPair);
+        Certificate[] chain = new Certificate[] { certificate };
+        byte[] pdf = generatePDF();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDuration);
+        long first = 0;
+        long last = 0;
+        int done = 0;
+        while (done < Math.max(1, iterations) && (done == 0 || System.nanoTime() < deadline)) {
+            long cycleStart = System.nanoTime();
+            signAndVerify(pdf, keyPair, chain);
+            last = System.nanoTime() - cycleStart;
+            if (done == 0) {
+                first = last;
+            }
+            done++;
+        }
+        Result result = new Result(done, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMillis(first), TimeUnit.NANOSECONDS.toMillis(last));
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        registry.timer(MetricRegistry.name("nuxeo", "signature", "warmup", "duration")).update(result.duration,
+                TimeUnit.MILLISECONDS);
+        registry.timer(MetricRegistry.name("nuxeo", "signature", "warmup", "first")).update(first,
+                TimeUnit.NANOSECONDS);
+        registry.timer(MetricRegistry.name("nuxeo", "signature", "warmup", "last")).update(last,
+                TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    protected void signAndVerify(byte[] pdf, KeyPair keyPair, Certificate[] chain) throws SignException {
+        ByteArrayOutputStream signed = new ByteArrayOutputStream(pdf.length + 16384);
+        try {
+            CMSSignedDataBuilder signedDataBuilder = new CMSSignedDataBuilder(keyPair.getPrivate(), chain,
+                    keyParameters.getDigestAlgorithm());
+            signatureService.signPDF(new PdfReader(pdf), signed, Collections.<X509Certificate> emptyList(), chain,
+                    signedDataBuilder, REASON);
+            List<X509Certificate> certificates = signatureService.getCertificates(new PdfReader(signed.toByteArray()));
+            if (certificates.size() != 1 || !certificates.get(0).equals(chain[0])) {
+                throw new SignException("Warm-up signature cannot be read back");
+            }
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (DocumentException e) {
+            throw new SignException(e);
+        }
+    }
+
+    protected X509Certificate generateCertificate(KeyPair keyPair) throws CertException {
+        long now = System.currentTimeMillis();
+        X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+        certGen.setSerialNumber(BigInteger.valueOf(now));
+        certGen.setIssuerDN(SUBJECT);
+        certGen.setSubjectDN(SUBJECT);
+        certGen.setNotBefore(new Date(now - TimeUnit.HOURS.toMillis(1)));
+        certGen.setNotAfter(new Date(now + TimeUnit.HOURS.toMillis(1)));
+        certGen.setPublicKey(keyPair.getPublic());
+        certGen.setSignatureAlgorithm(KeyParameters.getSignatureAlgorithm(keyParameters.getDigestAlgorithm(),
+                keyPair.getPrivate().getAlgorithm()));
+        try {
+            return certGen.generate(keyPair.getPrivate(), BouncyCastle.PROVIDER);
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        }
+    }
+
+    protected static byte[] generatePDF() throws SignException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        try {
+            PdfWriter.getInstance(document, out);
+            document.open();
+            document.add(new Paragraph("Nuxeo signature warm-up"));
+        } catch (DocumentException e) {
+            throw new SignException(e);
+        } finally {
+            document.close();
+        }
+        return out.toByteArray();
+    }
+
+}
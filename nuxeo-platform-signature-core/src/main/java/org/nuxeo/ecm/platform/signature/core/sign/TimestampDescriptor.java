@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+import org.nuxeo.ecm.platform.signature.core.tsa.TimestampFailurePolicy;
+
+/**
+ * Configuration of signature timestamping.
+ * <p>
+ * The TSA is reached over HTTP at {@code url}, unless a {@link TimestampClient} class with a public no-argument
+ * constructor is given.
+ *
+ * @since 7.3
+ */
+@XObject("timestamp")
+public class TimestampDescriptor {
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNode("url")
+    protected String url;
+
+    @XNode("client")
+    protected Class<? extends TimestampClient> clientClass;
+
+    /** Requested TSA policy OID, none by default. */
+    @XNode("policy")
+    protected String policy;
+
+    /** In milliseconds. */
+    @XNode("connectTimeout")
+    protected int connectTimeout = 5000;
+
+    /** In milliseconds. */
+    @XNode("readTimeout")
+    protected int readTimeout = 10000;
+
+    @XNode("maxInFlight")
+    protected int maxInFlight = 32;
+
+    /** Consecutive failures opening the circuit. */
+    @XNode("failureThreshold")
+    protected int failureThreshold = 5;
+
+    /** Time the circuit stays open before a trial request, in seconds. */
+    @XNode("openDuration")
+    protected int openDuration = 30;
+
+    /** One of {@code fail}, {@code unstamped} or {@code retry}. */
+    @XNode("onFailure")
+    protected String onFailure = "unstamped";
+
+    /** Delay between two runs of the retry queue, in seconds. */
+    @XNode("retryInterval")
+    protected int retryInterval = 60;
+
+    @XNode("maxPendingRetries")
+    protected int maxPendingRetries = 10000;
+
+    /** Seconds after which a document still waiting for its timestamp is given up. */
+    @XNode("maxPendingAge")
+    protected int maxPendingAge = 86400;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Class<? extends TimestampClient> getClientClass() {
+        return clientClass;
+    }
+
+    public void setClientClass(Class<? extends TimestampClient> clientClass) {
+        this.clientClass = clientClass;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public int getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(int openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public TimestampFailurePolicy getFailurePolicy() {
+        return TimestampFailurePolicy.fromString(onFailure);
+    }
+
+    public void setFailurePolicy(TimestampFailurePolicy failurePolicy) {
+        onFailure = failurePolicy.name();
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    public int getMaxPendingRetries() {
+        return maxPendingRetries;
+    }
+
+    public int getMaxPendingAge() {
+        return maxPendingAge;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Documents signed without timestamp while the TSA was unavailable, waiting for their timestamp.
+ * <p>
+ * The queue is bounded and kept in memory: documents still pending when the server stops keep their untimestamped
+ * signature. An entry is retried until it is timestamped, it failed {@link #MAX_ATTEMPTS} times or it is older than
+ * the maximum age, for instance when the document it refers to was never committed.
+ *
+ * @since 7.3
+ */
+public class TimestampRetryQueue {
+
+    private static final Log log = LogFactory.getLog(TimestampRetryQueue.class);
+
+    protected static final int MAX_ATTEMPTS = 10;
+
+    protected final BlockingQueue<PendingTimestamp> queue;
+
+    public static class PendingTimestamp {
+
+        protected final String repositoryName;
+
+        protected final String docId;
+
+        protected final String xpath;
+
+        protected final long createdAt = System.currentTimeMillis();
+
+        protected int attempts;
+
+        public PendingTimestamp(String repositoryName, String docId, String xpath) {
+            this.repositoryName = repositoryName;
+            this.docId = docId;
+            this.xpath = xpath;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getRepositoryName() {
+            return repositoryName;
+        }
+
+        public String getDocId() {
+            return docId;
+        }
+
+        public String getXpath() {
+            return xpath;
+        }
+
+        @Override
+        public String toString() {
+            return repositoryName + "/" + docId + "/" + xpath;
+        }
+    }
+
+    protected final long maxAge;
+
+    /**
+     * @param maxAge in milliseconds
+     */
+    public TimestampRetryQueue(int maxSize, long maxAge) {
+        queue = new LinkedBlockingQueue<PendingTimestamp>(Math.max(1, maxSize));
+        this.maxAge = maxAge;
+    }
+
+    public void add(String repositoryName, String docId, String xpath) {
+        offer(new PendingTimestamp(repositoryName, docId, xpath));
+    }
+
+    /**
+     * Puts back an entry whose retry failed, unless it failed too many times.
+     */
+    public void retry(PendingTimestamp pending) {
+        if (++pending.attempts >= MAX_ATTEMPTS) {
+            log.error("Giving up timestamping " + pending + " after " + pending.attempts + " attempts");
+            return;
+        }
+        offer(pending);
+    }
+
+    /**
+     * Puts back an entry that could not be processed yet, such as a document whose signing transaction is not
+     * committed, unless it is too old.
+     */
+    public void postpone(PendingTimestamp pending, String reason) {
+        if (System.currentTimeMillis() - pending.getCreatedAt() > maxAge) {
+            log.error("Giving up timestamping " + pending + " after " + maxAge / 1000 + "s: " + reason);
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Postponing timestamp of " + pending + ": " + reason);
+        }
+        offer(pending);
+    }
+
+    protected void offer(PendingTimestamp pending) {
+        if (!queue.offer(pending)) {
+            log.error("Timestamp retry queue full, " + pending + " keeps its signature without timestamp");
+        }
+    }
+
+    /**
+     * Removes and returns all pending entries.
+     */
+    public List<PendingTimestamp> drain() {
+        List<PendingTimestamp> pending = new ArrayList<PendingTimestamp>();
+        queue.drainTo(pending);
+        return pending;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+}
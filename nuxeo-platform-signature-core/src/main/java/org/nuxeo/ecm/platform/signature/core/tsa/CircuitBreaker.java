@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker guarding calls to a remote service.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and calls are refused without reaching the
+ * service for {@code openDuration} milliseconds. A single trial call is then let through: its success closes the
+ * circuit, its failure opens it again.
+ *
+ * @since 7.3
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    protected final int failureThreshold;
+
+    protected final long openDuration;
+
+    protected final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    protected final AtomicBoolean trialInProgress = new AtomicBoolean();
+
+    /** When the circuit was opened, 0 if closed. */
+    protected volatile long openedAt;
+
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns {@code true} if a call may be attempted. When half-open, only the first caller gets {@code true} and
+     * must then report the outcome.
+     */
+    public boolean allowRequest() {
+        long opened = openedAt;
+        if (opened == 0) {
+            return true;
+        }
+        if (System.currentTimeMillis() - opened < openDuration) {
+            return false;
+        }
+        return trialInProgress.compareAndSet(false, true);
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        openedAt = 0;
+        trialInProgress.set(false);
+    }
+
+    public void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || trialInProgress.get()) {
+            openedAt = System.currentTimeMillis();
+            trialInProgress.set(false);
+        }
+    }
+
+    public State getState() {
+        long opened = openedAt;
+        if (opened == 0) {
+            return State.CLOSED;
+        }
+        return System.currentTimeMillis() - opened < openDuration ? State.OPEN : State.HALF_OPEN;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+
+/**
+ * Timestamp client guarding another one with a {@link CircuitBreaker}.
+ * <p>
+ * While the TSA keeps failing, signing threads stop waiting for it: depending on the {@link TimestampFailurePolicy}
+ * they either fail at once or get {@code null} and sign without timestamp.
+ *
+ * @since 7.3
+ */
+public class GuardedTimestampClient implements TimestampClient {
+
+    private static final Log log = LogFactory.getLog(GuardedTimestampClient.class);
+
+    protected final TimestampClient client;
+
+    protected final CircuitBreaker circuitBreaker;
+
+    protected final TimestampFailurePolicy failurePolicy;
+
+    public GuardedTimestampClient(TimestampClient client, CircuitBreaker circuitBreaker,
+            TimestampFailurePolicy failurePolicy) {
+        this.client = client;
+        this.circuitBreaker = circuitBreaker;
+        this.failurePolicy = failurePolicy;
+    }
+
+    public TimestampClient getClient() {
+        return client;
+    }
+
+    public TimestampFailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    public CircuitBreaker.State getState() {
+        return circuitBreaker.getState();
+    }
+
+    @Override
+    public byte[] getTimeStampToken(byte[] digest, String digestAlgorithm) throws SignException {
+        if (!circuitBreaker.allowRequest()) {
+            return degrade(new SignException("Timestamp authority unavailable, circuit open"));
+        }
+        byte[] token;
+        try {
+            token = client.getTimeStampToken(digest, digestAlgorithm);
+        } catch (SignException e) {
+            circuitBreaker.recordFailure();
+            if (failurePolicy != TimestampFailurePolicy.FAIL) {
+                log.warn("Timestamp request failed: " + e.getMessage());
+            }
+            return degrade(e);
+        } catch (RuntimeException e) {
+            // such as a malformed response, must not leave a half-open trial pending forever
+            circuitBreaker.recordFailure();
+            log.warn("Timestamp request failed", e);
+            return degrade(new SignException("Timestamp request failed", e));
+        }
+        circuitBreaker.recordSuccess();
+        return token;
+    }
+
+    protected byte[] degrade(SignException e) throws SignException {
+        if (failurePolicy == TimestampFailurePolicy.FAIL) {
+            throw e;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Signing without timestamp: " + e.getMessage());
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+
+/**
+ * Timestamp client for a TSA reached over HTTP (RFC 3161 section 3.4).
+ * <p>
+ * Requests from concurrent signing threads are sent in parallel, up to {@code maxInFlight}; callers beyond that wait
+ * at most the request timeout for a slot. Responses are always read to the end so that the JDK keeps the connection
+ * alive and reuses it; the {@code http.maxConnections} system property bounds the idle connections kept per TSA and
+ * should not be lower than {@code maxInFlight}.
+ *
+ * @since 7.3
+ */
+public class HttpTimestampClient implements TimestampClient {
+
+    protected static final String REQUEST_TYPE = "application/timestamp-query";
+
+    protected static final String RESPONSE_TYPE = "application/timestamp-reply";
+
+    /** Tokens are a few kilobytes, reject anything much larger. */
+    protected static final int MAX_RESPONSE_SIZE = 256 * 1024;
+
+    protected final URL url;
+
+    protected final String policy;
+
+    protected final int connectTimeout;
+
+    protected final int readTimeout;
+
+    protected final Semaphore inFlight;
+
+    /**
+     * @param url the TSA URL
+     * @param policy the requested TSA policy OID, or {@code null} for the TSA default
+     * @param connectTimeout the connection timeout, in milliseconds
+     * @param readTimeout the response timeout, in milliseconds
+     * @param maxInFlight the maximum number of concurrent requests
+     */
+    public HttpTimestampClient(URL url, String policy, int connectTimeout, int readTimeout, int maxInFlight) {
+        this.url = url;
+        this.policy = policy;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        inFlight = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    @Override
+    public byte[] getTimeStampToken(byte[] digest, String digestAlgorithm) throws SignException {
+        BigInteger nonce = new BigInteger(63, ThreadLocalRandom.current());
+        byte[] request = TimestampTokens.createRequest(digest, digestAlgorithm, nonce, policy);
+        try {
+            if (!inFlight.tryAcquire(connectTimeout + readTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SignException("Too many timestamp requests in flight to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignException(e);
+        }
+        byte[] response;
+        try {
+            response = post(request);
+        } catch (IOException e) {
+            throw new SignException("Timestamp request to " + url + " failed", e);
+        } finally {
+            inFlight.release();
+        }
+        return TimestampTokens.getToken(response, digest, nonce);
+    }
+
+    protected byte[] post(byte[] request) throws IOException, SignException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", REQUEST_TYPE);
+        connection.setFixedLengthStreamingMode(request.length);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(request);
+        } finally {
+            out.close();
+        }
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                // drain so that the connection can be reused
+                readFully(error);
+            }
+            throw new SignException("Timestamp authority " + url + " returned HTTP status " + status);
+        }
+        byte[] response = readFully(connection.getInputStream());
+        String contentType = connection.getContentType();
+        if (contentType == null || !contentType.startsWith(RESPONSE_TYPE)) {
+            throw new SignException("Unexpected timestamp response type: " + contentType);
+        }
+        return response;
+    }
+
+    protected static byte[] readFully(InputStream in) throws IOException, SignException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_RESPONSE_SIZE) {
+                    throw new SignException("Timestamp response exceeds " + MAX_RESPONSE_SIZE + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cmp.PKIStatusInfo;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.IssuerAndSerialNumber;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.cms.SignerIdentifier;
+import org.bouncycastle.asn1.cms.SignerInfo;
+import org.bouncycastle.asn1.ess.ESSCertID;
+import org.bouncycastle.asn1.ess.SigningCertificate;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.tsp.MessageImprint;
+import org.bouncycastle.asn1.tsp.TSTInfo;
+import org.bouncycastle.asn1.tsp.TimeStampReq;
+import org.bouncycastle.asn1.tsp.TimeStampResp;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.X509CertificateStructure;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.jce.PrincipalUtil;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+import org.nuxeo.ecm.platform.signature.core.pki.BouncyCastle;
+import org.nuxeo.ecm.platform.signature.core.sign.CMSSignedDataBuilder;
+
+/**
+ * In-process Time Stamping Authority, a stand-in for a real TSA in tests and benchmarks.
+ * <p>
+ * It signs tokens with a self-signed P-256 key generated at construction. It can be used directly as a
+ * {@link TimestampClient}, or serve encoded requests through {@link #getResponse(byte[])} behind an HTTP endpoint. A
+ * latency can be configured to emulate the round-trip to a remote TSA, and the authority can be made unavailable to
+ * exercise failure handling. Tokens are signed without any lock, so concurrent callers are served in parallel.
+ * <p>
+ * The authority is not trusted by anything and must not be used in production.
+ *
+ * @since 7.3
+ */
+public class LocalTimestampAuthority implements TimestampClient {
+
+    /** Arbitrary policy of the stand-in, not a registered OID. */
+    public static final String DEFAULT_POLICY = "1.2.3.4.1";
+
+    protected static final String BC_PROVIDER = "BC";
+
+    protected static final String SUBJECT = "CN=Nuxeo Local Timestamp Authority";
+
+    protected static final long VALIDITY_MILLIS = 10 * 365 * 24 * 3600 * 1000L;
+
+    protected final KeyPair keyPair;
+
+    protected final X509Certificate certificate;
+
+    protected final ESSCertID essCertID;
+
+    protected final DERObjectIdentifier policy = new DERObjectIdentifier(DEFAULT_POLICY);
+
+    protected final AtomicLong serialNumber = new AtomicLong();
+
+    protected final AtomicInteger issuedCount = new AtomicInteger();
+
+    protected volatile long latency;
+
+    protected volatile boolean available = true;
+
+    static {
+        BouncyCastle.register();
+    }
+
+    public LocalTimestampAuthority() throws SignException {
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC", BC_PROVIDER);
+            keyGen.initialize(new ECGenParameterSpec("P-256"));
+            keyPair = keyGen.generateKeyPair();
+
+            long now = System.currentTimeMillis();
+            X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+            certGen.setSerialNumber(BigInteger.valueOf(now));
+            certGen.setIssuerDN(new X500Principal(SUBJECT));
+            certGen.setSubjectDN(new X500Principal(SUBJECT));
+            certGen.setNotBefore(new Date(now - 24 * 3600 * 1000L));
+            certGen.setNotAfter(new Date(now + VALIDITY_MILLIS));
+            certGen.setPublicKey(keyPair.getPublic());
+            certGen.setSignatureAlgorithm("SHA256withECDSA");
+            certGen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(false));
+            certGen.addExtension(X509Extensions.KeyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+            // RFC 3161 requires this as the only, critical, extended key usage
+            certGen.addExtension(X509Extensions.ExtendedKeyUsage, true, new ExtendedKeyUsage(
+                    KeyPurposeId.id_kp_timeStamping));
+            certificate = certGen.generate(keyPair.getPrivate(), BC_PROVIDER);
+
+            essCertID = new ESSCertID(MessageDigest.getInstance("SHA1", BC_PROVIDER).digest(
+                    certificate.getEncoded()));
+        } catch (GeneralSecurityException e) {
+            throw new SignException("Cannot create the local timestamp authority", e);
+        }
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Sets the delay added to each request, in milliseconds, to emulate a remote TSA.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Makes requests fail, to emulate an outage.
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    /**
+     * Returns the number of tokens issued so far.
+     */
+    public int getIssuedCount() {
+        return issuedCount.get();
+    }
+
+    @Override
+    public byte[] getTimeStampToken(byte[] digest, String digestAlgorithm) throws SignException {
+        waitLatency();
+        if (!available) {
+            throw new SignException("Timestamp authority unavailable");
+        }
+        AlgorithmIdentifier hashAlgorithm = new AlgorithmIdentifier(
+                CMSSignedDataBuilder.getDigestAlgorithmOID(digestAlgorithm), DERNull.INSTANCE);
+        return createToken(new MessageImprint(hashAlgorithm, digest), null, true).getDEREncoded();
+    }
+
+    /**
+     * Answers an encoded TimeStampReq with an encoded TimeStampResp.
+     */
+    public byte[] getResponse(byte[] encodedRequest) throws SignException {
+        waitLatency();
+        if (!available) {
+            throw new SignException("Timestamp authority unavailable");
+        }
+        TimeStampReq request;
+        try {
+            request = TimeStampReq.getInstance(ASN1Object.fromByteArray(encodedRequest));
+        } catch (IOException e) {
+            return new TimeStampResp(new PKIStatusInfo(TimestampTokens.STATUS_REJECTION), null).getDEREncoded();
+        } catch (IllegalArgumentException e) {
+            return new TimeStampResp(new PKIStatusInfo(TimestampTokens.STATUS_REJECTION), null).getDEREncoded();
+        }
+        if (request.getReqPolicy() != null && !policy.equals(request.getReqPolicy())) {
+            return new TimeStampResp(new PKIStatusInfo(TimestampTokens.STATUS_REJECTION), null).getDEREncoded();
+        }
+        boolean includeCertificate = request.getCertReq() != null && request.getCertReq().isTrue();
+        ContentInfo token = createToken(request.getMessageImprint(), request.getNonce(), includeCertificate);
+        return new TimeStampResp(new PKIStatusInfo(TimestampTokens.STATUS_GRANTED), token).getDEREncoded();
+    }
+
+    protected ContentInfo createToken(MessageImprint messageImprint, DERInteger nonce, boolean includeCertificate)
+            throws SignException {
+        TSTInfo tstInfo = new TSTInfo(policy, messageImprint, new DERInteger(serialNumber.incrementAndGet()),
+                new DERGeneralizedTime(new Date()), null, null, nonce, null, null);
+        byte[] content = tstInfo.getDEREncoded();
+        try {
+            AlgorithmIdentifier digestAlgorithmId = new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256,
+                    DERNull.INSTANCE);
+            ASN1EncodableVector attributes = new ASN1EncodableVector();
+            attributes.add(new Attribute(CMSAttributes.contentType, new DERSet(PKCSObjectIdentifiers.id_ct_TSTInfo)));
+            attributes.add(new Attribute(CMSAttributes.messageDigest, new DERSet(new DEROctetString(
+                    MessageDigest.getInstance("SHA256", BC_PROVIDER).digest(content)))));
+            attributes.add(new Attribute(PKCSObjectIdentifiers.id_aa_signingCertificate, new DERSet(
+                    new SigningCertificate(essCertID))));
+            ASN1Set signedAttributes = new DERSet(attributes);
+
+            Signature signature = Signature.getInstance("SHA256withECDSA", BC_PROVIDER);
+            signature.initSign(keyPair.getPrivate());
+            signature.update(signedAttributes.getEncoded());
+
+            IssuerAndSerialNumber issuerAndSerial = new IssuerAndSerialNumber(
+                    PrincipalUtil.getIssuerX509Principal(certificate), certificate.getSerialNumber());
+            SignerInfo signerInfo = new SignerInfo(new SignerIdentifier(issuerAndSerial), digestAlgorithmId,
+                    signedAttributes, new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA256),
+                    new DEROctetString(signature.sign()), null);
+            ASN1Set certificates = null;
+            if (includeCertificate) {
+                certificates = new DERSet(X509CertificateStructure.getInstance(ASN1Object.fromByteArray(
+                        certificate.getEncoded())));
+            }
+            SignedData signedData = new SignedData(new DERSet(digestAlgorithmId), new ContentInfo(
+                    PKCSObjectIdentifiers.id_ct_TSTInfo, new DEROctetString(content)), certificates, null, new DERSet(
+                    signerInfo));
+            issuedCount.incrementAndGet();
+            return new ContentInfo(CMSObjectIdentifiers.signedData, signedData);
+        } catch (IOException e) {
+            throw new SignException(e);
+        } catch (GeneralSecurityException e) {
+            throw new SignException(e);
+        }
+    }
+
+    protected void waitLatency() throws SignException {
+        long delay = latency;
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignException(e);
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+/**
+ * What signing does when no timestamp can be obtained.
+ *
+ * @since 7.3
+ */
+public enum TimestampFailurePolicy {
+
+    /** The signing fails. */
+    FAIL,
+
+    /** The document is signed without timestamp. */
+    UNSTAMPED,
+
+    /** The document is signed without timestamp, and the timestamp is added later when the TSA is back. */
+    RETRY;
+
+    public static TimestampFailurePolicy fromString(String value) {
+        if (value == null) {
+            return UNSTAMPED;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+
+}
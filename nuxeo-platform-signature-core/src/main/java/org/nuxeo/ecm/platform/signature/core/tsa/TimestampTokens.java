@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DERBoolean;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.tsp.MessageImprint;
+import org.bouncycastle.asn1.tsp.TSTInfo;
+import org.bouncycastle.asn1.tsp.TimeStampReq;
+import org.bouncycastle.asn1.tsp.TimeStampResp;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.core.sign.CMSSignedDataBuilder;
+
+/**
+ * Encoding and checking of RFC 3161 requests, responses and tokens.
+ *
+ * @since 7.3
+ */
+public class TimestampTokens {
+
+    /** PKIStatus values of RFC 3161. */
+    public static final int STATUS_GRANTED = 0;
+
+    public static final int STATUS_GRANTED_WITH_MODS = 1;
+
+    public static final int STATUS_REJECTION = 2;
+
+    private TimestampTokens() {
+        // utility class
+    }
+
+    /**
+     * Builds an encoded TimeStampReq asking for the TSA certificate to be included in the token.
+     *
+     * @param policy the requested TSA policy OID, or {@code null} for the TSA default
+     */
+    public static byte[] createRequest(byte[] digest, String digestAlgorithm, BigInteger nonce, String policy)
+            throws SignException {
+        MessageImprint messageImprint = new MessageImprint(new AlgorithmIdentifier(
+                CMSSignedDataBuilder.getDigestAlgorithmOID(digestAlgorithm), DERNull.INSTANCE), digest);
+        DERObjectIdentifier policyOID = policy == null ? null : new DERObjectIdentifier(policy);
+        TimeStampReq request = new TimeStampReq(messageImprint, policyOID, new DERInteger(nonce), new DERBoolean(
+                true), null);
+        return request.getDEREncoded();
+    }
+
+    /**
+     * Checks an encoded TimeStampResp against its request and returns the encoded token.
+     *
+     * @throws SignException if the request was rejected or the token does not match the request
+     */
+    public static byte[] getToken(byte[] response, byte[] digest, BigInteger nonce) throws SignException {
+        TimeStampResp timeStampResp;
+        try {
+            timeStampResp = TimeStampResp.getInstance(ASN1Object.fromByteArray(response));
+        } catch (IOException e) {
+            throw new SignException("Invalid timestamp response", e);
+        } catch (IllegalArgumentException e) {
+            throw new SignException("Invalid timestamp response", e);
+        }
+        int status = timeStampResp.getStatus().getStatus().intValue();
+        if (status != STATUS_GRANTED && status != STATUS_GRANTED_WITH_MODS) {
+            throw new SignException("Timestamp request rejected with status " + status);
+        }
+        ContentInfo token = timeStampResp.getTimeStampToken();
+        if (token == null) {
+            throw new SignException("Timestamp response has no token");
+        }
+        TSTInfo tstInfo = getTSTInfo(token);
+        if (!Arrays.equals(digest, tstInfo.getMessageImprint().getHashedMessage())) {
+            throw new SignException("Timestamp token does not match the timestamped digest");
+        }
+        if (tstInfo.getNonce() == null || !nonce.equals(tstInfo.getNonce().getValue())) {
+            throw new SignException("Timestamp token does not match the request nonce");
+        }
+        return token.getDEREncoded();
+    }
+
+    /**
+     * Returns the TSTInfo of an encoded timestamp token.
+     */
+    public static TSTInfo getTSTInfo(byte[] token) throws SignException {
+        try {
+            return getTSTInfo(ContentInfo.getInstance(ASN1Object.fromByteArray(token)));
+        } catch (IOException e) {
+            throw new SignException("Invalid timestamp token", e);
+        }
+    }
+
+    protected static TSTInfo getTSTInfo(ContentInfo token) throws SignException {
+        try {
+            SignedData signedData = SignedData.getInstance(token.getContent());
+            ContentInfo content = signedData.getEncapContentInfo();
+            if (!PKCSObjectIdentifiers.id_ct_TSTInfo.equals(content.getContentType())) {
+                throw new SignException("Timestamp token content is not a TSTInfo");
+            }
+            byte[] tstInfo = ASN1OctetString.getInstance(content.getContent()).getOctets();
+            return TSTInfo.getInstance(ASN1Object.fromByteArray(tstInfo));
+        } catch (IOException e) {
+            throw new SignException("Invalid timestamp token", e);
+        } catch (IllegalArgumentException e) {
+            throw new SignException("Invalid timestamp token", e);
+        }
+    }
+
+}
@@ -0,0 +1,6 @@
+/**
+  RFC 3161 timestamping clients.
+
+  @since 7.3
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
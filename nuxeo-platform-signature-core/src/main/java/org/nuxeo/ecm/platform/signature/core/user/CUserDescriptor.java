@@ -25,6 +25,8 @@ import java.util.Set;
 import org.nuxeo.common.xmap.annotation.XNode;
 import org.nuxeo.common.xmap.annotation.XObject;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.core.pki.EncryptedKeyContainer;
 
 /**
  * Provides default values for new user certificates.
@@ -53,6 +55,65 @@ public class CUserDescriptor {
     @XNode("organizationalUnit")
     protected String organizationalUnit;
 
+    /**
+     * User property selecting the tenant root issuing the user certificates, e.g. user:tenantId for the domain of a
+     * multi-tenant deployment or user:company. The default root issues them when missing or empty.
+     *
+     * @since 7.3
+     */
+    @XNode("tenantProperty")
+    protected String tenantProperty;
+
+    /**
+     * Key algorithm for new user keys: RSA (default) or EC
+     *
+     * @since 7.3
+     */
+    @XNode("keyAlgorithm")
+    protected String keyAlgorithm;
+
+    /**
+     * RSA key size for new user keys, 2048 by default. Smaller keys, such as the former 1024 default, are only used
+     * when set here.
+     *
+     * @since 7.3
+     */
+    @XNode("keySize")
+    protected int keySize;
+
+    /**
+     * Named curve for new EC user keys, e.g. secp256r1 (P-256) or secp384r1 (P-384), and the only curve accepted in
+     * certification requests
+     *
+     * @since 7.3
+     */
+    @XNode("curve")
+    protected String curve;
+
+    /**
+     * Digest used for certificate requests and PDF signatures made with user keys, e.g. SHA256
+     *
+     * @since 7.3
+     */
+    @XNode("digestAlgorithm")
+    protected String digestAlgorithm;
+
+    /**
+     * Storage format of new user keys: pkcs8 (default) or jks
+     *
+     * @since 7.3
+     */
+    @XNode("keyFormat")
+    protected String keyFormat = CUserServiceImpl.KEY_FORMAT_PKCS8;
+
+    /**
+     * PBKDF2 iteration count protecting new pkcs8 user keys
+     *
+     * @since 7.3
+     */
+    @XNode("keyIterations")
+    protected int keyIterations = EncryptedKeyContainer.DEFAULT_ITERATIONS;
+
     public String getCountryCode() {
         return countryCode;
     }
@@ -80,6 +141,69 @@ public class CUserDescriptor {
         this.organizationalUnit = organizationalUnit;
     }
 
+    public String getTenantProperty() {
+        return tenantProperty;
+    }
+
+    public void setTenantProperty(String tenantProperty) {
+        this.tenantProperty = tenantProperty;
+    }
+
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public void setKeyAlgorithm(String keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public void setKeySize(int keySize) {
+        this.keySize = keySize;
+    }
+
+    public String getCurve() {
+        return curve;
+    }
+
+    public void setCurve(String curve) {
+        this.curve = curve;
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    public String getKeyFormat() {
+        return keyFormat;
+    }
+
+    public void setKeyFormat(String keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    public int getKeyIterations() {
+        return keyIterations;
+    }
+
+    public void setKeyIterations(int keyIterations) {
+        this.keyIterations = keyIterations;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public KeyParameters getKeyParameters() {
+        return new KeyParameters(keyAlgorithm, keySize, curve, digestAlgorithm);
+    }
+
     boolean validateCountryCode(String countryCode) {
         String[] validCountryCodes = { "AF", "AX", "AL", "DZ", "AS", "AD", "AO", "AI", "AQ", "AG", "AR", "AM", "AW",
                 "AU", "AT", "AZ", "BS", "BH", "BD", "BB", "BY", "BE", "BZ", "BJ", "BM", "BT", "BO", "BQ", "BA", "BW",
@@ -18,33 +18,71 @@ package org.nuxeo.ecm.platform.signature.core.user;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.Base64;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.directory.DirectoryException;
-import org.nuxeo.ecm.directory.Session;
-import org.nuxeo.ecm.directory.api.DirectoryService;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
 import org.nuxeo.ecm.platform.signature.api.pki.RootService;
 import org.nuxeo.ecm.platform.signature.api.user.AliasType;
 import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
 import org.nuxeo.ecm.platform.signature.api.user.CNField;
 import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.api.user.PublicCertificateInfo;
 import org.nuxeo.ecm.platform.signature.api.user.UserInfo;
+import org.nuxeo.ecm.platform.signature.core.pki.EncryptedKeyContainer;
+import org.nuxeo.ecm.platform.signature.core.pki.IssuerChain;
+import org.nuxeo.ecm.platform.signature.core.pki.RootServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateCacheDescriptor;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateInvalidationBus;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateMembershipFilter;
+import org.nuxeo.ecm.platform.signature.core.user.cache.InvalidationPublisher;
+import org.nuxeo.ecm.platform.signature.core.user.cache.PublicCertificateCache;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStore;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStoreDescriptor;
+import org.nuxeo.ecm.platform.signature.core.user.store.MemoryKeyMaterialStore;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 /**
  * Base implementation of the user certificate service.
@@ -55,12 +93,43 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
 
     private static final Log LOG = LogFactory.getLog(CUserServiceImpl.class);
 
-    private static final String CERTIFICATE_DIRECTORY_NAME = "certificate";
+    private static final String KEYSTORE_TYPE = "JKS";
+
+    /**
+     * Encrypted PKCS#8 key and DER certificate in {@code cert:keydata}.
+     *
+     * @since 7.3
+     */
+    public static final String KEY_FORMAT_PKCS8 = "pkcs8";
+
+    /**
+     * Base64-encoded JKS keystore in {@code cert:keystore}, the format of entries created before 7.3.
+     *
+     * @since 7.3
+     */
+    public static final String KEY_FORMAT_JKS = "jks";
+
+    /**
+     * DER certificate alone in {@code cert:keydata}, for certificates issued from a certification request whose key is
+     * held by the user.
+     *
+     * @since 7.3
+     */
+    public static final String KEY_FORMAT_X509 = "x509";
+
+    protected static final int MAX_LOOKUP_RESULTS = 100;
+
+    protected static final int LOOKUP_FILL_PAGE_SIZE = 100;
+
+    /** Delay before retrying a failed rebuild of the membership filter, in milliseconds. */
+    protected static final long MEMBERSHIP_RETRY_DELAY = 60000;
 
     protected RootService rootService;
 
     protected CertService certService;
 
+    protected RevocationService revocationService;
+
     /**
      * Configurable country code
      */
@@ -76,6 +145,61 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
      */
     protected String organizationalUnit;
 
+    /**
+     * Configurable user property selecting the tenant root
+     */
+    protected String tenantProperty;
+
+    /**
+     * Configurable key algorithm, size or curve, and digest
+     */
+    protected KeyParameters keyParameters = KeyParameters.DEFAULT;
+
+    /**
+     * Configurable storage format of new user keys
+     */
+    protected String keyFormat = KEY_FORMAT_PKCS8;
+
+    /**
+     * Configurable PBKDF2 iteration count of new PKCS#8 user keys
+     */
+    protected int keyIterations = EncryptedKeyContainer.DEFAULT_ITERATIONS;
+
+    protected KeyMaterialStore keyMaterialStore;
+
+    protected KeyMigration keyMigration;
+
+    protected RootRollover rootRollover;
+
+    /**
+     * Unlocked keys, {@code null} unless signing sessions are enabled
+     */
+    protected volatile SigningSessionCache signingSessions;
+
+    protected CertificateCacheDescriptor certificateCacheDescriptor = new CertificateCacheDescriptor();
+
+    protected CertificateInvalidationBus invalidationBus;
+
+    /**
+     * Public certificate data, {@code null} if the cache is disabled
+     */
+    protected volatile PublicCertificateCache certificateCache;
+
+    /**
+     * Users who may have a certificate, {@code null} if the filter is disabled
+     */
+    protected volatile CertificateMembershipFilter membershipFilter;
+
+    protected final AtomicBoolean membershipRebuilding = new AtomicBoolean();
+
+    protected volatile long membershipRebuildFailure;
+
+    protected RenewalDescriptor renewalDescriptor = new RenewalDescriptor();
+
+    protected ScheduledExecutorService renewalScheduler;
+
+    protected volatile CertificateRenewal renewal;
+
     @Override
     public UserInfo getUserInfo(DocumentModel userModel) throws CertException {
         UserInfo userInfo = null;
@@ -95,6 +219,10 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
             userFields.put(CNField.Email, email);
             userFields.put(CNField.UserID, userID);
             userInfo = new UserInfo(userFields);
+            if (!StringUtils.isBlank(tenantProperty)) {
+                String tenant = (String) userModel.getPropertyValue(tenantProperty);
+                userInfo.setTenant(StringUtils.isBlank(tenant) ? null : tenant);
+            }
         } catch (ClientException e) {
             LOG.error(e);
             throw new CertException("User data could not be retrieved from the system");
@@ -104,109 +232,651 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
 
     @Override
     public KeyStore getUserKeystore(String userID, String userKeystorePassword) throws CertException, ClientException {
-        // Log in as system user
-        LoginContext lc;
+        DocumentModel entry = getEntry(userID);
+        checkServerKey(entry);
+        if (!isPKCS8(entry)) {
+            return getJKSKeystore(entry, userKeystorePassword);
+        }
+        // rebuilt in memory for callers expecting a keystore
+        EncryptedKeyContainer container = getKeyContainer(entry);
+        char[] password = userKeystorePassword.toCharArray();
+        PrivateKey privateKey = container.getPrivateKey(password);
+        AliasWrapper alias = new AliasWrapper(userID);
         try {
-            lc = Framework.login();
-        } catch (LoginException e) {
-            throw new ClientException("Cannot log in as system user", e);
+            KeyStore keystore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keystore.load(null, password);
+            keystore.setKeyEntry(alias.getId(AliasType.KEY), privateKey, password,
+                    new Certificate[] { container.getCertificate() });
+            keystore.setCertificateEntry(alias.getId(AliasType.CERT), container.getCertificate());
+            return keystore;
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+    @Override
+    public KeyStore.PrivateKeyEntry getUserKeyEntry(String userID, String userKeyPassword) throws CertException,
+            ClientException {
+        SigningSessionCache sessions = signingSessions;
+        if (sessions == null) {
+            return unlockUserKey(userID, userKeyPassword);
+        }
+        KeyStore.PrivateKeyEntry keyEntry = sessions.get(userID, userKeyPassword);
+        if (keyEntry == null) {
+            keyEntry = unlockUserKey(userID, userKeyPassword);
+            sessions.put(userID, userKeyPassword, keyEntry);
+        }
+        return keyEntry;
+    }
+
+    /**
+     * Reads and decrypts a stored user key.
+     *
+     * @since 7.3
+     */
+    protected KeyStore.PrivateKeyEntry unlockUserKey(String userID, String userKeyPassword) throws CertException,
+            ClientException {
+        DocumentModel entry = getEntry(userID);
+        checkServerKey(entry);
+        if (isPKCS8(entry)) {
+            // no keystore to load, only the key to decrypt
+            EncryptedKeyContainer container = getKeyContainer(entry);
+            PrivateKey privateKey = container.getPrivateKey(userKeyPassword.toCharArray());
+            return new KeyStore.PrivateKeyEntry(privateKey, new Certificate[] { container.getCertificate() });
+        }
+        KeyStore keystore = getJKSKeystore(entry, userKeyPassword);
+        AliasWrapper alias = new AliasWrapper(userID);
+        KeyPair keyPair = getCertService().getKeyPair(keystore, alias.getId(AliasType.KEY),
+                alias.getId(AliasType.CERT), userKeyPassword);
+        X509Certificate certificate = getCertService().getCertificate(keystore, alias.getId(AliasType.CERT));
+        return new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new Certificate[] { certificate });
+    }
+
+    @Override
+    public DocumentModel createCertificate(DocumentModel user, String userKeyPassword) throws CertException,
+            ClientException {
+        String userKeystorePassword = userKeyPassword;
+
+        // create an entry in the key material store
+        String userID = (String) user.getPropertyValue("user:username");
+
+        // make sure that no certificates are associated with the
+        // current userid
+        if (getKeyMaterialStore().hasEntry(userID)) {
+            throw new CertException(userID + " already has a certificate");
         }
+
+        LOG.info("Starting certificate generation for: " + userID);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("userid", userID);
+
+        // add the user key to the entry
+        KeyStore keystore = getCertService().initializeUser(getUserInfo(user), userKeyPassword, keyParameters);
+        AliasWrapper alias = new AliasWrapper(userID);
+        X509Certificate x509Certificate = getCertService().getCertificate(keystore, alias.getId(AliasType.CERT));
+        if (KEY_FORMAT_JKS.equals(keyFormat)) {
+            ByteArrayOutputStream byteOS = new ByteArrayOutputStream();
+            getCertService().storeCertificate(keystore, byteOS, userKeystorePassword);
+            String keystore64Encoded = Base64.encodeBytes(byteOS.toByteArray());
+            map.put("keystore", keystore64Encoded);
+        } else {
+            KeyPair keyPair = getCertService().getKeyPair(keystore, alias.getId(AliasType.KEY),
+                    alias.getId(AliasType.CERT), userKeyPassword);
+            EncryptedKeyContainer container = EncryptedKeyContainer.create(keyPair.getPrivate(), x509Certificate,
+                    userKeyPassword.toCharArray(), keyIterations);
+            map.put("keydata", container.getEncoded());
+            map.put("keyformat", KEY_FORMAT_PKCS8);
+        }
+        map.put("certificate", getUserCertInfo(keystore, user));
+        map.putAll(getLookupFields(x509Certificate, getCertService()));
+        map.put("keypassword", userKeyPassword);
+        return createEntry(userID, map);
+    }
+
+    @Override
+    public X509Certificate createCertificateFromRequest(DocumentModel user, byte[] csr) throws CertException,
+            ClientException {
+        String userID = (String) user.getPropertyValue("user:username");
+        if (getKeyMaterialStore().hasEntry(userID)) {
+            throw new CertException(userID + " already has a certificate");
+        }
+        X509Certificate certificate = getCertService().issueCertificate(getUserInfo(user), csr, keyParameters);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("userid", userID);
         try {
-            // Open directory session
-            final Session session = getDirectoryService().open(CERTIFICATE_DIRECTORY_NAME);
-            try {
-                KeyStore keystore = null;
-                DocumentModel entry = session.getEntry(userID);
-                if (entry != null) {
-                    String keystore64Encoded = (String) entry.getPropertyValue("cert:keystore");
-                    byte[] keystoreBytes = Base64.decode(keystore64Encoded);
-                    ByteArrayInputStream byteIS = new ByteArrayInputStream(keystoreBytes);
-                    keystore = getCertService().getKeyStore(byteIS, userKeystorePassword);
-                } else {
-                    throw new CertException("No directory entry for " + userID);
+            map.put("keydata", certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new CertException(e);
+        }
+        map.put("keyformat", KEY_FORMAT_X509);
+        map.put("certificate", getUserCertInfo(certificate));
+        map.putAll(getLookupFields(certificate, getCertService()));
+        createEntry(userID, map);
+        return certificate;
+    }
+
+    /**
+     * Issues a new certificate for the key of a user, replacing the stored certificate. The password of the key is not
+     * needed and the previous certificate is not revoked, it stays valid until it expires.
+     *
+     * @since 7.3
+     */
+    public X509Certificate reissueCertificate(DocumentModel user) throws CertException, ClientException {
+        String userID = (String) user.getPropertyValue("user:username");
+        DocumentModel entry = getEntry(userID);
+        checkServerKey(entry);
+        if (!isPKCS8(entry)) {
+            throw new CertException("The key of " + userID + " must be migrated from its JKS keystore first");
+        }
+        EncryptedKeyContainer container = getKeyContainer(entry);
+        X509Certificate certificate = getCertService().reissueCertificate(getUserInfo(user),
+                container.getCertificate().getPublicKey());
+        entry.setPropertyValue("cert:keydata", container.withCertificate(certificate).getEncoded());
+        entry.setPropertyValue("cert:certificate", getUserCertInfo(certificate));
+        setLookupFields(entry, certificate, getCertService());
+        getKeyMaterialStore().updateEntry(entry);
+        evictSigningSession(userID);
+        invalidateCertificateCache(userID);
+        LOG.info("Renewed the certificate of " + userID + " until " + certificate.getNotAfter());
+        return certificate;
+    }
+
+    /**
+     * Returns the renewal of the certificates nearing expiry, created on first use.
+     *
+     * @since 7.3
+     */
+    public CertificateRenewal getCertificateRenewal() {
+        CertificateRenewal result = renewal;
+        if (result == null) {
+            synchronized (this) {
+                if (renewal == null) {
+                    renewal = new CertificateRenewal(this, Framework.getLocalService(UserManager.class));
                 }
-                return keystore;
-            } finally {
-                session.close();
+                result = renewal;
             }
-        } finally {
+        }
+        return result;
+    }
+
+    /**
+     * Runs a batch of the background renewal, as the system user and in its own transaction.
+     */
+    protected void runRenewal() {
+        RenewalDescriptor desc = renewalDescriptor;
+        boolean txStarted = !TransactionHelper.isTransactionActive() && TransactionHelper.startTransaction();
+        try {
+            LoginContext lc = Framework.login();
             try {
-                // Login context may be null in tests
+                int renewed = getCertificateRenewal().run(desc.getRenewBeforeDays(), desc.getBatchSize());
+                if (renewed > 0) {
+                    LOG.info("Renewed " + renewed + " certificates nearing expiry");
+                }
+            } finally {
                 if (lc != null) {
                     lc.logout();
                 }
-            } catch (LoginException e) {
-                throw new ClientException("Cannot log out system user", e);
+            }
+        } catch (LoginException e) {
+            TransactionHelper.setTransactionRollbackOnly();
+            LOG.error("Cannot renew certificates", e);
+        } catch (ClientException e) {
+            TransactionHelper.setTransactionRollbackOnly();
+            LOG.error("Cannot renew certificates", e);
+        } catch (RuntimeException e) {
+            // keep the schedule going
+            TransactionHelper.setTransactionRollbackOnly();
+            LOG.error("Cannot renew certificates", e);
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
             }
         }
     }
 
-    @Override
-    public DocumentModel createCertificate(DocumentModel user, String userKeyPassword) throws CertException,
+    protected synchronized void startRenewal() {
+        renewalScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Nuxeo-Signature-Renewal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, renewalDescriptor.getInterval());
+        renewalScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runRenewal();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    protected synchronized void stopRenewal() {
+        if (renewalScheduler != null) {
+            renewalScheduler.shutdownNow();
+            renewalScheduler = null;
+        }
+    }
+
+    /**
+     * Creates the entry of a new user certificate.
+     *
+     * @since 7.3
+     */
+    protected DocumentModel createEntry(String userID, Map<String, Object> map) throws CertException,
             ClientException {
-        // Log in as system user
-        LoginContext lc;
+        CertificateMembershipFilter filter = getMembershipFilter();
+        if (filter != null) {
+            filter.add(userID);
+        }
+        DocumentModel entry = getKeyMaterialStore().createEntry(map);
+        // other nodes may have cached the absence of a certificate
+        invalidateCertificateCache(userID);
+        return entry;
+    }
+
+    @Override
+    public KeyParameters getKeyParameters() {
+        return keyParameters;
+    }
+
+    /**
+     * Overrides the contributed key parameters.
+     *
+     * @since 7.3
+     */
+    public void setKeyParameters(KeyParameters keyParameters) {
+        this.keyParameters = keyParameters;
+    }
+
+    /**
+     * Overrides the contributed storage format of new user keys, {@link #KEY_FORMAT_PKCS8} or {@link #KEY_FORMAT_JKS}.
+     *
+     * @since 7.3
+     */
+    public void setKeyFormat(String keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    /**
+     * Returns the backend storing user key material, the certificate directory unless another one is contributed.
+     *
+     * @since 7.3
+     */
+    public synchronized KeyMaterialStore getKeyMaterialStore() throws CertException {
+        if (keyMaterialStore == null) {
+            keyMaterialStore = newKeyMaterialStore(new KeyMaterialStoreDescriptor());
+        }
+        return keyMaterialStore;
+    }
+
+    /**
+     * Replaces the key material store, for instance by a {@link MemoryKeyMaterialStore} in benchmarks.
+     *
+     * @since 7.3
+     */
+    public synchronized void setKeyMaterialStore(KeyMaterialStore keyMaterialStore) {
+        if (this.keyMaterialStore != null) {
+            this.keyMaterialStore.close();
+        }
+        this.keyMaterialStore = keyMaterialStore;
+        // keys unlocked from the previous store
+        SigningSessionCache sessions = signingSessions;
+        if (sessions != null) {
+            sessions.clear();
+        }
+        if (certificateCache != null) {
+            certificateCache.invalidatedAll();
+        }
+        if (membershipFilter != null) {
+            membershipFilter.reset();
+        }
+    }
+
+    /**
+     * Returns the cache of public certificate data, created on first use, or {@code null} if it is disabled.
+     *
+     * @since 7.3
+     */
+    public PublicCertificateCache getCertificateCache() throws CertException {
+        PublicCertificateCache cache = certificateCache;
+        if (cache != null) {
+            return cache;
+        }
+        synchronized (this) {
+            initCertificateCaches();
+            return certificateCache;
+        }
+    }
+
+    /**
+     * Returns the Bloom filter of the users having a certificate, created on first use, or {@code null} if it is
+     * disabled.
+     *
+     * @since 7.3
+     */
+    public CertificateMembershipFilter getMembershipFilter() throws CertException {
+        CertificateMembershipFilter filter = membershipFilter;
+        if (filter != null) {
+            return filter;
+        }
+        synchronized (this) {
+            initCertificateCaches();
+            return membershipFilter;
+        }
+    }
+
+    protected synchronized void initCertificateCaches() throws CertException {
+        CertificateCacheDescriptor desc = certificateCacheDescriptor;
+        if (invalidationBus != null || !desc.isEnabled() && !desc.isMembershipFilterEnabled()) {
+            return;
+        }
         try {
-            lc = Framework.login();
-        } catch (LoginException e) {
-            throw new ClientException("Cannot log in as system user", e);
+            invalidationBus = desc.getBusClass().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new CertException("Cannot instantiate certificate invalidation bus", e);
+        }
+        if (desc.isEnabled()) {
+            certificateCache = new PublicCertificateCache(invalidationBus, desc.getMaxSize(), desc.getTtl() * 1000L);
+            if (desc.isLocalBus()) {
+                LOG.warn("Certificate cache invalidations only reach this JVM, on a cluster the data cached by the"
+                        + " other nodes may be stale for up to " + desc.getTtl()
+                        + " seconds: configure a cluster invalidation bus");
+            }
+        }
+        if (desc.isMembershipFilterEnabled()) {
+            membershipFilter = new CertificateMembershipFilter(desc.getExpectedUsers(), desc.getFalsePositiveRate(),
+                    desc.getMembershipFilterTtl() * 1000L);
+            invalidationBus.subscribe(membershipFilter);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    public CertificateCacheDescriptor getCertificateCacheDescriptor() {
+        return certificateCacheDescriptor;
+    }
+
+    protected synchronized void setCertificateCacheDescriptor(CertificateCacheDescriptor desc) {
+        if (certificateCache != null) {
+            certificateCache.close();
+            certificateCache = null;
+        }
+        membershipFilter = null;
+        if (invalidationBus != null) {
+            invalidationBus.close();
+            invalidationBus = null;
+        }
+        certificateCacheDescriptor = desc;
+    }
+
+    /**
+     * Rebuilds the membership filter from the key material store.
+     *
+     * @since 7.3
+     */
+    public void rebuildMembershipFilter() throws CertException, ClientException {
+        CertificateMembershipFilter filter = getMembershipFilter();
+        if (filter != null) {
+            filter.rebuild(getKeyMaterialStore());
+            LOG.debug("Certificate membership filter built with " + filter.getCount() + " users");
+        }
+    }
+
+    /**
+     * Rebuilds the membership filter in the background, unless it is already being rebuilt or failed recently.
+     */
+    protected void scheduleMembershipRebuild() {
+        if (System.currentTimeMillis() - membershipRebuildFailure < MEMBERSHIP_RETRY_DELAY) {
+            return;
+        }
+        if (!membershipRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuildMembershipFilter();
+                } catch (ClientException e) {
+                    membershipRebuildFailure = System.currentTimeMillis();
+                    LOG.error("Cannot build the certificate membership filter", e);
+                } finally {
+                    membershipRebuilding.set(false);
+                }
+            }
+        }, "Nuxeo-CertificateMembership");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tells without I/O that a user has no certificate, if the membership filter is built and not expired.
+     */
+    protected boolean isWithoutCertificate(String userID) throws CertException {
+        CertificateMembershipFilter filter = getMembershipFilter();
+        if (filter == null) {
+            return false;
+        }
+        if (!filter.isReady() || filter.isSaturated() || filter.isExpired()) {
+            scheduleMembershipRebuild();
+        }
+        return !filter.mightHaveCertificate(userID);
+    }
+
+    /**
+     * Drops what all the nodes know about the certificate of a user: at once on this node, and on all of them once
+     * the current transaction is committed, so that they do not cache the previous entry again.
+     *
+     * @since 7.3
+     */
+    protected void invalidateCertificateCache(String userID) throws CertException {
+        CertificateInvalidationBus bus;
+        synchronized (this) {
+            initCertificateCaches();
+            bus = invalidationBus;
+        }
+        if (bus != null) {
+            PublicCertificateCache cache = certificateCache;
+            if (cache != null) {
+                cache.invalidated(userID);
+            }
+            InvalidationPublisher.publish(bus, userID);
+        }
+    }
+
+    /**
+     * Enables signing sessions with the given cache, or disables them if {@code null}.
+     *
+     * @since 7.3
+     */
+    public void setSigningSessionCache(SigningSessionCache signingSessions) {
+        SigningSessionCache previous = this.signingSessions;
+        this.signingSessions = signingSessions;
+        if (previous != null) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    public SigningSessionCache getSigningSessionCache() {
+        return signingSessions;
+    }
+
+    /**
+     * Ends the signing session of a user, if any: the next signature unlocks the stored key.
+     *
+     * @since 7.3
+     */
+    public void evictSigningSession(String userID) {
+        SigningSessionCache sessions = signingSessions;
+        if (sessions != null) {
+            sessions.evict(userID);
         }
+    }
+
+    protected KeyMaterialStore newKeyMaterialStore(KeyMaterialStoreDescriptor desc) throws CertException {
+        KeyMaterialStore store;
         try {
-            Session session = getDirectoryService().open(CERTIFICATE_DIRECTORY_NAME);
-            try {
-                String userKeystorePassword = userKeyPassword;
-                DocumentModel certificate = null;
+            store = desc.getStoreClass().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new CertException("Cannot instantiate key material store " + desc.getStoreClass().getName(), e);
+        }
+        store.initialize(desc.getProperties());
+        return store;
+    }
 
-                // create an entry in the directory
-                String userID = (String) user.getPropertyValue("user:username");
+    /**
+     * Creates a migration of the stored JKS keystores to the PKCS#8 format, see {@link #runKeyMigration}.
+     *
+     * @since 7.3
+     */
+    public KeyMigration newKeyMigration() throws CertException, ClientException {
+        return new KeyMigration(getKeyMaterialStore(), getCertService(), keyIterations);
+    }
 
-                // make sure that no certificates are associated with the
-                // current userid
-                boolean certificateExists = session.hasEntry(userID);
-                if (certificateExists) {
-                    throw new CertException(userID + " already has a certificate");
+    /**
+     * Runs a key migration, unless another one is running.
+     *
+     * @return {@code false} if another migration is running
+     * @since 7.3
+     */
+    public boolean runKeyMigration(KeyMigration migration) throws CertException, ClientException {
+        synchronized (this) {
+            if (keyMigration != null) {
+                return false;
+            }
+            keyMigration = migration;
+        }
+        try {
+            migration.run();
+            if (!migration.isDryRun()) {
+                int filled = fillLookupFields();
+                if (filled > 0) {
+                    LOG.info("Filled the lookup columns of " + filled + " certificates");
                 }
+            }
+            return true;
+        } finally {
+            synchronized (this) {
+                keyMigration = null;
+            }
+        }
+    }
 
-                LOG.info("Starting certificate generation for: " + userID);
-                Map<String, Object> map = new HashMap<String, Object>();
-                map.put("userid", userID);
-
-                // add a keystore to a directory entry
-                KeyStore keystore = getCertService().initializeUser(getUserInfo(user), userKeyPassword);
-                ByteArrayOutputStream byteOS = new ByteArrayOutputStream();
-                getCertService().storeCertificate(keystore, byteOS, userKeystorePassword);
-                String keystore64Encoded = Base64.encodeBytes(byteOS.toByteArray());
-                map.put("keystore", keystore64Encoded);
-                map.put("certificate", getUserCertInfo(keystore, user));
-                map.put("keypassword", userKeyPassword);
-                certificate = session.createEntry(map);
-                return certificate;
-            } catch (DirectoryException e) {
-                LOG.error(e);
-                throw new CertException(e);
-            } finally {
-                session.close();
+    /**
+     * Creates a rollover of the user certificates to the current root, see {@link #runRootRollover}.
+     *
+     * @since 7.3
+     */
+    public RootRollover newRootRollover() throws CertException, ClientException {
+        RootService root = getRootService();
+        if (!(root instanceof RootServiceImpl)) {
+            throw new CertException("Root rollover is not supported by " + root.getClass().getName());
+        }
+        return new RootRollover(this, getKeyMaterialStore(), (RootServiceImpl) root,
+                Framework.getLocalService(UserManager.class));
+    }
+
+    /**
+     * Runs a root rollover, unless another one is running.
+     *
+     * @return {@code false} if another rollover is running
+     * @since 7.3
+     */
+    public boolean runRootRollover(RootRollover rollover) throws CertException, ClientException {
+        synchronized (this) {
+            if (rootRollover != null) {
+                return false;
             }
+            rootRollover = rollover;
+        }
+        try {
+            rollover.run();
+            return true;
         } finally {
-            try {
-                // Login context may be null in tests
-                if (lc != null) {
-                    lc.logout();
-                }
-            } catch (LoginException e) {
-                throw new ClientException("Cannot log out system user", e);
+            synchronized (this) {
+                rootRollover = null;
             }
         }
     }
 
-    protected static DirectoryService getDirectoryService() throws ClientException {
-        DirectoryService service = null;
+    /**
+     * Returns the running root rollover, or {@code null}.
+     *
+     * @since 7.3
+     */
+    public synchronized RootRollover getRootRollover() {
+        return rootRollover;
+    }
+
+    /**
+     * Creates an archive of the key material store, for backups and restores, see {@link #restoreCertificates}.
+     *
+     * @since 7.3
+     */
+    public CertificateArchive newCertificateArchive() throws CertException {
+        return new CertificateArchive(this);
+    }
+
+    /**
+     * Restores the entries of an archive, then drops what all the nodes cached about certificates.
+     *
+     * @param overwrite whether to replace the entries of users already having one
+     * @since 7.3
+     */
+    public CertificateArchive.RestoreResult restoreCertificates(InputStream in, boolean overwrite)
+            throws CertException, ClientException {
         try {
-            service = Framework.getService(DirectoryService.class);
-        } catch (Exception e) {
-            LOG.error(e);
+            return newCertificateArchive().restore(in, overwrite);
+        } finally {
+            CertificateInvalidationBus bus;
+            synchronized (this) {
+                initCertificateCaches();
+                bus = invalidationBus;
+            }
+            if (bus != null) {
+                PublicCertificateCache cache = certificateCache;
+                if (cache != null) {
+                    cache.invalidatedAll();
+                }
+                CertificateMembershipFilter filter = membershipFilter;
+                if (filter != null) {
+                    filter.reset();
+                }
+                InvalidationPublisher.publishAll(bus);
+            }
+            SigningSessionCache sessions = signingSessions;
+            if (overwrite && sessions != null) {
+                sessions.clear();
+            }
         }
-        return service;
+    }
+
+    /**
+     * Returns the running key migration, or {@code null}.
+     *
+     * @since 7.3
+     */
+    public synchronized KeyMigration getKeyMigration() {
+        return keyMigration;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected DocumentModel getEntry(String userID) throws CertException, ClientException {
+        DocumentModel entry = getKeyMaterialStore().getEntry(userID);
+        if (entry == null) {
+            throw new CertException("No directory entry for " + userID);
+        }
+        return entry;
     }
 
     @Override
@@ -223,39 +893,32 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
             String userID = (String) user.getPropertyValue("user:username");
             AliasWrapper alias = new AliasWrapper(userID);
             X509Certificate certificate = getCertService().getCertificate(keystore, alias.getId(AliasType.CERT));
-            userCertInfo = certificate.getSubjectDN() + " valid till: " + certificate.getNotAfter();
+            userCertInfo = getUserCertInfo(certificate);
         }
         return userCertInfo;
     }
 
+    private static String getUserCertInfo(X509Certificate certificate) {
+        return certificate.getSubjectDN() + " valid till: " + certificate.getNotAfter();
+    }
+
     @Override
     public DocumentModel getCertificate(String userID) throws ClientException {
-        // Log in as system user
-        LoginContext lc;
-        try {
-            lc = Framework.login();
-        } catch (LoginException e) {
-            throw new ClientException("Cannot log in as system user", e);
-        }
-        try {
-            // Open directory session
-            final Session session = getDirectoryService().open(CERTIFICATE_DIRECTORY_NAME);
-            try {
-                DocumentModel certificate = session.getEntry(userID);
-                return certificate;
-            } finally {
-                session.close();
-            }
-        } finally {
-            try {
-                // Login context may be null in tests
-                if (lc != null) {
-                    lc.logout();
-                }
-            } catch (LoginException e) {
-                throw new ClientException("Cannot log out system user", e);
+        return getKeyMaterialStore().getEntry(userID);
+    }
+
+    @Override
+    public Map<String, DocumentModel> getCertificates(Collection<String> userIDs) throws ClientException {
+        List<String> candidates = new ArrayList<String>(userIDs.size());
+        for (String userID : userIDs) {
+            if (!isWithoutCertificate(userID)) {
+                candidates.add(userID);
             }
         }
+        if (candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return getKeyMaterialStore().getEntries(candidates);
     }
 
     @Override
@@ -266,64 +929,287 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
 
     @Override
     public boolean hasCertificate(String userID) throws CertException, ClientException {
-        // Log in as system user
-        LoginContext lc;
-        try {
-            lc = Framework.login();
-        } catch (LoginException e) {
-            throw new ClientException("Cannot log in as system user", e);
+        if (isWithoutCertificate(userID)) {
+            return false;
         }
-        try {
-            // Open directory session
-            final Session session = getDirectoryService().open(CERTIFICATE_DIRECTORY_NAME);
-            try {
-                return session.getEntry(userID) != null;
-            } finally {
-                session.close();
+        PublicCertificateCache cache = getCertificateCache();
+        if (cache == null) {
+            return getKeyMaterialStore().hasEntry(userID);
+        }
+        return getPublicCertificateInfo(userID) != null;
+    }
+
+    @Override
+    public PublicCertificateInfo getPublicCertificateInfo(String userID) throws CertException, ClientException {
+        if (isWithoutCertificate(userID)) {
+            return null;
+        }
+        PublicCertificateCache cache = getCertificateCache();
+        if (cache == null) {
+            return loadPublicCertificateInfo(userID);
+        }
+        PublicCertificateCache.Entry entry = cache.get(userID);
+        if (entry != null) {
+            return entry.getInfo();
+        }
+        long version = cache.getVersion();
+        PublicCertificateInfo info = loadPublicCertificateInfo(userID);
+        cache.put(userID, info, version);
+        return info;
+    }
+
+    @Override
+    public Map<String, PublicCertificateInfo> getPublicCertificateInfos(Collection<String> userIDs)
+            throws CertException, ClientException {
+        PublicCertificateCache cache = getCertificateCache();
+        long version = cache == null ? 0 : cache.getVersion();
+        Map<String, PublicCertificateInfo> found = new HashMap<String, PublicCertificateInfo>();
+        List<String> missing = new ArrayList<String>();
+        for (String userID : userIDs) {
+            if (isWithoutCertificate(userID)) {
+                continue;
             }
-        } finally {
-            try {
-                // Login context may be null in tests
-                if (lc != null) {
-                    lc.logout();
+            PublicCertificateCache.Entry entry = cache == null ? null : cache.get(userID);
+            if (entry == null) {
+                missing.add(userID);
+            } else if (entry.getInfo() != null) {
+                found.put(userID, entry.getInfo());
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, DocumentModel> entries = getKeyMaterialStore().getEntries(missing);
+            for (String userID : missing) {
+                DocumentModel certEntry = entries.get(userID);
+                PublicCertificateInfo info = certEntry == null ? null : PublicCertificateCache.toInfo(userID,
+                        getUserCertificate(certEntry, userID));
+                if (info != null) {
+                    found.put(userID, info);
+                }
+                if (cache != null) {
+                    cache.put(userID, info, version);
                 }
-            } catch (LoginException e) {
-                throw new ClientException("Cannot log out system user", e);
             }
         }
+        Map<String, PublicCertificateInfo> infos = new LinkedHashMap<String, PublicCertificateInfo>();
+        for (String userID : userIDs) {
+            PublicCertificateInfo info = found.get(userID);
+            if (info != null) {
+                infos.put(userID, info);
+            }
+        }
+        return infos;
+    }
+
+    protected PublicCertificateInfo loadPublicCertificateInfo(String userID) throws CertException, ClientException {
+        DocumentModel certEntry = getKeyMaterialStore().getEntry(userID);
+        if (certEntry == null) {
+            return null;
+        }
+        return PublicCertificateCache.toInfo(userID, getUserCertificate(certEntry, userID));
+    }
+
+    @Override
+    public PublicCertificateInfo findPublicCertificateInfo(X509Certificate certificate) throws CertException,
+            ClientException {
+        List<PublicCertificateInfo> infos = findPublicCertificateInfos("fingerprint",
+                PublicCertificateCache.getFingerprint(certificate), 1);
+        return infos.isEmpty() ? null : infos.get(0);
+    }
+
+    @Override
+    public PublicCertificateInfo findPublicCertificateInfo(BigInteger serialNumber) throws CertException,
+            ClientException {
+        List<PublicCertificateInfo> infos = findPublicCertificateInfos("serialnumber", serialNumber.toString(), 1);
+        return infos.isEmpty() ? null : infos.get(0);
+    }
+
+    @Override
+    public List<PublicCertificateInfo> findPublicCertificateInfosByEmail(String email) throws CertException,
+            ClientException {
+        return findPublicCertificateInfos("email", email.toLowerCase(), MAX_LOOKUP_RESULTS);
+    }
+
+    /**
+     * Looks up certificates by an indexed column, see {@link #getLookupFields}.
+     */
+    protected List<PublicCertificateInfo> findPublicCertificateInfos(String field, String value, int limit)
+            throws CertException, ClientException {
+        List<DocumentModel> entries = getKeyMaterialStore().getEntries(
+                Collections.<String, Serializable> singletonMap(field, value), limit, 0);
+        List<PublicCertificateInfo> infos = new ArrayList<PublicCertificateInfo>(entries.size());
+        for (DocumentModel entry : entries) {
+            infos.add(PublicCertificateCache.toInfo(entry.getId(), getUserCertificate(entry, entry.getId())));
+        }
+        return infos;
+    }
+
+    /**
+     * Returns the columns of a certificate entry used by reverse lookups: fingerprint, email, serial number, issuer key
+     * identifier and validity.
+     *
+     * @since 7.3
+     */
+    protected static Map<String, Object> getLookupFields(X509Certificate certificate, CertService certService)
+            throws CertException {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("fingerprint", PublicCertificateCache.getFingerprint(certificate));
+        String email = certService.getCertificateEmail(certificate);
+        fields.put("email", email == null ? null : email.toLowerCase());
+        fields.put("serialnumber", certificate.getSerialNumber().toString());
+        fields.put("issuer", IssuerChain.getAuthorityKeyIdentifier(certificate));
+        Calendar startDate = Calendar.getInstance();
+        startDate.setTime(certificate.getNotBefore());
+        fields.put("startdate", startDate);
+        Calendar endDate = Calendar.getInstance();
+        endDate.setTime(certificate.getNotAfter());
+        fields.put("enddate", endDate);
+        return fields;
+    }
+
+    protected static void setLookupFields(DocumentModel entry, X509Certificate certificate, CertService certService)
+            throws CertException, ClientException {
+        for (Map.Entry<String, Object> field : getLookupFields(certificate, certService).entrySet()) {
+            entry.setPropertyValue("cert:" + field.getKey(), (Serializable) field.getValue());
+        }
+    }
+
+    /**
+     * Fills the lookup columns of the entries created before they existed.
+     *
+     * @return the number of entries filled
+     * @since 7.3
+     */
+    public int fillLookupFields() throws CertException, ClientException {
+        KeyMaterialStore store = getKeyMaterialStore();
+        Map<String, Serializable> filter = Collections.<String, Serializable> singletonMap("fingerprint", null);
+        int filled = 0;
+        int skipped = 0;
+        while (true) {
+            // filled entries leave the filter, the others are skipped
+            List<DocumentModel> entries = store.getEntries(filter, LOOKUP_FILL_PAGE_SIZE, skipped);
+            if (entries.isEmpty()) {
+                break;
+            }
+            List<DocumentModel> updated = new ArrayList<DocumentModel>(entries.size());
+            for (DocumentModel entry : entries) {
+                try {
+                    setLookupFields(entry, getUserCertificate(entry, entry.getId()), getCertService());
+                    updated.add(entry);
+                } catch (CertException e) {
+                    LOG.warn("Cannot read the certificate of " + entry.getId() + ": " + e.getMessage());
+                    skipped++;
+                }
+            }
+            store.updateEntries(updated);
+            filled += updated.size();
+        }
+        return filled;
     }
 
     @Override
     public void deleteCertificate(String userID) throws CertException, ClientException {
-        // Log in as system user
-        LoginContext lc;
-        try {
-            lc = Framework.login();
-        } catch (LoginException e) {
-            throw new ClientException("Cannot log in as system user", e);
+        evictSigningSession(userID);
+        DocumentModel certEntry = getEntry(userID);
+        // the certificate may still be in use elsewhere, revoke it before forgetting it
+        getRevocationService().revokeCertificate(getUserCertificate(certEntry, userID), userID);
+        getKeyMaterialStore().deleteEntry(userID);
+        invalidateCertificateCache(userID);
+    }
+
+    /**
+     * Reads the certificate from a directory entry. Certificates of a JKS keystore can be read without its password.
+     *
+     * @since 7.3
+     */
+    protected X509Certificate getUserCertificate(DocumentModel certEntry, String userID) throws CertException,
+            ClientException {
+        if (isPKCS8(certEntry)) {
+            return getKeyContainer(certEntry).getCertificate();
         }
-        try {
-            // Open directory session
-            final Session session = getDirectoryService().open(CERTIFICATE_DIRECTORY_NAME);
+        if (isX509(certEntry)) {
             try {
-                DocumentModel certEntry = session.getEntry(userID);
-                session.deleteEntry(certEntry);
-                assert (null == session.getEntry(userID));
-            } catch (ClientException e) {
+                CertificateFactory factory = CertificateFactory.getInstance("X.509");
+                return (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(getKeyData(certEntry)));
+            } catch (CertificateException e) {
                 throw new CertException(e);
-            } finally {
-                session.close();
             }
-        } finally {
+        }
+        String keystore64Encoded = (String) certEntry.getPropertyValue("cert:keystore");
+        try {
+            KeyStore keystore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keystore.load(new ByteArrayInputStream(Base64.decode(keystore64Encoded)), null);
+            AliasWrapper alias = new AliasWrapper(userID);
+            return getCertService().getCertificate(keystore, alias.getId(AliasType.CERT));
+        } catch (GeneralSecurityException e) {
+            throw new CertException(e);
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected static boolean isPKCS8(DocumentModel certEntry) throws ClientException {
+        return KEY_FORMAT_PKCS8.equals(certEntry.getPropertyValue("cert:keyformat"));
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected static boolean isX509(DocumentModel certEntry) throws ClientException {
+        return KEY_FORMAT_X509.equals(certEntry.getPropertyValue("cert:keyformat"));
+    }
+
+    /**
+     * Fails for the certificates whose key is held by the user.
+     *
+     * @since 7.3
+     */
+    protected static void checkServerKey(DocumentModel certEntry) throws CertException, ClientException {
+        if (isX509(certEntry)) {
+            throw new CertException("The key of " + certEntry.getId() + " is not held by the server");
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected EncryptedKeyContainer getKeyContainer(DocumentModel certEntry) throws CertException, ClientException {
+        return EncryptedKeyContainer.decode(getKeyData(certEntry));
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected static byte[] getKeyData(DocumentModel certEntry) throws CertException, ClientException {
+        Object keyData = certEntry.getPropertyValue("cert:keydata");
+        byte[] bytes;
+        if (keyData instanceof byte[]) {
+            bytes = (byte[]) keyData;
+        } else if (keyData instanceof InputStream) {
             try {
-                // Login context may be null in tests
-                if (lc != null) {
-                    lc.logout();
-                }
-            } catch (LoginException e) {
-                throw new ClientException("Cannot log out system user", e);
+                bytes = IOUtils.toByteArray((InputStream) keyData);
+            } catch (IOException e) {
+                throw new CertException(e);
             }
+        } else if (keyData instanceof String) {
+            bytes = Base64.decode((String) keyData);
+        } else {
+            throw new CertException("No key data for " + certEntry.getId());
         }
+        return bytes;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected KeyStore getJKSKeystore(DocumentModel certEntry, String userKeystorePassword) throws CertException,
+            ClientException {
+        String keystore64Encoded = (String) certEntry.getPropertyValue("cert:keystore");
+        byte[] keystoreBytes = Base64.decode(keystore64Encoded);
+        ByteArrayInputStream byteIS = new ByteArrayInputStream(keystoreBytes);
+        return getCertService().getKeyStore(byteIS, userKeystorePassword);
     }
 
     @Override
@@ -333,9 +1219,54 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
             countryCode = desc.getCountryCode();
             organization = desc.getOrganization();
             organizationalUnit = desc.getOrganizationalUnit();
+            tenantProperty = desc.getTenantProperty();
+            keyParameters = desc.getKeyParameters();
+            if (keyParameters.isWeakerThanDefault()) {
+                LOG.warn("User keys configured with " + keyParameters + ", weaker than the default RSA-"
+                        + KeyParameters.DEFAULT_RSA_KEY_SIZE);
+            }
+            keyFormat = desc.getKeyFormat();
+            keyIterations = desc.getKeyIterations();
+        } else if (contribution instanceof SigningSessionDescriptor) {
+            SigningSessionDescriptor desc = (SigningSessionDescriptor) contribution;
+            setSigningSessionCache(desc.isEnabled() ? new SigningSessionCache(desc.getMaxSessions(),
+                    desc.getTtl() * 1000L, desc.getMaxUses()) : null);
+        } else if (contribution instanceof CertificateCacheDescriptor) {
+            setCertificateCacheDescriptor((CertificateCacheDescriptor) contribution);
+        } else if (contribution instanceof RenewalDescriptor) {
+            renewalDescriptor = (RenewalDescriptor) contribution;
+        } else if (contribution instanceof KeyMaterialStoreDescriptor) {
+            KeyMaterialStoreDescriptor desc = (KeyMaterialStoreDescriptor) contribution;
+            try {
+                setKeyMaterialStore(newKeyMaterialStore(desc));
+            } catch (CertException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        try {
+            if (getMembershipFilter() != null) {
+                scheduleMembershipRebuild();
+            }
+        } catch (CertException e) {
+            LOG.error("Cannot build the certificate membership filter, will retry on first use", e);
+        }
+        if (renewalDescriptor.isEnabled()) {
+            startRenewal();
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        stopRenewal();
+        setSigningSessionCache(null);
+        setKeyMaterialStore(null);
+        setCertificateCacheDescriptor(new CertificateCacheDescriptor());
+    }
+
     protected CertService getCertService() throws ClientException {
         if (certService == null) {
             try {
@@ -349,6 +1280,19 @@ public class CUserServiceImpl extends DefaultComponent implements CUserService {
         return certService;
     }
 
+    protected RevocationService getRevocationService() throws ClientException {
+        if (revocationService == null) {
+            try {
+                revocationService = Framework.getService(RevocationService.class);
+            } catch (Exception e) {
+                String message = "RevocationService not found";
+                LOG.error(message + " " + e);
+                throw new ClientException(message);
+            }
+        }
+        return revocationService;
+    }
+
     protected RootService getRootService() throws ClientException {
         if (rootService == null) {
             try {
@@ -0,0 +1,273 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.utils.Base64;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.user.cache.PublicCertificateCache;
+import org.nuxeo.ecm.platform.signature.core.user.store.AbstractKeyMaterialStore;
+import org.nuxeo.ecm.platform.signature.core.user.store.FileKeyMaterialStore;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStore;
+
+/**
+ * Streams the entries of the key material store to and from an archive, for backups and restores, and exports the
+ * public certificates as a PEM bundle.
+ *
+ * <pre>
+ * archive ::= MAGIC VERSION record* END count
+ * record  ::= length entry crc32
+ * </pre>
+ *
+ * Each entry is encoded like the files of a {@link FileKeyMaterialStore}. Entries are read by pages and written as
+ * they come, so memory use does not depend on the number of entries. On restore each record is checked against its
+ * checksum and its certificate is parsed, and compared with the stored fingerprint, before it is written.
+ *
+ * @since 7.3
+ */
+public class CertificateArchive {
+
+    private static final Log log = LogFactory.getLog(CertificateArchive.class);
+
+    public static final int MAGIC = 0x4E4B4D41;
+
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    protected static final int END = -1;
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final CUserServiceImpl service;
+
+    protected final KeyMaterialStore store;
+
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    public static class RestoreResult {
+
+        protected long created;
+
+        protected long replaced;
+
+        protected long skipped;
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getReplaced() {
+            return replaced;
+        }
+
+        /**
+         * Entries of users already having one, when not overwriting.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("created: %d, replaced: %d, skipped: %d", created, replaced, skipped);
+        }
+    }
+
+    public CertificateArchive(CUserServiceImpl service) throws CertException {
+        this.service = service;
+        store = service.getKeyMaterialStore();
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * Writes all the entries to a stream, which is flushed but not closed.
+     *
+     * @return the number of entries written
+     */
+    public long export(OutputStream out) throws CertException, ClientException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            long count = 0;
+            Map<String, Serializable> all = Collections.emptyMap();
+            for (int offset = 0;; offset += pageSize) {
+                List<DocumentModel> page = store.getEntries(all, pageSize, offset);
+                for (DocumentModel entry : page) {
+                    byte[] record = FileKeyMaterialStore.encode(AbstractKeyMaterialStore.getFields(entry));
+                    data.writeInt(record.length);
+                    data.write(record);
+                    data.writeInt(crc(record));
+                    count++;
+                }
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            data.writeInt(END);
+            data.writeLong(count);
+            data.flush();
+            return count;
+        } catch (IOException e) {
+            throw new CertException("Cannot write certificate archive", e);
+        }
+    }
+
+    /**
+     * Writes the certificates of all the users as a PEM bundle, which is flushed but not closed.
+     *
+     * @return the number of certificates written
+     */
+    public long exportPublicCertificates(Writer out) throws CertException, ClientException {
+        try {
+            long count = 0;
+            Map<String, Serializable> all = Collections.emptyMap();
+            for (int offset = 0;; offset += pageSize) {
+                List<DocumentModel> page = store.getEntries(all, pageSize, offset);
+                for (DocumentModel entry : page) {
+                    X509Certificate certificate;
+                    try {
+                        certificate = service.getUserCertificate(entry, entry.getId());
+                    } catch (CertException e) {
+                        log.warn("Skipping the certificate of " + entry.getId() + ": " + e.getMessage());
+                        continue;
+                    }
+                    writePEM(out, entry.getId(), certificate);
+                    count++;
+                }
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            out.flush();
+            return count;
+        } catch (IOException e) {
+            throw new CertException("Cannot write certificate bundle", e);
+        }
+    }
+
+    /**
+     * Restores the entries of an archive. Entries written before an invalid record are kept.
+     *
+     * @param overwrite whether to replace the entries of users already having one
+     */
+    public RestoreResult restore(InputStream in, boolean overwrite) throws CertException, ClientException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        RestoreResult result = new RestoreResult();
+        try {
+            if (data.readInt() != MAGIC) {
+                throw new CertException("Not a certificate archive");
+            }
+            int version = data.readInt();
+            if (version != VERSION) {
+                throw new CertException("Unsupported certificate archive version: " + version);
+            }
+            long count = 0;
+            int length;
+            while ((length = data.readInt()) != END) {
+                if (length < 0) {
+                    throw new CertException("Corrupted certificate archive at entry " + count);
+                }
+                byte[] record = new byte[length];
+                data.readFully(record);
+                if (data.readInt() != crc(record)) {
+                    throw new CertException("Corrupted certificate archive at entry " + count);
+                }
+                restore(FileKeyMaterialStore.decode(ByteBuffer.wrap(record)), overwrite, result);
+                count++;
+            }
+            if (data.readLong() != count) {
+                throw new CertException("Certificate archive is missing entries");
+            }
+            return result;
+        } catch (EOFException e) {
+            throw new CertException("Truncated certificate archive", e);
+        } catch (IOException e) {
+            throw new CertException("Cannot read certificate archive", e);
+        }
+    }
+
+    protected void restore(Map<String, Object> fields, boolean overwrite, RestoreResult result)
+            throws CertException, ClientException {
+        Object userID = fields.get(AbstractKeyMaterialStore.ID_FIELD);
+        if (!(userID instanceof String)) {
+            throw new CertException("Certificate archive entry without user ID");
+        }
+        DocumentModel entry = AbstractKeyMaterialStore.newEntryModel((String) userID, fields);
+        X509Certificate certificate = service.getUserCertificate(entry, (String) userID);
+        Object fingerprint = fields.get("fingerprint");
+        if (fingerprint != null && !fingerprint.equals(PublicCertificateCache.getFingerprint(certificate))) {
+            throw new CertException("Fingerprint mismatch for the certificate of " + userID);
+        }
+        if (!store.hasEntry((String) userID)) {
+            store.createEntry(fields);
+            result.created++;
+        } else if (overwrite) {
+            store.updateEntry(entry);
+            result.replaced++;
+        } else {
+            result.skipped++;
+        }
+    }
+
+    protected static void writePEM(Writer out, String userID, X509Certificate certificate) throws IOException,
+            CertException {
+        byte[] encoded;
+        try {
+            encoded = certificate.getEncoded();
+        } catch (CertificateEncodingException e) {
+            throw new CertException(e);
+        }
+        out.write("# " + userID + ": " + certificate.getSubjectDN() + "\n");
+        out.write("-----BEGIN CERTIFICATE-----\n");
+        String base64 = Base64.encodeBytes(encoded, Base64.DONT_BREAK_LINES);
+        for (int i = 0; i < base64.length(); i += 64) {
+            out.write(base64, i, Math.min(64, base64.length() - i));
+            out.write('\n');
+        }
+        out.write("-----END CERTIFICATE-----\n");
+    }
+
+    protected static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * Renews the user certificates nearing expiry, a batch at a time, so that renewals are spread over time rather than
+ * run all at once.
+ * <p>
+ * Certificates are found by the indexed end date of the entries, soonest first, and reissued for the same key with a
+ * new validity period, see {@link CUserServiceImpl#reissueCertificate}. Entries that cannot be renewed, because the
+ * user is gone or the key is not held by the server or is still in a JKS keystore, are skipped until restart.
+ *
+ * @since 7.3
+ */
+public class CertificateRenewal {
+
+    private static final Log log = LogFactory.getLog(CertificateRenewal.class);
+
+    protected final CUserServiceImpl service;
+
+    protected final UserManager userManager;
+
+    protected final Set<String> skipped = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected final AtomicLong renewed = new AtomicLong();
+
+    protected final Meter renewedMeter;
+
+    protected volatile boolean lookupFieldsFilled;
+
+    public CertificateRenewal(CUserServiceImpl service, UserManager userManager) {
+        this.service = service;
+        this.userManager = userManager;
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        renewedMeter = registry.meter(MetricRegistry.name("nuxeo", "signature", "renewal", "renewed"));
+    }
+
+    /**
+     * Renews up to {@code batchSize} certificates ending within {@code renewBeforeDays} days.
+     *
+     * @return the number of certificates renewed
+     */
+    public synchronized int run(int renewBeforeDays, int batchSize) throws CertException, ClientException {
+        if (!lookupFieldsFilled) {
+            // entries created without end date
+            int filled = service.fillLookupFields();
+            if (filled > 0) {
+                log.info("Stored the end dates of " + filled + " certificates");
+            }
+            lookupFieldsFilled = true;
+        }
+        Calendar before = Calendar.getInstance();
+        before.add(Calendar.DAY_OF_MONTH, renewBeforeDays);
+        List<String> userIDs = service.getKeyMaterialStore().getExpiringUserIDs(before, batchSize + skipped.size());
+        int count = 0;
+        for (String userID : userIDs) {
+            if (count >= batchSize) {
+                break;
+            }
+            if (!skipped.contains(userID) && renew(userID, before)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    protected boolean renew(String userID, Calendar before) {
+        try {
+            DocumentModel user = userManager.getUserModel(userID);
+            if (user == null) {
+                throw new CertException("no such user");
+            }
+            X509Certificate certificate = service.reissueCertificate(user);
+            renewed.incrementAndGet();
+            renewedMeter.mark();
+            if (!certificate.getNotAfter().after(before.getTime())) {
+                // would be renewed again by every batch
+                log.warn("The certificate of " + userID + " ends within the renewal delay, check the validity");
+                skipped.add(userID);
+            }
+            return true;
+        } catch (ClientException e) {
+            log.warn("Cannot renew the certificate of " + userID + ": " + e.getMessage());
+            skipped.add(userID);
+            return false;
+        }
+    }
+
+    /**
+     * Certificates renewed since startup.
+     */
+    public long getRenewed() {
+        return renewed.get();
+    }
+
+    /**
+     * Users whose certificate is not renewed until restart.
+     */
+    public int getSkipped() {
+        return skipped.size();
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.utils.Base64;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.user.AliasType;
+import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
+import org.nuxeo.ecm.platform.signature.core.pki.EncryptedKeyContainer;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStore;
+
+/**
+ * Converts the entries of a key material store from the pre-7.3 Base64 JKS keystores to encrypted PKCS#8 keys, using
+ * the key password recorded in each entry.
+ * <p>
+ * Entries are read by pages, converted by a small pool of low-priority threads and written back by batches, at an
+ * optional maximum rate so that live signing is not slowed down. Only entries still in the JKS format are read, so an
+ * interrupted migration resumes where it stopped. In dry-run mode entries are converted and checked but not written.
+ *
+ * @since 7.3
+ */
+public class KeyMigration {
+
+    private static final Log log = LogFactory.getLog(KeyMigration.class);
+
+    protected static final Map<String, Serializable> JKS_FILTER = Collections.<String, Serializable> singletonMap(
+            "keyformat", null);
+
+    protected final KeyMaterialStore store;
+
+    protected final CertService certService;
+
+    protected final int keyIterations;
+
+    protected boolean dryRun;
+
+    protected int threads = 2;
+
+    protected int pageSize = 100;
+
+    protected int batchSize = 20;
+
+    /** Maximum entries per second, 0 for no limit. */
+    protected int maxRate;
+
+    protected final AtomicLong scanned = new AtomicLong();
+
+    protected final AtomicLong converted = new AtomicLong();
+
+    protected final AtomicLong failed = new AtomicLong();
+
+    protected volatile long startTime;
+
+    protected volatile long endTime;
+
+    protected volatile boolean stopped;
+
+    /**
+     * Counters of a migration, at some point in time.
+     */
+    public static class Progress {
+
+        protected final long scanned;
+
+        protected final long converted;
+
+        protected final long failed;
+
+        protected final long elapsed;
+
+        protected final boolean done;
+
+        public Progress(long scanned, long converted, long failed, long elapsed, boolean done) {
+            this.scanned = scanned;
+            this.converted = converted;
+            this.failed = failed;
+            this.elapsed = elapsed;
+            this.done = done;
+        }
+
+        public long getScanned() {
+            return scanned;
+        }
+
+        /**
+         * Entries converted, or that would be converted in dry-run mode.
+         */
+        public long getConverted() {
+            return converted;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * In milliseconds.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Entries scanned per second.
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : scanned * 1000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d scanned, %d converted, %d failed in %.1fs (%.1f entries/s)",
+                    done ? "done" : "running", scanned, converted, failed, elapsed / 1000.0, getThroughput());
+        }
+    }
+
+    public KeyMigration(KeyMaterialStore store, CertService certService, int keyIterations) {
+        this.store = store;
+        this.certService = certService;
+        this.keyIterations = keyIterations;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setMaxRate(int maxRate) {
+        this.maxRate = Math.max(0, maxRate);
+    }
+
+    public Progress getProgress() {
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        long elapsed = startTime == 0 ? 0 : end - startTime;
+        return new Progress(scanned.get(), converted.get(), failed.get(), elapsed, endTime != 0);
+    }
+
+    /**
+     * Stops the migration after the current page. It can be started again later.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Runs the migration in the calling thread.
+     */
+    public Progress run() throws CertException, ClientException {
+        startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "signature-key-migration-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        try {
+            // converted entries leave the filter, the others are skipped
+            int offset = 0;
+            Set<String> seen = new HashSet<String>();
+            while (!stopped) {
+                List<DocumentModel> page = store.getEntries(JKS_FILTER, pageSize, offset);
+                if (page.isEmpty()) {
+                    break;
+                }
+                List<Future<DocumentModel>> futures = new ArrayList<Future<DocumentModel>>();
+                boolean unseen = false;
+                for (final DocumentModel entry : page) {
+                    unseen |= seen.add(entry.getId());
+                    futures.add(executor.submit(new Callable<DocumentModel>() {
+                        @Override
+                        public DocumentModel call() {
+                            return convert(entry);
+                        }
+                    }));
+                }
+                if (!unseen) {
+                    throw new CertException("Converted entries are still listed as JKS, is keyformat stored?");
+                }
+                List<DocumentModel> batch = new ArrayList<DocumentModel>();
+                for (Future<DocumentModel> future : futures) {
+                    DocumentModel entry = get(future);
+                    scanned.incrementAndGet();
+                    if (entry == null) {
+                        failed.incrementAndGet();
+                        offset++;
+                        continue;
+                    }
+                    converted.incrementAndGet();
+                    if (dryRun) {
+                        offset++;
+                        continue;
+                    }
+                    batch.add(entry);
+                    if (batch.size() >= batchSize) {
+                        store.updateEntries(batch);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    store.updateEntries(batch);
+                }
+                log.info("Key migration " + getProgress());
+                throttle();
+            }
+        } finally {
+            executor.shutdownNow();
+            endTime = System.currentTimeMillis();
+        }
+        Progress progress = getProgress();
+        log.info("Key migration " + (dryRun ? "dry run " : "") + progress);
+        return progress;
+    }
+
+    protected DocumentModel get(Future<DocumentModel> future) throws CertException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertException("Key migration interrupted", e);
+        } catch (ExecutionException e) {
+            throw new CertException(e.getCause());
+        }
+    }
+
+    protected void throttle() throws CertException {
+        if (maxRate == 0) {
+            return;
+        }
+        long expected = scanned.get() * 1000 / maxRate;
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CertException("Key migration interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Converts an entry, returns {@code null} if it cannot be.
+     */
+    protected DocumentModel convert(DocumentModel entry) {
+        String userID = entry.getId();
+        try {
+            String password = (String) entry.getPropertyValue("cert:keypassword");
+            String keystore64Encoded = (String) entry.getPropertyValue("cert:keystore");
+            if (password == null || keystore64Encoded == null) {
+                log.warn("Cannot convert the key of " + userID + ": missing keystore or password");
+                return null;
+            }
+            KeyStore keystore = certService.getKeyStore(new ByteArrayInputStream(Base64.decode(keystore64Encoded)),
+                    password);
+            AliasWrapper alias = new AliasWrapper(userID);
+            KeyPair keyPair = certService.getKeyPair(keystore, alias.getId(AliasType.KEY),
+                    alias.getId(AliasType.CERT), password);
+            X509Certificate certificate = certService.getCertificate(keystore, alias.getId(AliasType.CERT));
+            byte[] keyData = EncryptedKeyContainer.create(keyPair.getPrivate(), certificate, password.toCharArray(),
+                    keyIterations).getEncoded();
+            // the keystore is dropped, make sure the key can be read back first
+            PrivateKey privateKey = EncryptedKeyContainer.decode(keyData).getPrivateKey(password.toCharArray());
+            if (!Arrays.equals(privateKey.getEncoded(), keyPair.getPrivate().getEncoded())) {
+                log.warn("Cannot convert the key of " + userID + ": key mismatch");
+                return null;
+            }
+            entry.setPropertyValue("cert:keydata", keyData);
+            entry.setPropertyValue("cert:keyformat", CUserServiceImpl.KEY_FORMAT_PKCS8);
+            entry.setPropertyValue("cert:keystore", null);
+            CUserServiceImpl.setLookupFields(entry, certificate, certService);
+            return entry;
+        } catch (ClientException e) {
+            // CertException included
+            log.warn("Cannot convert the key of " + userID + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of the background renewal of user certificates nearing expiry.
+ *
+ * @since 7.3
+ */
+@XObject("renewal")
+public class RenewalDescriptor {
+
+    @XNode("@enabled")
+    protected boolean enabled = false;
+
+    /** Certificates ending within this number of days are renewed. */
+    @XNode("renewBeforeDays")
+    protected int renewBeforeDays = 30;
+
+    /** Delay between two batches, in seconds. */
+    @XNode("interval")
+    protected int interval = 600;
+
+    /** Certificates renewed by a batch at most. */
+    @XNode("batchSize")
+    protected int batchSize = 50;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getRenewBeforeDays() {
+        return renewBeforeDays;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+}
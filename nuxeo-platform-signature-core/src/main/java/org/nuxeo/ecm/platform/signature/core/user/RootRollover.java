@@ -0,0 +1,436 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.Environment;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.pki.RootServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStore;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Moves the user certificates issued by a retired root to the current one, after the root keystore was replaced.
+ * <p>
+ * Each certificate not issued by a current root or intermediate CA is reissued for the same key, see
+ * {@link CUserServiceImpl#reissueCertificate}, by a small pool of low-priority threads and at an optional maximum
+ * rate. The previous certificates are not revoked: the chains of the retired root are still used to sign and to
+ * validate until the certificates are reissued.
+ * <p>
+ * Users are processed in user ID order, and the last user ID of each page is saved with the counters in a checkpoint
+ * file, so that an interrupted rollover resumes where it stopped, even after a restart. The checkpoint is deleted
+ * once all the users are processed, running the rollover again then retries the failed ones.
+ *
+ * @since 7.3
+ */
+public class RootRollover {
+
+    private static final Log log = LogFactory.getLog(RootRollover.class);
+
+    public static final String CHECKPOINT_FILE_NAME = "signature/root-rollover.properties";
+
+    /** Failures listed in the report at most. */
+    protected static final int MAX_REPORTED_FAILURES = 100;
+
+    protected final CUserServiceImpl service;
+
+    protected final KeyMaterialStore store;
+
+    protected final RootServiceImpl rootService;
+
+    protected final UserManager userManager;
+
+    protected File checkpointFile;
+
+    protected int threads = 4;
+
+    protected int pageSize = 100;
+
+    /** Maximum certificates per second, 0 for no limit. */
+    protected int maxRate;
+
+    protected final AtomicLong scanned = new AtomicLong();
+
+    protected final AtomicLong reissued = new AtomicLong();
+
+    protected final AtomicLong current = new AtomicLong();
+
+    protected final AtomicLong failed = new AtomicLong();
+
+    /** Failed users with the reason, in user ID order. Guarded by itself. */
+    protected final List<String> failures = new ArrayList<String>();
+
+    protected volatile String checkpoint;
+
+    protected volatile long startTime;
+
+    protected volatile long endTime;
+
+    protected volatile boolean stopped;
+
+    /**
+     * Counters of a rollover, at some point in time, since it was first started.
+     */
+    public static class Report {
+
+        protected final long scanned;
+
+        protected final long reissued;
+
+        protected final long current;
+
+        protected final long failed;
+
+        protected final List<String> failures;
+
+        protected final long elapsed;
+
+        protected final boolean done;
+
+        public Report(long scanned, long reissued, long current, long failed, List<String> failures, long elapsed,
+                boolean done) {
+            this.scanned = scanned;
+            this.reissued = reissued;
+            this.current = current;
+            this.failed = failed;
+            this.failures = failures;
+            this.elapsed = elapsed;
+            this.done = done;
+        }
+
+        public long getScanned() {
+            return scanned;
+        }
+
+        public long getReissued() {
+            return reissued;
+        }
+
+        /**
+         * Certificates already issued by the current root.
+         */
+        public long getCurrent() {
+            return current;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * The first failed users with the reason.
+         */
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * In milliseconds, for the current run only.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "%s: %d scanned, %d reissued, %d already current, %d failed in %.1fs", done ? "done" : "running",
+                    scanned, reissued, current, failed, elapsed / 1000.0));
+            for (String failure : failures) {
+                sb.append("\n  ").append(failure);
+            }
+            if (failed > failures.size()) {
+                sb.append("\n  ...");
+            }
+            return sb.toString();
+        }
+    }
+
+    public RootRollover(CUserServiceImpl service, KeyMaterialStore store, RootServiceImpl rootService,
+            UserManager userManager) {
+        this.service = service;
+        this.store = store;
+        this.rootService = rootService;
+        this.userManager = userManager;
+        checkpointFile = new File(Environment.getDefault().getData(), CHECKPOINT_FILE_NAME);
+    }
+
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    public void setMaxRate(int maxRate) {
+        this.maxRate = Math.max(0, maxRate);
+    }
+
+    public Report getReport() {
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        long elapsed = startTime == 0 ? 0 : end - startTime;
+        List<String> reported;
+        synchronized (failures) {
+            reported = new ArrayList<String>(failures);
+        }
+        return new Report(scanned.get(), reissued.get(), current.get(), failed.get(),
+                Collections.unmodifiableList(reported), elapsed, endTime != 0 && !stopped);
+    }
+
+    /**
+     * Stops the rollover after the current page. It resumes from the checkpoint when started again.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Runs the rollover in the calling thread.
+     */
+    public Report run() throws CertException, ClientException {
+        startTime = System.currentTimeMillis();
+        readCheckpoint();
+        if (checkpoint != null) {
+            log.info("Resuming root rollover after " + checkpoint);
+        }
+        List<String> userIDs = new ArrayList<String>(store.getAllUserIDs());
+        Collections.sort(userIDs);
+        int start = 0;
+        if (checkpoint != null) {
+            int index = Collections.binarySearch(userIDs, checkpoint);
+            start = index >= 0 ? index + 1 : -index - 1;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "signature-root-rollover-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        try {
+            for (int from = start; from < userIDs.size() && !stopped; from += pageSize) {
+                List<String> page = userIDs.subList(from, Math.min(from + pageSize, userIDs.size()));
+                Map<String, DocumentModel> entries = store.getEntries(page);
+                List<Future<String>> futures = new ArrayList<Future<String>>(page.size());
+                for (final String userID : page) {
+                    final DocumentModel entry = entries.get(userID);
+                    futures.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() {
+                            return rollover(userID, entry);
+                        }
+                    }));
+                }
+                for (int i = 0; i < page.size(); i++) {
+                    String failure = get(futures.get(i));
+                    if (failure != null) {
+                        failed.incrementAndGet();
+                        log.warn("Cannot reissue the certificate of " + page.get(i) + ": " + failure);
+                        synchronized (failures) {
+                            if (failures.size() < MAX_REPORTED_FAILURES) {
+                                failures.add(page.get(i) + ": " + failure);
+                            }
+                        }
+                    }
+                }
+                checkpoint = page.get(page.size() - 1);
+                writeCheckpoint();
+                log.info("Root rollover " + getReport());
+                throttle();
+            }
+        } finally {
+            executor.shutdownNow();
+            endTime = System.currentTimeMillis();
+        }
+        if (!stopped) {
+            deleteCheckpoint();
+        }
+        Report report = getReport();
+        log.info("Root rollover " + report);
+        return report;
+    }
+
+    /**
+     * Reissues the certificate of a user unless it comes from the current root, in a transaction of its own.
+     *
+     * @return the reason of a failure, or {@code null}
+     */
+    protected String rollover(String userID, DocumentModel entry) {
+        scanned.incrementAndGet();
+        if (entry == null) {
+            // deleted meanwhile
+            return null;
+        }
+        boolean txStarted = !TransactionHelper.isTransactionActive() && TransactionHelper.startTransaction();
+        try {
+            if (rootService.isCurrentIssuer(service.getUserCertificate(entry, userID))) {
+                current.incrementAndGet();
+                return null;
+            }
+            DocumentModel user = userManager.getUserModel(userID);
+            if (user == null) {
+                return "no such user";
+            }
+            X509Certificate certificate = service.reissueCertificate(user);
+            if (!rootService.isCurrentIssuer(certificate)) {
+                return "reissued by a retired root";
+            }
+            reissued.incrementAndGet();
+            return null;
+        } catch (ClientException e) {
+            // CertException included
+            TransactionHelper.setTransactionRollbackOnly();
+            return e.getMessage();
+        } catch (RuntimeException e) {
+            TransactionHelper.setTransactionRollbackOnly();
+            return e.toString();
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+    }
+
+    protected String get(Future<String> future) throws CertException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertException("Root rollover interrupted", e);
+        } catch (ExecutionException e) {
+            throw new CertException(e.getCause());
+        }
+    }
+
+    protected void throttle() throws CertException {
+        if (maxRate == 0) {
+            return;
+        }
+        // counters restored from a checkpoint do not count
+        long expected = (reissued.get() + current.get()) * 1000 / maxRate;
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(Math.min(expected - elapsed, 60000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CertException("Root rollover interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Restores the checkpoint and the counters of a previous run, if they were saved for the same root.
+     */
+    protected void readCheckpoint() throws CertException {
+        if (checkpointFile == null || !checkpointFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(checkpointFile);
+            properties.load(in);
+        } catch (IOException e) {
+            throw new CertException("Cannot read root rollover checkpoint " + checkpointFile, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        String root = rootService.getRootSnapshot().getFingerprint();
+        if (!root.equals(properties.getProperty("root"))) {
+            log.info("Ignoring the root rollover checkpoint of another root: " + properties.getProperty("root"));
+            return;
+        }
+        checkpoint = properties.getProperty("checkpoint");
+        scanned.set(Long.parseLong(properties.getProperty("scanned", "0")));
+        reissued.set(Long.parseLong(properties.getProperty("reissued", "0")));
+        current.set(Long.parseLong(properties.getProperty("current", "0")));
+        failed.set(Long.parseLong(properties.getProperty("failed", "0")));
+    }
+
+    protected void writeCheckpoint() throws CertException {
+        if (checkpointFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("root", rootService.getRootSnapshot().getFingerprint());
+        properties.setProperty("checkpoint", checkpoint);
+        properties.setProperty("scanned", String.valueOf(scanned.get()));
+        properties.setProperty("reissued", String.valueOf(reissued.get()));
+        properties.setProperty("current", String.valueOf(current.get()));
+        properties.setProperty("failed", String.valueOf(failed.get()));
+        checkpointFile.getParentFile().mkdirs();
+        // a partially written checkpoint would be worse than none
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            properties.store(out, "Root rollover checkpoint");
+        } catch (IOException e) {
+            throw new CertException("Cannot write root rollover checkpoint " + checkpointFile, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        checkpointFile.delete();
+        if (!tmp.renameTo(checkpointFile)) {
+            throw new CertException("Cannot write root rollover checkpoint " + checkpointFile);
+        }
+    }
+
+    protected void deleteCheckpoint() {
+        if (checkpointFile != null && checkpointFile.isFile() && !checkpointFile.delete()) {
+            log.warn("Cannot delete root rollover checkpoint " + checkpointFile);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.pki.EncryptedKeyContainer;
+
+/**
+ * Unlocked user keys, kept for a limited time and number of signatures so that repeated signatures by the same user
+ * skip reading and decrypting the stored key.
+ * <p>
+ * A session is only used with the password that unlocked it, checked against a salted digest. The key is kept as
+ * PKCS#8 bytes that are zeroed when the session is evicted, and decoded for each use. The least recently used session
+ * is evicted when the cache is full.
+ *
+ * @since 7.3
+ */
+public class SigningSessionCache {
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected static final SecureRandom RANDOM = new SecureRandom();
+
+    protected final int maxSessions;
+
+    protected final long ttl;
+
+    protected final int maxUses;
+
+    protected final Map<String, SigningSession> sessions;
+
+    protected long hits;
+
+    protected static class SigningSession {
+
+        protected final byte[] salt;
+
+        protected final byte[] passwordDigest;
+
+        protected final byte[] encodedKey;
+
+        protected final Certificate[] chain;
+
+        protected final long expiry;
+
+        protected int remainingUses;
+
+        protected SigningSession(byte[] salt, byte[] passwordDigest, byte[] encodedKey, Certificate[] chain,
+                long expiry, int remainingUses) {
+            this.salt = salt;
+            this.passwordDigest = passwordDigest;
+            this.encodedKey = encodedKey;
+            this.chain = chain;
+            this.expiry = expiry;
+            this.remainingUses = remainingUses;
+        }
+
+        protected void wipe() {
+            Arrays.fill(encodedKey, (byte) 0);
+            Arrays.fill(passwordDigest, (byte) 0);
+        }
+    }
+
+    /**
+     * @param ttl session lifetime, in milliseconds
+     */
+    public SigningSessionCache(int maxSessions, long ttl, int maxUses) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.ttl = ttl;
+        this.maxUses = Math.max(1, maxUses);
+        sessions = new LinkedHashMap<String, SigningSession>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the key of a user's session, or {@code null} if there is no valid session for this password.
+     */
+    public synchronized KeyStore.PrivateKeyEntry get(String userID, String password) throws CertException {
+        SigningSession session = sessions.get(userID);
+        if (session == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= session.expiry) {
+            evict(userID);
+            return null;
+        }
+        if (!MessageDigest.isEqual(session.passwordDigest, digest(session.salt, password))) {
+            // the caller unlocks the stored key, and fails
+            return null;
+        }
+        PrivateKey privateKey = EncryptedKeyContainer.decodePrivateKey(session.encodedKey);
+        KeyStore.PrivateKeyEntry keyEntry = new KeyStore.PrivateKeyEntry(privateKey, session.chain);
+        if (--session.remainingUses <= 0) {
+            evict(userID);
+        }
+        hits++;
+        return keyEntry;
+    }
+
+    /**
+     * Opens a session with a key that was just unlocked with {@code password}.
+     */
+    public synchronized void put(String userID, String password, KeyStore.PrivateKeyEntry keyEntry)
+            throws CertException {
+        evict(userID);
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        long expiry = System.currentTimeMillis() + ttl;
+        SigningSession session = new SigningSession(salt, digest(salt, password),
+                keyEntry.getPrivateKey().getEncoded(), keyEntry.getCertificateChain(), expiry, maxUses);
+        sessions.put(userID, session);
+        Iterator<SigningSession> it = sessions.values().iterator();
+        while (sessions.size() > maxSessions) {
+            it.next().wipe();
+            it.remove();
+        }
+    }
+
+    public synchronized void evict(String userID) {
+        SigningSession session = sessions.remove(userID);
+        if (session != null) {
+            session.wipe();
+        }
+    }
+
+    public synchronized void clear() {
+        for (SigningSession session : sessions.values()) {
+            session.wipe();
+        }
+        sessions.clear();
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Number of keys served from a session.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    protected static byte[] digest(byte[] salt, String password) throws CertException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(salt);
+            ByteBuffer bytes = UTF8.encode(CharBuffer.wrap(password));
+            md.update(bytes);
+            if (bytes.hasArray()) {
+                Arrays.fill(bytes.array(), (byte) 0);
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
+        }
+    }
+
+}
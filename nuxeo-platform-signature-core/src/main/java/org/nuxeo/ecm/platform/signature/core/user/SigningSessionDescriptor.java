@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of signing sessions: unlocked user keys kept in memory between signatures.
+ *
+ * @since 7.3
+ */
+@XObject("signingSession")
+public class SigningSessionDescriptor {
+
+    @XNode("@enabled")
+    protected boolean enabled = false;
+
+    /** Lifetime of a session after the key is unlocked, in seconds. */
+    @XNode("ttl")
+    protected int ttl = 300;
+
+    /** Signatures made before the key must be unlocked again. */
+    @XNode("maxUses")
+    protected int maxUses = 200;
+
+    @XNode("maxSessions")
+    protected int maxSessions = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+}
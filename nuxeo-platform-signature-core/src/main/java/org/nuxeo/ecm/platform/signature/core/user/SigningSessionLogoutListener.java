@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import java.security.Principal;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Ends the signing session of users logging out.
+ *
+ * @since 7.3
+ */
+public class SigningSessionLogoutListener implements EventListener {
+
+    public static final String LOGOUT_EVENT = "logout";
+
+    @Override
+    public void handleEvent(Event event) {
+        if (!LOGOUT_EVENT.equals(event.getName())) {
+            return;
+        }
+        Principal principal = event.getContext().getPrincipal();
+        CUserService cUserService = Framework.getLocalService(CUserService.class);
+        if (principal != null && cUserService instanceof CUserServiceImpl) {
+            ((CUserServiceImpl) cUserService).evictSigningSession(principal.getName());
+        }
+    }
+
+}
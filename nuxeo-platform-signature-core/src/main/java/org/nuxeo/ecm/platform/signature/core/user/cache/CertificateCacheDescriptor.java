@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Configuration of the cache of public user certificate data.
+ *
+ * @since 7.3
+ */
+@XObject("certificateCache")
+public class CertificateCacheDescriptor {
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNode("maxSize")
+    protected int maxSize = 100000;
+
+    /** Entry lifetime in seconds with a cluster invalidation bus, a safety net for missed invalidations. */
+    public static final int DEFAULT_TTL = 3600;
+
+    /**
+     * Entry lifetime in seconds with the {@link LocalCertificateInvalidationBus}, which does not reach the other nodes
+     * of a cluster.
+     */
+    public static final int LOCAL_BUS_TTL = 60;
+
+    /** Entry lifetime in seconds, {@code null} for the default of the bus. */
+    @XNode("ttl")
+    protected Integer ttl;
+
+    @XNode("invalidationBus")
+    protected Class<? extends CertificateInvalidationBus> busClass = LocalCertificateInvalidationBus.class;
+
+    /** {@code null} to enable the filter with a cluster invalidation bus only. */
+    @XNode("membershipFilter@enabled")
+    protected Boolean membershipFilterEnabled;
+
+    /** Lifetime of the membership filter in seconds, after which it is rebuilt. */
+    @XNode("membershipFilter/ttl")
+    protected int membershipFilterTtl = 600;
+
+    /** Users the membership filter is sized for, at least. */
+    @XNode("membershipFilter/expectedUsers")
+    protected int expectedUsers = 100000;
+
+    @XNode("membershipFilter/falsePositiveRate")
+    protected double falsePositiveRate = 0.01;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the configured entry lifetime, or by default {@link #LOCAL_BUS_TTL} with the local bus and
+     * {@link #DEFAULT_TTL} otherwise.
+     */
+    public int getTtl() {
+        if (ttl != null) {
+            return ttl.intValue();
+        }
+        return isLocalBus() ? LOCAL_BUS_TTL : DEFAULT_TTL;
+    }
+
+    public Class<? extends CertificateInvalidationBus> getBusClass() {
+        return busClass;
+    }
+
+    public void setBusClass(Class<? extends CertificateInvalidationBus> busClass) {
+        this.busClass = busClass;
+    }
+
+    /**
+     * Tells whether invalidations only reach the current JVM.
+     */
+    public boolean isLocalBus() {
+        return LocalCertificateInvalidationBus.class.equals(busClass);
+    }
+
+    /**
+     * Returns whether the membership filter is enabled, by default only with a cluster invalidation bus: its negative
+     * answers are final and must not miss the certificates created on other nodes.
+     */
+    public boolean isMembershipFilterEnabled() {
+        if (membershipFilterEnabled != null) {
+            return membershipFilterEnabled.booleanValue();
+        }
+        return !isLocalBus();
+    }
+
+    public void setMembershipFilterEnabled(boolean membershipFilterEnabled) {
+        this.membershipFilterEnabled = Boolean.valueOf(membershipFilterEnabled);
+    }
+
+    public int getMembershipFilterTtl() {
+        return membershipFilterTtl;
+    }
+
+    public void setMembershipFilterTtl(int membershipFilterTtl) {
+        this.membershipFilterTtl = membershipFilterTtl;
+    }
+
+    public int getExpectedUsers() {
+        return expectedUsers;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+}
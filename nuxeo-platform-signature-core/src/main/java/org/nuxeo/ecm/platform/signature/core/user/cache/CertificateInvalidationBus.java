@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+/**
+ * Carries certificate invalidations between cluster nodes: when a user certificate is created or deleted on one node,
+ * all the nodes drop what they cached about this user.
+ * <p>
+ * Implementations are contributed to the {@code certificateCache} extension point of the CUserService and must have
+ * a public no-argument constructor.
+ *
+ * @since 7.3
+ */
+public interface CertificateInvalidationBus {
+
+    interface InvalidationListener {
+
+        /**
+         * Called for each invalidation published on any node, including this one.
+         */
+        void invalidated(String userID);
+
+        /**
+         * Called when everything must be dropped.
+         */
+        void invalidatedAll();
+    }
+
+    void subscribe(InvalidationListener listener);
+
+    /**
+     * Publishes the invalidation of a user certificate.
+     */
+    void publish(String userID);
+
+    /**
+     * Publishes the invalidation of all certificates.
+     */
+    void publishAll();
+
+    void close();
+
+}
@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.user.store.KeyMaterialStore;
+
+/**
+ * Bloom filter of the users having a certificate, telling without I/O that a user has none.
+ * <p>
+ * A user found in the filter may still have no certificate and must be checked against the store. Deleted users stay
+ * in the filter until the next rebuild; users created on other nodes are added when their invalidation is received.
+ * Until the first rebuild completes, and once the filter is older than its maximum age, every user may have a
+ * certificate: invalidations missed from other nodes do not hide their certificates for longer than that.
+ *
+ * @since 7.3
+ */
+public class CertificateMembershipFilter implements CertificateInvalidationBus.InvalidationListener {
+
+    protected final int expectedUsers;
+
+    protected final double falsePositiveRate;
+
+    /** Milliseconds after which the filter is no longer trusted, 0 for never. */
+    protected final long maxAge;
+
+    /** {@code null} until built. */
+    protected volatile Bits bits;
+
+    /** Users added while a rebuild loads the store, {@code null} otherwise. Guarded by this. */
+    protected List<String> pending;
+
+    protected static class Bits {
+
+        protected final AtomicLongArray words;
+
+        protected final long size;
+
+        protected final int hashes;
+
+        protected final int capacity;
+
+        protected final AtomicInteger count = new AtomicInteger();
+
+        /** Time before the store was read. */
+        protected final long loadedAt;
+
+        protected Bits(int capacity, double falsePositiveRate, long loadedAt) {
+            this.capacity = capacity;
+            this.loadedAt = loadedAt;
+            // m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+            long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int length = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (m + 63) / 64));
+            words = new AtomicLongArray(length);
+            size = length * 64L;
+            hashes = Math.max(1, (int) Math.round((double) size / capacity * Math.log(2)));
+        }
+
+        protected boolean mightContain(String userID) {
+            long hash = hash(userID);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % size;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sets the bits of a user, counting it only if a bit changed: users added again, on reissue or restore, do not
+         * fill the filter.
+         */
+        protected void add(String userID) {
+            long hash = hash(userID);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            boolean changed = false;
+            for (int i = 1; i <= hashes; i++) {
+                long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % size;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word = words.get(index);
+                while ((word & mask) == 0) {
+                    if (words.compareAndSet(index, word, word | mask)) {
+                        changed = true;
+                        break;
+                    }
+                    word = words.get(index);
+                }
+            }
+            if (changed) {
+                count.incrementAndGet();
+            }
+        }
+
+        /**
+         * 64-bit FNV-1a, whose halves are combined into the {@link #hashes} bit positions.
+         */
+        protected static long hash(String userID) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < userID.length(); i++) {
+                hash ^= userID.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            // spread the low bits, FNV only mixes them slightly on short strings
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+
+    public CertificateMembershipFilter(int expectedUsers, double falsePositiveRate) {
+        this(expectedUsers, falsePositiveRate, 0);
+    }
+
+    /**
+     * @param maxAge milliseconds after which the filter is no longer trusted until rebuilt, 0 for never
+     */
+    public CertificateMembershipFilter(int expectedUsers, double falsePositiveRate, long maxAge) {
+        this.expectedUsers = Math.max(1, expectedUsers);
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxAge = maxAge;
+    }
+
+    public boolean isReady() {
+        return bits != null;
+    }
+
+    /**
+     * Returns {@code true} if more users were added than the filter was sized for, raising the false positive rate.
+     */
+    public boolean isSaturated() {
+        Bits current = bits;
+        return current != null && current.count.get() > current.capacity;
+    }
+
+    /**
+     * Returns {@code true} if the filter is older than its maximum age and must be rebuilt.
+     */
+    public boolean isExpired() {
+        return isExpired(bits);
+    }
+
+    protected boolean isExpired(Bits current) {
+        return current != null && maxAge > 0 && System.currentTimeMillis() - current.loadedAt > maxAge;
+    }
+
+    /**
+     * Returns {@code false} if the user certainly has no certificate.
+     */
+    public boolean mightHaveCertificate(String userID) {
+        Bits current = bits;
+        return current == null || isExpired(current) || current.mightContain(userID);
+    }
+
+    /**
+     * Records a user who may have a certificate. Called before the certificate is stored, so that no lookup misses it.
+     */
+    public synchronized void add(String userID) {
+        if (bits != null) {
+            bits.add(userID);
+        }
+        if (pending != null) {
+            pending.add(userID);
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the users of a store, sized for twice their number and at least the expected users.
+     */
+    public void rebuild(KeyMaterialStore store) throws CertException, ClientException {
+        List<String> added = new ArrayList<String>();
+        synchronized (this) {
+            pending = added;
+        }
+        long loadedAt = System.currentTimeMillis();
+        List<String> userIDs = store.getAllUserIDs();
+        Bits next = new Bits(Math.max(expectedUsers, userIDs.size() * 2), falsePositiveRate, loadedAt);
+        for (String userID : userIDs) {
+            next.add(userID);
+        }
+        synchronized (this) {
+            if (pending != added) {
+                // reset or rebuilt meanwhile
+                return;
+            }
+            for (String userID : added) {
+                next.add(userID);
+            }
+            bits = next;
+            pending = null;
+        }
+    }
+
+    /**
+     * Forgets everything, until the next rebuild.
+     */
+    public synchronized void reset() {
+        bits = null;
+        pending = null;
+    }
+
+    public int getCount() {
+        Bits current = bits;
+        return current == null ? 0 : current.count.get();
+    }
+
+    @Override
+    public void invalidated(String userID) {
+        // maybe a certificate created on another node
+        add(userID);
+    }
+
+    @Override
+    public void invalidatedAll() {
+        reset();
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+import javax.naming.NamingException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Publishes invalidations once the current transaction is committed, so that the nodes reloading from the directory
+ * when they receive them read the new state. Invalidations are published at once outside of a transaction, and dropped
+ * when the transaction is rolled back since nothing changed.
+ *
+ * @since 7.3
+ */
+public class InvalidationPublisher {
+
+    private static final Log log = LogFactory.getLog(InvalidationPublisher.class);
+
+    private InvalidationPublisher() {
+    }
+
+    /**
+     * Publishes the invalidation of a user certificate after the commit of the current transaction.
+     */
+    public static void publish(final CertificateInvalidationBus bus, final String userID) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                bus.publish(userID);
+            }
+        });
+    }
+
+    /**
+     * Publishes the invalidation of all certificates after the commit of the current transaction.
+     */
+    public static void publishAll(final CertificateInvalidationBus bus) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                bus.publishAll();
+            }
+        });
+    }
+
+    protected static void afterCommit(final Runnable publication) {
+        Transaction transaction = getTransaction();
+        if (transaction != null) {
+            try {
+                transaction.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            publication.run();
+                        }
+                    }
+                });
+                return;
+            } catch (RollbackException e) {
+                // marked rollback only, nothing will change
+                return;
+            } catch (IllegalStateException e) {
+                log.debug("Cannot wait for the end of the transaction, publishing now", e);
+            } catch (SystemException e) {
+                log.debug("Cannot wait for the end of the transaction, publishing now", e);
+            }
+        }
+        publication.run();
+    }
+
+    /**
+     * Returns the active transaction, or {@code null} if there is none.
+     */
+    protected static Transaction getTransaction() {
+        if (!TransactionHelper.isTransactionActive()) {
+            return null;
+        }
+        try {
+            return TransactionHelper.lookupTransactionManager().getTransaction();
+        } catch (NamingException e) {
+            return null;
+        } catch (SystemException e) {
+            return null;
+        }
+    }
+
+}
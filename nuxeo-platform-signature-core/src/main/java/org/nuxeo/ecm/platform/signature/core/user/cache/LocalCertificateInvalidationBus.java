@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Invalidation bus reaching the buses of the same JVM only: a stand-in for a cluster bus on single-node deployments
+ * and in tests, where each bus plays a node.
+ *
+ * @since 7.3
+ */
+public class LocalCertificateInvalidationBus implements CertificateInvalidationBus {
+
+    protected static final Set<LocalCertificateInvalidationBus> BUSES;
+
+    static {
+        BUSES = new CopyOnWriteArraySet<LocalCertificateInvalidationBus>();
+    }
+
+    protected final Set<InvalidationListener> listeners = new CopyOnWriteArraySet<InvalidationListener>();
+
+    public LocalCertificateInvalidationBus() {
+        BUSES.add(this);
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publish(String userID) {
+        for (LocalCertificateInvalidationBus bus : BUSES) {
+            for (InvalidationListener listener : bus.listeners) {
+                listener.invalidated(userID);
+            }
+        }
+    }
+
+    @Override
+    public void publishAll() {
+        for (LocalCertificateInvalidationBus bus : BUSES) {
+            for (InvalidationListener listener : bus.listeners) {
+                listener.invalidatedAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        BUSES.remove(this);
+        listeners.clear();
+    }
+
+}
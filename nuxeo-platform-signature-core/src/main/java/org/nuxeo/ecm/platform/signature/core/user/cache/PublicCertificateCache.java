@@ -0,0 +1,179 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.user.PublicCertificateInfo;
+
+/**
+ * Public data of the certificates of recently looked up users, including the users known to have no certificate.
+ * <p>
+ * Entries expire after a while as a safety net, but are normally dropped through the {@link CertificateInvalidationBus}
+ * when a certificate is created or deleted on any node.
+ *
+ * @since 7.3
+ */
+public class PublicCertificateCache implements CertificateInvalidationBus.InvalidationListener {
+
+    protected final CertificateInvalidationBus bus;
+
+    protected final int maxSize;
+
+    protected final long ttl;
+
+    protected final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Incremented on each invalidation, so that lookups racing with one do not cache stale data. */
+    protected final AtomicLong version = new AtomicLong();
+
+    public static class Entry {
+
+        protected final PublicCertificateInfo info;
+
+        protected final long expiry;
+
+        protected Entry(PublicCertificateInfo info, long expiry) {
+            this.info = info;
+            this.expiry = expiry;
+        }
+
+        /**
+         * Returns the certificate data, or {@code null} if the user has no certificate.
+         */
+        public PublicCertificateInfo getInfo() {
+            return info;
+        }
+    }
+
+    /**
+     * @param ttl entry lifetime, in milliseconds
+     */
+    public PublicCertificateCache(CertificateInvalidationBus bus, int maxSize, long ttl) {
+        this.bus = bus;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = ttl;
+        bus.subscribe(this);
+    }
+
+    /**
+     * Returns the cached entry of a user, or {@code null} if the user is not known.
+     */
+    public Entry get(String userID) {
+        Entry entry = entries.get(userID);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiry) {
+            entries.remove(userID, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the version to pass to {@link #put}, to be read before looking up the data to cache.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Caches data looked up since {@code version}, unless there was an invalidation meanwhile.
+     *
+     * @param info the certificate data, or {@code null} if the user has no certificate
+     */
+    public void put(String userID, PublicCertificateInfo info, long version) {
+        if (entries.size() >= maxSize) {
+            // no LRU order, drop any entry
+            Iterator<String> it = entries.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        Entry entry = new Entry(info, System.currentTimeMillis() + ttl);
+        entries.put(userID, entry);
+        if (this.version.get() != version) {
+            entries.remove(userID, entry);
+        }
+    }
+
+    /**
+     * Drops a user on all nodes.
+     */
+    public void invalidate(String userID) {
+        bus.publish(userID);
+    }
+
+    /**
+     * Drops everything on all nodes.
+     */
+    public void invalidateAll() {
+        bus.publishAll();
+    }
+
+    @Override
+    public void invalidated(String userID) {
+        version.incrementAndGet();
+        entries.remove(userID);
+    }
+
+    @Override
+    public void invalidatedAll() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void close() {
+        entries.clear();
+    }
+
+    public static PublicCertificateInfo toInfo(String userID, X509Certificate certificate) throws CertException {
+        return new PublicCertificateInfo(userID, certificate.getSubjectDN().toString(),
+                certificate.getSerialNumber(), getFingerprint(certificate), certificate.getNotBefore(),
+                certificate.getNotAfter());
+    }
+
+    /**
+     * Returns the lowercase hexadecimal SHA-256 digest of a certificate.
+     */
+    public static String getFingerprint(X509Certificate certificate) throws CertException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
+        } catch (CertificateEncodingException e) {
+            throw new CertException(e);
+        }
+    }
+
+}
@@ -0,0 +1,6 @@
+/**
+  Caches of public user certificate data, invalidated across cluster nodes.
+
+  @since 7.3
+ */
+package org.nuxeo.ecm.platform.signature.core.user.cache;
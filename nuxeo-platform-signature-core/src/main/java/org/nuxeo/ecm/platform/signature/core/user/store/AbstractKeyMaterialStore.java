@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.directory.BaseSession;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Base class for stores keeping the entry fields themselves, outside of a directory.
+ *
+ * @since 7.3
+ */
+public abstract class AbstractKeyMaterialStore implements KeyMaterialStore {
+
+    public static final String SCHEMA = "cert";
+
+    public static final String ID_FIELD = "userid";
+
+    @Override
+    public boolean hasEntry(String userID) throws CertException, ClientException {
+        return getEntry(userID) != null;
+    }
+
+    @Override
+    public Map<String, DocumentModel> getEntries(Collection<String> userIDs) throws CertException, ClientException {
+        Map<String, DocumentModel> entries = new LinkedHashMap<String, DocumentModel>();
+        for (String userID : userIDs) {
+            DocumentModel entry = getEntry(userID);
+            if (entry != null) {
+                entries.put(userID, entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public List<DocumentModel> getEntries(Map<String, Serializable> filter, int limit, int offset)
+            throws CertException, ClientException {
+        String[] userIDs = getUserIDs();
+        Arrays.sort(userIDs);
+        List<DocumentModel> entries = new ArrayList<DocumentModel>();
+        int matched = 0;
+        for (String userID : userIDs) {
+            if (entries.size() >= limit) {
+                break;
+            }
+            DocumentModel entry = getEntry(userID);
+            if (entry != null && matches(getFields(entry), filter) && matched++ >= offset) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public List<String> getExpiringUserIDs(Calendar before, int limit) throws CertException, ClientException {
+        // no index, a full scan
+        Map<String, Calendar> endDates = new HashMap<String, Calendar>();
+        for (String userID : getUserIDs()) {
+            DocumentModel entry = getEntry(userID);
+            Object endDate = entry == null ? null : entry.getPropertyValue(SCHEMA + ":enddate");
+            if (endDate instanceof Calendar && ((Calendar) endDate).before(before)) {
+                endDates.put(userID, (Calendar) endDate);
+            }
+        }
+        return getSoonest(endDates, limit);
+    }
+
+    /**
+     * Returns the IDs of the users having the soonest end dates, soonest first.
+     */
+    protected static List<String> getSoonest(final Map<String, Calendar> endDates, int limit) {
+        List<String> userIDs = new ArrayList<String>(endDates.keySet());
+        Collections.sort(userIDs, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return endDates.get(a).compareTo(endDates.get(b));
+            }
+        });
+        return userIDs.size() > limit ? userIDs.subList(0, limit) : userIDs;
+    }
+
+    @Override
+    public List<String> getAllUserIDs() throws CertException {
+        return Arrays.asList(getUserIDs());
+    }
+
+    /**
+     * Returns the IDs of all the stored entries.
+     */
+    protected abstract String[] getUserIDs() throws CertException;
+
+    @Override
+    public void updateEntries(List<DocumentModel> entries) throws CertException, ClientException {
+        for (DocumentModel entry : entries) {
+            updateEntry(entry);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    protected static boolean matches(Map<String, Object> fields, Map<String, Serializable> filter) {
+        for (Map.Entry<String, Serializable> condition : filter.entrySet()) {
+            Object value = fields.get(condition.getKey());
+            if (condition.getValue() == null ? value != null : !condition.getValue().equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static String getUserID(Map<String, Object> fields) throws CertException {
+        Object userID = fields.get(ID_FIELD);
+        if (!(userID instanceof String) || ((String) userID).isEmpty()) {
+            throw new CertException("Missing " + ID_FIELD);
+        }
+        return (String) userID;
+    }
+
+    /**
+     * Builds an entry model detached from any directory session.
+     */
+    public static DocumentModel newEntryModel(String userID, Map<String, Object> fields) throws ClientException {
+        return BaseSession.createEntryModel(null, SCHEMA, userID, fields);
+    }
+
+    /**
+     * Copies the non-null fields of an entry, reading binary values into byte arrays.
+     */
+    public static Map<String, Object> getFields(DocumentModel entry) throws CertException, ClientException {
+        return copyFields(entry.getProperties(SCHEMA));
+    }
+
+    protected static Map<String, Object> copyFields(Map<String, Object> fields) throws CertException {
+        Map<String, Object> copy = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            Object value = field.getValue();
+            if (value instanceof InputStream) {
+                try {
+                    value = IOUtils.toByteArray((InputStream) value);
+                } catch (IOException e) {
+                    throw new CertException(e);
+                }
+            } else if (value instanceof byte[]) {
+                value = ((byte[]) value).clone();
+            }
+            if (value != null) {
+                copy.put(field.getKey(), value);
+            }
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.security.Principal;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.SystemPrincipal;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Runs code with a session on a directory, as system user.
+ * <p>
+ * Nested calls in a thread share the system login and the session of the outermost call, so that a group of
+ * operations logs in and opens a session once. No login is done for a thread already running as system user. Outside
+ * transactions, sessions are returned to a small pool instead of being closed; sessions used in a transaction are
+ * closed with it, as they may be bound to it. A pooled session is checked with a lookup before being reused, and a
+ * session whose callback failed is closed rather than pooled, as its connection may be broken.
+ *
+ * @since 7.3
+ */
+public class DirectoryAccess {
+
+    private static final Log log = LogFactory.getLog(DirectoryAccess.class);
+
+    /**
+     * Id looked up to check that a pooled session still works; whether it exists does not matter.
+     */
+    protected static final String VALIDATION_ID = "-";
+
+    protected final String directoryName;
+
+    protected final int maxIdleSessions;
+
+    protected final BlockingQueue<Session> idleSessions;
+
+    protected final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+    public interface DirectoryCallback<T> {
+        T run(Session session) throws ClientException;
+    }
+
+    protected static class Batch {
+
+        protected final LoginContext loginContext;
+
+        protected final Session session;
+
+        protected final boolean poolable;
+
+        protected int depth;
+
+        protected boolean failed;
+
+        protected Batch(LoginContext loginContext, Session session, boolean poolable) {
+            this.loginContext = loginContext;
+            this.session = session;
+            this.poolable = poolable;
+        }
+    }
+
+    /**
+     * @param maxIdleSessions sessions kept open between calls, 0 to close them
+     */
+    public DirectoryAccess(String directoryName, int maxIdleSessions) {
+        this.directoryName = directoryName;
+        this.maxIdleSessions = maxIdleSessions;
+        idleSessions = new LinkedBlockingQueue<Session>(Math.max(1, maxIdleSessions));
+    }
+
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    public <T> T run(DirectoryCallback<T> callback) throws ClientException {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = begin();
+            batches.set(batch);
+        }
+        batch.depth++;
+        boolean done = false;
+        try {
+            T result = callback.run(batch.session);
+            done = true;
+            return result;
+        } finally {
+            if (!done) {
+                batch.failed = true;
+            }
+            if (--batch.depth == 0) {
+                batches.remove();
+                end(batch);
+            }
+        }
+    }
+
+    protected Batch begin() throws ClientException {
+        LoginContext lc = null;
+        if (!isSystemUser()) {
+            try {
+                lc = Framework.login();
+            } catch (LoginException e) {
+                throw new ClientException("Cannot log in as system user", e);
+            }
+        }
+        boolean poolable = maxIdleSessions > 0 && !TransactionHelper.isTransactionActiveOrMarkedRollback();
+        Session session = poolable ? pollValidSession() : null;
+        try {
+            if (session == null) {
+                session = Framework.getService(DirectoryService.class).open(directoryName);
+            }
+        } catch (ClientException e) {
+            logout(lc);
+            throw e;
+        }
+        return new Batch(lc, session, poolable);
+    }
+
+    /**
+     * Takes an idle session that still works, closing the broken ones, or returns {@code null} if there is none.
+     */
+    protected Session pollValidSession() {
+        Session session;
+        while ((session = idleSessions.poll()) != null) {
+            try {
+                session.hasEntry(VALIDATION_ID);
+                return session;
+            } catch (ClientException e) {
+                log.debug("Discarding broken session on " + directoryName, e);
+                closeQuietly(session);
+            } catch (RuntimeException e) {
+                log.debug("Discarding broken session on " + directoryName, e);
+                closeQuietly(session);
+            }
+        }
+        return null;
+    }
+
+    protected void end(Batch batch) throws ClientException {
+        try {
+            if (batch.failed) {
+                closeQuietly(batch.session);
+            } else if (!batch.poolable || !idleSessions.offer(batch.session)) {
+                batch.session.close();
+            }
+        } finally {
+            logout(batch.loginContext);
+        }
+    }
+
+    protected void closeQuietly(Session session) {
+        try {
+            session.close();
+        } catch (ClientException e) {
+            log.warn("Cannot close session on " + directoryName, e);
+        } catch (RuntimeException e) {
+            log.warn("Cannot close session on " + directoryName, e);
+        }
+    }
+
+    protected static boolean isSystemUser() {
+        Principal principal = ClientLoginModule.getCurrentPrincipal();
+        return principal instanceof SystemPrincipal;
+    }
+
+    protected static void logout(LoginContext lc) throws ClientException {
+        try {
+            // Login context may be null in tests
+            if (lc != null) {
+                lc.logout();
+            }
+        } catch (LoginException e) {
+            throw new ClientException("Cannot log out system user", e);
+        }
+    }
+
+    /**
+     * Closes the idle sessions.
+     */
+    public void close() {
+        Session session;
+        while ((session = idleSessions.poll()) != null) {
+            closeQuietly(session);
+        }
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.storage.sql.jdbc.db.Column;
+import org.nuxeo.ecm.core.storage.sql.jdbc.db.Table;
+import org.nuxeo.ecm.directory.BaseSession;
+import org.nuxeo.ecm.directory.Directory;
+import org.nuxeo.ecm.directory.DirectoryException;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
+import org.nuxeo.ecm.directory.sql.SQLDirectory;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess.DirectoryCallback;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Stores user key material in a directory, the {@code certificate} SQL directory by default.
+ * <p>
+ * Calls go through a {@link DirectoryAccess}: operations nested in {@link #run} share one system login and session,
+ * and up to {@code sessionPoolSize} sessions are kept open between calls outside transactions.
+ * <p>
+ * SQL directories only index their ID column: the {@link #INDEXED_FIELDS} of the {@code certificate} table are indexed
+ * by the {@code sql/certificate-indexes.sql} script of this bundle, to be run once by the database administrator.
+ *
+ * @since 7.3
+ */
+public class DirectoryKeyMaterialStore implements KeyMaterialStore {
+
+    public static final String DIRECTORY_PROPERTY = "directory";
+
+    public static final String SESSION_POOL_SIZE_PROPERTY = "sessionPoolSize";
+
+    public static final String DEFAULT_DIRECTORY_NAME = "certificate";
+
+    public static final int DEFAULT_SESSION_POOL_SIZE = 4;
+
+    /**
+     * Columns queried by {@link #getEntries}, for reverse certificate lookups, and by {@link #getExpiringUserIDs}.
+     */
+    public static final String[] INDEXED_FIELDS = { "fingerprint", "email", "serialnumber", "enddate" };
+
+    /**
+     * IDs per query when reading several entries of a SQL directory, below the bind parameter limits of databases.
+     */
+    public static final int IN_CLAUSE_SIZE = 100;
+
+    /**
+     * Context data of the entries read by {@link #getEntries(Collection)} without a directory session.
+     */
+    public static final String DETACHED_ENTRY = "signature.detachedEntry";
+
+    protected DirectoryAccess access = new DirectoryAccess(DEFAULT_DIRECTORY_NAME, DEFAULT_SESSION_POOL_SIZE);
+
+    @Override
+    public void initialize(Map<String, String> properties) {
+        String directoryName = DEFAULT_DIRECTORY_NAME;
+        if (properties.containsKey(DIRECTORY_PROPERTY)) {
+            directoryName = properties.get(DIRECTORY_PROPERTY);
+        }
+        int sessionPoolSize = DEFAULT_SESSION_POOL_SIZE;
+        if (properties.containsKey(SESSION_POOL_SIZE_PROPERTY)) {
+            sessionPoolSize = Integer.parseInt(properties.get(SESSION_POOL_SIZE_PROPERTY).trim());
+        }
+        access.close();
+        access = new DirectoryAccess(directoryName, sessionPoolSize);
+    }
+
+    public String getDirectoryName() {
+        return access.getDirectoryName();
+    }
+
+    /**
+     * Runs several operations of this store with a single login and directory session.
+     */
+    public <T> T run(DirectoryCallback<T> callback) throws ClientException {
+        return access.run(callback);
+    }
+
+    @Override
+    public DocumentModel getEntry(final String userID) throws ClientException {
+        return access.run(new DirectoryCallback<DocumentModel>() {
+            @Override
+            public DocumentModel run(Session session) throws ClientException {
+                return session.getEntry(userID);
+            }
+        });
+    }
+
+    @Override
+    public boolean hasEntry(final String userID) throws ClientException {
+        return access.run(new DirectoryCallback<Boolean>() {
+            @Override
+            public Boolean run(Session session) throws ClientException {
+                return Boolean.valueOf(session.hasEntry(userID));
+            }
+        }).booleanValue();
+    }
+
+    @Override
+    public Map<String, DocumentModel> getEntries(final Collection<String> userIDs) throws ClientException {
+        Directory directory = Framework.getService(DirectoryService.class).getDirectory(getDirectoryName());
+        if (directory instanceof SQLDirectory) {
+            return getEntries((SQLDirectory) directory, userIDs);
+        }
+        return access.run(new DirectoryCallback<Map<String, DocumentModel>>() {
+            @Override
+            public Map<String, DocumentModel> run(Session session) throws ClientException {
+                // no IN filter on other directories, but one login and session, and the directory cache
+                Map<String, DocumentModel> entries = new LinkedHashMap<String, DocumentModel>();
+                for (String userID : userIDs) {
+                    DocumentModel entry = session.getEntry(userID);
+                    if (entry != null) {
+                        entries.put(userID, entry);
+                    }
+                }
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * Reads the entries of a SQL directory with one {@code IN} query per {@link #IN_CLAUSE_SIZE} IDs.
+     * <p>
+     * The query bypasses the directory session: its entry cache and read filtering, which do not restrict the system
+     * user running the other calls of this store anyway. The entries are marked as {@link #DETACHED_ENTRY}, belong to
+     * no session, and are applied to the session entry by {@link #updateEntries}.
+     */
+    protected Map<String, DocumentModel> getEntries(SQLDirectory directory, Collection<String> userIDs)
+            throws ClientException {
+        String schema = directory.getSchema();
+        String idField = directory.getIdField();
+        Table table = directory.getTable();
+        List<Column> columns = new ArrayList<Column>(table.getColumns());
+        StringBuilder select = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++) {
+            select.append(i == 0 ? "" : ", ").append(columns.get(i).getQuotedName());
+        }
+        select.append(" FROM ").append(table.getQuotedName()).append(" WHERE ");
+        select.append(table.getColumn(idField).getQuotedName()).append(" IN (");
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(userIDs));
+        Map<String, DocumentModel> found = new HashMap<String, DocumentModel>();
+        try {
+            Connection connection = directory.getDataSource().getConnection();
+            try {
+                for (int start = 0; start < ids.size(); start += IN_CLAUSE_SIZE) {
+                    List<String> chunk = ids.subList(start, Math.min(ids.size(), start + IN_CLAUSE_SIZE));
+                    StringBuilder sql = new StringBuilder(select);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        sql.append(i == 0 ? "?" : ", ?");
+                    }
+                    sql.append(')');
+                    PreparedStatement ps = connection.prepareStatement(sql.toString());
+                    try {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            ps.setString(i + 1, chunk.get(i));
+                        }
+                        ResultSet rs = ps.executeQuery();
+                        while (rs.next()) {
+                            Map<String, Object> fields = new HashMap<String, Object>();
+                            for (int i = 0; i < columns.size(); i++) {
+                                Column column = columns.get(i);
+                                fields.put(column.getKey(), column.getFromResultSet(rs, i + 1));
+                            }
+                            String userID = (String) fields.get(idField);
+                            DocumentModel entry = BaseSession.createEntryModel(null, schema, userID, fields);
+                            entry.putContextData(DETACHED_ENTRY, Boolean.TRUE);
+                            found.put(userID, entry);
+                        }
+                    } finally {
+                        ps.close();
+                    }
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new CertException("Cannot read the certificates of directory " + getDirectoryName(), e);
+        }
+        Map<String, DocumentModel> entries = new LinkedHashMap<String, DocumentModel>();
+        for (String userID : ids) {
+            DocumentModel entry = found.get(userID);
+            if (entry != null) {
+                entries.put(userID, entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public List<DocumentModel> getEntries(final Map<String, Serializable> filter, final int limit, final int offset)
+            throws ClientException {
+        return access.run(new DirectoryCallback<List<DocumentModel>>() {
+            @Override
+            public List<DocumentModel> run(Session session) throws ClientException {
+                return session.query(filter, Collections.<String> emptySet(),
+                        Collections.singletonMap(session.getIdField(), "asc"), false, limit, offset);
+            }
+        });
+    }
+
+    @Override
+    public List<String> getExpiringUserIDs(final Calendar before, int limit) throws ClientException {
+        Directory directory = Framework.getService(DirectoryService.class).getDirectory(getDirectoryName());
+        if (directory instanceof SQLDirectory) {
+            return getExpiringUserIDs((SQLDirectory) directory, before, limit);
+        }
+        // no range queries on other directories, a full scan
+        Map<String, Calendar> endDates = access.run(new DirectoryCallback<Map<String, Calendar>>() {
+            @Override
+            public Map<String, Calendar> run(Session session) throws ClientException {
+                Map<String, Calendar> endDates = new HashMap<String, Calendar>();
+                for (DocumentModel entry : session.query(Collections.<String, Serializable> emptyMap())) {
+                    Object endDate = entry.getPropertyValue(AbstractKeyMaterialStore.SCHEMA + ":enddate");
+                    if (endDate instanceof Calendar && ((Calendar) endDate).before(before)) {
+                        endDates.put(entry.getId(), (Calendar) endDate);
+                    }
+                }
+                return endDates;
+            }
+        });
+        return AbstractKeyMaterialStore.getSoonest(endDates, limit);
+    }
+
+    /**
+     * Queries the indexed end date column of a SQL directory.
+     */
+    protected List<String> getExpiringUserIDs(SQLDirectory directory, Calendar before, int limit)
+            throws ClientException {
+        Table table = directory.getTable();
+        Column idColumn = table.getColumn(directory.getIdField());
+        Column endDateColumn = table.getColumn("enddate");
+        if (endDateColumn == null) {
+            return Collections.emptyList();
+        }
+        String sql = "SELECT " + idColumn.getQuotedName() + " FROM " + table.getQuotedName() + " WHERE "
+                + endDateColumn.getQuotedName() + " < ? ORDER BY " + endDateColumn.getQuotedName();
+        try {
+            Connection connection = directory.getDataSource().getConnection();
+            try {
+                PreparedStatement ps = connection.prepareStatement(sql);
+                try {
+                    ps.setTimestamp(1, new Timestamp(before.getTimeInMillis()));
+                    ps.setMaxRows(limit);
+                    List<String> userIDs = new ArrayList<String>();
+                    ResultSet rs = ps.executeQuery();
+                    while (rs.next()) {
+                        userIDs.add(rs.getString(1));
+                    }
+                    return userIDs;
+                } finally {
+                    ps.close();
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new CertException("Cannot query the expiring certificates of directory " + getDirectoryName(), e);
+        }
+    }
+
+    @Override
+    public List<String> getAllUserIDs() throws ClientException {
+        return access.run(new DirectoryCallback<List<String>>() {
+            @Override
+            public List<String> run(Session session) throws ClientException {
+                return session.getProjection(Collections.<String, Serializable> emptyMap(), session.getIdField());
+            }
+        });
+    }
+
+    @Override
+    public DocumentModel createEntry(final Map<String, Object> fields) throws ClientException {
+        return access.run(new DirectoryCallback<DocumentModel>() {
+            @Override
+            public DocumentModel run(Session session) throws ClientException {
+                String userID = (String) fields.get("userid");
+                // make sure that no certificates are associated with the user
+                if (session.hasEntry(userID)) {
+                    throw new CertException(userID + " already has a certificate");
+                }
+                try {
+                    return session.createEntry(fields);
+                } catch (DirectoryException e) {
+                    throw new CertException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void updateEntry(DocumentModel entry) throws ClientException {
+        updateEntries(Collections.singletonList(entry));
+    }
+
+    @Override
+    public void updateEntries(final List<DocumentModel> entries) throws ClientException {
+        access.run(new DirectoryCallback<Void>() {
+            @Override
+            public Void run(Session session) throws ClientException {
+                for (DocumentModel entry : entries) {
+                    session.updateEntry(isDetached(entry) ? attach(session, entry) : entry);
+                }
+                return null;
+            }
+        });
+    }
+
+    protected static boolean isDetached(DocumentModel entry) {
+        return Boolean.TRUE.equals(entry.getContextData(DETACHED_ENTRY));
+    }
+
+    /**
+     * Returns the session entry of a detached entry, holding its values.
+     */
+    protected static DocumentModel attach(Session session, DocumentModel entry) throws ClientException {
+        DocumentModel sessionEntry = session.getEntry(entry.getId());
+        if (sessionEntry == null) {
+            throw new DirectoryException("No certificate entry to update for " + entry.getId());
+        }
+        for (String schema : entry.getSchemas()) {
+            sessionEntry.setProperties(schema, entry.getProperties(schema));
+        }
+        return sessionEntry;
+    }
+
+    @Override
+    public void deleteEntry(final String userID) throws ClientException {
+        access.run(new DirectoryCallback<Void>() {
+            @Override
+            public Void run(Session session) throws ClientException {
+                session.deleteEntry(userID);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        access.close();
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.common.Environment;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Stores user key material in a local directory, one file per user.
+ * <p>
+ * Files are replaced atomically when written. The directory is not shared between nodes: it is meant for signing
+ * nodes holding their own key material on fast local storage.
+ *
+ * @since 7.3
+ */
+public class FileKeyMaterialStore extends AbstractKeyMaterialStore {
+
+    public static final String PATH_PROPERTY = "path";
+
+    public static final String DEFAULT_DIRECTORY_NAME = "signature-keys";
+
+    protected static final String FILE_SUFFIX = ".key";
+
+    protected static final int MAGIC = 0x4E4B4D01;
+
+    protected static final byte TYPE_STRING = 'S';
+
+    protected static final byte TYPE_BINARY = 'B';
+
+    protected static final byte TYPE_DATE = 'D';
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected File directory;
+
+    @Override
+    public void initialize(Map<String, String> properties) throws CertException {
+        String path = properties.get(PATH_PROPERTY);
+        if (path == null) {
+            directory = new File(Environment.getDefault().getData(), DEFAULT_DIRECTORY_NAME);
+        } else {
+            directory = new File(path);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new CertException("Cannot create key material directory " + directory);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public DocumentModel getEntry(String userID) throws CertException, ClientException {
+        Map<String, Object> fields = read(getFile(userID));
+        if (fields == null) {
+            return null;
+        }
+        return newEntryModel(userID, fields);
+    }
+
+    @Override
+    public boolean hasEntry(String userID) throws CertException {
+        return getFile(userID).isFile();
+    }
+
+    @Override
+    protected String[] getUserIDs() throws CertException {
+        String[] names = directory.list();
+        if (names == null) {
+            throw new CertException("Cannot list " + directory);
+        }
+        List<String> userIDs = new ArrayList<String>();
+        try {
+            for (String name : names) {
+                if (name.endsWith(FILE_SUFFIX)) {
+                    userIDs.add(URLDecoder.decode(name.substring(0, name.length() - FILE_SUFFIX.length()), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new CertException(e);
+        }
+        return userIDs.toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized DocumentModel createEntry(Map<String, Object> fields) throws CertException, ClientException {
+        String userID = getUserID(fields);
+        File file = getFile(userID);
+        if (file.exists()) {
+            throw new CertException(userID + " already has a certificate");
+        }
+        write(file, fields);
+        return getEntry(userID);
+    }
+
+    @Override
+    public synchronized void updateEntry(DocumentModel entry) throws CertException, ClientException {
+        Map<String, Object> fields = getFields(entry);
+        File file = getFile(getUserID(fields));
+        if (!file.exists()) {
+            throw new CertException("No directory entry for " + getUserID(fields));
+        }
+        write(file, fields);
+    }
+
+    @Override
+    public synchronized void deleteEntry(String userID) throws CertException {
+        File file = getFile(userID);
+        if (file.exists() && !file.delete()) {
+            throw new CertException("Cannot delete " + file);
+        }
+    }
+
+    protected File getFile(String userID) throws CertException {
+        try {
+            // no path separators, and "." or ".." get the suffix
+            return new File(directory, URLEncoder.encode(userID, "UTF-8") + FILE_SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new CertException(e);
+        }
+    }
+
+    /**
+     * Reads the fields of a file, or returns {@code null} if it does not exist.
+     */
+    protected Map<String, Object> read(File file) throws CertException {
+        byte[] bytes;
+        try {
+            // key files are a few kilobytes: a plain read is cheaper than a mapping
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    protected void write(File file, Map<String, Object> fields) throws CertException {
+        byte[] bytes = encode(fields);
+        try {
+            File tmp = File.createTempFile("key-", ".tmp", directory);
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+    }
+
+    /**
+     * Encodes the fields of an entry, string, binary and date values only. Also the record format of certificate
+     * archives.
+     */
+    public static byte[] encode(Map<String, Object> fields) throws CertException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(fields.size());
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                writeBytes(out, field.getKey().getBytes(UTF8));
+                Object value = field.getValue();
+                if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    writeBytes(out, ((String) value).getBytes(UTF8));
+                } else if (value instanceof byte[]) {
+                    out.writeByte(TYPE_BINARY);
+                    writeBytes(out, (byte[]) value);
+                } else if (value instanceof Calendar) {
+                    out.writeByte(TYPE_DATE);
+                    out.writeLong(((Calendar) value).getTimeInMillis());
+                } else {
+                    throw new CertException("Unsupported value for " + field.getKey() + ": " + value.getClass());
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new CertException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static Map<String, Object> decode(ByteBuffer buffer) throws CertException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new CertException("Not a key material file");
+            }
+            int count = buffer.getInt();
+            Map<String, Object> fields = new HashMap<String, Object>();
+            for (int i = 0; i < count; i++) {
+                String name = new String(readBytes(buffer), UTF8);
+                byte type = buffer.get();
+                switch (type) {
+                case TYPE_STRING:
+                    fields.put(name, new String(readBytes(buffer), UTF8));
+                    break;
+                case TYPE_BINARY:
+                    fields.put(name, readBytes(buffer));
+                    break;
+                case TYPE_DATE:
+                    Calendar calendar = new GregorianCalendar();
+                    calendar.setTimeInMillis(buffer.getLong());
+                    fields.put(name, calendar);
+                    break;
+                default:
+                    throw new CertException("Unknown value type " + type + " for " + name);
+                }
+            }
+            return fields;
+        } catch (BufferUnderflowException e) {
+            throw new CertException("Truncated key material file", e);
+        }
+    }
+
+    protected static byte[] readBytes(ByteBuffer buffer) throws CertException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new CertException("Truncated key material file");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Storage of user key material: one entry per user, with the fields of the {@code cert} schema.
+ * <p>
+ * Implementations are contributed to the {@code keyMaterialStore} extension point of the CUserService and must have a
+ * public no-argument constructor. They are called concurrently.
+ *
+ * @since 7.3
+ */
+public interface KeyMaterialStore {
+
+    /**
+     * Called once with the contributed properties, before any other method.
+     */
+    void initialize(Map<String, String> properties) throws CertException;
+
+    /**
+     * Returns the entry of a user, or {@code null} if there is none.
+     */
+    DocumentModel getEntry(String userID) throws CertException, ClientException;
+
+    boolean hasEntry(String userID) throws CertException, ClientException;
+
+    /**
+     * Returns the entries of several users at once, by user ID. Users without entry are left out. The entries may be
+     * read outside of the store sessions, they can still be passed to {@link #updateEntries}.
+     */
+    Map<String, DocumentModel> getEntries(Collection<String> userIDs) throws CertException, ClientException;
+
+    /**
+     * Returns a page of the entries matching a filter, ordered by user ID. A {@code null} filter value matches entries
+     * without that field.
+     */
+    List<DocumentModel> getEntries(Map<String, Serializable> filter, int limit, int offset) throws CertException,
+            ClientException;
+
+    /**
+     * Returns the IDs of the users whose certificate ends before a date, soonest first, at most {@code limit}. Entries
+     * without end date are left out.
+     */
+    List<String> getExpiringUserIDs(Calendar before, int limit) throws CertException, ClientException;
+
+    /**
+     * Returns the IDs of all the users having an entry, without loading the entries.
+     */
+    List<String> getAllUserIDs() throws CertException, ClientException;
+
+    /**
+     * Creates an entry from {@code cert} schema fields, keyed by their names without prefix.
+     *
+     * @throws CertException if the user already has an entry
+     */
+    DocumentModel createEntry(Map<String, Object> fields) throws CertException, ClientException;
+
+    /**
+     * Saves an entry returned by {@link #getEntry}.
+     */
+    void updateEntry(DocumentModel entry) throws CertException, ClientException;
+
+    /**
+     * Saves several entries at once.
+     */
+    void updateEntries(List<DocumentModel> entries) throws CertException, ClientException;
+
+    void deleteEntry(String userID) throws CertException, ClientException;
+
+    /**
+     * Releases the resources of the store, called when it is replaced.
+     */
+    void close();
+
+}
@@ -0,0 +1,51 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Selects the backend storing user key material.
+ *
+ * <pre>
+ * &lt;keyMaterialStore class="org.nuxeo.ecm.platform.signature.core.user.store.FileKeyMaterialStore"&gt;
+ *   &lt;property name="path"&gt;/var/lib/nuxeo/signature-keys&lt;/property&gt;
+ * &lt;/keyMaterialStore&gt;
+ * </pre>
+ *
+ * @since 7.3
+ */
+@XObject("keyMaterialStore")
+public class KeyMaterialStoreDescriptor {
+
+    @XNode("@class")
+    protected Class<? extends KeyMaterialStore> storeClass = DirectoryKeyMaterialStore.class;
+
+    @XNodeMap(value = "property", key = "@name", type = HashMap.class, componentType = String.class)
+    protected Map<String, String> properties = new HashMap<String, String>();
+
+    public Class<? extends KeyMaterialStore> getStoreClass() {
+        return storeClass;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+
+/**
+ * Keeps user key material in memory, for tests and benchmarks. Entries are lost when the store is closed.
+ *
+ * @since 7.3
+ */
+public class MemoryKeyMaterialStore extends AbstractKeyMaterialStore {
+
+    protected final ConcurrentMap<String, Map<String, Object>> entries;
+
+    public MemoryKeyMaterialStore() {
+        entries = new ConcurrentHashMap<String, Map<String, Object>>();
+    }
+
+    @Override
+    public void initialize(Map<String, String> properties) {
+    }
+
+    @Override
+    public DocumentModel getEntry(String userID) throws CertException, ClientException {
+        Map<String, Object> fields = entries.get(userID);
+        if (fields == null) {
+            return null;
+        }
+        return newEntryModel(userID, copyFields(fields));
+    }
+
+    @Override
+    public boolean hasEntry(String userID) {
+        return entries.containsKey(userID);
+    }
+
+    @Override
+    protected String[] getUserIDs() {
+        return entries.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public DocumentModel createEntry(Map<String, Object> fields) throws CertException, ClientException {
+        String userID = getUserID(fields);
+        if (entries.putIfAbsent(userID, copyFields(fields)) != null) {
+            throw new CertException(userID + " already has a certificate");
+        }
+        return getEntry(userID);
+    }
+
+    @Override
+    public void updateEntry(DocumentModel entry) throws CertException, ClientException {
+        Map<String, Object> fields = getFields(entry);
+        String userID = getUserID(fields);
+        if (entries.replace(userID, fields) == null) {
+            throw new CertException("No directory entry for " + userID);
+        }
+    }
+
+    @Override
+    public void deleteEntry(String userID) {
+        entries.remove(userID);
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,6 @@
+/**
+  Storage backends for user key material.
+
+  @since 7.3
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
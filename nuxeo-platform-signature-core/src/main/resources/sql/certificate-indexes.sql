@@ -0,0 +1,13 @@
+-- Indexes on the lookup columns of the certificate and certificaterevocation directory tables, @since 7.3.
+--
+-- SQL directories only index their id column. Without these indexes, reverse certificate lookups (by fingerprint,
+-- email or serial number), the search for expiring certificates and the lookup of the revocations of a user scan the
+-- whole table. Run this script once on the database of the nxsqldirectory data source, after the columns were added
+-- by the first startup of this version. Change the table names if the directories are configured with other tables.
+-- Statements failing because the index already exists can be ignored.
+
+CREATE INDEX certificate_fingerprint_idx ON certificate (fingerprint);
+CREATE INDEX certificate_email_idx ON certificate (email);
+CREATE INDEX certificate_serialnumber_idx ON certificate (serialnumber);
+CREATE INDEX certificate_enddate_idx ON certificate (enddate);
+CREATE INDEX certificaterevocation_userid_idx ON certificaterevocation (userid);
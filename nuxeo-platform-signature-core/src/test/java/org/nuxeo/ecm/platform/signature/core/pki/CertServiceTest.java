@@ -17,21 +17,40 @@
  */
 package org.nuxeo.ecm.platform.signature.core.pki;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.inject.Inject;
+import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,7 +58,9 @@ import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
 import org.nuxeo.ecm.platform.signature.api.pki.RootService;
 import org.nuxeo.ecm.platform.signature.api.user.AliasType;
 import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
@@ -124,6 +145,296 @@ public class CertServiceTest {
         assertTrue(keystore.containsAlias(userid + "cert"));
     }
 
+    @Test
+    public void testInitializeUserWithECKey() throws Exception {
+        KeyParameters keyParameters = new KeyParameters("ECDSA", 0, "secp256r1", "SHA-256");
+        KeyStore keystore = certService.initializeUser(getUserInfo(), USER_KEYSTORE_PASSWORD, keyParameters);
+        KeyPair keyPair = certService.getKeyPair(keystore, getAliasId(getUserInfo(), AliasType.KEY),
+                getAliasId(getUserInfo(), AliasType.CERT), USER_KEY_PASSWORD);
+        assertTrue(KeyParameters.isEC(keyPair.getPrivate().getAlgorithm()));
+        X509Certificate cert = certService.getCertificate(keystore, getAliasId(getUserInfo(), AliasType.CERT));
+        assertTrue(KeyParameters.isEC(cert.getPublicKey().getAlgorithm()));
+        // issued by the RSA root
+        cert.verify(certService.getRootCertificate().getPublicKey());
+        assertEquals("SHA256WITHRSA", cert.getSigAlgName().toUpperCase());
+    }
+
+    @Test
+    public void testCheckECKeyCurve() throws Exception {
+        KeyParameters keyParameters = new KeyParameters("EC", 0, "secp256r1", "SHA256");
+        CertServiceImpl.checkKey(certService.generateKeyPair(keyParameters).getPublic(), keyParameters);
+        // the NIST name of the same curve
+        CertServiceImpl.checkKey(certService.generateKeyPair(keyParameters).getPublic(),
+                new KeyParameters("EC", 0, "P-256", "SHA256"));
+        KeyPair p192 = certService.generateKeyPair(new KeyParameters("EC", 0, "secp192r1", "SHA256"));
+        try {
+            CertServiceImpl.checkKey(p192.getPublic(), keyParameters);
+            fail("Should reject a key on another curve");
+        } catch (CertException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIssuerSignatureAlgorithm() throws Exception {
+        RootService root = ((CertServiceImpl) certService).getRootService();
+        root.setRootSignatureAlgorithm("SHA512withRSA");
+        X509Certificate cert = certService.getCertificate(generateUserKeystore(),
+                getAliasId(getUserInfo(), AliasType.CERT));
+        cert.verify(certService.getRootCertificate().getPublicKey());
+        assertEquals("SHA512WITHRSA", cert.getSigAlgName().toUpperCase());
+
+        // not usable with the RSA root key
+        root.setRootSignatureAlgorithm("SHA256withECDSA");
+        cert = certService.getCertificate(generateUserKeystore(), getAliasId(getUserInfo(), AliasType.CERT));
+        cert.verify(certService.getRootCertificate().getPublicKey());
+        assertEquals("SHA256WITHRSA", cert.getSigAlgName().toUpperCase());
+    }
+
+    @Test
+    public void testReissueCertificate() throws Exception {
+        CertServiceImpl impl = (CertServiceImpl) certService;
+        ValidityDescriptor validity = impl.getValidity();
+        X509Certificate cert = certService.getCertificate(generateUserKeystore(),
+                getAliasId(getUserInfo(), AliasType.CERT));
+        // a year, shortened by up to 30 days
+        long days = (cert.getNotAfter().getTime() - cert.getNotBefore().getTime()) / (24 * 3600 * 1000L);
+        assertTrue("Validity: " + days, days >= 334 && days <= 367);
+
+        ValidityDescriptor twoMonths = new ValidityDescriptor();
+        twoMonths.setMonths(2);
+        twoMonths.setJitterDays(0);
+        impl.setValidity(twoMonths);
+        try {
+            X509Certificate reissued = certService.reissueCertificate(getUserInfo(), cert.getPublicKey());
+            assertEquals(cert.getPublicKey(), reissued.getPublicKey());
+            assertEquals(cert.getSubjectX500Principal(), reissued.getSubjectX500Principal());
+            assertEquals(certService.getCertificateEmail(cert), certService.getCertificateEmail(reissued));
+            assertFalse(cert.getSerialNumber().equals(reissued.getSerialNumber()));
+            reissued.verify(certService.getRootCertificate().getPublicKey());
+            days = (reissued.getNotAfter().getTime() - reissued.getNotBefore().getTime()) / (24 * 3600 * 1000L);
+            assertTrue("Validity: " + days, days >= 58 && days <= 63);
+        } finally {
+            impl.setValidity(validity);
+        }
+    }
+
+    @Test
+    public void testRootReload() throws Exception {
+        File file = File.createTempFile("root", ".jks");
+        try {
+            FileUtils.copy(FileUtils.getResourceFileFromContext(KEYSTORE_PATH), file);
+            long lastModified = file.lastModified();
+            RootServiceImpl rootService = new RootServiceImpl();
+            AliasWrapper alias = new AliasWrapper(ROOT_USER_ID);
+            rootService.setRootKeyAlias(alias.getId(AliasType.KEY));
+            rootService.setRootCertificateAlias(alias.getId(AliasType.CERT));
+            rootService.setRootKeyPassword(ROOT_KEY_PASSWORD);
+            rootService.setRootKeystorePassword(ROOT_KEYSTORE_PASSWORD);
+            rootService.setRootKeystoreFilePath(file.getPath());
+            rootService.setRootKeyStore(certService.getKeyStore(new FileInputStream(file), ROOT_KEYSTORE_PASSWORD));
+            rootService.reloadInterval = 1;
+
+            RootSnapshot snapshot = rootService.getRootSnapshot();
+            assertArrayEquals(snapshot.getCertificate().getEncoded(), rootService.getRootPublicCertificate());
+            String pem = new String(rootService.getRootPublicCertificatePEM(), "US-ASCII");
+            assertTrue(pem, pem.startsWith("-----BEGIN CERTIFICATE-----\n"));
+            Thread.sleep(10);
+            assertSame(snapshot, rootService.getRootSnapshot());
+
+            // a keystore being written is not picked up
+            FileUtils.writeFile(file, "partial");
+            file.setLastModified(lastModified + 2000);
+            Thread.sleep(10);
+            assertSame(snapshot, rootService.getRootSnapshot());
+
+            FileUtils.copy(FileUtils.getResourceFileFromContext(KEYSTORE_PATH), file);
+            file.setLastModified(lastModified + 4000);
+            Thread.sleep(10);
+            RootSnapshot reloaded = rootService.getRootSnapshot();
+            assertNotSame(snapshot, reloaded);
+            assertEquals(snapshot.getFingerprint(), reloaded.getFingerprint());
+            assertSame(reloaded.getKeyEntry(), rootService.getRootKeyEntry());
+            assertSame(reloaded.getKeyStore(), rootService.getRootKeyStore());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLazyRootLoading() throws Exception {
+        RootServiceImpl rootService = new RootServiceImpl();
+        rootService.activate(null);
+        RootDescriptor descriptor = new RootDescriptor();
+        AliasWrapper alias = new AliasWrapper(ROOT_USER_ID);
+        descriptor.setRootKeystoreFilePath(KEYSTORE_PATH);
+        descriptor.setRootKeystorePassword(ROOT_KEYSTORE_PASSWORD);
+        descriptor.setRootKeyAlias(alias.getId(AliasType.KEY));
+        descriptor.setRootCertificateAlias(alias.getId(AliasType.CERT));
+        descriptor.setRootKeyPassword(ROOT_KEY_PASSWORD);
+        rootService.registerContribution(descriptor, "rootconfig", null);
+        assertTrue(rootService.isRootSetup());
+        // nothing read yet
+        assertNull(rootService.snapshot.get());
+
+        assertNotNull(rootService.getRootKeyEntry().getPrivateKey());
+        assertNotNull(rootService.snapshot.get());
+        assertNotNull(rootService.getRootKeyStore());
+    }
+
+    @Test
+    public void testIntermediateIssuers() throws Exception {
+        RootServiceImpl rootService = createRootService();
+        X509Certificate root = (X509Certificate) rootService.getRootKeyEntry().getCertificate();
+        // without intermediates the root issues
+        assertSame(rootService.getRootKeyEntry(), rootService.getIssuerKeyEntry());
+
+        File file1 = File.createTempFile("intermediate", ".jks");
+        File file2 = File.createTempFile("intermediate", ".jks");
+        try {
+            X509Certificate intermediate1 = createIntermediate(rootService, "CN=Intermediate 1", file1);
+            X509Certificate intermediate2 = createIntermediate(rootService, "CN=Intermediate 2", file2);
+            certService.setRootService(rootService);
+
+            X509Certificate cert1 = certService.getCertificate(generateUserKeystore(),
+                    getAliasId(getUserInfo(), AliasType.CERT));
+            X509Certificate cert2 = certService.getCertificate(generateUserKeystore(),
+                    getAliasId(getUserInfo(), AliasType.CERT));
+            // issued in turn
+            cert1.verify(intermediate1.getPublicKey());
+            assertEquals(intermediate1.getSubjectX500Principal(), cert1.getIssuerX500Principal());
+            cert2.verify(intermediate2.getPublicKey());
+
+            X509Certificate[] chain = rootService.getIssuerChain(cert1);
+            assertEquals(2, chain.length);
+            assertEquals(intermediate1, chain[0]);
+            assertEquals(root, chain[1]);
+            // built once per issuer
+            assertSame(chain, rootService.getIssuerChain(cert1));
+            assertSame(rootService.getEncodedIssuerChain(cert2), rootService.getEncodedIssuerChain(cert2));
+            assertEquals(intermediate2, rootService.getIssuerChain(cert2)[0]);
+        } finally {
+            file1.delete();
+            file2.delete();
+        }
+    }
+
+    @Test
+    public void testTrustIndex() throws Exception {
+        RootServiceImpl rootService = createRootService();
+        X509Certificate root = (X509Certificate) rootService.getRootKeyEntry().getCertificate();
+        File file = File.createTempFile("intermediate", ".jks");
+        try {
+            X509Certificate intermediate = createIntermediate(rootService, "CN=Intermediate", file);
+            certService.setRootService(rootService);
+            X509Certificate cert = certService.getCertificate(generateUserKeystore(),
+                    getAliasId(getUserInfo(), AliasType.CERT));
+
+            TrustIndex index = TrustIndex.create(Arrays.asList(intermediate, root), 10, null);
+            assertEquals(intermediate, index.findIssuer(cert));
+            X509Certificate[] path = index.getPath(cert);
+            assertArrayEquals(new X509Certificate[] { cert, intermediate, root }, path);
+            assertSame(path, index.getPath(cert));
+            assertEquals(1, index.getCachedPathCount());
+            assertArrayEquals(new X509Certificate[] { root }, index.getPath(root));
+
+            // an intermediate CA alone is not trusted
+            index = TrustIndex.create(Arrays.asList(intermediate), 10, null);
+            assertEquals(intermediate, index.findIssuer(cert));
+            assertNull(index.getPath(cert));
+            assertNull(index.getPath(cert));
+            assertNull(TrustIndex.create(Arrays.asList(root), 10, null).getPath(cert));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTenantRoots() throws Exception {
+        RootServiceImpl rootService = createRootService();
+        RootDescriptor descriptor = new RootDescriptor();
+        AliasWrapper alias = new AliasWrapper(ROOT_USER_ID);
+        descriptor.setTenant("acme");
+        descriptor.setRootKeystoreFilePath(KEYSTORE_PATH);
+        descriptor.setRootKeystorePassword(ROOT_KEYSTORE_PASSWORD);
+        descriptor.setRootKeyAlias(alias.getId(AliasType.KEY));
+        descriptor.setRootCertificateAlias(alias.getId(AliasType.CERT));
+        descriptor.setRootKeyPassword(ROOT_KEY_PASSWORD);
+        rootService.registerContribution(descriptor, "rootconfig", null);
+
+        assertEquals(Collections.singleton("acme"), rootService.getTenants());
+        RootServiceImpl acme = (RootServiceImpl) rootService.getTenantRoot("acme");
+        assertNotSame(rootService, acme);
+        assertEquals("acme", acme.getTenant());
+        assertSame(rootService, rootService.getTenantRoot(null));
+        assertSame(rootService, rootService.getTenantRoot("other"));
+        // own key material
+        assertNotSame(rootService.getRootKeyEntry(), acme.getRootKeyEntry());
+        assertEquals(2, rootService.getAllIssuerChains().size());
+
+        certService.setRootService(rootService);
+        long acmeIssued = acme.getIssuedCount();
+        long defaultIssued = rootService.getIssuedCount();
+        UserInfo userInfo = getUserInfo();
+        userInfo.setTenant("acme");
+        certService.initializeUser(userInfo, USER_KEYSTORE_PASSWORD);
+        assertEquals(acmeIssued + 1, acme.getIssuedCount());
+        assertEquals(defaultIssued, rootService.getIssuedCount());
+    }
+
+    protected RootServiceImpl createRootService() throws Exception {
+        RootServiceImpl rootService = new RootServiceImpl();
+        rootService.activate(null);
+        AliasWrapper alias = new AliasWrapper(ROOT_USER_ID);
+        rootService.setRootKeyAlias(alias.getId(AliasType.KEY));
+        rootService.setRootCertificateAlias(alias.getId(AliasType.CERT));
+        rootService.setRootKeyPassword(ROOT_KEY_PASSWORD);
+        rootService.setRootKeyStore(certService.getKeyStore(getKeystoreIS(KEYSTORE_PATH), ROOT_KEYSTORE_PASSWORD));
+        rootService.setRootKeystorePassword(ROOT_KEYSTORE_PASSWORD);
+        return rootService;
+    }
+
+    protected X509Certificate createIntermediate(RootServiceImpl rootService, String name, File file)
+            throws Exception {
+        KeyStore.PrivateKeyEntry rootKeyEntry = rootService.getRootKeyEntry();
+        X509Certificate root = (X509Certificate) rootKeyEntry.getCertificate();
+        KeyPair keyPair = certService.generateKeyPair(new KeyParameters("RSA", 1024, null, "SHA-256"));
+        X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+        certGen.setSerialNumber(BigInteger.valueOf(System.nanoTime()));
+        certGen.setIssuerDN(root.getSubjectX500Principal());
+        certGen.setSubjectDN(new X500Principal(name));
+        certGen.setNotBefore(new Date(System.currentTimeMillis() - 60000));
+        certGen.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+        certGen.setPublicKey(keyPair.getPublic());
+        certGen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+        certGen.addExtension(X509Extensions.SubjectKeyIdentifier, false, new SubjectKeyIdentifierStructure(
+                keyPair.getPublic()));
+        certGen.addExtension(X509Extensions.AuthorityKeyIdentifier, false, new AuthorityKeyIdentifierStructure(root));
+        certGen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(0));
+        X509Certificate certificate = certGen.generate(rootKeyEntry.getPrivateKey(), BouncyCastle.PROVIDER);
+
+        KeyStore keystore = KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("key", keyPair.getPrivate(), ROOT_KEY_PASSWORD.toCharArray(), new Certificate[] {
+                certificate, root });
+        keystore.setCertificateEntry("cert", certificate);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            keystore.store(out, ROOT_KEYSTORE_PASSWORD.toCharArray());
+        } finally {
+            out.close();
+        }
+        IntermediateDescriptor descriptor = new IntermediateDescriptor();
+        descriptor.setId(name);
+        descriptor.setKeystoreFilePath(file.getPath());
+        descriptor.setKeystorePassword(ROOT_KEYSTORE_PASSWORD);
+        descriptor.setKeyAlias("key");
+        descriptor.setCertificateAlias("cert");
+        descriptor.setKeyPassword(ROOT_KEY_PASSWORD);
+        rootService.registerContribution(descriptor, "intermediate", null);
+        return certificate;
+    }
+
     protected KeyStore generateUserKeystore() throws Exception {
         KeyStore keystore = certService.initializeUser(getUserInfo(), USER_KEYSTORE_PASSWORD);
         return keystore;
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+
+/**
+ * Compares key generation, signing and verification cost of the supported user key algorithms.
+ * <p>
+ * Skipped unless run with {@code -Dsignature.benchmark=true}.
+ *
+ * @since 7.3
+ */
+public class KeyAlgorithmBenchmark {
+
+    private static final Log log = LogFactory.getLog(KeyAlgorithmBenchmark.class);
+
+    private static final int KEYGEN_ITERATIONS = 10;
+
+    private static final int SIGN_ITERATIONS = 200;
+
+    private static final byte[] DATA = new byte[4096];
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("signature.benchmark"));
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @Test
+    public void benchmarkKeyAlgorithms() throws Exception {
+        List<KeyParameters> candidates = Arrays.asList( //
+                new KeyParameters(KeyParameters.RSA, 1024, null, "SHA256"), //
+                new KeyParameters(KeyParameters.RSA, 2048, null, "SHA256"), //
+                new KeyParameters(KeyParameters.RSA, 3072, null, "SHA256"), //
+                new KeyParameters(KeyParameters.EC, 0, "secp256r1", "SHA256"), //
+                new KeyParameters(KeyParameters.EC, 0, "secp384r1", "SHA384"));
+        CertServiceImpl certService = new CertServiceImpl();
+        for (KeyParameters keyParameters : candidates) {
+            KeyPair keyPair = null;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < KEYGEN_ITERATIONS; i++) {
+                keyPair = certService.generateKeyPair(keyParameters);
+            }
+            long keygen = (System.nanoTime() - t0) / KEYGEN_ITERATIONS;
+
+            Signature signer = Signature.getInstance(keyParameters.getSignatureAlgorithm(), "BC");
+            byte[] signature = null;
+            t0 = System.nanoTime();
+            for (int i = 0; i < SIGN_ITERATIONS; i++) {
+                signer.initSign(keyPair.getPrivate());
+                signer.update(DATA);
+                signature = signer.sign();
+            }
+            long sign = (System.nanoTime() - t0) / SIGN_ITERATIONS;
+
+            Signature verifier = Signature.getInstance(keyParameters.getSignatureAlgorithm(), "BC");
+            boolean verified = true;
+            t0 = System.nanoTime();
+            for (int i = 0; i < SIGN_ITERATIONS; i++) {
+                verifier.initVerify(keyPair.getPublic());
+                verifier.update(DATA);
+                verified &= verifier.verify(signature);
+            }
+            long verify = (System.nanoTime() - t0) / SIGN_ITERATIONS;
+            assertTrue(verified);
+
+            log.info(String.format("%s: keygen %d us, sign %d us, verify %d us, signature %d bytes", keyParameters,
+                    keygen / 1000, sign / 1000, verify / 1000, signature.length));
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPReqGenerator;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.SingleResp;
+import org.bouncycastle.ocsp.UnknownStatus;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
+import org.nuxeo.ecm.platform.signature.api.pki.OCSPService;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
+import org.nuxeo.ecm.platform.signature.api.user.AliasType;
+import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, user = "Administrator")
+@Deploy({ "org.nuxeo.ecm.core", "org.nuxeo.ecm.core.api", "org.nuxeo.runtime.management",
+        "org.nuxeo.ecm.directory.api", "org.nuxeo.ecm.directory", "org.nuxeo.ecm.directory.sql",
+        "org.nuxeo.ecm.platform.usermanager", "org.nuxeo.ecm.platform.usermanager.api",
+        "org.nuxeo.ecm.platform.signature.core", "org.nuxeo.ecm.platform.signature.core.test" })
+public class OCSPServiceTest {
+
+    private static final String USER_KEYSTORE_PASSWORD = "abc";
+
+    @Inject
+    protected OCSPService ocspService;
+
+    @Inject
+    protected RevocationService revocationService;
+
+    @Inject
+    protected CUserService cUserService;
+
+    @Inject
+    protected CertService certService;
+
+    @Inject
+    protected UserManager userManager;
+
+    @Test
+    public void testGoodThenRevoked() throws Exception {
+        X509Certificate certificate = createUserCertificate("ocspuser1");
+        X509Certificate root = certService.getRootCertificate();
+        byte[] request = getRequest(new CertificateID(CertificateID.HASH_SHA1, root, certificate.getSerialNumber()));
+
+        byte[] response = ocspService.getResponse(request);
+        SingleResp singleResp = getSingleResponse(response, root);
+        assertNull(singleResp.getCertStatus()); // good
+        assertEquals(certificate.getSerialNumber(), singleResp.getCertID().getSerialNumber());
+        assertTrue(singleResp.getNextUpdate().after(singleResp.getThisUpdate()));
+        // served from the cache
+        assertArrayEquals(response, ocspService.getResponse(request));
+        assertArrayEquals(response, ocspService.getResponse(certificate));
+
+        // revocation is visible immediately
+        revocationService.revokeCertificate(certificate, "ocspuser1");
+        singleResp = getSingleResponse(ocspService.getResponse(request), root);
+        assertTrue(singleResp.getCertStatus() instanceof RevokedStatus);
+    }
+
+    @Test
+    public void testUnknownIssuer() throws Exception {
+        X509Certificate certificate = createUserCertificate("ocspuser2");
+        X509Certificate root = certService.getRootCertificate();
+        // a user certificate is not an issuer
+        byte[] request = getRequest(new CertificateID(CertificateID.HASH_SHA1, certificate, BigInteger.TEN));
+        SingleResp singleResp = getSingleResponse(ocspService.getResponse(request), root);
+        assertTrue(singleResp.getCertStatus() instanceof UnknownStatus);
+    }
+
+    @Test
+    public void testIntermediateIssuerRevoked() throws Exception {
+        RootServiceImpl rootService = (RootServiceImpl) Framework.getService(RootService.class);
+        File file = File.createTempFile("intermediate", ".jks");
+        IntermediateDescriptor descriptor = createIntermediate(rootService, file);
+        try {
+            X509Certificate certificate = createUserCertificate("ocspuser3");
+            X509Certificate intermediate = rootService.getIssuerChain(certificate)[0];
+            assertFalse(intermediate.equals(certService.getRootCertificate()));
+            byte[] request = getRequest(new CertificateID(CertificateID.HASH_SHA1, intermediate,
+                    certificate.getSerialNumber()));
+            // signed by the intermediate CA
+            assertNull(getSingleResponse(ocspService.getResponse(request), intermediate).getCertStatus());
+
+            revocationService.revokeCertificate(certificate, "ocspuser3");
+            SingleResp singleResp = getSingleResponse(ocspService.getResponse(request), intermediate);
+            assertTrue(singleResp.getCertStatus() instanceof RevokedStatus);
+            assertTrue(revocationService.isRevoked(certificate));
+            // listed by the CRL of the intermediate CA only
+            X509CRL crl = revocationService.getCRL(intermediate);
+            crl.verify(intermediate.getPublicKey());
+            assertTrue(crl.isRevoked(certificate));
+            assertFalse(revocationService.getCRL().isRevoked(certificate));
+        } finally {
+            rootService.unregisterContribution(descriptor, "intermediate", null);
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMalformedRequest() throws Exception {
+        OCSPResp resp = new OCSPResp(ocspService.getResponse(new byte[] { 1, 2, 3 }));
+        assertEquals(OCSPRespGenerator.MALFORMED_REQUEST, resp.getStatus());
+    }
+
+    protected byte[] getRequest(CertificateID certificateID) throws Exception {
+        OCSPReqGenerator reqGen = new OCSPReqGenerator();
+        reqGen.addRequest(certificateID);
+        return reqGen.generate().getEncoded();
+    }
+
+    protected SingleResp getSingleResponse(byte[] response, X509Certificate root) throws Exception {
+        OCSPResp resp = new OCSPResp(response);
+        assertEquals(OCSPRespGenerator.SUCCESSFUL, resp.getStatus());
+        BasicOCSPResp basicResp = (BasicOCSPResp) resp.getResponseObject();
+        assertTrue(basicResp.verify(root.getPublicKey(), "BC"));
+        assertEquals(1, basicResp.getResponses().length);
+        return basicResp.getResponses()[0];
+    }
+
+    protected IntermediateDescriptor createIntermediate(RootServiceImpl rootService, File file) throws Exception {
+        KeyStore.PrivateKeyEntry rootKeyEntry = rootService.getRootKeyEntry();
+        X509Certificate root = (X509Certificate) rootKeyEntry.getCertificate();
+        KeyPair keyPair = certService.generateKeyPair(new KeyParameters("RSA", 1024, null, "SHA-256"));
+        X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+        certGen.setSerialNumber(BigInteger.valueOf(System.nanoTime()));
+        certGen.setIssuerDN(root.getSubjectX500Principal());
+        certGen.setSubjectDN(new X500Principal("CN=OCSP Intermediate"));
+        certGen.setNotBefore(new Date(System.currentTimeMillis() - 60000));
+        certGen.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+        certGen.setPublicKey(keyPair.getPublic());
+        certGen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+        certGen.addExtension(X509Extensions.SubjectKeyIdentifier, false, new SubjectKeyIdentifierStructure(
+                keyPair.getPublic()));
+        certGen.addExtension(X509Extensions.AuthorityKeyIdentifier, false, new AuthorityKeyIdentifierStructure(root));
+        certGen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(0));
+        X509Certificate certificate = certGen.generate(rootKeyEntry.getPrivateKey(), BouncyCastle.PROVIDER);
+
+        KeyStore keystore = KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("key", keyPair.getPrivate(), USER_KEYSTORE_PASSWORD.toCharArray(), new Certificate[] {
+                certificate, root });
+        keystore.setCertificateEntry("cert", certificate);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            keystore.store(out, USER_KEYSTORE_PASSWORD.toCharArray());
+        } finally {
+            out.close();
+        }
+        IntermediateDescriptor descriptor = new IntermediateDescriptor();
+        descriptor.setId("ocsp");
+        descriptor.setKeystoreFilePath(file.getPath());
+        descriptor.setKeystorePassword(USER_KEYSTORE_PASSWORD);
+        descriptor.setKeyAlias("key");
+        descriptor.setCertificateAlias("cert");
+        descriptor.setKeyPassword(USER_KEYSTORE_PASSWORD);
+        rootService.registerContribution(descriptor, "intermediate", null);
+        return descriptor;
+    }
+
+    protected X509Certificate createUserCertificate(String userID) throws Exception {
+        DocumentModel userModel = userManager.getBareUserModel();
+        userModel.setProperty("user", "username", userID);
+        userModel.setProperty("user", "firstName", "Homer");
+        userModel.setProperty("user", "lastName", "Simpson");
+        userModel.setProperty("user", "email", userID + "@springfield.com");
+        userModel.setPathInfo("/", userID);
+        DocumentModel user = userManager.createUser(userModel);
+        cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        KeyStore keystore = cUserService.getUserKeystore(userID, USER_KEYSTORE_PASSWORD);
+        return certService.getCertificate(keystore, new AliasWrapper(userID).getId(AliasType.CERT));
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.pki;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+
+import javax.inject.Inject;
+
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.signature.api.pki.CertService;
+import org.nuxeo.ecm.platform.signature.api.pki.RevocationService;
+import org.nuxeo.ecm.platform.signature.api.pki.TrustStoreService;
+import org.nuxeo.ecm.platform.signature.api.user.AliasType;
+import org.nuxeo.ecm.platform.signature.api.user.AliasWrapper;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, user = "Administrator")
+@Deploy({ "org.nuxeo.ecm.core", "org.nuxeo.ecm.core.api", "org.nuxeo.runtime.management",
+        "org.nuxeo.ecm.directory.api", "org.nuxeo.ecm.directory", "org.nuxeo.ecm.directory.sql",
+        "org.nuxeo.ecm.platform.usermanager", "org.nuxeo.ecm.platform.usermanager.api",
+        "org.nuxeo.ecm.platform.signature.core", "org.nuxeo.ecm.platform.signature.core.test" })
+public class RevocationServiceTest {
+
+    private static final String USER_KEYSTORE_PASSWORD = "abc";
+
+    @Inject
+    protected RevocationService revocationService;
+
+    @Inject
+    protected CUserService cUserService;
+
+    @Inject
+    protected CertService certService;
+
+    @Inject
+    protected UserManager userManager;
+
+    @Inject
+    protected TrustStoreService trustStoreService;
+
+    @Test
+    public void testDeleteCertificateRevokes() throws Exception {
+        X509Certificate certificate = createUserCertificate("rvuser1");
+        assertFalse(revocationService.isRevoked(certificate));
+        assertTrue(trustStoreService.isTrusted(certificate));
+        int revoked = revocationService.getRevokedCount();
+
+        cUserService.deleteCertificate("rvuser1");
+        assertNull(cUserService.getCertificate("rvuser1"));
+        assertTrue(revocationService.isRevoked(certificate));
+        assertFalse(trustStoreService.isTrusted(certificate));
+        assertTrue(revocationService.isRevoked(certificate.getSerialNumber()));
+        assertNotNull(revocationService.getRevocationDate(certificate.getSerialNumber()));
+        assertEquals(revoked + 1, revocationService.getRevokedCount());
+
+        // the index is rebuilt from the directory
+        revocationService.reload();
+        assertTrue(revocationService.isRevoked(certificate));
+        assertEquals(revoked + 1, revocationService.getRevokedCount());
+    }
+
+    @Test
+    public void testCRL() throws Exception {
+        X509Certificate certificate1 = createUserCertificate("rvuser2");
+        X509Certificate certificate2 = createUserCertificate("rvuser3");
+        X509Certificate root = certService.getRootCertificate();
+
+        revocationService.revokeCertificate(certificate1, "rvuser2");
+        X509CRL crl = revocationService.getCRL();
+        crl.verify(root.getPublicKey());
+        assertTrue(crl.isRevoked(certificate1));
+        assertFalse(crl.isRevoked(certificate2));
+        assertNotNull(crl.getExtensionValue(X509Extensions.CRLNumber.getId()));
+        assertNull(crl.getExtensionValue(X509Extensions.DeltaCRLIndicator.getId()));
+        // not regenerated until it expires
+        assertSame(crl, revocationService.getCRL());
+
+        // later revocations go to the delta CRL
+        revocationService.revokeCertificate(certificate2, "rvuser3");
+        assertTrue(revocationService.isRevoked(certificate2));
+        X509CRL deltaCRL = revocationService.getDeltaCRL();
+        deltaCRL.verify(root.getPublicKey());
+        assertTrue(deltaCRL.isRevoked(certificate2));
+        assertFalse(deltaCRL.isRevoked(certificate1));
+        assertTrue(deltaCRL.getCriticalExtensionOIDs().contains(X509Extensions.DeltaCRLIndicator.getId()));
+        assertSame(deltaCRL, revocationService.getDeltaCRL());
+    }
+
+    @Test
+    public void testRevocationReachesOtherNodes() throws Exception {
+        X509Certificate certificate = createUserCertificate("rvuser4");
+        // another node, reached through the local invalidation bus
+        RevocationServiceImpl otherNode = new RevocationServiceImpl();
+        otherNode.applicationStarted(null);
+        try {
+            assertFalse(otherNode.isRevoked(certificate));
+            revocationService.revokeCertificate(certificate, "rvuser4");
+            if (TransactionHelper.isTransactionActive()) {
+                // published once committed, when the other node can read it
+                assertFalse(otherNode.isRevoked(certificate));
+                TransactionHelper.commitOrRollbackTransaction();
+                TransactionHelper.startTransaction();
+            }
+            assertTrue(otherNode.isRevoked(certificate));
+        } finally {
+            otherNode.deactivate(null);
+        }
+    }
+
+    @Test
+    public void testRevokedSerialSet() throws Exception {
+        RevokedSerialSet set = new RevokedSerialSet();
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.add(BigInteger.valueOf(base + 2 * i)));
+        }
+        assertFalse(set.add(BigInteger.valueOf(base)));
+        assertTrue(set.add(BigInteger.ZERO));
+        BigInteger large = BigInteger.ONE.shiftLeft(100);
+        assertTrue(set.add(large));
+        // 64 bits, stored as a negative long
+        BigInteger serial64 = BigInteger.ONE.shiftLeft(63).add(BigInteger.TEN);
+        assertTrue(set.add(serial64));
+        assertFalse(set.contains(BigInteger.valueOf(Long.MIN_VALUE + 10)));
+        assertEquals(10003, set.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.contains(BigInteger.valueOf(base + 2 * i)));
+            assertFalse(set.contains(BigInteger.valueOf(base + 2 * i + 1)));
+        }
+        assertTrue(set.contains(BigInteger.ZERO));
+        assertTrue(set.contains(large));
+        assertTrue(set.contains(serial64));
+        assertFalse(set.contains(large.add(BigInteger.ONE)));
+    }
+
+    protected X509Certificate createUserCertificate(String userID) throws Exception {
+        DocumentModel userModel = userManager.getBareUserModel();
+        userModel.setProperty("user", "username", userID);
+        userModel.setProperty("user", "firstName", "Homer");
+        userModel.setProperty("user", "lastName", "Simpson");
+        userModel.setProperty("user", "email", userID + "@springfield.com");
+        userModel.setPathInfo("/", userID);
+        DocumentModel user = userManager.createUser(userModel);
+        DocumentModel certificate = cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        assertNotNull(certificate.getPropertyValue("cert:serialnumber"));
+        KeyStore keystore = cUserService.getUserKeystore(userID, USER_KEYSTORE_PASSWORD);
+        return certService.getCertificate(keystore, new AliasWrapper(userID).getId(AliasType.CERT));
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.sign;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
+import org.nuxeo.ecm.platform.signature.api.sign.SignatureService;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * Compares the throughput of seal signatures with user signatures, which unlock the user key for each signature.
+ * <p>
+ * Skipped unless run with {@code -Dsignature.benchmark=true}.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@Deploy({ "org.nuxeo.runtime.management", //
+        "org.nuxeo.ecm.directory", //
+        "org.nuxeo.ecm.directory.sql", //
+        "org.nuxeo.ecm.platform.usermanager", //
+        "org.nuxeo.ecm.platform.usermanager.api", //
+        "org.nuxeo.ecm.platform.convert", //
+        "org.nuxeo.ecm.platform.signature.core", //
+        "org.nuxeo.ecm.platform.signature.core.test" })
+public class SealBenchmark {
+
+    private static final Log log = LogFactory.getLog(SealBenchmark.class);
+
+    private static final int THREADS = 4;
+
+    private static final int SIGNATURES = 400;
+
+    private static final String USER_ID = "hSimpson";
+
+    private static final String USER_KEY_PASSWORD = "abc";
+
+    @Inject
+    protected CUserService cUserService;
+
+    @Inject
+    protected SignatureService signatureService;
+
+    @Inject
+    protected UserManager userManager;
+
+    @Inject
+    protected DirectoryService directoryService;
+
+    protected DocumentModel user;
+
+    protected SealDescriptor descriptor;
+
+    protected File pdfFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("signature.benchmark"));
+        DocumentModel userModel = userManager.getBareUserModel();
+        userModel.setProperty("user", "username", USER_ID);
+        userModel.setProperty("user", "firstName", "Homer");
+        userModel.setProperty("user", "lastName", "Simpson");
+        userModel.setProperty("user", "email", "hsimpson@springfield.com");
+        user = userManager.createUser(userModel);
+        cUserService.createCertificate(user, USER_KEY_PASSWORD);
+
+        descriptor = new SealDescriptor();
+        descriptor.setId("benchmark");
+        descriptor.setKeystoreFilePath("test-config/keystore.jks");
+        descriptor.setKeystorePassword("abc");
+        descriptor.setKeyAlias("pdfcakey");
+        descriptor.setCertificateAlias("pdfcacert");
+        descriptor.setKeyPassword("abc");
+        descriptor.setReason("benchmark");
+        descriptor.setPoolSize(THREADS);
+        ((SignatureServiceImpl) signatureService).registerContribution(descriptor, "seal", null);
+
+        pdfFile = FileUtils.getResourceFileFromContext("pdf-tests/original.pdf");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (user == null) {
+            return;
+        }
+        ((SignatureServiceImpl) signatureService).unregisterContribution(descriptor, "seal", null);
+        Session sqlSession = directoryService.open("certificate");
+        try {
+            sqlSession.deleteEntry(USER_ID);
+        } finally {
+            sqlSession.close();
+        }
+        userManager.deleteUser(USER_ID);
+    }
+
+    @Test
+    public void benchmarkSeal() throws Exception {
+        // once each to load classes and keys
+        Callable<Blob> userSignature = new Callable<Blob>() {
+            @Override
+            public Blob call() throws Exception {
+                return signatureService.signPDF(Blobs.createBlob(pdfFile), user, USER_KEY_PASSWORD, "benchmark");
+            }
+        };
+        Callable<Blob> sealSignature = new Callable<Blob>() {
+            @Override
+            public Blob call() throws Exception {
+                return signatureService.sealPDF(Blobs.createBlob(pdfFile), "benchmark", null);
+            }
+        };
+        userSignature.call();
+        sealSignature.call();
+
+        double userRate = run(userSignature);
+        double sealRate = run(sealSignature);
+        log.info(String.format("%d signatures on %d threads: user %.1f/s, seal %.1f/s (x%.1f)", SIGNATURES, THREADS,
+                userRate, sealRate, sealRate / userRate));
+    }
+
+    /**
+     * @return the signatures per second
+     */
+    protected double run(Callable<Blob> signature) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Blob>> tasks = new ArrayList<Callable<Blob>>();
+            for (int i = 0; i < SIGNATURES; i++) {
+                tasks.add(signature);
+            }
+            long t0 = System.nanoTime();
+            List<Future<Blob>> results = executor.invokeAll(tasks);
+            long elapsed = System.nanoTime() - t0;
+            int signed = 0;
+            for (Future<Blob> result : results) {
+                if (result.get() != null) {
+                    signed++;
+                }
+            }
+            assertEquals(SIGNATURES, signed);
+            return SIGNATURES * 1e9 / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -17,6 +17,7 @@
  */
 package org.nuxeo.ecm.platform.signature.core.sign;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -30,6 +31,7 @@ import static org.nuxeo.ecm.platform.signature.api.sign.SignatureService.StatusW
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,6 +41,12 @@ import java.util.Map;
 
 import javax.inject.Inject;
 
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.cms.SignerInfo;
+import org.bouncycastle.asn1.tsp.TSTInfo;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,15 +63,25 @@ import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.directory.Session;
 import org.nuxeo.ecm.directory.api.DirectoryService;
 import org.nuxeo.ecm.platform.signature.api.exception.AlreadySignedException;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.pki.KeyParameters;
 import org.nuxeo.ecm.platform.signature.api.sign.SignatureService;
 import org.nuxeo.ecm.platform.signature.api.sign.SignatureService.SigningDisposition;
 import org.nuxeo.ecm.platform.signature.api.sign.SignatureService.StatusWithBlob;
 import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.tsa.LocalTimestampAuthority;
+import org.nuxeo.ecm.platform.signature.core.tsa.TimestampFailurePolicy;
+import org.nuxeo.ecm.platform.signature.core.tsa.TimestampTokens;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
 import org.nuxeo.ecm.platform.usermanager.UserManager;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
+import com.lowagie.text.pdf.AcroFields;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfPKCS7;
 import com.lowagie.text.pdf.PdfReader;
 
 @RunWith(FeaturesRunner.class)
@@ -108,6 +126,8 @@ public class SignatureServiceTest {
 
     private static final String SECOND_USER_ID = "mSimpson";
 
+    private static final String EC_USER_ID = "bSimpson";
+
     private File origPdfFile;
 
     private File signedPdfFile;
@@ -198,6 +218,215 @@ public class SignatureServiceTest {
         assertEquals(Arrays.asList("Signature2", "Signature1"), names);
     }
 
+    @Test
+    public void testSigningStatusRevoked() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        Blob signedBlob = signatureService.signPDF(Blobs.createBlob(origPdfFile), user, USER_KEY_PASSWORD,
+                "test reason");
+        assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlob, user));
+
+        // deleting the certificate revokes it, the user may sign again with a new one
+        cUserService.deleteCertificate(DEFAULT_USER_ID);
+        cUserService.createCertificate(user, USER_KEY_PASSWORD);
+        assertEquals(SIGNED_OTHER, ssi.getSigningStatus(signedBlob, user));
+        Blob signedBlobTwice = signatureService.signPDF(signedBlob, user, USER_KEY_PASSWORD, "test reason");
+        assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlobTwice, user));
+    }
+
+    @Test
+    public void testSignPDFWithECKey() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        CUserServiceImpl cusi = (CUserServiceImpl) cUserService;
+        KeyParameters keyParameters = cusi.getKeyParameters();
+        DocumentModel userModel = userManager.getBareUserModel();
+        userModel.setProperty("user", "username", EC_USER_ID);
+        userModel.setProperty("user", "firstName", "Bart");
+        userModel.setProperty("user", "lastName", "Simpson");
+        userModel.setProperty("user", "email", "bsimpson@springfield.com");
+        userModel.setPathInfo("/", EC_USER_ID);
+        DocumentModel ecUser = userManager.createUser(userModel);
+        try {
+            cusi.setKeyParameters(new KeyParameters(KeyParameters.EC, 0, "secp256r1", "SHA256"));
+            assertNotNull(cUserService.createCertificate(ecUser, USER_KEY_PASSWORD));
+
+            // EC signature, then RSA signature on top of it
+            Blob signedBlob = signatureService.signPDF(Blobs.createBlob(origPdfFile), ecUser, USER_KEY_PASSWORD,
+                    "test reason");
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlob, ecUser));
+            assertEquals(SIGNED_OTHER, ssi.getSigningStatus(signedBlob, user));
+            cusi.setKeyParameters(keyParameters);
+            Blob signedBlobTwice = signatureService.signPDF(signedBlob, user, USER_KEY_PASSWORD, "test reason");
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlobTwice, ecUser));
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlobTwice, user));
+            assertEquals(Arrays.asList("Signature2", "Signature1"), getSignatureNames(signedBlobTwice));
+        } finally {
+            cusi.setKeyParameters(keyParameters);
+            Session sqlSession = directoryService.open(CERTIFICATE_DIRECTORY_NAME);
+            sqlSession.deleteEntry(EC_USER_ID);
+            sqlSession.close();
+            userManager.deleteUser(EC_USER_ID);
+        }
+    }
+
+    @Test
+    public void testSignPDFWithRevocationData() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        SignatureDescriptor descriptor = new SignatureDescriptor();
+        descriptor.setEmbedRevocationData(Boolean.TRUE);
+        ssi.registerContribution(descriptor, "signature", null);
+        try {
+            int cached = ssi.revocationDataCache.size();
+            Blob signedBlob = signatureService.signPDF(Blobs.createBlob(origPdfFile), user, USER_KEY_PASSWORD,
+                    "test reason");
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlob, user));
+            // a second document signed by the same user reuses the revocation data
+            Blob signedBlob2 = signatureService.signPDF(Blobs.createBlob(origPdfFile), user, USER_KEY_PASSWORD,
+                    "test reason");
+            assertEquals(cached + 1, ssi.revocationDataCache.size());
+
+            for (Blob blob : Arrays.asList(signedBlob, signedBlob2)) {
+                PdfReader reader = new PdfReader(blob.getStream());
+                try {
+                    AcroFields acroFields = reader.getAcroFields();
+                    PdfPKCS7 pkcs7 = acroFields.verifySignature("Signature1");
+                    assertTrue(pkcs7.verify());
+                    assertNotNull(pkcs7.getOcsp());
+                    assertEquals(2, pkcs7.getCertificates().length);
+                    byte[] contents = acroFields.getSignatureDictionary("Signature1").getAsString(PdfName.CONTENTS)
+                                                .getOriginalBytes();
+                    ContentInfo contentInfo = ContentInfo.getInstance(new ASN1InputStream(contents).readObject());
+                    SignedData signedData = SignedData.getInstance(contentInfo.getContent());
+                    SignerInfo signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+                    AttributeTable attributes = new AttributeTable(signerInfo.getAuthenticatedAttributes());
+                    assertNotNull(attributes.get(CMSSignedDataBuilder.ID_ADBE_REVOCATION));
+                } finally {
+                    reader.close();
+                }
+            }
+        } finally {
+            ssi.unregisterContribution(descriptor, "signature", null);
+        }
+    }
+
+    @Test
+    public void testSignPDFWithTimestamp() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        TimestampDescriptor descriptor = new TimestampDescriptor();
+        descriptor.setFailurePolicy(TimestampFailurePolicy.FAIL);
+        ssi.registerContribution(descriptor, "timestamp", null);
+        LocalTimestampAuthority tsa = new LocalTimestampAuthority();
+        ssi.setTimestampClient(tsa);
+        try {
+            Blob signedBlob = signatureService.signPDF(Blobs.createBlob(origPdfFile), user, USER_KEY_PASSWORD,
+                    "test reason");
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlob, user));
+            assertEquals(1, tsa.getIssuedCount());
+            assertTimestamped(getSignatureContents(signedBlob, "Signature1"));
+
+            // failures are not hidden with this policy
+            tsa.setAvailable(false);
+            try {
+                signatureService.signPDF(Blobs.createBlob(origPdfFile), user, USER_KEY_PASSWORD, "test reason");
+                fail("Should fail without timestamp");
+            } catch (SignException e) {
+                // ok
+            }
+        } finally {
+            ssi.unregisterContribution(descriptor, "timestamp", null);
+        }
+    }
+
+    @Test
+    public void testSignDocumentWithTimestampRetry() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        TimestampDescriptor descriptor = new TimestampDescriptor();
+        descriptor.setFailurePolicy(TimestampFailurePolicy.RETRY);
+        descriptor.setOpenDuration(0);
+        ssi.registerContribution(descriptor, "timestamp", null);
+        LocalTimestampAuthority tsa = new LocalTimestampAuthority();
+        tsa.setAvailable(false);
+        ssi.setTimestampClient(tsa);
+        try {
+            DocumentModel doc = session.createDocumentModel("/", "timestamped", "File");
+            doc.setPropertyValue("file:content",
+                    (Serializable) Blobs.createBlob(origPdfFile, "application/pdf", null, "foo.pdf"));
+            doc = session.createDocument(doc);
+
+            // the TSA is down, the document is signed anyway
+            Blob signedBlob = signatureService.signDocument(doc, user, USER_KEY_PASSWORD, "test", false,
+                    SigningDisposition.REPLACE, null);
+            assertNull(CMSSignedDataBuilder.getTimestampToken(getSignatureContents(signedBlob, "Signature1")));
+            session.saveDocument(doc);
+            session.save();
+            assertEquals(1, ssi.getPendingTimestampCount());
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+
+            // the TSA is back
+            tsa.setAvailable(true);
+            ssi.retryPendingTimestamps();
+            assertEquals(0, ssi.getPendingTimestampCount());
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+
+            doc = session.getDocument(doc.getRef());
+            Blob timestampedBlob = (Blob) doc.getPropertyValue("file:content");
+            assertEquals("foo.pdf", timestampedBlob.getFilename());
+            assertEquals(Arrays.asList("Signature1"), getSignatureNames(timestampedBlob));
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(timestampedBlob, user));
+            assertTimestamped(getSignatureContents(timestampedBlob, "Signature1"));
+            PdfReader reader = new PdfReader(timestampedBlob.getStream());
+            try {
+                assertTrue(reader.getAcroFields().signatureCoversWholeDocument("Signature1"));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            ssi.unregisterContribution(descriptor, "timestamp", null);
+        }
+    }
+
+    @Test
+    public void testTimestampRetryPostponed() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        TimestampDescriptor descriptor = new TimestampDescriptor();
+        descriptor.setFailurePolicy(TimestampFailurePolicy.RETRY);
+        ssi.registerContribution(descriptor, "timestamp", null);
+        ssi.setTimestampClient(new LocalTimestampAuthority());
+        try {
+            // the signed blob is not visible yet, as if the signing transaction was not committed
+            DocumentModel doc = session.createDocumentModel("/", "pending", "File");
+            doc = session.createDocument(doc);
+            ssi.addTimestampRetry(doc, "file:content");
+            ssi.retryPendingTimestamps();
+            assertEquals(1, ssi.getPendingTimestampCount());
+        } finally {
+            ssi.unregisterContribution(descriptor, "timestamp", null);
+        }
+    }
+
+    protected void assertTimestamped(byte[] contents) throws Exception {
+        byte[] token = CMSSignedDataBuilder.getTimestampToken(contents);
+        assertNotNull(token);
+        ContentInfo contentInfo = ContentInfo.getInstance(new ASN1InputStream(contents).readObject());
+        SignedData signedData = SignedData.getInstance(contentInfo.getContent());
+        SignerInfo signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+        byte[] signatureValue = signerInfo.getEncryptedDigest().getOctets();
+        TSTInfo tstInfo = TimestampTokens.getTSTInfo(token);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(signatureValue),
+                tstInfo.getMessageImprint().getHashedMessage());
+    }
+
+    protected byte[] getSignatureContents(Blob blob, String signatureName) throws IOException {
+        PdfReader reader = new PdfReader(blob.getStream());
+        try {
+            return reader.getAcroFields().getSignatureDictionary(signatureName).getAsString(PdfName.CONTENTS)
+                         .getOriginalBytes();
+        } finally {
+            reader.close();
+        }
+    }
+
     protected List<String> getSignatureNames(Blob blob) throws IOException {
         PdfReader reader = new PdfReader(blob.getStream());
         try {
@@ -209,6 +438,78 @@ public class SignatureServiceTest {
         }
     }
 
+    @Test
+    public void testWarmUp() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        SignatureWarmup.Result result = ssi.warmUp(3, 60000);
+        assertEquals(3, result.getIterations());
+        assertTrue(result.getDuration() >= result.getFirstSignature());
+        assertEquals(result, ssi.getWarmupResult());
+        // at least one cycle, whatever the time allowed
+        assertEquals(1, ssi.warmUp(10, 0).getIterations());
+    }
+
+    @Test
+    public void testSealPDF() throws Exception {
+        SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
+        SealDescriptor descriptor = new SealDescriptor();
+        descriptor.setId("test-seal");
+        descriptor.setKeystoreFilePath("test-config/keystore.jks");
+        descriptor.setKeystorePassword("abc");
+        descriptor.setKeyAlias("pdfcakey");
+        descriptor.setCertificateAlias("pdfcacert");
+        descriptor.setKeyPassword("abc");
+        descriptor.setReason("sealed");
+        descriptor.setPoolSize(2);
+        ssi.registerContribution(descriptor, "seal", null);
+        try {
+            Seal seal = ssi.getSeal(null);
+            assertEquals("test-seal", seal.getId());
+            assertEquals(2, seal.getPoolSize());
+
+            Blob sealedBlob = signatureService.sealPDF(Blobs.createBlob(origPdfFile), "test-seal", null);
+            assertEquals(2, seal.getIdleSigners());
+            assertEquals(SIGNED_OTHER, ssi.getSigningStatus(sealedBlob, user));
+            // the signers are reused
+            Blob sealedBlob2 = signatureService.sealPDF(Blobs.createBlob(origPdfFile), "test-seal", null);
+            Blob sealedBlob3 = signatureService.sealPDF(Blobs.createBlob(origPdfFile), "test-seal", null);
+            assertEquals(3, seal.getSignTimer().getCount());
+            for (Blob blob : Arrays.asList(sealedBlob, sealedBlob2, sealedBlob3)) {
+                PdfReader reader = new PdfReader(blob.getStream());
+                try {
+                    PdfPKCS7 pkcs7 = reader.getAcroFields().verifySignature("Signature1");
+                    assertTrue(pkcs7.verify());
+                    assertEquals("sealed", pkcs7.getReason());
+                    assertEquals(seal.getCertificate(), pkcs7.getSigningCertificate());
+                } finally {
+                    reader.close();
+                }
+            }
+
+            try {
+                signatureService.sealPDF(sealedBlob, "test-seal", null);
+                fail("Should raise AlreadySignedException");
+            } catch (AlreadySignedException e) {
+                // ok
+            }
+            assertEquals(2, seal.getIdleSigners());
+
+            // a user signs after the seal
+            Blob signedBlob = signatureService.signPDF(sealedBlob, user, USER_KEY_PASSWORD, "test reason");
+            assertEquals(SIGNED_CURRENT, ssi.getSigningStatus(signedBlob, user));
+            assertEquals(2, getSignatureNames(signedBlob).size());
+
+            try {
+                signatureService.sealPDF(Blobs.createBlob(origPdfFile), "no-such-seal", null);
+                fail("Should raise SignException");
+            } catch (SignException e) {
+                // ok
+            }
+        } finally {
+            ssi.unregisterContribution(descriptor, "seal", null);
+        }
+    }
+
     @Test
     public void testGetCertificates() throws Exception {
         SignatureServiceImpl ssi = (SignatureServiceImpl) signatureService;
@@ -0,0 +1,202 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.tsa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.asn1.tsp.TSTInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.platform.signature.api.exception.SignException;
+import org.nuxeo.ecm.platform.signature.api.sign.TimestampClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpTimestampClientTest {
+
+    private static final int LATENCY = 500;
+
+    private static final int PARALLEL_REQUESTS = 8;
+
+    protected LocalTimestampAuthority tsa;
+
+    protected HttpServer server;
+
+    protected ExecutorService serverExecutor;
+
+    protected URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        tsa = new LocalTimestampAuthority();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/tsa", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    request.write(buffer, 0, n);
+                }
+                byte[] response;
+                try {
+                    response = tsa.getResponse(request.toByteArray());
+                } catch (SignException e) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/timestamp-reply");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/tsa");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testGetTimeStampToken() throws Exception {
+        HttpTimestampClient client = new HttpTimestampClient(url, null, 1000, 5000, 4);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("content".getBytes());
+        byte[] token = client.getTimeStampToken(digest, "SHA256");
+        TSTInfo tstInfo = TimestampTokens.getTSTInfo(token);
+        assertArrayEquals(digest, tstInfo.getMessageImprint().getHashedMessage());
+        assertEquals(LocalTimestampAuthority.DEFAULT_POLICY, tstInfo.getPolicy().getId());
+
+        // the stand-in only knows its own policy
+        client = new HttpTimestampClient(url, "1.2.3.4.2", 1000, 5000, 4);
+        try {
+            client.getTimeStampToken(digest, "SHA256");
+            fail("Should be rejected");
+        } catch (SignException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("rejected"));
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        tsa.setLatency(LATENCY);
+        final HttpTimestampClient client = new HttpTimestampClient(url, null, 1000, 5000, PARALLEL_REQUESTS);
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_REQUESTS);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < PARALLEL_REQUESTS; i++) {
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(new byte[] { (byte) i });
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return client.getTimeStampToken(digest, "SHA256");
+                    }
+                }));
+            }
+            for (Future<byte[]> future : futures) {
+                future.get();
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            // requests are not serialized behind the TSA round-trip
+            assertTrue("Took " + elapsed + "ms", elapsed < PARALLEL_REQUESTS * LATENCY / 2);
+            assertEquals(PARALLEL_REQUESTS, tsa.getIssuedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        HttpTimestampClient client = new HttpTimestampClient(url, null, 1000, 5000, 4);
+        GuardedTimestampClient guarded = new GuardedTimestampClient(client, new CircuitBreaker(2, 60000),
+                TimestampFailurePolicy.UNSTAMPED);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("content".getBytes());
+
+        tsa.setAvailable(false);
+        assertNull(guarded.getTimeStampToken(digest, "SHA256"));
+        assertEquals(CircuitBreaker.State.CLOSED, guarded.getState());
+        assertNull(guarded.getTimeStampToken(digest, "SHA256"));
+        assertEquals(CircuitBreaker.State.OPEN, guarded.getState());
+
+        // the TSA is not called while the circuit is open
+        tsa.setAvailable(true);
+        assertNull(guarded.getTimeStampToken(digest, "SHA256"));
+        assertEquals(0, tsa.getIssuedCount());
+    }
+
+    @Test
+    public void testCircuitBreakerHalfOpen() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        // a single trial request
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testCircuitBreakerTrialRuntimeException() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        TimestampClient failing = new TimestampClient() {
+            @Override
+            public byte[] getTimeStampToken(byte[] digest, String digestAlgorithm) {
+                throw new IllegalArgumentException("malformed response");
+            }
+        };
+        GuardedTimestampClient guarded = new GuardedTimestampClient(failing, circuitBreaker,
+                TimestampFailurePolicy.UNSTAMPED);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("content".getBytes());
+        circuitBreaker.recordFailure();
+        assertNull(guarded.getTimeStampToken(digest, "SHA256"));
+        // the failed trial reopened the circuit, a new trial is allowed once it is half-open again
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+}
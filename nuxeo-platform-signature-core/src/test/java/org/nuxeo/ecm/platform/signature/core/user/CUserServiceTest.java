@@ -18,24 +18,81 @@
 
 package org.nuxeo.ecm.platform.signature.core.user;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.inject.Inject;
+import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.jce.PKCS10CertificationRequest;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.Base64;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.RootService;
 import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.api.user.PublicCertificateInfo;
+import org.nuxeo.ecm.platform.signature.core.pki.BouncyCastle;
+import org.nuxeo.ecm.platform.signature.core.pki.RootServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateCacheDescriptor;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateInvalidationBus;
+import org.nuxeo.ecm.platform.signature.core.user.cache.CertificateMembershipFilter;
+import org.nuxeo.ecm.platform.signature.core.user.cache.LocalCertificateInvalidationBus;
+import org.nuxeo.ecm.platform.signature.core.user.cache.PublicCertificateCache;
+import org.nuxeo.ecm.platform.signature.core.user.store.MemoryKeyMaterialStore;
 import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 @RunWith(FeaturesRunner.class)
 @Features(CoreFeature.class)
@@ -69,6 +126,16 @@ public class CUserServiceTest {
         user = userManager.createUser(userModel);
     }
 
+    /**
+     * Commits the changes made so far, which publishes their invalidations to the other nodes.
+     */
+    protected static void nextTransaction() {
+        if (TransactionHelper.isTransactionActive()) {
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+        }
+    }
+
     public void testCreateCert() throws Exception {
         DocumentModel certificate = cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
         assertTrue(certificate.getPropertyValue("cert:userid").equals(USER_ID));
@@ -88,4 +155,537 @@ public class CUserServiceTest {
         assertTrue(retrievedCertificate.getPropertyValue("cert:userid").equals(USER_ID));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testKeyFormats() throws Exception {
+        DocumentModel certificate = cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        assertEquals(CUserServiceImpl.KEY_FORMAT_PKCS8, certificate.getPropertyValue("cert:keyformat"));
+        assertNull(certificate.getPropertyValue("cert:keystore"));
+        checkKeyEntry(USER_ID);
+        try {
+            cUserService.getUserKeyEntry(USER_ID, "wrong");
+            fail("Should not decrypt");
+        } catch (CertException e) {
+            // expected
+        }
+        // still readable as a keystore
+        KeyStore keystore = cUserService.getUserKeystore(USER_ID, USER_KEYSTORE_PASSWORD);
+        assertEquals(2, keystore.size());
+
+        // entries created before 7.3 are JKS keystores
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_JKS);
+        try {
+            DocumentModel userModel = userManager.getBareUserModel();
+            userModel.setProperty("user", "username", "msimpson");
+            userModel.setProperty("user", "firstName", "Marge");
+            userModel.setProperty("user", "lastName", "Simpson");
+            userModel.setProperty("user", "email", "marge@simpson.com");
+            DocumentModel jksUser = userManager.createUser(userModel);
+            certificate = cUserService.createCertificate(jksUser, USER_KEYSTORE_PASSWORD);
+            assertNotNull(certificate.getPropertyValue("cert:keystore"));
+            checkKeyEntry("msimpson");
+        } finally {
+            impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_PKCS8);
+        }
+    }
+
+    @Test
+    public void testSigningSession() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        SigningSessionCache sessions = new SigningSessionCache(10, 60000, 3);
+        impl.setSigningSessionCache(sessions);
+        try {
+            cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+            KeyStore.PrivateKeyEntry keyEntry = cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            assertEquals(1, sessions.size());
+            assertEquals(0, sessions.getHits());
+            KeyStore.PrivateKeyEntry cached = cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            assertEquals(1, sessions.getHits());
+            assertArrayEquals(keyEntry.getPrivateKey().getEncoded(), cached.getPrivateKey().getEncoded());
+
+            // the session is not opened by another password
+            try {
+                cUserService.getUserKeyEntry(USER_ID, "wrong");
+                fail("Should not decrypt");
+            } catch (CertException e) {
+                // expected
+            }
+            assertEquals(1, sessions.getHits());
+
+            // the session ends after maxUses signatures
+            cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            assertEquals(3, sessions.getHits());
+            assertEquals(0, sessions.size());
+
+            cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            assertEquals(1, sessions.size());
+            cUserService.deleteCertificate(USER_ID);
+            assertEquals(0, sessions.size());
+        } finally {
+            impl.setSigningSessionCache(null);
+        }
+    }
+
+    @Test
+    public void testPublicCertificateInfo() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        PublicCertificateCache cache = impl.getCertificateCache();
+        // the local bus does not reach other nodes, entries do not last long
+        assertEquals(CertificateCacheDescriptor.LOCAL_BUS_TTL, impl.getCertificateCacheDescriptor().getTtl());
+        assertNull(cUserService.getPublicCertificateInfo(USER_ID));
+        assertFalse(cUserService.hasCertificate(USER_ID));
+        // the absence is cached too
+        assertNotNull(cache.get(USER_ID));
+
+        // another node caching the same user
+        LocalCertificateInvalidationBus otherBus = new LocalCertificateInvalidationBus();
+        PublicCertificateCache otherNode = new PublicCertificateCache(otherBus, 10, 60000);
+        try {
+            otherNode.put(USER_ID, null, otherNode.getVersion());
+
+            DocumentModel certificate = cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+            // this node reads its own change at once, the others once committed
+            assertTrue(cUserService.hasCertificate(USER_ID));
+            if (TransactionHelper.isTransactionActive()) {
+                assertNotNull(otherNode.get(USER_ID));
+            }
+            nextTransaction();
+            assertNull(otherNode.get(USER_ID));
+            assertTrue(cUserService.hasCertificate(USER_ID));
+            PublicCertificateInfo info = cUserService.getPublicCertificateInfo(USER_ID);
+            assertEquals(USER_ID, info.getUserID());
+            assertTrue(info.getSubjectDN().contains("Simpson"));
+            assertEquals(certificate.getPropertyValue("cert:serialnumber"), info.getSerialNumber().toString());
+            assertEquals(64, info.getFingerprint().length());
+            assertTrue(info.isValid(new Date()));
+            assertSame(info, cache.get(USER_ID).getInfo());
+
+            otherNode.put(USER_ID, info, otherNode.getVersion());
+            cUserService.deleteCertificate(USER_ID);
+            nextTransaction();
+            assertNull(otherNode.get(USER_ID));
+            assertFalse(cUserService.hasCertificate(USER_ID));
+        } finally {
+            otherBus.close();
+        }
+    }
+
+    @Test
+    public void testMembershipFilter() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        // disabled by default with the local bus
+        assertNull(impl.getMembershipFilter());
+        CertificateCacheDescriptor desc = new CertificateCacheDescriptor();
+        desc.setMembershipFilterEnabled(true);
+        impl.setCertificateCacheDescriptor(desc);
+        try {
+            CertificateMembershipFilter filter = impl.getMembershipFilter();
+            cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+            impl.rebuildMembershipFilter();
+            assertTrue(filter.isReady());
+            assertTrue(filter.mightHaveCertificate(USER_ID));
+            assertTrue(cUserService.hasCertificate(USER_ID));
+            assertFalse(filter.mightHaveCertificate("nobody"));
+            assertFalse(cUserService.hasCertificate("nobody"));
+
+            // a certificate created on another node
+            LocalCertificateInvalidationBus otherBus = new LocalCertificateInvalidationBus();
+            try {
+                otherBus.publish("bart");
+                assertTrue(filter.mightHaveCertificate("bart"));
+            } finally {
+                otherBus.close();
+            }
+
+            // deleted users stay in the filter and are checked against the store
+            cUserService.deleteCertificate(USER_ID);
+            assertFalse(cUserService.hasCertificate(USER_ID));
+        } finally {
+            impl.setCertificateCacheDescriptor(new CertificateCacheDescriptor());
+        }
+    }
+
+    @Test
+    public void testMembershipFilterOnOtherNode() throws Exception {
+        // another node sharing the directory, whose bus does not reach this one
+        CertificateCacheDescriptor desc = new CertificateCacheDescriptor();
+        desc.setEnabled(false);
+        desc.setBusClass(NodeInvalidationBus.class);
+        desc.setMembershipFilterTtl(1);
+        CUserServiceImpl otherNode = new CUserServiceImpl();
+        otherNode.setCertificateCacheDescriptor(desc);
+        // a node with the default local bus
+        CUserServiceImpl localNode = new CUserServiceImpl();
+        try {
+            assertNull(localNode.getMembershipFilter());
+            otherNode.rebuildMembershipFilter();
+            assertTrue(otherNode.getMembershipFilter().isReady());
+            assertFalse(otherNode.hasCertificate(USER_ID));
+
+            cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+            nextTransaction();
+            assertTrue(localNode.hasCertificate(USER_ID));
+            // the invalidation is missed, until the filter expires
+            assertFalse(otherNode.getMembershipFilter().mightHaveCertificate(USER_ID));
+            Thread.sleep(1100);
+            assertTrue(otherNode.getMembershipFilter().isExpired());
+            assertTrue(otherNode.hasCertificate(USER_ID));
+            assertNotNull(otherNode.getPublicCertificateInfo(USER_ID));
+        } finally {
+            otherNode.setCertificateCacheDescriptor(new CertificateCacheDescriptor());
+            otherNode.setKeyMaterialStore(null);
+            localNode.setCertificateCacheDescriptor(new CertificateCacheDescriptor());
+            localNode.setKeyMaterialStore(null);
+        }
+    }
+
+    /**
+     * Invalidation bus of a single node, reaching none of the others.
+     */
+    public static class NodeInvalidationBus implements CertificateInvalidationBus {
+
+        protected final Set<InvalidationListener> listeners = new CopyOnWriteArraySet<InvalidationListener>();
+
+        @Override
+        public void subscribe(InvalidationListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void publish(String userID) {
+            for (InvalidationListener listener : listeners) {
+                listener.invalidated(userID);
+            }
+        }
+
+        @Override
+        public void publishAll() {
+            for (InvalidationListener listener : listeners) {
+                listener.invalidatedAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            listeners.clear();
+        }
+    }
+
+    @Test
+    public void testMembershipFilterFalsePositives() throws Exception {
+        MemoryKeyMaterialStore store = new MemoryKeyMaterialStore();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Object> fields = new HashMap<String, Object>();
+            fields.put("userid", "user" + i);
+            store.createEntry(fields);
+        }
+        CertificateMembershipFilter filter = new CertificateMembershipFilter(1000, 0.01);
+        filter.rebuild(store);
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightHaveCertificate("user" + i));
+            if (filter.mightHaveCertificate("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 50);
+
+        // users added again, e.g. on reissue, do not fill the filter
+        int count = filter.getCount();
+        filter.add("user0");
+        filter.add("user999");
+        assertEquals(count, filter.getCount());
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    public void testReverseLookup() throws Exception {
+        DocumentModel certificate = cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        assertEquals("simps@on.com", certificate.getPropertyValue("cert:email"));
+        assertNotNull(certificate.getPropertyValue("cert:enddate"));
+        PublicCertificateInfo info = cUserService.getPublicCertificateInfo(USER_ID);
+        assertEquals(info.getFingerprint(), certificate.getPropertyValue("cert:fingerprint"));
+
+        KeyStore.PrivateKeyEntry keyEntry = cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+        X509Certificate x509Certificate = (X509Certificate) keyEntry.getCertificate();
+        assertEquals(USER_ID, cUserService.findPublicCertificateInfo(x509Certificate).getUserID());
+        assertEquals(USER_ID, cUserService.findPublicCertificateInfo(x509Certificate.getSerialNumber()).getUserID());
+        List<PublicCertificateInfo> infos = cUserService.findPublicCertificateInfosByEmail("Simps@On.com");
+        assertEquals(1, infos.size());
+        assertEquals(info.getFingerprint(), infos.get(0).getFingerprint());
+        assertTrue(cUserService.findPublicCertificateInfosByEmail("bart@simpsons.com").isEmpty());
+
+        cUserService.deleteCertificate(USER_ID);
+        assertNull(cUserService.findPublicCertificateInfo(x509Certificate));
+    }
+
+    @Test
+    public void testBatchLookups() throws Exception {
+        cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        List<String> userIDs = Arrays.asList("nobody", USER_ID, "bart");
+        Map<String, DocumentModel> certificates = cUserService.getCertificates(userIDs);
+        assertEquals(Collections.singleton(USER_ID), certificates.keySet());
+        assertEquals(USER_ID, certificates.get(USER_ID).getPropertyValue("cert:userid"));
+
+        Map<String, PublicCertificateInfo> infos = cUserService.getPublicCertificateInfos(userIDs);
+        assertEquals(Collections.singleton(USER_ID), infos.keySet());
+        assertEquals(cUserService.getPublicCertificateInfo(USER_ID).getFingerprint(),
+                infos.get(USER_ID).getFingerprint());
+        // cached
+        assertSame(infos.get(USER_ID), cUserService.getPublicCertificateInfos(userIDs).get(USER_ID));
+        assertTrue(cUserService.getCertificates(Collections.<String> emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testArchive() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        String fingerprint = cUserService.getPublicCertificateInfo(USER_ID).getFingerprint();
+        CertificateArchive archive = impl.newCertificateArchive();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, archive.export(out));
+        byte[] bytes = out.toByteArray();
+
+        StringWriter pem = new StringWriter();
+        assertEquals(1, archive.exportPublicCertificates(pem));
+        assertTrue(pem.toString().contains("-----BEGIN CERTIFICATE-----"));
+
+        // restoring over the existing entry
+        CertificateArchive.RestoreResult result = impl.restoreCertificates(new ByteArrayInputStream(bytes), false);
+        assertEquals(1, result.getSkipped());
+
+        impl.getKeyMaterialStore().deleteEntry(USER_ID);
+        result = impl.restoreCertificates(new ByteArrayInputStream(bytes), false);
+        assertEquals(1, result.getCreated());
+        assertEquals(fingerprint, cUserService.getPublicCertificateInfo(USER_ID).getFingerprint());
+        checkKeyEntry(USER_ID);
+
+        // a corrupted record is not written
+        impl.getKeyMaterialStore().deleteEntry(USER_ID);
+        bytes[bytes.length / 2] ^= 1;
+        try {
+            impl.restoreCertificates(new ByteArrayInputStream(bytes), false);
+            fail("Should detect corruption");
+        } catch (CertException e) {
+            // expected
+        }
+        assertFalse(cUserService.hasCertificate(USER_ID));
+        // truncated
+        try {
+            impl.restoreCertificates(new ByteArrayInputStream(bytes, 0, 8), false);
+            fail("Should detect truncation");
+        } catch (CertException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCertificateRequest() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        KeyPair keyPair = keyGen.genKeyPair();
+        X500Principal subject = cUserService.getUserInfo(user).getX500Principal();
+        // another email
+        byte[] csr = createRequest(keyPair, subject, "bart@simpsons.com");
+        try {
+            cUserService.createCertificateFromRequest(user, csr);
+            fail("Should check the email");
+        } catch (CertException e) {
+            // expected
+        }
+        // another subject
+        csr = createRequest(keyPair, new X500Principal("CN=Bart Simpson"), "simps@on.com");
+        try {
+            cUserService.createCertificateFromRequest(user, csr);
+            fail("Should check the subject");
+        } catch (CertException e) {
+            // expected
+        }
+        assertFalse(cUserService.hasCertificate(USER_ID));
+
+        csr = createRequest(keyPair, subject, "simps@on.com");
+        String pem = "-----BEGIN CERTIFICATE REQUEST-----\n" + Base64.encodeBytes(csr)
+                + "\n-----END CERTIFICATE REQUEST-----\n";
+        X509Certificate certificate = cUserService.createCertificateFromRequest(user, pem.getBytes("US-ASCII"));
+        assertEquals(keyPair.getPublic(), certificate.getPublicKey());
+        assertEquals(subject, certificate.getSubjectX500Principal());
+        assertEquals(certificate.getNotAfter(), cUserService.getPublicCertificateInfo(USER_ID).getNotAfter());
+        assertEquals(USER_ID, cUserService.findPublicCertificateInfo(certificate).getUserID());
+        // the server has no key to sign with
+        try {
+            cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD);
+            fail("Should not have a key");
+        } catch (CertException e) {
+            // expected
+        }
+        try {
+            cUserService.createCertificateFromRequest(user, csr);
+            fail("Should already have a certificate");
+        } catch (CertException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRenewal() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        X509Certificate previous = (X509Certificate) cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD)
+                .getCertificate();
+        PublicCertificateInfo info = cUserService.getPublicCertificateInfo(USER_ID);
+        CertificateRenewal renewal = impl.getCertificateRenewal();
+        // nothing ends within a day
+        assertEquals(0, renewal.run(1, 10));
+
+        // a certificate lasts a year at most
+        assertEquals(1, renewal.run(400, 10));
+        X509Certificate certificate = (X509Certificate) cUserService.getUserKeyEntry(USER_ID,
+                USER_KEYSTORE_PASSWORD).getCertificate();
+        assertFalse(previous.getSerialNumber().equals(certificate.getSerialNumber()));
+        assertEquals(previous.getPublicKey(), certificate.getPublicKey());
+        assertEquals(previous.getSubjectX500Principal(), certificate.getSubjectX500Principal());
+        assertFalse(info.getFingerprint().equals(cUserService.getPublicCertificateInfo(USER_ID).getFingerprint()));
+        assertEquals(USER_ID, cUserService.findPublicCertificateInfo(certificate).getUserID());
+        checkKeyEntry(USER_ID);
+        // still within 400 days, not renewed again
+        assertEquals(0, renewal.run(400, 10));
+        assertEquals(1, renewal.getSkipped());
+    }
+
+    @Test
+    public void testRootRollover() throws Exception {
+        CUserServiceImpl impl = (CUserServiceImpl) cUserService;
+        cUserService.createCertificate(user, USER_KEYSTORE_PASSWORD);
+        X509Certificate previous = (X509Certificate) cUserService.getUserKeyEntry(USER_ID, USER_KEYSTORE_PASSWORD)
+                .getCertificate();
+        // a JKS keystore cannot be reissued without password
+        impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_JKS);
+        try {
+            DocumentModel userModel = userManager.getBareUserModel();
+            userModel.setProperty("user", "username", "msimpson");
+            userModel.setProperty("user", "firstName", "Marge");
+            userModel.setProperty("user", "lastName", "Simpson");
+            userModel.setProperty("user", "email", "marge@simpson.com");
+            cUserService.createCertificate(userManager.createUser(userModel), USER_KEYSTORE_PASSWORD);
+        } finally {
+            impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_PKCS8);
+        }
+
+        RootServiceImpl rootService = (RootServiceImpl) Framework.getLocalService(RootService.class);
+        KeyStore previousRoot = rootService.getRootKeyStore();
+        File checkpointFile = File.createTempFile("rollover", ".properties");
+        checkpointFile.delete();
+        try {
+            X509Certificate root = replaceRoot(rootService);
+            assertFalse(rootService.isCurrentIssuer(previous));
+            // still usable until reissued
+            assertNotNull(rootService.getEncodedIssuerChain(previous));
+
+            RootRollover rollover = impl.newRootRollover();
+            rollover.setCheckpointFile(checkpointFile);
+            assertTrue(impl.runRootRollover(rollover));
+            RootRollover.Report report = rollover.getReport();
+            assertTrue(report.toString(), report.isDone());
+            assertEquals(2, report.getScanned());
+            assertEquals(1, report.getReissued());
+            assertEquals(1, report.getFailed());
+            assertTrue(report.getFailures().get(0).startsWith("msimpson: "));
+            assertFalse(checkpointFile.exists());
+
+            X509Certificate certificate = (X509Certificate) cUserService.getUserKeyEntry(USER_ID,
+                    USER_KEYSTORE_PASSWORD).getCertificate();
+            certificate.verify(root.getPublicKey());
+            assertEquals(previous.getPublicKey(), certificate.getPublicKey());
+            assertTrue(rootService.isCurrentIssuer(certificate));
+            checkKeyEntry(USER_ID);
+
+            // resumes after the checkpoint
+            Properties checkpoint = new Properties();
+            checkpoint.setProperty("root", rootService.getRootSnapshot().getFingerprint());
+            checkpoint.setProperty("checkpoint", USER_ID);
+            checkpoint.setProperty("scanned", "1");
+            OutputStream out = new FileOutputStream(checkpointFile);
+            try {
+                checkpoint.store(out, null);
+            } finally {
+                out.close();
+            }
+            rollover = impl.newRootRollover();
+            rollover.setCheckpointFile(checkpointFile);
+            assertTrue(impl.runRootRollover(rollover));
+            report = rollover.getReport();
+            // msimpson only
+            assertEquals(2, report.getScanned());
+            assertEquals(0, report.getReissued());
+            assertEquals(1, report.getFailed());
+
+            rollover = impl.newRootRollover();
+            rollover.setCheckpointFile(checkpointFile);
+            assertTrue(impl.runRootRollover(rollover));
+            assertEquals(1, rollover.getReport().getCurrent());
+        } finally {
+            rootService.setRootKeyStore(previousRoot);
+            checkpointFile.delete();
+        }
+    }
+
+    /**
+     * Replaces the root key and certificate, keeping the configured aliases and passwords.
+     */
+    protected static X509Certificate replaceRoot(RootServiceImpl rootService) throws Exception {
+        BouncyCastle.register();
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        KeyPair keyPair = keyGen.genKeyPair();
+        X500Principal name = new X500Principal("CN=New Root");
+        X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+        certGen.setSerialNumber(BigInteger.valueOf(System.nanoTime()));
+        certGen.setIssuerDN(name);
+        certGen.setSubjectDN(name);
+        certGen.setNotBefore(new Date(System.currentTimeMillis() - 60000));
+        certGen.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+        certGen.setPublicKey(keyPair.getPublic());
+        certGen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+        certGen.addExtension(X509Extensions.SubjectKeyIdentifier, false, new SubjectKeyIdentifierStructure(
+                keyPair.getPublic()));
+        certGen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(0));
+        X509Certificate root = certGen.generate(keyPair.getPrivate(), BouncyCastle.PROVIDER);
+        KeyStore keystore = KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry(rootService.getRootKeyAlias(), keyPair.getPrivate(),
+                rootService.getRootKeyPassword().toCharArray(), new Certificate[] { root });
+        keystore.setCertificateEntry(rootService.getRootCertificateAlias(), root);
+        rootService.setRootKeyStore(keystore);
+        return root;
+    }
+
+    protected static byte[] createRequest(KeyPair keyPair, X500Principal subject, String email) throws Exception {
+        BouncyCastle.register();
+        GeneralNames subjectAltName = new GeneralNames(new GeneralName(GeneralName.rfc822Name, email));
+        Vector<DERObjectIdentifier> oids = new Vector<DERObjectIdentifier>();
+        Vector<X509Extension> values = new Vector<X509Extension>();
+        oids.add(X509Extensions.SubjectAlternativeName);
+        values.add(new X509Extension(false, new DEROctetString(subjectAltName)));
+        Attribute attribute = new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(
+                new X509Extensions(oids, values)));
+        return new PKCS10CertificationRequest("SHA256withRSA", subject, keyPair.getPublic(), new DERSet(attribute),
+                keyPair.getPrivate(), BouncyCastle.PROVIDER).getEncoded();
+    }
+
+    protected void checkKeyEntry(String userID) throws Exception {
+        KeyStore.PrivateKeyEntry keyEntry = cUserService.getUserKeyEntry(userID, USER_KEYSTORE_PASSWORD);
+        X509Certificate certificate = (X509Certificate) keyEntry.getCertificate();
+        assertTrue(certificate.getSubjectDN().toString().contains("Simpson"));
+        // the key matches the certificate
+        String algorithm = "RSA".equals(keyEntry.getPrivateKey().getAlgorithm()) ? "SHA256withRSA" : "SHA256withECDSA";
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(keyEntry.getPrivateKey());
+        signature.update("content".getBytes());
+        byte[] signed = signature.sign();
+        signature.initVerify(certificate);
+        signature.update("content".getBytes());
+        assertTrue(signature.verify(signed));
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.store.MemoryKeyMaterialStore;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, user = "Administrator")
+@Deploy({ "org.nuxeo.ecm.core", "org.nuxeo.ecm.core.api", "org.nuxeo.runtime.management",
+        "org.nuxeo.ecm.directory.api", "org.nuxeo.ecm.directory", "org.nuxeo.ecm.directory.sql",
+        "org.nuxeo.ecm.platform.usermanager", "org.nuxeo.ecm.platform.usermanager.api",
+        "org.nuxeo.ecm.platform.signature.core", "org.nuxeo.ecm.platform.signature.core.test" })
+public class KeyMigrationTest {
+
+    private static final String USER_KEY_PASSWORD = "abc";
+
+    private static final String[] USER_IDS = { "bart", "lisa", "maggie", "homer", "marge" };
+
+    @Inject
+    protected CUserService cUserService;
+
+    @Inject
+    protected UserManager userManager;
+
+    protected CUserServiceImpl impl;
+
+    protected MemoryKeyMaterialStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        impl = (CUserServiceImpl) cUserService;
+        store = new MemoryKeyMaterialStore();
+        store.initialize(Collections.<String, String> emptyMap());
+        impl.setKeyMaterialStore(store);
+        // entries as stored before 7.3
+        impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_JKS);
+        for (String userID : USER_IDS) {
+            DocumentModel userModel = userManager.getBareUserModel();
+            userModel.setProperty("user", "username", userID);
+            userModel.setProperty("user", "firstName", userID);
+            userModel.setProperty("user", "lastName", "Simpson");
+            userModel.setProperty("user", "email", userID + "@simpson.com");
+            cUserService.createCertificate(userManager.createUser(userModel), USER_KEY_PASSWORD);
+        }
+        impl.setKeyFormat(CUserServiceImpl.KEY_FORMAT_PKCS8);
+        // an entry that cannot be converted
+        DocumentModel entry = store.getEntry("homer");
+        entry.setPropertyValue("cert:keypassword", "wrong");
+        store.updateEntry(entry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        impl.setKeyMaterialStore(null);
+        for (String userID : USER_IDS) {
+            userManager.deleteUser(userID);
+        }
+    }
+
+    @Test
+    public void testDryRun() throws Exception {
+        KeyMigration migration = newMigration();
+        migration.setDryRun(true);
+        assertTrue(impl.runKeyMigration(migration));
+        KeyMigration.Progress progress = migration.getProgress();
+        assertTrue(progress.isDone());
+        assertEquals(USER_IDS.length, progress.getScanned());
+        assertEquals(USER_IDS.length - 1, progress.getConverted());
+        assertEquals(1, progress.getFailed());
+        for (String userID : USER_IDS) {
+            assertNull(store.getEntry(userID).getPropertyValue("cert:keyformat"));
+        }
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        KeyMigration migration = newMigration();
+        assertTrue(impl.runKeyMigration(migration));
+        KeyMigration.Progress progress = migration.getProgress();
+        assertEquals(USER_IDS.length, progress.getScanned());
+        assertEquals(USER_IDS.length - 1, progress.getConverted());
+        assertEquals(1, progress.getFailed());
+        for (String userID : USER_IDS) {
+            DocumentModel entry = store.getEntry(userID);
+            if ("homer".equals(userID)) {
+                assertNotNull(entry.getPropertyValue("cert:keystore"));
+                continue;
+            }
+            assertEquals(CUserServiceImpl.KEY_FORMAT_PKCS8, entry.getPropertyValue("cert:keyformat"));
+            assertNull(entry.getPropertyValue("cert:keystore"));
+            assertNotNull(cUserService.getUserKeyEntry(userID, USER_KEY_PASSWORD));
+        }
+
+        // resumes with the entries left
+        migration = newMigration();
+        assertTrue(impl.runKeyMigration(migration));
+        assertEquals(1, migration.getProgress().getScanned());
+        assertEquals(0, migration.getProgress().getConverted());
+    }
+
+    protected KeyMigration newMigration() throws Exception {
+        KeyMigration migration = impl.newKeyMigration();
+        // several pages and batches
+        migration.setPageSize(2);
+        migration.setBatchSize(1);
+        migration.setThreads(2);
+        return migration;
+    }
+
+}
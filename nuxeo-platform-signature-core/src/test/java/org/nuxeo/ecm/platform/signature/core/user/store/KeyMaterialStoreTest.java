@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.core.user.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.core.user.CUserServiceImpl;
+import org.nuxeo.ecm.platform.signature.core.user.store.DirectoryAccess.DirectoryCallback;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, user = "Administrator")
+@Deploy({ "org.nuxeo.ecm.core", "org.nuxeo.ecm.core.api", "org.nuxeo.runtime.management",
+        "org.nuxeo.ecm.directory.api", "org.nuxeo.ecm.directory", "org.nuxeo.ecm.directory.sql",
+        "org.nuxeo.ecm.platform.usermanager", "org.nuxeo.ecm.platform.usermanager.api",
+        "org.nuxeo.ecm.platform.signature.core", "org.nuxeo.ecm.platform.signature.core.test" })
+public class KeyMaterialStoreTest {
+
+    private static final String USER_KEY_PASSWORD = "abc";
+
+    private static final String USER_ID = "hsimpson";
+
+    @Inject
+    protected CUserService cUserService;
+
+    @Inject
+    protected UserManager userManager;
+
+    protected DocumentModel user;
+
+    protected File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        DocumentModel userModel = userManager.getBareUserModel();
+        userModel.setProperty("user", "username", USER_ID);
+        userModel.setProperty("user", "firstName", "Homer");
+        userModel.setProperty("user", "lastName", "Simpson");
+        userModel.setProperty("user", "email", "simps@on.com");
+        user = userManager.createUser(userModel);
+        directory = Files.createTempDirectory("signature-keys").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // back to the default directory store
+        ((CUserServiceImpl) cUserService).setKeyMaterialStore(null);
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testFileStore() throws Exception {
+        FileKeyMaterialStore store = new FileKeyMaterialStore();
+        store.initialize(Collections.singletonMap(FileKeyMaterialStore.PATH_PROPERTY, directory.getPath()));
+        checkStore(store);
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testFileStoreReopen() throws Exception {
+        FileKeyMaterialStore store = new FileKeyMaterialStore();
+        store.initialize(Collections.singletonMap(FileKeyMaterialStore.PATH_PROPERTY, directory.getPath()));
+        ((CUserServiceImpl) cUserService).setKeyMaterialStore(store);
+        cUserService.createCertificate(user, USER_KEY_PASSWORD);
+        assertTrue(new File(directory, USER_ID + ".key").isFile());
+
+        // entries survive the store
+        store = new FileKeyMaterialStore();
+        store.initialize(Collections.singletonMap(FileKeyMaterialStore.PATH_PROPERTY, directory.getPath()));
+        ((CUserServiceImpl) cUserService).setKeyMaterialStore(store);
+        assertNotNull(cUserService.getUserKeyEntry(USER_ID, USER_KEY_PASSWORD));
+    }
+
+    @Test
+    public void testMemoryStore() throws Exception {
+        MemoryKeyMaterialStore store = new MemoryKeyMaterialStore();
+        store.initialize(Collections.<String, String> emptyMap());
+        checkStore(store);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testDirectoryStore() throws Exception {
+        DirectoryKeyMaterialStore store = new DirectoryKeyMaterialStore();
+        store.initialize(Collections.<String, String> emptyMap());
+        checkStore(store);
+
+        // read by a single SQL query, outside of the directory session
+        cUserService.createCertificate(user, USER_KEY_PASSWORD);
+        DocumentModel entry = store.getEntries(Collections.singletonList(USER_ID)).get(USER_ID);
+        assertEquals(Boolean.TRUE, entry.getContextData(DirectoryKeyMaterialStore.DETACHED_ENTRY));
+    }
+
+    @Test
+    public void testDirectoryAccess() throws Exception {
+        final DirectoryAccess access = new DirectoryAccess(DirectoryKeyMaterialStore.DEFAULT_DIRECTORY_NAME, 1);
+        try {
+            // nested calls share the session
+            final Session[] sessions = new Session[2];
+            access.run(new DirectoryCallback<Void>() {
+                @Override
+                public Void run(Session session) throws ClientException {
+                    sessions[0] = session;
+                    return access.run(new DirectoryCallback<Void>() {
+                        @Override
+                        public Void run(Session inner) {
+                            sessions[1] = inner;
+                            return null;
+                        }
+                    });
+                }
+            });
+            assertSame(sessions[0], sessions[1]);
+
+            // sessions opened outside transactions are reused
+            TransactionHelper.commitOrRollbackTransaction();
+            try {
+                Session first = access.run(new SessionCallback());
+                assertSame(first, access.run(new SessionCallback()));
+
+                // but not after a failure
+                try {
+                    access.run(new DirectoryCallback<Void>() {
+                        @Override
+                        public Void run(Session session) throws ClientException {
+                            throw new ClientException("broken");
+                        }
+                    });
+                    fail("Should have failed");
+                } catch (ClientException e) {
+                    // expected
+                }
+                assertNotSame(first, access.run(new SessionCallback()));
+            } finally {
+                TransactionHelper.startTransaction();
+            }
+        } finally {
+            access.close();
+        }
+    }
+
+    protected static class SessionCallback implements DirectoryCallback<Session> {
+        @Override
+        public Session run(Session session) {
+            return session;
+        }
+    }
+
+    protected void checkStore(KeyMaterialStore store) throws Exception {
+        ((CUserServiceImpl) cUserService).setKeyMaterialStore(store);
+        assertFalse(cUserService.hasCertificate(USER_ID));
+        DocumentModel certificate = cUserService.createCertificate(user, USER_KEY_PASSWORD);
+        assertEquals(USER_ID, certificate.getPropertyValue("cert:userid"));
+        assertTrue(cUserService.hasCertificate(USER_ID));
+        try {
+            cUserService.createCertificate(user, USER_KEY_PASSWORD);
+            fail("Should already have a certificate");
+        } catch (CertException e) {
+            // expected
+        }
+
+        KeyStore.PrivateKeyEntry keyEntry = cUserService.getUserKeyEntry(USER_ID, USER_KEY_PASSWORD);
+        assertNotNull(keyEntry.getPrivateKey());
+        assertEquals(certificate.getPropertyValue("cert:serialnumber"),
+                ((X509Certificate) keyEntry.getCertificate()).getSerialNumber().toString());
+
+        Map<String, DocumentModel> entries = store.getEntries(Arrays.asList("unknown", USER_ID));
+        assertEquals(Collections.singleton(USER_ID), entries.keySet());
+        assertEquals(certificate.getPropertyValue("cert:serialnumber"),
+                entries.get(USER_ID).getPropertyValue("cert:serialnumber"));
+        // entries read at once can be updated
+        DocumentModel batchEntry = entries.get(USER_ID);
+        batchEntry.setPropertyValue("cert:certificate", "batch");
+        store.updateEntries(Collections.singletonList(batchEntry));
+        assertEquals("batch", cUserService.getCertificate(USER_ID).getPropertyValue("cert:certificate"));
+        assertNotNull(cUserService.getUserKeyEntry(USER_ID, USER_KEY_PASSWORD));
+
+        DocumentModel entry = store.getEntry(USER_ID);
+        entry.setPropertyValue("cert:certificate", "updated");
+        store.updateEntry(entry);
+        assertEquals("updated", cUserService.getCertificate(USER_ID).getPropertyValue("cert:certificate"));
+        // the key data is untouched by the update
+        assertNotNull(cUserService.getUserKeyEntry(USER_ID, USER_KEY_PASSWORD));
+
+        cUserService.deleteCertificate(USER_ID);
+        assertFalse(cUserService.hasCertificate(USER_ID));
+        assertNull(cUserService.getCertificate(USER_ID));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.nuxeo.ecm.platform.signature.web.ocsp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.utils.Base64;
+import org.nuxeo.ecm.platform.signature.api.exception.CertException;
+import org.nuxeo.ecm.platform.signature.api.pki.OCSPService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * HTTP binding of the OCSP responder (RFC 6960 appendix A): requests are either POSTed as
+ * {@code application/ocsp-request} or base64-encoded in the path of a GET.
+ *
+ * @since 7.3
+ */
+public class OCSPServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(OCSPServlet.class);
+
+    protected static final String OCSP_REQUEST_TYPE = "application/ocsp-request";
+
+    protected static final String OCSP_RESPONSE_TYPE = "application/ocsp-response";
+
+    /** OCSP requests are a few hundred bytes, reject anything much larger. */
+    protected static final int MAX_REQUEST_SIZE = 16 * 1024;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String path = req.getPathInfo();
+        if (path == null || path.length() <= 1 || path.length() > MAX_REQUEST_SIZE) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        byte[] request = Base64.decode(path.substring(1));
+        if (request == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        respond(request, resp);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (!OCSP_REQUEST_TYPE.equals(req.getContentType())) {
+            resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        InputStream in = req.getInputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            request.write(buffer, 0, n);
+            if (request.size() > MAX_REQUEST_SIZE) {
+                resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+        }
+        respond(request.toByteArray(), resp);
+    }
+
+    protected void respond(byte[] request, HttpServletResponse resp) throws IOException {
+        byte[] response;
+        try {
+            response = Framework.getService(OCSPService.class).getResponse(request);
+        } catch (CertException e) {
+            log.error("Cannot answer OCSP request", e);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        resp.setContentType(OCSP_RESPONSE_TYPE);
+        resp.setContentLength(response.length);
+        resp.getOutputStream().write(response);
+    }
+
+}
@@ -0,0 +1,6 @@
+/**
+  HTTP endpoint of the OCSP responder
+
+  @since 7.3
+ */
+package org.nuxeo.ecm.platform.signature.web.ocsp;
@@ -19,10 +19,16 @@ package org.nuxeo.ecm.platform.signature.web.sign;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
 
 import javax.faces.application.FacesMessage;
+import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
 import javax.faces.validator.ValidatorException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
@@ -41,6 +47,7 @@ import org.nuxeo.ecm.directory.PasswordHelper;
 import org.nuxeo.ecm.platform.signature.api.exception.CertException;
 import org.nuxeo.ecm.platform.signature.api.pki.CertService;
 import org.nuxeo.ecm.platform.signature.api.user.CUserService;
+import org.nuxeo.ecm.platform.signature.api.user.PublicCertificateInfo;
 import org.nuxeo.ecm.platform.ui.web.api.NavigationContext;
 import org.nuxeo.ecm.platform.ui.web.api.WebActions;
 import org.nuxeo.ecm.platform.usermanager.UserManager;
@@ -105,6 +112,9 @@ public class CertActions implements Serializable {
 
     private static final String LOCAL_CA_CERTIFICATE_FILE_NAME = "LOCAL_CA_.crt";
 
+    /** In seconds, short enough for a replaced root to reach clients within the hour. */
+    private static final int ROOT_CERTIFICATE_MAX_AGE = 3600;
+
     /**
      * Retrieves a user certificate and returns a certificate's document model object
      * 
@@ -149,6 +159,17 @@ public class CertActions implements Serializable {
         return hasCertificate(getCurrentUserModel());
     }
 
+    /**
+     * Returns the public certificate data of several users, for listings of signers or users, in a constant number of
+     * directory calls.
+     *
+     * @since 7.3
+     */
+    public Map<String, PublicCertificateInfo> getPublicCertificateInfos(Collection<String> userIDs)
+            throws ClientException {
+        return cUserService.getPublicCertificateInfos(userIDs);
+    }
+
     /**
      * Indicates whether a user has the right to generate a certificate.
      * 
@@ -295,14 +316,25 @@ public class CertActions implements Serializable {
     public void downloadRootCertificate() throws CertException {
         try {
             byte[] rootCertificateData = cUserService.getRootCertificateData();
-            HttpServletResponse response = (HttpServletResponse) FacesContext.getCurrentInstance().getExternalContext().getResponse();
-            response.setContentType("application/octet-stream");
-            response.addHeader("Content-Disposition", "attachment;filename=" + LOCAL_CA_CERTIFICATE_FILE_NAME);
-            response.setContentLength(rootCertificateData.length);
-            OutputStream writer = response.getOutputStream();
-            writer.write(rootCertificateData);
-            writer.flush();
-            writer.close();
+            ExternalContext externalContext = FacesContext.getCurrentInstance().getExternalContext();
+            HttpServletRequest request = (HttpServletRequest) externalContext.getRequest();
+            HttpServletResponse response = (HttpServletResponse) externalContext.getResponse();
+            // the root changes rarely, let clients and proxies revalidate instead of downloading it again
+            String etag = getETag(rootCertificateData);
+            response.setHeader("ETag", etag);
+            response.setHeader("Cache-Control", "public, max-age=" + ROOT_CERTIFICATE_MAX_AGE);
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            } else {
+                response.setContentType("application/octet-stream");
+                response.addHeader("Content-Disposition", "attachment;filename=" + LOCAL_CA_CERTIFICATE_FILE_NAME);
+                response.setContentLength(rootCertificateData.length);
+                OutputStream writer = response.getOutputStream();
+                writer.write(rootCertificateData);
+                writer.flush();
+                writer.close();
+            }
             FacesContext.getCurrentInstance().responseComplete();
         } catch (ClientException e) {
             throw new CertException(e);
@@ -311,6 +343,22 @@ public class CertActions implements Serializable {
         }
     }
 
+    /**
+     * Strong entity tag of the root certificate, derived from its content so that all nodes agree on it.
+     */
+    protected static String getETag(byte[] data) throws CertException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertException(e);
+        }
+    }
+
     public String goToCertificateManagement() {
         lastVisitedDocument = navigationContext.getCurrentDocument();
         webActions.setCurrentTabIds(HOME_TAB);